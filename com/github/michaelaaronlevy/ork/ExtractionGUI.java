@@ -280,9 +280,14 @@ public class ExtractionGUI
                   {
                      targetOut = new File(targetOut.getParentFile(), targetOut.getName() + extension);
                   }
-                  if(targetOut.exists())
+                  final boolean adding = modes.get(mode) instanceof ModeIndex && ((ModeIndex) modes.get(mode)).append;
+                  // an index can exist without the file itself (for example,
+                  // after its first segment was merged into another one)
+                  final boolean exists = modes.get(mode) instanceof ModeIndex
+                        ? ((ModeIndex) modes.get(mode)).exists(targetOut) : targetOut.exists();
+                  if(exists && !adding)
                   {
-                     if(!targetOut.canWrite())
+                     if(targetOut.exists() && !targetOut.canWrite())
                      {
                         JOptionPane.showMessageDialog(ork.frame, "Cannot write to: " + targetOut.getName(),
                               "File Access Error", JOptionPane.ERROR_MESSAGE);
@@ -96,6 +96,27 @@ public class GridIterMemenPage
       return m;
    }
    
+   /**
+    * 
+    * @return the next page in the .grid file, as a
+    *         {@link MemenPageColumns MemenPageColumns} object (no MemenText
+    *         objects are created). Do not mix calls to this method with calls
+    *         to next() unless you keep track of which pages were returned by
+    *         which method.
+    * @throws IOException
+    */
+   public MemenPageColumns nextColumns() throws IOException
+   {
+      if(projectPageCounter == max)
+      {
+         return null;
+      }
+      projectPageCounter++;
+      final MemenPageColumns m = new MemenPageColumns(in);
+      fileNumber = m.fileNumber;
+      return m;
+   }
+   
    public int pagesLeft()
    {
       return max - projectPageCounter;
@@ -139,6 +160,29 @@ public class GridIterMemenPage
       return pagesPerPdf[fileNumber];
    }
    
+   /**
+    * 
+    * @return the number of pages in each PDF file in this project.
+    */
+   public int[] getPagesPerPdf()
+   {
+      return pagesPerPdf.clone();
+   }
+   
+   /**
+    * 
+    * @return the names of all of the PDF files in this project.
+    */
+   public String[] getFileNames()
+   {
+      return fileNames.clone();
+   }
+   
+   public void close() throws IOException
+   {
+      in.close();
+   }
+   
    /**
     * 
     * @return the project page number for the most recently-returned MemenPage.
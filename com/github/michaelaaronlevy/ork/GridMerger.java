@@ -0,0 +1,198 @@
+package com.github.michaelaaronlevy.ork;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * combine several .grid files (for example, shards of one project that were
+ * extracted on different machines or on different days) into a single .grid
+ * file.
+ * 
+ * <p>
+ * A .grid file cannot simply be appended to another .grid file (the way
+ * {@link com.github.michaelaaronlevy.ork.util.FilesCombiner FilesCombiner}
+ * appends files) because each one starts with a header listing its PDFs, and
+ * because every page record has a file number, a project page number and a row
+ * id that are counted from the start of that .grid file. This class writes one
+ * header for all of the PDFs (in the order the .grid files are given) and
+ * renumbers the page headers. The words themselves are never decoded; the body
+ * of each page is copied from the input file to the output file with
+ * FileChannel.transferTo.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class GridMerger
+{
+   /**
+    * command line use: the first argument is the output file, every argument
+    * after that is an input .grid file.
+    */
+   public static void main(final String[] args) throws IOException
+   {
+      if(args.length < 3)
+      {
+         System.err.println("usage: GridMerger output.grid input1.grid input2.grid ...");
+         return;
+      }
+      final File[] inputs = new File[args.length - 1];
+      for(int i = 1; i < args.length; i++)
+      {
+         inputs[i - 1] = new File(args[i]);
+      }
+      merge(inputs, new File(args[0]), true);
+   }
+   
+   /**
+    * 
+    * @param inputs
+    *           the .grid files, in the order their PDFs should appear in the
+    *           combined project
+    * @param output
+    *           the new .grid file (it must not be one of the inputs)
+    * @param verbose
+    *           if true, progress is printed to System.err
+    * @throws IOException
+    */
+   public static void merge(final File[] inputs, final File output, final boolean verbose) throws IOException
+   {
+      for(final File f : inputs)
+      {
+         if(f.getCanonicalFile().equals(output.getCanonicalFile()))
+         {
+            throw new IOException("The output file cannot also be an input file: " + output.getAbsolutePath());
+         }
+      }
+      
+      final GridPageScanner[] scanners = new GridPageScanner[inputs.length];
+      FileChannel out = null;
+      try
+      {
+         int totalFiles = 0;
+         for(int i = 0; i < inputs.length; i++)
+         {
+            scanners[i] = new GridPageScanner(inputs[i]);
+            totalFiles += scanners[i].getPagesPerPdf().length;
+         }
+         
+         final int[] pagesPerPdf = new int[totalFiles];
+         final String[] fileNames = new String[totalFiles];
+         int index = 0;
+         for(final GridPageScanner scanner : scanners)
+         {
+            final int[] pages = scanner.getPagesPerPdf();
+            final String[] names = scanner.getFileNames();
+            if(pages.length != names.length)
+            {
+               throw new IOException("Corrupt .grid header: " + pages.length + " page counts for " + names.length
+                     + " files.");
+            }
+            System.arraycopy(pages, 0, pagesPerPdf, index, pages.length);
+            System.arraycopy(names, 0, fileNames, index, names.length);
+            index += pages.length;
+         }
+         
+         out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING);
+         final ByteArrayOutputStream header = new ByteArrayOutputStream();
+         Grid.writeIntArray(header, pagesPerPdf);
+         Grid.writeStringArray(header, fileNames);
+         writeFully(out, ByteBuffer.wrap(header.toByteArray()));
+         
+         final ByteBuffer pageHeader = ByteBuffer.allocate(GridPageScanner._PAGE_HEADER_BYTES);
+         int fileOffset = 0;
+         int pageOffset = 0;
+         int nextId = -1;
+         for(int i = 0; i < scanners.length; i++)
+         {
+            final GridPageScanner scanner = scanners[i];
+            final int files = scanner.getPagesPerPdf().length;
+            final FileChannel in = scanner.getChannel();
+            int idOffset = 0;
+            boolean first = true;
+            while(scanner.nextPage())
+            {
+               if(scanner.fileNumber < 1 || scanner.fileNumber > files)
+               {
+                  throw new IOException("Invalid file number " + scanner.fileNumber + " in "
+                        + inputs[i].getAbsolutePath());
+               }
+               if(first)
+               {
+                  // the first shard keeps its own row ids, the rest continue
+                  // counting from where the previous shard stopped
+                  idOffset = nextId == -1 ? 0 : nextId - scanner.firstId;
+                  first = false;
+               }
+               
+               pageHeader.clear();
+               pageHeader.putInt(scanner.fileNumber + fileOffset);
+               pageHeader.putInt(scanner.pdfPage);
+               pageHeader.putInt(scanner.projectPage + pageOffset);
+               pageHeader.putInt(scanner.firstId + idOffset);
+               pageHeader.putInt(scanner.wordCount);
+               pageHeader.flip();
+               writeFully(out, pageHeader);
+               
+               long position = scanner.bodyStart;
+               while(position < scanner.bodyEnd)
+               {
+                  final long moved = in.transferTo(position, scanner.bodyEnd - position, out);
+                  if(moved <= 0)
+                  {
+                     throw new IOException("Unable to copy page " + scanner.projectPage + " of "
+                           + inputs[i].getAbsolutePath());
+                  }
+                  position += moved;
+               }
+               nextId = scanner.firstId + idOffset + scanner.wordCount;
+            }
+            if(scanner.getPagesRead() != scanner.totalPages)
+            {
+               throw new IOException("Expected " + scanner.totalPages + " pages but found " + scanner.getPagesRead()
+                     + " in " + inputs[i].getAbsolutePath());
+            }
+            fileOffset += files;
+            pageOffset += scanner.totalPages;
+            if(verbose)
+            {
+               System.err.println("GridMerger::merge File complete " + inputs[i].getAbsolutePath() + " ("
+                     + scanner.totalPages + " pages)");
+            }
+         }
+         if(verbose)
+         {
+            System.err.println("GridMerger::merge Execution complete: " + totalFiles + " PDFs, " + pageOffset
+                  + " pages written to " + output.getAbsolutePath());
+         }
+      }
+      finally
+      {
+         for(final GridPageScanner scanner : scanners)
+         {
+            if(scanner != null)
+            {
+               scanner.close();
+            }
+         }
+         if(out != null)
+         {
+            out.close();
+         }
+      }
+   }
+   
+   private static void writeFully(final FileChannel out, final ByteBuffer b) throws IOException
+   {
+      while(b.hasRemaining())
+      {
+         out.write(b);
+      }
+   }
+}
@@ -0,0 +1,293 @@
+package com.github.michaelaaronlevy.ork;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * walks through the page records of a .grid file without decoding the text.
+ * For every page it reports the page header (file number, pdf page, project
+ * page, first row id, number of words), the byte offsets of the page within
+ * the file, and the bounding box of all of the text on the page.
+ * 
+ * <p>
+ * The strings are skipped over (only their length is read), so this is much
+ * faster than {@link GridIterMemenPage GridIterMemenPage} when the caller only
+ * needs to know where each page is, for example to copy pages from one file to
+ * another with FileChannel.transferTo, or to split a .grid file into ranges of
+ * pages that can be processed by separate threads.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class GridPageScanner implements Closeable
+{
+   public GridPageScanner(final File grid) throws IOException
+   {
+      channel = FileChannel.open(grid.toPath(), StandardOpenOption.READ);
+      size = channel.size();
+      buffer = ByteBuffer.allocate(_BUFFER_SIZE);
+      buffer.limit(0);
+      
+      pagesPerPdf = new int[readInt()];
+      for(int i = 0; i < pagesPerPdf.length; i++)
+      {
+         pagesPerPdf[i] = readInt();
+      }
+      fileNames = new String[readInt()];
+      for(int i = 0; i < fileNames.length; i++)
+      {
+         fileNames[i] = readString();
+      }
+      headerEnd = position();
+      
+      int m = 0;
+      for(final int i : pagesPerPdf)
+      {
+         m += i;
+      }
+      totalPages = m;
+   }
+   
+   /**
+    * read the next page record.
+    * 
+    * @return false if every page listed in the header has already been read.
+    * @throws IOException
+    *            if the file ends in the middle of a page
+    */
+   public boolean nextPage() throws IOException
+   {
+      if(pagesRead == totalPages)
+      {
+         return false;
+      }
+      pageStart = position();
+      fileNumber = readInt();
+      pdfPage = readInt();
+      projectPage = readInt();
+      firstId = readInt();
+      wordCount = readInt();
+      bodyStart = position();
+      
+      top = Integer.MAX_VALUE;
+      bottom = Integer.MIN_VALUE;
+      left = Integer.MAX_VALUE;
+      right = Integer.MIN_VALUE;
+      maxYStart = Integer.MIN_VALUE;
+      minYEnd = Integer.MAX_VALUE;
+      maxXStart = Integer.MIN_VALUE;
+      minXEnd = Integer.MAX_VALUE;
+      minHeight = Integer.MAX_VALUE;
+      maxHeight = Integer.MIN_VALUE;
+      for(int i = 0; i < wordCount; i++)
+      {
+         fill(_WORD_FIXED_BYTES);
+         final int yStart = buffer.getInt();
+         buffer.getInt(); // ySmooth
+         final int xStart = buffer.getInt();
+         final int xEnd = buffer.getInt();
+         final int height = buffer.getInt();
+         buffer.getInt(); // rotation
+         final int length = buffer.getShort();
+         skip(length);
+         
+         final int yEnd = yStart + height;
+         top = Math.min(top, yStart);
+         maxYStart = Math.max(maxYStart, yStart);
+         minYEnd = Math.min(minYEnd, yEnd);
+         bottom = Math.max(bottom, yEnd);
+         left = Math.min(left, xStart);
+         maxXStart = Math.max(maxXStart, xStart);
+         minXEnd = Math.min(minXEnd, xEnd);
+         right = Math.max(right, xEnd);
+         minHeight = Math.min(minHeight, height);
+         maxHeight = Math.max(maxHeight, height);
+      }
+      bodyEnd = position();
+      if(bodyEnd > size)
+      {
+         throw new IOException("Grid file ends in the middle of project page " + projectPage);
+      }
+      pagesRead++;
+      return true;
+   }
+   
+   /**
+    * move to the page record that starts at this offset (an offset previously
+    * reported in {@link #pageStart pageStart}). The next call to nextPage()
+    * will read that page.
+    * 
+    * @param offset
+    * @param pagesBefore
+    *           the number of pages in the file that come before this offset
+    */
+   public void seek(final long offset, final int pagesBefore)
+   {
+      bufferStart = offset;
+      buffer.clear();
+      buffer.limit(0);
+      pagesRead = pagesBefore;
+   }
+   
+   /**
+    * 
+    * @return the number of pages that have been read so far
+    */
+   public int getPagesRead()
+   {
+      return pagesRead;
+   }
+   
+   public int[] getPagesPerPdf()
+   {
+      return pagesPerPdf.clone();
+   }
+   
+   public String[] getFileNames()
+   {
+      return fileNames.clone();
+   }
+   
+   /**
+    * 
+    * @return the channel the grid file is read from. Positional reads and
+    *         transfers do not disturb the scanner.
+    */
+   public FileChannel getChannel()
+   {
+      return channel;
+   }
+   
+   public void close() throws IOException
+   {
+      channel.close();
+   }
+   
+   private long position()
+   {
+      return bufferStart + buffer.position();
+   }
+   
+   private int readInt() throws IOException
+   {
+      fill(4);
+      return buffer.getInt();
+   }
+   
+   private String readString() throws IOException
+   {
+      fill(2);
+      final int length = buffer.getShort();
+      fill(length);
+      final String r = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+      return r;
+   }
+   
+   private void skip(final int n)
+   {
+      if(n <= buffer.remaining())
+      {
+         buffer.position(buffer.position() + n);
+      }
+      else
+      {
+         bufferStart = position() + n;
+         buffer.clear();
+         buffer.limit(0);
+      }
+   }
+   
+   /**
+    * make sure at least n bytes are available in the buffer
+    */
+   private void fill(final int n) throws IOException
+   {
+      if(buffer.remaining() >= n)
+      {
+         return;
+      }
+      bufferStart = position();
+      buffer.compact();
+      while(buffer.position() < n)
+      {
+         final int read = channel.read(buffer, bufferStart + buffer.position());
+         if(read < 0)
+         {
+            throw new IOException("Unexpected end of grid file at byte " + (bufferStart + buffer.position()));
+         }
+      }
+      buffer.flip();
+   }
+   
+   public final long size;
+   public final long headerEnd;
+   public final int totalPages;
+   
+   /**
+    * the offset of the page record's header (the first byte of the page)
+    */
+   public long pageStart;
+   
+   /**
+    * the offset of the first word of the page (right after the page header)
+    */
+   public long bodyStart;
+   
+   /**
+    * the offset of the first byte after the page
+    */
+   public long bodyEnd;
+   
+   public int fileNumber;
+   public int pdfPage;
+   public int projectPage;
+   public int firstId;
+   public int wordCount;
+   
+   /**
+    * the bounding box of the text on the page (if wordCount is zero, top and
+    * left are Integer.MAX_VALUE and bottom and right are Integer.MIN_VALUE)
+    */
+   public int top;
+   public int bottom;
+   public int left;
+   public int right;
+   
+   /**
+    * the other ends of the ranges of values on the page (top is the smallest
+    * yStart, maxYStart is the largest; minYEnd is the smallest baseline, bottom
+    * is the largest; and so on)
+    */
+   public int maxYStart;
+   public int minYEnd;
+   public int maxXStart;
+   public int minXEnd;
+   public int minHeight;
+   public int maxHeight;
+   
+   private final FileChannel channel;
+   private final ByteBuffer buffer;
+   private long bufferStart = 0;
+   private int pagesRead = 0;
+   
+   private final int[] pagesPerPdf;
+   private final String[] fileNames;
+   
+   /**
+    * the number of bytes in a page header (file number, pdf page, project page,
+    * first id, number of words)
+    */
+   public static final int _PAGE_HEADER_BYTES = 20;
+   
+   /**
+    * six ints and the length of the string
+    */
+   private static final int _WORD_FIXED_BYTES = 26;
+   private static final int _BUFFER_SIZE = 1 << 16;
+}
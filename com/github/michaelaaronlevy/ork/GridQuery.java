@@ -0,0 +1,448 @@
+package com.github.michaelaaronlevy.ork;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.github.michaelaaronlevy.ork.util.CellWriter;
+import com.github.michaelaaronlevy.ork.util.CellWriterCsv;
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * runs a filter (any Predicate&lt;MemenText&gt;, usually a box and a test of
+ * the text) over every page of a .grid file and sends the words that pass to a
+ * {@link com.github.michaelaaronlevy.ork.util.CellWriter CellWriter}, with the
+ * same columns that {@link PageConsumerCellWriter PageConsumerCellWriter}
+ * uses.
+ * 
+ * <p>
+ * The first time a .grid file is queried, a summary file (.grix) is written
+ * next to it, with the offset of every page in the .grid file and the range of
+ * coordinates of the text on that page. The filter is compiled with
+ * {@link MemenFilter MemenFilter}, and pages whose text cannot pass the filter
+ * (for example, pages with no text in the box) are never read. The other pages
+ * are split into shards that are read and tested by separate threads. The
+ * output is in page order: each shard is written as soon as the shards before
+ * it have been, and only a few shards per thread are started ahead of the one
+ * being written.
+ * 
+ * <p>
+ * Command line: GridQuery project.grid output.csv top bottom left right
+ * [regex]. Use the coordinates from the .grid file (1000 units per point, so
+ * the top inch of a page is 0 to 72000).
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class GridQuery
+{
+   public static void main(final String[] args) throws IOException
+   {
+      if(args.length < 6)
+      {
+         System.err.println("usage: GridQuery project.grid output.csv top bottom left right [regex]");
+         return;
+      }
+      Predicate<MemenText> filter = new MemenText.IsEntirelyInBox(Integer.parseInt(args[2]),
+            Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+      if(args.length > 6)
+      {
+         final Pattern p = Pattern.compile(args[6]);
+         filter = new MemenText.Operation(filter, 2, new MemenText.TestText(s -> p.matcher(s).find()));
+      }
+      final GridQuery query = new GridQuery(new File(args[0]), true);
+      final long start = System.currentTimeMillis();
+      final int found = query.run(filter, new CellWriterCsv(new File(args[1])),
+            Runtime.getRuntime().availableProcessors());
+      System.err.println("GridQuery::main " + found + " words found in " + (System.currentTimeMillis() - start)
+            + " ms");
+   }
+   
+   /**
+    * read the summary for this .grid file (or create it, if it does not exist
+    * or if the .grid file has changed since it was written)
+    * 
+    * @param grid
+    * @param verbose
+    *           if true, progress is printed to System.err
+    * @throws IOException
+    */
+   public GridQuery(final File grid, final boolean verbose) throws IOException
+   {
+      this.grid = grid;
+      this.verbose = verbose;
+      final File summary = getSummaryFile(grid);
+      if(!(summary.exists() && readSummary(summary)))
+      {
+         writeSummary(summary);
+         if(!readSummary(summary))
+         {
+            throw new IOException("Unable to read " + summary.getAbsolutePath());
+         }
+      }
+   }
+   
+   /**
+    * @return the file the page summary is saved to (project.grix for
+    *         project.grid)
+    */
+   public static File getSummaryFile(final File grid)
+   {
+      final String name = grid.getName();
+      final String stem = name.toLowerCase().endsWith(".grid") ? name.substring(0, name.length() - 5) : name;
+      return new File(grid.getAbsoluteFile().getParentFile(), stem + ".grix");
+   }
+   
+   public int getPageCount()
+   {
+      return pageCount;
+   }
+   
+   public int[] getPagesPerPdf()
+   {
+      return pagesPerPdf.clone();
+   }
+   
+   public String[] getFileNames()
+   {
+      return fileNames.clone();
+   }
+   
+   /**
+    * write every word that passes the test to the CellWriter (which is closed
+    * when this method is done).
+    * 
+    * @param test
+    * @param out
+    * @param threads
+    *           the number of pages that are read and tested at the same time
+    * @return the number of words that passed the test
+    * @throws IOException
+    */
+   public int run(final Predicate<MemenText> test, final CellWriter out, final int threads) throws IOException
+   {
+      final MemenFilter filter = MemenFilter.compile(test);
+      for(final String name : fileNames)
+      {
+         out.writeText(name);
+         out.newRow();
+      }
+      out.newRow();
+      for(final String title : MemenText._HEADERS)
+      {
+         out.writeText(title);
+      }
+      out.newRow();
+      
+      final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+      final FileChannel channel = FileChannel.open(grid.toPath(), StandardOpenOption.READ);
+      int found = 0;
+      int pagesRead = 0;
+      try
+      {
+         // at most two shards per thread are waiting or done but not written,
+         // so the memory used does not grow with the number of pages
+         final ArrayDeque<Future<Shard>> shards = new ArrayDeque<Future<Shard>>();
+         final int window = 2 * Math.max(1, threads);
+         int first = 0;
+         while(first < pageCount || !shards.isEmpty())
+         {
+            while(first < pageCount && shards.size() < window)
+            {
+               final int from = first;
+               final int to = Math.min(pageCount, first + _PAGES_PER_SHARD);
+               shards.add(pool.submit(() -> runShard(filter, channel, from, to)));
+               first = to;
+            }
+            final Shard shard = shards.poll().get();
+            pagesRead += shard.pagesRead;
+            for(int i = 0; i < shard.texts.size(); i++)
+            {
+               for(int j = 0; j < _INT_COLUMNS; j++)
+               {
+                  out.writeInt(shard.values[i * _INT_COLUMNS + j]);
+               }
+               out.writeText(shard.texts.get(i));
+               out.newRow();
+            }
+            found += shard.texts.size();
+         }
+      }
+      catch(final InterruptedException iex)
+      {
+         throw new IOException("GridQuery interrupted", iex);
+      }
+      catch(final ExecutionException eex)
+      {
+         final Throwable cause = eex.getCause();
+         if(cause instanceof IOException)
+         {
+            throw (IOException) cause;
+         }
+         throw new RuntimeException(cause);
+      }
+      finally
+      {
+         pool.shutdownNow();
+         channel.close();
+         out.close();
+      }
+      if(verbose)
+      {
+         System.err.println("GridQuery::run " + filter + ": read " + pagesRead + " of " + pageCount + " pages, found "
+               + found + " words");
+      }
+      return found;
+   }
+   
+   private Shard runShard(final MemenFilter filter, final FileChannel channel, final int from, final int to)
+         throws IOException
+   {
+      final Shard shard = new Shard();
+      int[] selected = new int[0];
+      for(int p = from; p < to; p++)
+      {
+         final int[] s = summary[p];
+         if(!filter.mightMatch(s[_TOP], s[_MAX_Y_START], s[_MIN_Y_END], s[_BOTTOM], s[_LEFT], s[_MAX_X_START],
+               s[_MIN_X_END], s[_RIGHT], s[_MIN_HEIGHT], s[_MAX_HEIGHT]))
+         {
+            continue;
+         }
+         shard.pagesRead++;
+         final ByteBuffer b = ByteBuffer.allocate((int) (offsets[p + 1] - offsets[p]));
+         while(b.hasRemaining())
+         {
+            if(channel.read(b, offsets[p] + b.position()) < 0)
+            {
+               throw new IOException("Unexpected end of " + grid.getAbsolutePath());
+            }
+         }
+         final int projectPage = b.getInt(8);
+         final int firstId = b.getInt(12);
+         final MemenPageColumns page = new MemenPageColumns(new ByteArrayInputStream(b.array()));
+         if(selected.length < page.getNumberOfWords())
+         {
+            selected = new int[page.getNumberOfWords()];
+         }
+         final int n = filter.select(page, selected);
+         for(int j = 0; j < n; j++)
+         {
+            final int i = selected[j];
+            shard.add(firstId + i, page.fileNumber, page.pdfPage, projectPage, page.getYStart(i),
+                  page.getYSmooth(i), page.getXStart(i), page.getXEnd(i), page.getHeight(i), page.getRotation(i));
+            shard.texts.add(page.getText(i));
+         }
+      }
+      return shard;
+   }
+   
+   /**
+    * 
+    * @return false if the summary is out of date or was cut short
+    */
+   private boolean readSummary(final File file) throws IOException
+   {
+      // Grid's read methods do not notice the end of the file, so the stream
+      // does
+      final InputStream in = new BufferedInputStream(new FileInputStream(file))
+      {
+         public int read() throws IOException
+         {
+            final int b = super.read();
+            if(b < 0)
+            {
+               throw new EOFException("GridQuery::readSummary unexpected end of " + file.getAbsolutePath());
+            }
+            return b;
+         }
+         
+         public int read(final byte[] b, final int off, final int len) throws IOException
+         {
+            final int n = super.read(b, off, len);
+            if(n < len)
+            {
+               throw new EOFException("GridQuery::readSummary unexpected end of " + file.getAbsolutePath());
+            }
+            return n;
+         }
+      };
+      try
+      {
+         if(Grid.readLong(in) != grid.length() || Grid.readLong(in) != grid.lastModified())
+         {
+            return false;
+         }
+         pagesPerPdf = Grid.readIntArray(in);
+         fileNames = Grid.readStringArray(in);
+         pageCount = Grid.readInt(in);
+         offsets = new long[pageCount + 1];
+         summary = new int[pageCount][_SUMMARY_INTS];
+         for(int p = 0; p < pageCount; p++)
+         {
+            offsets[p] = Grid.readLong(in);
+            for(int j = 0; j < _SUMMARY_INTS; j++)
+            {
+               summary[p][j] = Grid.readInt(in);
+            }
+         }
+         offsets[pageCount] = Grid.readLong(in);
+         return true;
+      }
+      catch(final EOFException eofx)
+      {
+         return false; // cut short (for example, while it was being written), so it is written again
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+   
+   private void writeSummary(final File file) throws IOException
+   {
+      if(verbose)
+      {
+         System.err.println("GridQuery::writeSummary writing " + file.getAbsolutePath());
+      }
+      // written next to the old summary and then moved over it, so a summary
+      // that was not finished is never read
+      final File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+      final GridPageScanner scanner = new GridPageScanner(grid);
+      final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+      boolean done = false;
+      try
+      {
+         Grid.writeLong(out, grid.length());
+         Grid.writeLong(out, grid.lastModified());
+         Grid.writeIntArray(out, scanner.getPagesPerPdf());
+         Grid.writeStringArray(out, scanner.getFileNames());
+         Grid.writeInt(out, scanner.totalPages);
+         long end = scanner.headerEnd;
+         while(scanner.nextPage())
+         {
+            Grid.writeLong(out, scanner.pageStart);
+            Grid.writeInt(out, scanner.top);
+            Grid.writeInt(out, scanner.maxYStart);
+            Grid.writeInt(out, scanner.minYEnd);
+            Grid.writeInt(out, scanner.bottom);
+            Grid.writeInt(out, scanner.left);
+            Grid.writeInt(out, scanner.maxXStart);
+            Grid.writeInt(out, scanner.minXEnd);
+            Grid.writeInt(out, scanner.right);
+            Grid.writeInt(out, scanner.minHeight);
+            Grid.writeInt(out, scanner.maxHeight);
+            end = scanner.bodyEnd;
+         }
+         Grid.writeLong(out, end);
+         out.close();
+         try
+         {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+         }
+         catch(final AtomicMoveNotSupportedException amnse)
+         {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         }
+         done = true;
+      }
+      finally
+      {
+         out.close();
+         scanner.close();
+         if(!done)
+         {
+            temp.delete();
+         }
+      }
+   }
+   
+   private final File grid;
+   private final boolean verbose;
+   
+   private int[] pagesPerPdf;
+   private String[] fileNames;
+   private int pageCount;
+   
+   /**
+    * the offset of each page in the .grid file, plus the offset of the end of
+    * the last page
+    */
+   private long[] offsets;
+   private int[][] summary;
+   
+   private static final int _TOP = 0;
+   private static final int _MAX_Y_START = 1;
+   private static final int _MIN_Y_END = 2;
+   private static final int _BOTTOM = 3;
+   private static final int _LEFT = 4;
+   private static final int _MAX_X_START = 5;
+   private static final int _MIN_X_END = 6;
+   private static final int _RIGHT = 7;
+   private static final int _MIN_HEIGHT = 8;
+   private static final int _MAX_HEIGHT = 9;
+   private static final int _SUMMARY_INTS = 10;
+   
+   private static final int _PAGES_PER_SHARD = 256;
+   
+   /**
+    * every column in MemenText._HEADERS except the content
+    */
+   private static final int _INT_COLUMNS = 10;
+   
+   /**
+    * the words found in one range of pages
+    */
+   private static final class Shard
+   {
+      /**
+       * the columns of MemenText._HEADERS, in order, except the content
+       */
+      void add(final int id, final int fileNumber, final int pdfPage, final int projectPage, final int yStart,
+            final int ySmooth, final int xStart, final int xEnd, final int height, final int rotation)
+      {
+         if(size + _INT_COLUMNS > values.length)
+         {
+            final int[] bigger = new int[values.length * 2];
+            System.arraycopy(values, 0, bigger, 0, size);
+            values = bigger;
+         }
+         values[size++] = id;
+         values[size++] = fileNumber;
+         values[size++] = pdfPage;
+         values[size++] = projectPage;
+         values[size++] = yStart;
+         values[size++] = ySmooth;
+         values[size++] = xStart;
+         values[size++] = xEnd;
+         values[size++] = height;
+         values[size++] = rotation;
+      }
+      
+      int pagesRead = 0;
+      int[] values = new int[_INT_COLUMNS * 64];
+      int size = 0;
+      final ArrayList<String> texts = new ArrayList<String>();
+   }
+}
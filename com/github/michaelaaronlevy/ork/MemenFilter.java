@@ -0,0 +1,930 @@
+package com.github.michaelaaronlevy.ork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * compiles a tree of {@link MemenText.Operation MemenText.Operation} objects
+ * (and the other Predicate classes in {@link MemenText MemenText}) into a
+ * simpler filter that gives the same answers.
+ * 
+ * <p>
+ * The tree is normalized: nested "and" and "or" operations are flattened,
+ * "minus" becomes "and not", and all of the box, column, above, below and
+ * height tests that are "and"ed together are merged into one set of bounds
+ * (so the "and" of two boxes is their intersection). If the bounds cannot all
+ * be true at the same time, the whole filter is known to be false without
+ * looking at any words. The merged bounds are checked first, then other
+ * numeric tests, and tests of the text (TestText, or any Predicate this class
+ * does not recognize) are checked last. This assumes the tests have no side
+ * effects (none of the classes in MemenText do).
+ * 
+ * <p>
+ * A MemenFilter can be used anywhere a Predicate&lt;MemenText&gt; is used, and
+ * it can also be run against a {@link MemenPageColumns MemenPageColumns} page,
+ * in which case the merged bounds are checked in a tight loop over the
+ * coordinate arrays.
+ * 
+ * <p>
+ * The main method is a benchmark that compares a compiled filter to the
+ * original Operation tree.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class MemenFilter implements Predicate<MemenText>
+{
+   public static MemenFilter compile(final Predicate<MemenText> t)
+   {
+      if(t instanceof MemenFilter)
+      {
+         return (MemenFilter) t;
+      }
+      return new MemenFilter(normalize(t));
+   }
+   
+   private MemenFilter(final Node root)
+   {
+      this.root = root;
+      if(root instanceof Bounds)
+      {
+         bounds = (Bounds) root;
+         rest = new Node[0];
+      }
+      else if(root instanceof And && ((And) root).children.length > 0
+            && ((And) root).children[0] instanceof Bounds)
+      {
+         final Node[] children = ((And) root).children;
+         bounds = (Bounds) children[0];
+         rest = Arrays.copyOfRange(children, 1, children.length);
+      }
+      else
+      {
+         bounds = null;
+         rest = root instanceof And ? ((And) root).children : new Node[] { root };
+      }
+   }
+   
+   public boolean test(final MemenText w)
+   {
+      return root.test(w);
+   }
+   
+   public boolean test(final MemenPageColumns page, final int i)
+   {
+      return root.test(page, i);
+   }
+   
+   /**
+    * 
+    * @return true if the filter is false for every possible word
+    */
+   public boolean isAlwaysFalse()
+   {
+      return root == _FALSE;
+   }
+   
+   /**
+    * check the filter against the range of values on a page (for example, the
+    * values recorded by {@link GridPageScanner GridPageScanner}).
+    * 
+    * @return false if no word with values in these ranges could pass the
+    *         filter, so the page does not need to be read
+    */
+   public boolean mightMatch(final int minYStart, final int maxYStart, final int minYEnd, final int maxYEnd,
+         final int minXStart, final int maxXStart, final int minXEnd, final int maxXEnd, final int minHeight,
+         final int maxHeight)
+   {
+      if(root == _FALSE)
+      {
+         return false;
+      }
+      else if(bounds == null)
+      {
+         return true;
+      }
+      return maxYStart >= bounds.yStartMin && maxYEnd >= bounds.yEndMin && minYEnd <= bounds.yEndMax
+            && maxXStart >= bounds.xStartMin && minXEnd <= bounds.xEndMax && maxHeight >= bounds.heightMin
+            && minHeight <= bounds.heightMax;
+   }
+   
+   /**
+    * put the indexes of the words that pass the filter into out.
+    * 
+    * @param page
+    * @param out
+    *           must be at least as long as the number of words on the page
+    * @return the number of indexes put into out
+    */
+   public int select(final MemenPageColumns page, final int[] out)
+   {
+      if(root == _FALSE)
+      {
+         return 0;
+      }
+      final int n = page.getNumberOfWords();
+      int count = 0;
+      if(bounds == null)
+      {
+         for(int i = 0; i < n; i++)
+         {
+            out[count++] = i;
+         }
+      }
+      else
+      {
+         final int[] ys = page.yStart;
+         final int[] xs = page.xStart;
+         final int[] xe = page.xEnd;
+         final int[] h = page.height;
+         final long yStartMin = bounds.yStartMin;
+         final long yEndMin = bounds.yEndMin;
+         final long yEndMax = bounds.yEndMax;
+         final long xStartMin = bounds.xStartMin;
+         final long xEndMax = bounds.xEndMax;
+         final long heightMin = bounds.heightMin;
+         final long heightMax = bounds.heightMax;
+         for(int i = 0; i < n; i++)
+         {
+            final int yEnd = ys[i] + h[i];
+            if(ys[i] >= yStartMin && yEnd >= yEndMin && yEnd <= yEndMax && xs[i] >= xStartMin && xe[i] <= xEndMax
+                  && h[i] >= heightMin && h[i] <= heightMax)
+            {
+               out[count++] = i;
+            }
+         }
+      }
+      for(final Node node : rest)
+      {
+         int kept = 0;
+         for(int j = 0; j < count; j++)
+         {
+            if(node.test(page, out[j]))
+            {
+               out[kept++] = out[j];
+            }
+         }
+         count = kept;
+      }
+      return count;
+   }
+   
+   /**
+    * 
+    * @return the indexes of the words on the page that pass the filter
+    */
+   public int[] select(final MemenPageColumns page)
+   {
+      final int[] out = new int[page.getNumberOfWords()];
+      return Arrays.copyOf(out, select(page, out));
+   }
+   
+   /**
+    * a description of the normalized filter
+    */
+   public String toString()
+   {
+      return root.toString();
+   }
+   
+   private static Node normalize(final Predicate<MemenText> t)
+   {
+      if(t instanceof MemenText.IsEntirelyInBox)
+      {
+         final MemenText.IsEntirelyInBox b = (MemenText.IsEntirelyInBox) t;
+         final Bounds r = new Bounds();
+         r.yStartMin = b.top;
+         r.yEndMax = b.bottom;
+         r.xStartMin = b.left;
+         r.xEndMax = b.right;
+         return r;
+      }
+      else if(t instanceof MemenText.IsInColumn)
+      {
+         final MemenText.IsInColumn b = (MemenText.IsInColumn) t;
+         final Bounds r = new Bounds();
+         r.xStartMin = b.left;
+         r.xEndMax = b.right;
+         return r;
+      }
+      else if(t instanceof MemenText.IsAbove)
+      {
+         final Bounds r = new Bounds();
+         r.yEndMax = ((MemenText.IsAbove) t).y - 1L;
+         return r;
+      }
+      else if(t instanceof MemenText.IsBelow)
+      {
+         final Bounds r = new Bounds();
+         r.yEndMin = ((MemenText.IsBelow) t).y + 1L;
+         return r;
+      }
+      else if(t instanceof MemenText.Height)
+      {
+         final MemenText.Height b = (MemenText.Height) t;
+         final Bounds r = new Bounds();
+         r.heightMin = b.minHeight;
+         r.heightMax = b.maxHeight;
+         return r.isEmpty() ? _FALSE : r;
+      }
+      else if(t instanceof MemenText.IsEntirelyOutsideBox)
+      {
+         final MemenText.IsEntirelyOutsideBox b = (MemenText.IsEntirelyOutsideBox) t;
+         return new Outside(b.top, b.bottom, b.left, b.right);
+      }
+      else if(t instanceof MemenText.SameYSmooth)
+      {
+         return new SameRow(((MemenText.SameYSmooth) t).c);
+      }
+      else if(t instanceof MemenText.TestText)
+      {
+         return new Text(((MemenText.TestText) t).test);
+      }
+      else if(t instanceof MemenFilter)
+      {
+         return ((MemenFilter) t).root;
+      }
+      else if(t instanceof MemenText.Operation)
+      {
+         final MemenText.Operation o = (MemenText.Operation) t;
+         if(o.op == 2)
+         {
+            return and(normalize(o.one), normalize(o.two));
+         }
+         else if(o.op == 1)
+         {
+            return or(normalize(o.one), normalize(o.two));
+         }
+         else if(o.op == -1)
+         {
+            return and(normalize(o.one), not(normalize(o.two)));
+         }
+         else if(o.op == 0)
+         {
+            return xor(normalize(o.one), normalize(o.two));
+         }
+      }
+      // not recognized (or an Operation with an illegal op code, which will
+      // throw the same RuntimeException when it is tested)
+      return new Opaque(t);
+   }
+   
+   private static Node and(final Node one, final Node two)
+   {
+      final ArrayList<Node> list = new ArrayList<Node>();
+      Bounds merged = null;
+      for(final Node n : new Node[] { one, two })
+      {
+         final Node[] parts = n instanceof And ? ((And) n).children : new Node[] { n };
+         for(final Node p : parts)
+         {
+            if(p == _FALSE)
+            {
+               return _FALSE;
+            }
+            else if(p instanceof Bounds)
+            {
+               if(merged == null)
+               {
+                  merged = ((Bounds) p).copy();
+               }
+               else
+               {
+                  merged.intersect((Bounds) p);
+               }
+            }
+            else
+            {
+               list.add(p);
+            }
+         }
+      }
+      if(merged != null)
+      {
+         if(merged.isEmpty())
+         {
+            return _FALSE;
+         }
+         list.add(0, merged);
+      }
+      if(list.isEmpty())
+      {
+         return _TRUE;
+      }
+      else if(list.size() == 1)
+      {
+         return list.get(0);
+      }
+      list.sort(_BY_COST);
+      return new And(list.toArray(new Node[list.size()]));
+   }
+   
+   private static Node or(final Node one, final Node two)
+   {
+      final ArrayList<Node> list = new ArrayList<Node>();
+      for(final Node n : new Node[] { one, two })
+      {
+         final Node[] parts = n instanceof Or ? ((Or) n).children : new Node[] { n };
+         for(final Node p : parts)
+         {
+            if(p == _TRUE)
+            {
+               return _TRUE;
+            }
+            else if(p != _FALSE)
+            {
+               list.add(p);
+            }
+         }
+      }
+      if(list.isEmpty())
+      {
+         return _FALSE;
+      }
+      else if(list.size() == 1)
+      {
+         return list.get(0);
+      }
+      list.sort(_BY_COST);
+      return new Or(list.toArray(new Node[list.size()]));
+   }
+   
+   private static Node not(final Node a)
+   {
+      if(a == _TRUE)
+      {
+         return _FALSE;
+      }
+      else if(a == _FALSE)
+      {
+         return _TRUE;
+      }
+      else if(a instanceof Not)
+      {
+         return ((Not) a).child;
+      }
+      else if(a instanceof Bounds)
+      {
+         // "not above y" is "below y - 1", and so on
+         final Bounds negated = ((Bounds) a).negate();
+         if(negated != null)
+         {
+            return negated;
+         }
+      }
+      return new Not(a);
+   }
+   
+   private static Node xor(final Node one, final Node two)
+   {
+      if(one == _FALSE)
+      {
+         return two;
+      }
+      else if(two == _FALSE)
+      {
+         return one;
+      }
+      else if(one == _TRUE)
+      {
+         return not(two);
+      }
+      else if(two == _TRUE)
+      {
+         return not(one);
+      }
+      return new Xor(one, two);
+   }
+   
+   /**
+    * benchmark: compiled filter (on MemenPageColumns) against the Operation
+    * tree (on MemenPage) for random pages.
+    */
+   public static void main(final String[] args)
+   {
+      final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+      final Random random = new Random(1);
+      final MemenPage[] objects = new MemenPage[pages];
+      final MemenPageColumns[] columns = new MemenPageColumns[pages];
+      for(int p = 0; p < pages; p++)
+      {
+         final MemenText[] words = new MemenText[400];
+         for(int i = 0; i < words.length; i++)
+         {
+            final int y = random.nextInt(792000);
+            final int x = random.nextInt(600000);
+            final int h = random.nextBoolean() ? 9000 : 7000 + random.nextInt(6000);
+            words[i] = new MemenText(p + 1, y, y + h, x, x + random.nextInt(80000), h, 0,
+                  Integer.toString(random.nextInt(100000)), null);
+         }
+         objects[p] = new MemenPage(p + 1, 1, words);
+         columns[p] = new MemenPageColumns(objects[p]);
+      }
+      
+      // the kind of filter a sorcerer builds: a column of the page, nine point
+      // text, not in the header, and text that starts with a digit
+      final Predicate<MemenText> tree = new MemenText.Operation(
+            new MemenText.Operation(new MemenText.Operation(new MemenText.IsEntirelyInBox(40000, 750000, 20000, 320000),
+                  2, new MemenText.Height(9000, 9000)), -1, new MemenText.IsAbove(90000)),
+            2, new MemenText.Operation(new MemenText.TestText(s -> s.charAt(0) == '1'), 2,
+                  new MemenText.IsEntirelyInBox(0, 700000, 0, 600000)));
+      final MemenFilter filter = compile(tree);
+      System.err.println("MemenFilter::main " + filter);
+      
+      final int[] out = new int[400];
+      final ArrayList<MemenText> list = new ArrayList<MemenText>();
+      for(int round = 0; round < 5; round++)
+      {
+         long count1 = 0;
+         long t = System.nanoTime();
+         for(final MemenPage page : objects)
+         {
+            list.clear();
+            for(int i = 0; i < page.getNumberOfWords(); i++)
+            {
+               if(tree.test(page.getWord(i)))
+               {
+                  list.add(page.getWord(i));
+               }
+            }
+            count1 += list.size();
+         }
+         final long treeTime = System.nanoTime() - t;
+         
+         long count2 = 0;
+         t = System.nanoTime();
+         for(final MemenPageColumns page : columns)
+         {
+            count2 += filter.select(page, out);
+         }
+         final long filterTime = System.nanoTime() - t;
+         System.err.println("MemenFilter::main round " + round + ": Operation tree " + (treeTime / 1000000) + " ms ("
+               + count1 + " words), compiled filter " + (filterTime / 1000000) + " ms (" + count2 + " words)");
+      }
+   }
+   
+   private final Node root;
+   private final Bounds bounds;
+   private final Node[] rest;
+   
+   private static final Node _TRUE = new And(new Node[0]);
+   private static final Node _FALSE = new Or(new Node[0]);
+   
+   private static final Comparator<Node> _BY_COST = new Comparator<Node>()
+   {
+      public int compare(final Node one, final Node two)
+      {
+         return Integer.compare(one.cost(), two.cost());
+      }
+   };
+   
+   private static abstract class Node
+   {
+      abstract boolean test(MemenText w);
+      
+      abstract boolean test(MemenPageColumns page, int i);
+      
+      /**
+       * 0 for bounds, 1 for other numeric tests, 2 for text tests, 3 for
+       * anything else
+       */
+      abstract int cost();
+   }
+   
+   /**
+    * every MemenText test that can be written as a range of values for one
+    * field (the defaults mean "no limit")
+    */
+   private static final class Bounds extends Node
+   {
+      Bounds copy()
+      {
+         final Bounds r = new Bounds();
+         r.intersect(this);
+         return r;
+      }
+      
+      void intersect(final Bounds b)
+      {
+         yStartMin = Math.max(yStartMin, b.yStartMin);
+         yEndMin = Math.max(yEndMin, b.yEndMin);
+         yEndMax = Math.min(yEndMax, b.yEndMax);
+         xStartMin = Math.max(xStartMin, b.xStartMin);
+         xEndMax = Math.min(xEndMax, b.xEndMax);
+         heightMin = Math.max(heightMin, b.heightMin);
+         heightMax = Math.min(heightMax, b.heightMax);
+      }
+      
+      /**
+       * true if no word can be inside these bounds (yEnd is always yStart +
+       * height)
+       */
+      boolean isEmpty()
+      {
+         if(yEndMin > yEndMax || heightMin > heightMax)
+         {
+            return true;
+         }
+         return yStartMin != Long.MIN_VALUE && heightMin != Long.MIN_VALUE && yStartMin + heightMin > yEndMax;
+      }
+      
+      /**
+       * 
+       * @return if only one limit is set, the opposite bounds; otherwise null
+       */
+      Bounds negate()
+      {
+         final long[] limits = { yStartMin, yEndMin, yEndMax, xStartMin, xEndMax, heightMin, heightMax };
+         int set = -1;
+         for(int i = 0; i < limits.length; i++)
+         {
+            if(limits[i] != Long.MIN_VALUE && limits[i] != Long.MAX_VALUE)
+            {
+               if(set != -1)
+               {
+                  return null;
+               }
+               set = i;
+            }
+         }
+         final Bounds r = new Bounds();
+         // (yStart and xStart only have lower limits and xEnd only has an
+         // upper limit, so those cannot be negated)
+         switch(set)
+         {
+            case 1:
+               r.yEndMax = yEndMin - 1;
+               return r;
+            case 2:
+               r.yEndMin = yEndMax + 1;
+               return r;
+            case 5:
+               r.heightMax = heightMin - 1;
+               return r;
+            case 6:
+               r.heightMin = heightMax + 1;
+               return r;
+            default:
+               return null;
+         }
+      }
+      
+      boolean test(final MemenText w)
+      {
+         final int yEnd = w.yStart + w.height;
+         return w.yStart >= yStartMin && yEnd >= yEndMin && yEnd <= yEndMax && w.xStart >= xStartMin
+               && w.xEnd <= xEndMax && w.height >= heightMin && w.height <= heightMax;
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         final int yEnd = page.yStart[i] + page.height[i];
+         return page.yStart[i] >= yStartMin && yEnd >= yEndMin && yEnd <= yEndMax && page.xStart[i] >= xStartMin
+               && page.xEnd[i] <= xEndMax && page.height[i] >= heightMin && page.height[i] <= heightMax;
+      }
+      
+      int cost()
+      {
+         return 0;
+      }
+      
+      public String toString()
+      {
+         final StringBuilder sb = new StringBuilder("bounds(");
+         append(sb, "yStart>=", yStartMin, Long.MIN_VALUE);
+         append(sb, "yEnd>=", yEndMin, Long.MIN_VALUE);
+         append(sb, "yEnd<=", yEndMax, Long.MAX_VALUE);
+         append(sb, "xStart>=", xStartMin, Long.MIN_VALUE);
+         append(sb, "xEnd<=", xEndMax, Long.MAX_VALUE);
+         append(sb, "height>=", heightMin, Long.MIN_VALUE);
+         append(sb, "height<=", heightMax, Long.MAX_VALUE);
+         if(sb.charAt(sb.length() - 1) == ' ')
+         {
+            sb.setLength(sb.length() - 1);
+         }
+         return sb.append(")").toString();
+      }
+      
+      private static void append(final StringBuilder sb, final String name, final long value, final long none)
+      {
+         if(value != none)
+         {
+            sb.append(name).append(value).append(" ");
+         }
+      }
+      
+      long yStartMin = Long.MIN_VALUE;
+      long yEndMin = Long.MIN_VALUE;
+      long yEndMax = Long.MAX_VALUE;
+      long xStartMin = Long.MIN_VALUE;
+      long xEndMax = Long.MAX_VALUE;
+      long heightMin = Long.MIN_VALUE;
+      long heightMax = Long.MAX_VALUE;
+   }
+   
+   private static final class Outside extends Node
+   {
+      Outside(final int top, final int bottom, final int left, final int right)
+      {
+         this.top = top;
+         this.bottom = bottom;
+         this.left = left;
+         this.right = right;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         return w.isEntirelyOutsideBox(top, bottom, left, right);
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         return page.isEntirelyOutsideBox(i, top, bottom, left, right);
+      }
+      
+      int cost()
+      {
+         return 1;
+      }
+      
+      public String toString()
+      {
+         return "outside(" + top + "," + bottom + "," + left + "," + right + ")";
+      }
+      
+      private final int top;
+      private final int bottom;
+      private final int left;
+      private final int right;
+   }
+   
+   private static final class SameRow extends Node
+   {
+      SameRow(final Collection<MemenText> c)
+      {
+         this.c = c;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         return test(w.getYSmooth());
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         return test(page.ySmooth[i]);
+      }
+      
+      private boolean test(final int ySmooth)
+      {
+         for(final MemenText w : c)
+         {
+            if(w.getYSmooth() == ySmooth)
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+      
+      int cost()
+      {
+         return 1;
+      }
+      
+      public String toString()
+      {
+         return "sameYSmooth(" + c.size() + ")";
+      }
+      
+      private final Collection<MemenText> c;
+   }
+   
+   private static final class Text extends Node
+   {
+      Text(final Predicate<String> test)
+      {
+         this.test = test;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         return test.test(w.text);
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         return test.test(page.getText(i));
+      }
+      
+      int cost()
+      {
+         return 2;
+      }
+      
+      public String toString()
+      {
+         return "text";
+      }
+      
+      private final Predicate<String> test;
+   }
+   
+   private static final class Opaque extends Node
+   {
+      Opaque(final Predicate<MemenText> test)
+      {
+         this.test = test;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         return test.test(w);
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         return test.test(page.getMemenText(i));
+      }
+      
+      int cost()
+      {
+         return 3;
+      }
+      
+      public String toString()
+      {
+         return test.getClass().getSimpleName();
+      }
+      
+      private final Predicate<MemenText> test;
+   }
+   
+   private static final class And extends Node
+   {
+      And(final Node[] children)
+      {
+         this.children = children;
+         int c = 0;
+         for(final Node n : children)
+         {
+            c = Math.max(c, n.cost());
+         }
+         cost = c;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         for(final Node n : children)
+         {
+            if(!n.test(w))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         for(final Node n : children)
+         {
+            if(!n.test(page, i))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+      
+      int cost()
+      {
+         return cost;
+      }
+      
+      public String toString()
+      {
+         return children.length == 0 ? "true" : "and" + Arrays.toString(children);
+      }
+      
+      private final Node[] children;
+      private final int cost;
+   }
+   
+   private static final class Or extends Node
+   {
+      Or(final Node[] children)
+      {
+         this.children = children;
+         int c = 0;
+         for(final Node n : children)
+         {
+            c = Math.max(c, n.cost());
+         }
+         cost = c;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         for(final Node n : children)
+         {
+            if(n.test(w))
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         for(final Node n : children)
+         {
+            if(n.test(page, i))
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+      
+      int cost()
+      {
+         return cost;
+      }
+      
+      public String toString()
+      {
+         return children.length == 0 ? "false" : "or" + Arrays.toString(children);
+      }
+      
+      private final Node[] children;
+      private final int cost;
+   }
+   
+   private static final class Not extends Node
+   {
+      Not(final Node child)
+      {
+         this.child = child;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         return !child.test(w);
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         return !child.test(page, i);
+      }
+      
+      int cost()
+      {
+         return child.cost();
+      }
+      
+      public String toString()
+      {
+         return "not(" + child + ")";
+      }
+      
+      private final Node child;
+   }
+   
+   private static final class Xor extends Node
+   {
+      Xor(final Node one, final Node two)
+      {
+         this.one = one;
+         this.two = two;
+      }
+      
+      boolean test(final MemenText w)
+      {
+         return one.test(w) ^ two.test(w);
+      }
+      
+      boolean test(final MemenPageColumns page, final int i)
+      {
+         return one.test(page, i) ^ two.test(page, i);
+      }
+      
+      int cost()
+      {
+         return Math.max(one.cost(), two.cost());
+      }
+      
+      public String toString()
+      {
+         return "xor(" + one + "," + two + ")";
+      }
+      
+      private final Node one;
+      private final Node two;
+   }
+}
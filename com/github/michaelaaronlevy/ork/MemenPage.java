@@ -15,15 +15,20 @@ import com.github.michaelaaronlevy.ork.util.Grid;
  * MemenText} objects.
  * 
  * <p>
- * Each MemenPage object is immutable. To get the text, use the getWords method.
+ * Each MemenPage object is immutable (apart from a lazily-built index). To get the text, use the getWords method.
  * If you call the getWords method that takes a predicate as a parameter, only
  * {@link MemenText MemenText} objects for which the predicate is "true" will
  * be returned. This allows you to, for example, request all of the
  * {@link MemenText MemenText} words on a page that fit into a certain bounding
  * box, and ignore the rest.
  * 
+ * <p>
+ * For large projects that are kept in memory, see {@link MemenPageColumns
+ * MemenPageColumns}, which stores the same information in a few primitive
+ * arrays.
+ * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public final class MemenPage
 {
@@ -63,8 +68,29 @@ public final class MemenPage
       }
    }
    
+   /**
+    * add to c every word on the page that passes the test. Box, column, row
+    * and ySmooth tests (see {@link MemenPageIndex#select(Predicate, Collection)
+    * MemenPageIndex.select}) are answered with a {@link MemenPageIndex
+    * MemenPageIndex} once this page has been queried a few times; other tests
+    * are applied to every word.
+    */
    public void getWords(final Collection<MemenText> c, final Predicate<MemenText> t)
    {
+      MemenPageIndex i = index;
+      if(i == null && words.length >= _INDEX_MIN_WORDS && ++queries >= _INDEX_AFTER_QUERIES)
+      {
+         i = getIndex();
+      }
+      final int[] found = i == null ? null : i.select(t, c);
+      if(found != null)
+      {
+         for(final int j : found)
+         {
+            c.add(words[j]);
+         }
+         return;
+      }
       for(final MemenText w : words)
       {
          if(t.test(w))
@@ -74,11 +100,39 @@ public final class MemenPage
       }
    }
    
+   /**
+    * 
+    * @return the spatial index for this page (it is built the first time it
+    *         is needed)
+    */
+   public MemenPageIndex getIndex()
+   {
+      // MemenPageIndex only has final fields, so if two threads race to build
+      // it, each one gets a complete index
+      MemenPageIndex i = index;
+      if(i == null)
+      {
+         i = new MemenPageIndex(words);
+         index = i;
+      }
+      return i;
+   }
+   
    public MemenText[] getWordsArray()
    {
       return words.clone();
    }
    
+   /**
+    * 
+    * @return word number i (unlike getWordsArray(), this does not copy the
+    *         array)
+    */
+   public MemenText getWord(final int i)
+   {
+      return words[i];
+   }
+   
    public int getNumberOfWords()
    {
       return words.length;
@@ -87,4 +141,17 @@ public final class MemenPage
    public final int pdfPage;
    public final int fileNumber;
    private final MemenText[] words;
+   
+   private MemenPageIndex index = null;
+   private int queries = 0;
+   
+   /**
+    * pages with fewer words than this are always scanned
+    */
+   private static final int _INDEX_MIN_WORDS = 32;
+   
+   /**
+    * build the index on the third query (the first two are scanned)
+    */
+   private static final int _INDEX_AFTER_QUERIES = 3;
 }
@@ -0,0 +1,291 @@
+package com.github.michaelaaronlevy.ork;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * a compact, column-oriented alternative to {@link MemenPage MemenPage}. The
+ * location information for the words on a page is kept in parallel int arrays
+ * (one array per field) and the text of every word is kept in one char array,
+ * so a page takes a handful of objects no matter how many words it has.
+ * 
+ * <p>
+ * Word number i has the values yStart[i], ySmooth[i], and so on, and its text is
+ * the chars of the arena from textStart[i] (inclusive) to textStart[i+1]
+ * (exclusive). Use the index accessors or {@link #forEach(Visitor) forEach} to
+ * read the page without creating any objects, or use
+ * {@link #getMemenText(int) getMemenText} and {@link #toMemenPage()
+ * toMemenPage} to hand the page to code that expects MemenText objects.
+ * 
+ * <p>
+ * Like MemenPage, each MemenPageColumns object is immutable. (The TextPosition
+ * arrays that can be attached to MemenText objects are not kept.)
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class MemenPageColumns
+{
+   public MemenPageColumns(final MemenPage page)
+   {
+      this.pdfPage = page.pdfPage;
+      this.fileNumber = page.fileNumber;
+      final int n = page.getNumberOfWords();
+      yStart = new int[n];
+      ySmooth = new int[n];
+      xStart = new int[n];
+      xEnd = new int[n];
+      height = new int[n];
+      rotation = new int[n];
+      textStart = new int[n + 1];
+      
+      int chars = 0;
+      for(int i = 0; i < n; i++)
+      {
+         chars += page.getWord(i).text.length();
+      }
+      arena = new char[chars];
+      
+      int position = 0;
+      for(int i = 0; i < n; i++)
+      {
+         final MemenText w = page.getWord(i);
+         yStart[i] = w.yStart;
+         ySmooth[i] = w.getYSmooth();
+         xStart[i] = w.xStart;
+         xEnd[i] = w.xEnd;
+         height[i] = w.height;
+         rotation[i] = w.rotation;
+         textStart[i] = position;
+         w.text.getChars(0, w.text.length(), arena, position);
+         position += w.text.length();
+      }
+      textStart[n] = position;
+   }
+   
+   /**
+    * read one page from a .grid file (the same data that is read by
+    * {@link MemenPage#MemenPage(InputStream) the MemenPage constructor}).
+    * 
+    * @param is
+    * @throws IOException
+    */
+   public MemenPageColumns(final InputStream is) throws IOException
+   {
+      fileNumber = Grid.readInt(is);
+      pdfPage = Grid.readInt(is);
+      
+      Grid.readInt(is); // we don't need the project page
+      Grid.readInt(is); // we don't need the row ids
+      final int n = Grid.readInt(is);
+      yStart = new int[n];
+      ySmooth = new int[n];
+      xStart = new int[n];
+      xEnd = new int[n];
+      height = new int[n];
+      rotation = new int[n];
+      textStart = new int[n + 1];
+      
+      char[] chars = new char[n * 8 + 16];
+      int position = 0;
+      for(int i = 0; i < n; i++)
+      {
+         yStart[i] = Grid.readInt(is);
+         ySmooth[i] = Grid.readInt(is);
+         xStart[i] = Grid.readInt(is);
+         xEnd[i] = Grid.readInt(is);
+         height[i] = Grid.readInt(is);
+         rotation[i] = Grid.readInt(is);
+         final String text = Grid.readString(is);
+         if(position + text.length() > chars.length)
+         {
+            final char[] bigger = new char[Math.max(chars.length * 2, position + text.length())];
+            System.arraycopy(chars, 0, bigger, 0, position);
+            chars = bigger;
+         }
+         textStart[i] = position;
+         text.getChars(0, text.length(), chars, position);
+         position += text.length();
+      }
+      textStart[n] = position;
+      if(position == chars.length)
+      {
+         arena = chars;
+      }
+      else
+      {
+         arena = new char[position];
+         System.arraycopy(chars, 0, arena, 0, position);
+      }
+   }
+   
+   public int getNumberOfWords()
+   {
+      return yStart.length;
+   }
+   
+   public int getYStart(final int i)
+   {
+      return yStart[i];
+   }
+   
+   public int getYSmooth(final int i)
+   {
+      return ySmooth[i];
+   }
+   
+   /**
+    * 
+    * @return the baseline of the text of word i
+    */
+   public int getYEnd(final int i)
+   {
+      return yStart[i] + height[i];
+   }
+   
+   public int getXStart(final int i)
+   {
+      return xStart[i];
+   }
+   
+   public int getXEnd(final int i)
+   {
+      return xEnd[i];
+   }
+   
+   public int getHeight(final int i)
+   {
+      return height[i];
+   }
+   
+   public int getRotation(final int i)
+   {
+      return rotation[i];
+   }
+   
+   public int getTextLength(final int i)
+   {
+      return textStart[i + 1] - textStart[i];
+   }
+   
+   public char getTextChar(final int i, final int charIndex)
+   {
+      return arena[textStart[i] + charIndex];
+   }
+   
+   /**
+    * copy the text of word i into dst, starting at dst[offset].
+    * 
+    * @return the number of chars copied
+    */
+   public int getTextChars(final int i, final char[] dst, final int offset)
+   {
+      final int length = textStart[i + 1] - textStart[i];
+      System.arraycopy(arena, textStart[i], dst, offset, length);
+      return length;
+   }
+   
+   /**
+    * 
+    * @return a new String with the text of word i
+    */
+   public String getText(final int i)
+   {
+      return new String(arena, textStart[i], textStart[i + 1] - textStart[i]);
+   }
+   
+   /**
+    * 
+    * @return true if the text of word i is the same as s (without creating a
+    *         String)
+    */
+   public boolean textEquals(final int i, final CharSequence s)
+   {
+      final int start = textStart[i];
+      final int length = textStart[i + 1] - start;
+      if(length != s.length())
+      {
+         return false;
+      }
+      for(int j = 0; j < length; j++)
+      {
+         if(arena[start + j] != s.charAt(j))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   public boolean isEntirelyInBox(final int i, final int top, final int bottom, final int left, final int right)
+   {
+      return yStart[i] >= top && (yStart[i] + height[i]) <= bottom && xStart[i] >= left && xEnd[i] <= right;
+   }
+   
+   public boolean isEntirelyOutsideBox(final int i, final int top, final int bottom, final int left, final int right)
+   {
+      return (yStart[i] + height[i]) < top || yStart[i] > bottom || xEnd[i] < left || xStart[i] > right;
+   }
+   
+   /**
+    * call v.visit(this, i) for every word on the page, in order.
+    */
+   public void forEach(final Visitor v)
+   {
+      for(int i = 0; i < yStart.length; i++)
+      {
+         v.visit(this, i);
+      }
+   }
+   
+   /**
+    * 
+    * @return a new MemenText object with the values of word i
+    */
+   public MemenText getMemenText(final int i)
+   {
+      return new MemenText(pdfPage, yStart[i], ySmooth[i], xStart[i], xEnd[i], height[i], rotation[i], getText(i),
+            null);
+   }
+   
+   /**
+    * 
+    * @return a new MemenPage object with the same words as this object
+    */
+   public MemenPage toMemenPage()
+   {
+      final MemenText[] words = new MemenText[yStart.length];
+      for(int i = 0; i < words.length; i++)
+      {
+         words[i] = getMemenText(i);
+      }
+      return new MemenPage(pdfPage, fileNumber, words);
+   }
+   
+   public final int pdfPage;
+   public final int fileNumber;
+   
+   // package-private so that MemenFilter can loop over the arrays directly
+   final int[] yStart;
+   final int[] ySmooth;
+   final int[] xStart;
+   final int[] xEnd;
+   final int[] height;
+   final int[] rotation;
+   final int[] textStart;
+   final char[] arena;
+   
+   /**
+    * visits every word on a page without creating any MemenText objects. The
+    * visitor reads whatever values it needs with the index accessors.
+    * 
+    * @author michaelaaronlevy@gmail.com
+    * 
+    */
+   public interface Visitor
+   {
+      public void visit(MemenPageColumns page, int index);
+   }
+}
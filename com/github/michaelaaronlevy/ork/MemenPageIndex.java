@@ -0,0 +1,479 @@
+package com.github.michaelaaronlevy.ork;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Predicate;
+
+/**
+ * a spatial index for the words on one {@link MemenPage MemenPage}. The words
+ * are sorted four ways (by yStart, by baseline, by xStart, and by ySmooth), so
+ * box, column, row and ySmooth queries can find their answers with a binary
+ * search instead of testing every word on the page.
+ * 
+ * <p>
+ * Every query returns the indexes (for {@link MemenPage#getWord(int)
+ * MemenPage.getWord}) of the matching words, in the same order as the words
+ * are on the page. The results are exactly the same as the results of the
+ * equivalent Predicate classes in {@link MemenText MemenText}.
+ * 
+ * <p>
+ * MemenPage builds one of these automatically (see
+ * {@link MemenPage#getWords(Collection, Predicate) getWords}) once a page has
+ * been queried a few times. Each MemenPageIndex object is immutable.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class MemenPageIndex
+{
+   MemenPageIndex(final MemenText[] words)
+   {
+      this.words = words;
+      final int n = words.length;
+      final long[] yS = new long[n];
+      final long[] yE = new long[n];
+      final long[] xS = new long[n];
+      final long[] sm = new long[n];
+      int minH = Integer.MAX_VALUE;
+      int maxH = Integer.MIN_VALUE;
+      int minW = Integer.MAX_VALUE;
+      int maxW = Integer.MIN_VALUE;
+      for(int i = 0; i < n; i++)
+      {
+         final MemenText w = words[i];
+         yS[i] = pack(w.yStart, i);
+         yE[i] = pack(w.getYEnd(), i);
+         xS[i] = pack(w.xStart, i);
+         sm[i] = pack(w.getYSmooth(), i);
+         minH = Math.min(minH, w.height);
+         maxH = Math.max(maxH, w.height);
+         minW = Math.min(minW, w.xEnd - w.xStart);
+         maxW = Math.max(maxW, w.xEnd - w.xStart);
+      }
+      minHeight = minH;
+      maxHeight = maxH;
+      minWidth = minW;
+      maxWidth = maxW;
+      
+      yStartKeys = new int[n];
+      yStartOrder = new int[n];
+      unpack(yS, yStartKeys, yStartOrder);
+      yEndKeys = new int[n];
+      yEndOrder = new int[n];
+      unpack(yE, yEndKeys, yEndOrder);
+      xStartKeys = new int[n];
+      xStartOrder = new int[n];
+      unpack(xS, xStartKeys, xStartOrder);
+      ySmoothKeys = new int[n];
+      ySmoothOrder = new int[n];
+      unpack(sm, ySmoothKeys, ySmoothOrder);
+   }
+   
+   /**
+    * same results as {@link MemenText.IsEntirelyInBox MemenText.IsEntirelyInBox}
+    */
+   public int[] inBox(final int top, final int bottom, final int left, final int right)
+   {
+      if(words.length == 0)
+      {
+         return _NONE;
+      }
+      // every word that is in the box has top <= yStart <= bottom - minHeight
+      // and left <= xStart <= right - minWidth. Scan whichever band is smaller.
+      final int y0 = lowerBound(yStartKeys, top);
+      final int y1 = upperBound(yStartKeys, (long) bottom - minHeight);
+      final int x0 = lowerBound(xStartKeys, left);
+      final int x1 = upperBound(xStartKeys, (long) right - minWidth);
+      final int[] order = (y1 - y0) <= (x1 - x0) ? yStartOrder : xStartOrder;
+      final int from = order == yStartOrder ? y0 : x0;
+      final int to = order == yStartOrder ? y1 : x1;
+      
+      final int[] r = new int[Math.max(0, to - from)];
+      int count = 0;
+      for(int j = from; j < to; j++)
+      {
+         final int i = order[j];
+         if(words[i].isEntirelyInBox(top, bottom, left, right))
+         {
+            r[count++] = i;
+         }
+      }
+      return finish(r, count);
+   }
+   
+   /**
+    * the words that have at least some overlap with the box (the opposite of
+    * {@link MemenText.IsEntirelyOutsideBox MemenText.IsEntirelyOutsideBox})
+    */
+   public int[] intersecting(final int top, final int bottom, final int left, final int right)
+   {
+      if(words.length == 0)
+      {
+         return _NONE;
+      }
+      // a word that overlaps the box has top - maxHeight <= yStart <= bottom
+      // and left - maxWidth <= xStart <= right
+      final int y0 = lowerBound(yStartKeys, (long) top - maxHeight);
+      final int y1 = upperBound(yStartKeys, bottom);
+      final int x0 = lowerBound(xStartKeys, (long) left - maxWidth);
+      final int x1 = upperBound(xStartKeys, right);
+      final int[] order = (y1 - y0) <= (x1 - x0) ? yStartOrder : xStartOrder;
+      final int from = order == yStartOrder ? y0 : x0;
+      final int to = order == yStartOrder ? y1 : x1;
+      
+      final int[] r = new int[Math.max(0, to - from)];
+      int count = 0;
+      for(int j = from; j < to; j++)
+      {
+         final int i = order[j];
+         if(!words[i].isEntirelyOutsideBox(top, bottom, left, right))
+         {
+            r[count++] = i;
+         }
+      }
+      return finish(r, count);
+   }
+   
+   /**
+    * same results as {@link MemenText.IsEntirelyOutsideBox
+    * MemenText.IsEntirelyOutsideBox}
+    */
+   public int[] outsideBox(final int top, final int bottom, final int left, final int right)
+   {
+      return complement(intersecting(top, bottom, left, right));
+   }
+   
+   /**
+    * same results as {@link MemenText.IsInColumn MemenText.IsInColumn}
+    */
+   public int[] inColumn(final int left, final int right)
+   {
+      if(words.length == 0)
+      {
+         return _NONE;
+      }
+      final int from = lowerBound(xStartKeys, left);
+      final int to = upperBound(xStartKeys, (long) right - minWidth);
+      final int[] r = new int[Math.max(0, to - from)];
+      int count = 0;
+      for(int j = from; j < to; j++)
+      {
+         final int i = xStartOrder[j];
+         if(words[i].xEnd <= right)
+         {
+            r[count++] = i;
+         }
+      }
+      return finish(r, count);
+   }
+   
+   /**
+    * same results as {@link MemenText.IsAbove MemenText.IsAbove}
+    */
+   public int[] above(final int y)
+   {
+      final int to = lowerBound(yEndKeys, y);
+      final int[] r = new int[to];
+      System.arraycopy(yEndOrder, 0, r, 0, to);
+      return finish(r, to);
+   }
+   
+   /**
+    * same results as {@link MemenText.IsBelow MemenText.IsBelow}
+    */
+   public int[] below(final int y)
+   {
+      final int from = upperBound(yEndKeys, y);
+      final int[] r = new int[yEndKeys.length - from];
+      System.arraycopy(yEndOrder, from, r, 0, r.length);
+      return finish(r, r.length);
+   }
+   
+   /**
+    * the words whose baseline is between the two values (inclusive)
+    */
+   public int[] baselineBetween(final int top, final int bottom)
+   {
+      final int from = lowerBound(yEndKeys, top);
+      final int to = Math.max(from, upperBound(yEndKeys, bottom));
+      final int[] r = new int[to - from];
+      System.arraycopy(yEndOrder, from, r, 0, r.length);
+      return finish(r, r.length);
+   }
+   
+   /**
+    * the words that have this ySmooth value (the words on the same row)
+    */
+   public int[] sameYSmooth(final int ySmooth)
+   {
+      final int from = lowerBound(ySmoothKeys, ySmooth);
+      final int to = upperBound(ySmoothKeys, ySmooth);
+      final int[] r = new int[to - from];
+      System.arraycopy(ySmoothOrder, from, r, 0, r.length);
+      return finish(r, r.length);
+   }
+   
+   /**
+    * same results as {@link MemenText.SameYSmooth MemenText.SameYSmooth}
+    */
+   public int[] sameYSmooth(final Collection<MemenText> c)
+   {
+      final int[] values = new int[c.size()];
+      int n = 0;
+      for(final MemenText w : c)
+      {
+         values[n++] = w.getYSmooth();
+      }
+      Arrays.sort(values, 0, n);
+      
+      int count = 0;
+      final int[] r = new int[words.length];
+      for(int v = 0; v < n; v++)
+      {
+         if(v > 0 && values[v] == values[v - 1])
+         {
+            continue;
+         }
+         final int from = lowerBound(ySmoothKeys, values[v]);
+         final int to = upperBound(ySmoothKeys, values[v]);
+         System.arraycopy(ySmoothOrder, from, r, count, to - from);
+         count += to - from;
+      }
+      return finish(r, count);
+   }
+   
+   /**
+    * if the Predicate is one that this index knows how to answer, return the
+    * indexes of the words on the page that pass the test (in page order).
+    * Recognizes IsEntirelyInBox, IsEntirelyOutsideBox, IsInColumn, IsAbove,
+    * IsBelow and SameYSmooth, and "and", "or" and "minus" Operations built
+    * from them (the other side of an "and" or "minus" can be anything).
+    * 
+    * @param t
+    * @param output
+    *           the collection the results will be added to. (If a SameYSmooth
+    *           test is looking at that same collection, the answer depends on
+    *           the order the words are added, so it cannot be indexed.)
+    * @return null if the Predicate has to be tested against every word
+    */
+   public int[] select(final Predicate<MemenText> t, final Collection<MemenText> output)
+   {
+      if(t instanceof MemenText.IsEntirelyInBox)
+      {
+         final MemenText.IsEntirelyInBox b = (MemenText.IsEntirelyInBox) t;
+         return inBox(b.top, b.bottom, b.left, b.right);
+      }
+      else if(t instanceof MemenText.IsEntirelyOutsideBox)
+      {
+         final MemenText.IsEntirelyOutsideBox b = (MemenText.IsEntirelyOutsideBox) t;
+         return outsideBox(b.top, b.bottom, b.left, b.right);
+      }
+      else if(t instanceof MemenText.IsInColumn)
+      {
+         final MemenText.IsInColumn b = (MemenText.IsInColumn) t;
+         return inColumn(b.left, b.right);
+      }
+      else if(t instanceof MemenText.IsAbove)
+      {
+         return above(((MemenText.IsAbove) t).y);
+      }
+      else if(t instanceof MemenText.IsBelow)
+      {
+         return below(((MemenText.IsBelow) t).y);
+      }
+      else if(t instanceof MemenText.SameYSmooth)
+      {
+         final Collection<MemenText> c = ((MemenText.SameYSmooth) t).c;
+         return c == output ? null : sameYSmooth(c);
+      }
+      else if(t instanceof MemenText.Operation)
+      {
+         final MemenText.Operation o = (MemenText.Operation) t;
+         if(o.op == 2 || o.op == -1)
+         {
+            final int[] one = select(o.one, output);
+            if(one != null)
+            {
+               return filter(one, o.two, o.op == 2);
+            }
+            if(o.op == 2)
+            {
+               final int[] two = select(o.two, output);
+               if(two != null)
+               {
+                  return filter(two, o.one, true);
+               }
+            }
+         }
+         else if(o.op == 1)
+         {
+            final int[] one = select(o.one, output);
+            final int[] two = one == null ? null : select(o.two, output);
+            if(two != null)
+            {
+               return union(one, two);
+            }
+         }
+      }
+      return null;
+   }
+   
+   private int[] filter(final int[] candidates, final Predicate<MemenText> t, final boolean keep)
+   {
+      int count = 0;
+      for(final int i : candidates)
+      {
+         if(t.test(words[i]) == keep)
+         {
+            candidates[count++] = i;
+         }
+      }
+      return count == candidates.length ? candidates : Arrays.copyOf(candidates, count);
+   }
+   
+   private int[] complement(final int[] sorted)
+   {
+      final int[] r = new int[words.length - sorted.length];
+      int count = 0;
+      int j = 0;
+      for(int i = 0; i < words.length; i++)
+      {
+         if(j < sorted.length && sorted[j] == i)
+         {
+            j++;
+         }
+         else
+         {
+            r[count++] = i;
+         }
+      }
+      return r;
+   }
+   
+   private static int[] union(final int[] a, final int[] b)
+   {
+      final int[] r = new int[a.length + b.length];
+      int i = 0;
+      int j = 0;
+      int count = 0;
+      while(i < a.length && j < b.length)
+      {
+         if(a[i] < b[j])
+         {
+            r[count++] = a[i++];
+         }
+         else if(a[i] > b[j])
+         {
+            r[count++] = b[j++];
+         }
+         else
+         {
+            r[count++] = a[i++];
+            j++;
+         }
+      }
+      while(i < a.length)
+      {
+         r[count++] = a[i++];
+      }
+      while(j < b.length)
+      {
+         r[count++] = b[j++];
+      }
+      return count == r.length ? r : Arrays.copyOf(r, count);
+   }
+   
+   /**
+    * put the results back into page order
+    */
+   private static int[] finish(final int[] r, final int count)
+   {
+      if(count == 0)
+      {
+         return _NONE;
+      }
+      final int[] a = count == r.length ? r : Arrays.copyOf(r, count);
+      Arrays.sort(a);
+      return a;
+   }
+   
+   /**
+    * @return the index of the first key that is >= value
+    */
+   private static int lowerBound(final int[] keys, final long value)
+   {
+      int low = 0;
+      int high = keys.length;
+      while(low < high)
+      {
+         final int mid = (low + high) >>> 1;
+         if(keys[mid] < value)
+         {
+            low = mid + 1;
+         }
+         else
+         {
+            high = mid;
+         }
+      }
+      return low;
+   }
+   
+   /**
+    * @return the index of the first key that is > value
+    */
+   private static int upperBound(final int[] keys, final long value)
+   {
+      int low = 0;
+      int high = keys.length;
+      while(low < high)
+      {
+         final int mid = (low + high) >>> 1;
+         if(keys[mid] <= value)
+         {
+            low = mid + 1;
+         }
+         else
+         {
+            high = mid;
+         }
+      }
+      return low;
+   }
+   
+   /**
+    * sorting (key, index) pairs packed into longs sorts by key, then by index
+    */
+   private static long pack(final int key, final int index)
+   {
+      return ((long) key << 32) | index;
+   }
+   
+   private static void unpack(final long[] packed, final int[] keys, final int[] order)
+   {
+      Arrays.sort(packed);
+      for(int i = 0; i < packed.length; i++)
+      {
+         keys[i] = (int) (packed[i] >> 32);
+         order[i] = (int) packed[i];
+      }
+   }
+   
+   private final MemenText[] words;
+   
+   private final int minHeight;
+   private final int maxHeight;
+   private final int minWidth;
+   private final int maxWidth;
+   
+   private final int[] yStartKeys;
+   private final int[] yStartOrder;
+   private final int[] yEndKeys;
+   private final int[] yEndOrder;
+   private final int[] xStartKeys;
+   private final int[] xStartOrder;
+   private final int[] ySmoothKeys;
+   private final int[] ySmoothOrder;
+   
+   private static final int[] _NONE = new int[0];
+}
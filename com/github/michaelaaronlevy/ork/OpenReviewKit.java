@@ -71,6 +71,7 @@ public class OpenReviewKit
       exGui.addMode(new ATTAccountStatement.Mode());
       exGui.addMode(new ShadowViewer.Mode(null, null));
       exGui.addMode(new ModeIndex(true));
+      exGui.addMode(new ModeIndex(true, false, true));
    }
    
    /**
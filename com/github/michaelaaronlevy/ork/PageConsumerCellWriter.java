@@ -43,8 +43,10 @@ public class PageConsumerCellWriter implements PageConsumer
    
    public void takePage(int id, final int totalPage, final MemenPage page) throws IOException
    {
-      for(final MemenText text : page.getWordsArray())
+      final int n = page.getNumberOfWords();
+      for(int i = 0; i < n; i++)
       {
+         final MemenText text = page.getWord(i);
          fw.writeInt(id++);
          
          fw.writeInt(page.fileNumber);
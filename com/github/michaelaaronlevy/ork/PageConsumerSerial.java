@@ -55,8 +55,10 @@ public class PageConsumerSerial implements PageConsumer
       Grid.writeInt(out, firstId);
       Grid.writeInt(out, page.getNumberOfWords());
       
-      for(final MemenText text : page.getWordsArray())
+      final int n = page.getNumberOfWords();
+      for(int i = 0; i < n; i++)
       {
+         final MemenText text = page.getWord(i);
          Grid.writeInt(out, text.yStart);
          Grid.writeInt(out, text.getYSmooth());
          Grid.writeInt(out, text.xStart);
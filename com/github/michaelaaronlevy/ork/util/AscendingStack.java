@@ -31,11 +31,17 @@ import java.util.Comparator;
  * out. That alone does not make it thread-safe.
  * 
  * <p>
+ * A {@link #view(int[], int) view} wraps an array that is already in order
+ * without copying or checking it, so the same array can back many stacks. The
+ * array is copied the first time a view is pushed onto (copy on write), and
+ * integerArray() always returns a copy, so the array is never changed.
+ * 
+ * <p>
  * I AM THE SOLE AUTHOR OF THIS WORK (the AcendingStack class) AND I AM PLACING
  * IT IN THE PUBLIC DOMAIN.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public final class AscendingStack implements Comparable<AscendingStack>
 {
@@ -57,6 +63,25 @@ public final class AscendingStack implements Comparable<AscendingStack>
       state = _STATE_DIRTY;
    }
    
+   /**
+    * a read-only view of an array that is already in ascending order with no
+    * duplicates. Nothing is copied, sorted or checked. The view never changes
+    * the array (if a number is pushed onto it, the array is copied first), so
+    * the array can be shared by any number of views as long as nothing else
+    * changes it.
+    * 
+    * @param array
+    *           ascending, unique (not checked)
+    * @param counter
+    *           the number of integers in the array to use
+    */
+   public static AscendingStack view(final int[] array, final int counter)
+   {
+      final AscendingStack r = new AscendingStack(array, counter);
+      r.state = _STATE_SHARED;
+      return r;
+   }
+   
    /**
     * create a new AscendingStack object, empty, with 200 initial capacity.
     */
@@ -166,6 +191,12 @@ public final class AscendingStack implements Comparable<AscendingStack>
     */
    public void push(final int value)
    {
+      if(state == _STATE_SHARED)
+      {
+         // copy on write
+         data = Arrays.copyOf(data, counter);
+         state = _STATE_NORMAL;
+      }
       if(state != _STATE_NORMAL)
       {
          throw new IllegalStateException("Illegal to alter a locked AscendingStack");
@@ -244,53 +275,102 @@ public final class AscendingStack implements Comparable<AscendingStack>
     *         either or both of the two arguments.
     */
    public static AscendingStack or(final AscendingStack one, final AscendingStack two)
+   {
+      return or(one, two, null);
+   }
+   
+   /**
+    * 
+    * @param tally
+    *           if not null, the values are counted by the tally instead of
+    *           being kept (and the return is null)
+    */
+   private static AscendingStack or(final AscendingStack one, final AscendingStack two, final Tally tally)
    {
       if(one == null || one.isEmpty())
       {
-         return two == null ? new AscendingStack(0) : two.clone();
+         return two == null ? (tally == null ? new AscendingStack(0) : null) : copy(two, tally);
       }
       else if(two == null || two.isEmpty())
       {
-         return one.clone();
+         return copy(one, tally);
       }
       else if(one.last() > two.last())
       {
-         return or(two, one);
+         return or(two, one, tally);
       }
       else
       {
-         final AscendingStack r = new AscendingStack();
+         final AscendingStack r = tally != null ? null
+               : new AscendingStack((int) Math.min(_MAX_CAPACITY, (long) one.counter + two.counter));
+         final int[] out = r == null ? null : r.data;
+         int n = 0;
          int indexOne = 0;
          int indexTwo = 0;
          while(indexOne < one.counter)
          {
             final int oneData = one.data[indexOne];
             final int twoData = two.data[indexTwo];
+            final int v;
             if(oneData == twoData)
             {
-               r.pushSecret(oneData);
+               v = oneData;
                indexOne++;
                indexTwo++;
             }
             else if(oneData < twoData)
             {
-               r.pushSecret(oneData);
+               v = oneData;
                indexOne++;
             }
             else // oneData > twoData
             {
-               r.pushSecret(twoData);
+               v = twoData;
                indexTwo++;
             }
+            if(out == null)
+            {
+               tally.add(v);
+            }
+            else
+            {
+               out[n++] = v;
+            }
          }
-         for(; indexTwo < two.counter; indexTwo++)
+         if(out == null)
          {
-            r.pushSecret(two.data[indexTwo]);
+            tally.addAll(two.data, indexTwo, two.counter);
+            return null;
          }
+         System.arraycopy(two.data, indexTwo, out, n, two.counter - indexTwo);
+         r.counter = n + two.counter - indexTwo;
          return r;
       }
    }
    
+   /**
+    * 
+    * @return a clone of the stack, or null after the tally counts its values
+    *         (if the tally is not null)
+    */
+   private static AscendingStack copy(final AscendingStack as, final Tally tally)
+   {
+      if(tally == null)
+      {
+         return as.clone();
+      }
+      as.tally(tally);
+      return null;
+   }
+   
+   /**
+    * count the values in the stack
+    */
+   public void tally(final Tally tally)
+   {
+      tally.addAll(data, 0, counter);
+   }
+   
    /**
     * 
     * @return a new AscendingStack object that has all of the values present in
@@ -314,15 +394,13 @@ public final class AscendingStack implements Comparable<AscendingStack>
       {
          return list.get(0).clone();
       }
+      else if(list.size() == 2)
+      {
+         return or(list.get(0), list.get(1));
+      }
       else
       {
-         while(list.size() > 1)
-         {
-            int last = list.size() - 1;
-            list.sort(_biggestFirst);
-            list.set(last - 1, or(list.get(last - 1), list.remove(last)));
-         }
-         return list.get(0);
+         return counting(1, false, inputs, null);
       }
    }
    
@@ -334,27 +412,97 @@ public final class AscendingStack implements Comparable<AscendingStack>
     *         both of the arguments.
     */
    public static AscendingStack and(final AscendingStack one, final AscendingStack two)
+   {
+      return and(one, two, (Tally) null);
+   }
+   
+   /**
+    * 
+    * @param tally
+    *           if not null, the values are counted by the tally instead of
+    *           being kept (and the return is null)
+    */
+   private static AscendingStack and(final AscendingStack one, final AscendingStack two, final Tally tally)
    {
       if(one == null || one.isEmpty() || two == null || two.isEmpty())
       {
-         return new AscendingStack(0);
+         return tally == null ? new AscendingStack(0) : null;
       }
       else if(one.last() > two.last())
       {
-         return and(two, one);
+         return and(two, one, tally);
+      }
+      else if(tally != null && isWorthConverting(new AscendingStack[] { one, two }))
+      {
+         tallyAndNot(new AscendingStack[] { one, two }, new AscendingStack[0], tally);
+         return null;
+      }
+      else if(one.counter > two.counter)
+      {
+         return and(two, one, one.counter / two.counter >= _GALLOP_RATIO, tally);
+      }
+      else
+      {
+         return and(one, two, two.counter / one.counter >= _GALLOP_RATIO, tally);
+      }
+   }
+   
+   /**
+    * 
+    * @param small
+    *           has no more values than big (and neither is empty)
+    * @param big
+    * @param gallop
+    *           if true, look up each value of "small" in "big" with an
+    *           exponential search, instead of walking through "big"
+    * @param tally
+    *           if not null, the values are counted instead of kept
+    */
+   private static AscendingStack and(final AscendingStack small, final AscendingStack big, final boolean gallop,
+         final Tally tally)
+   {
+      final AscendingStack r = tally == null ? new AscendingStack(small.counter) : null;
+      final int[] out = r == null ? null : r.data;
+      int n = 0;
+      if(gallop)
+      {
+         int indexBig = 0;
+         for(int indexSmall = 0; indexSmall < small.counter && indexBig < big.counter; indexSmall++)
+         {
+            final int v = small.data[indexSmall];
+            indexBig = gallop(big.data, indexBig, big.counter, v);
+            if(indexBig < big.counter && big.data[indexBig] == v)
+            {
+               if(out == null)
+               {
+                  tally.add(v);
+               }
+               else
+               {
+                  out[n++] = v;
+               }
+               indexBig++;
+            }
+         }
       }
       else
       {
-         final AscendingStack r = new AscendingStack();
          int indexOne = 0;
          int indexTwo = 0;
-         while(indexOne < one.counter)
+         while(indexOne < small.counter && indexTwo < big.counter)
          {
-            final int oneData = one.data[indexOne];
-            final int twoData = two.data[indexTwo];
+            final int oneData = small.data[indexOne];
+            final int twoData = big.data[indexTwo];
             if(oneData == twoData)
             {
-               r.pushSecret(oneData);
+               if(out == null)
+               {
+                  tally.add(oneData);
+               }
+               else
+               {
+                  out[n++] = oneData;
+               }
                indexOne++;
                indexTwo++;
             }
@@ -367,8 +515,12 @@ public final class AscendingStack implements Comparable<AscendingStack>
                indexTwo++;
             }
          }
-         return r;
       }
+      if(r != null)
+      {
+         r.counter = n;
+      }
+      return r;
    }
    
    /**
@@ -410,6 +562,124 @@ public final class AscendingStack implements Comparable<AscendingStack>
       }
    }
    
+   /**
+    * count the values that are in ALL of the stacks, without keeping them
+    * (see {@link #tallyAndNot(AscendingStack[], AscendingStack[], Tally)
+    * tallyAndNot})
+    */
+   public static void tallyAnd(final AscendingStack[] inputs, final Tally tally)
+   {
+      tallyAndNot(inputs, new AscendingStack[0], tally);
+   }
+   
+   /**
+    * count the values that are in both of the stacks, without keeping them
+    */
+   public static void tallyAnd(final AscendingStack one, final AscendingStack two, final Tally tally)
+   {
+      and(one, two, tally);
+   }
+   
+   /**
+    * count the values that are in all of the "includes" and in none of the
+    * "excludes", without keeping them. If all of the stacks are dense, each
+    * one is put in a bitmap of the numbers that the result can have, and the
+    * bitmaps are combined and counted 64 numbers at a time. Otherwise the
+    * includes are intersected from the smallest up, then the excludes are
+    * taken away, and only the last step is counted.
+    * 
+    * @param includes
+    *           at least one; null is treated as empty
+    * @param excludes
+    *           null is treated as empty
+    */
+   public static void tallyAndNot(final AscendingStack[] includes, final AscendingStack[] excludes,
+         final Tally tally)
+   {
+      int first = Integer.MIN_VALUE;
+      int last = Integer.MAX_VALUE;
+      boolean dense = includes.length + excludes.length > 1;
+      for(final AscendingStack as : includes)
+      {
+         if(as == null || as.isEmpty())
+         {
+            return;
+         }
+         dense &= isDense(as);
+         first = Math.max(first, as.data[0]);
+         last = Math.min(last, as.last());
+      }
+      for(final AscendingStack as : excludes)
+      {
+         dense &= as == null || as.isEmpty() || isDense(as);
+      }
+      if(first > last)
+      {
+         return;
+      }
+      
+      if(dense)
+      {
+         final int words = (int) ((((long) last - first) >>> 6) + 1);
+         final long[] bits = new long[words];
+         final long[] other = new long[words];
+         toBitmap(includes[0], first, last, bits);
+         for(int i = 1; i < includes.length; i++)
+         {
+            toBitmap(includes[i], first, last, other);
+            for(int w = 0; w < words; w++)
+            {
+               bits[w] &= other[w];
+            }
+         }
+         for(final AscendingStack as : excludes)
+         {
+            if(as != null && !as.isEmpty())
+            {
+               toBitmap(as, first, last, other);
+               for(int w = 0; w < words; w++)
+               {
+                  bits[w] &= ~other[w];
+               }
+            }
+         }
+         tally.addBits(bits, first);
+         return;
+      }
+      
+      final ArrayList<AscendingStack> list = new ArrayList<AscendingStack>(Arrays.asList(includes));
+      list.sort(_biggestFirst);
+      AscendingStack r = list.remove(list.size() - 1);
+      int steps = list.size() + excludes.length;
+      for(int i = list.size() - 1; i >= 0; i--)
+      {
+         if(--steps == 0)
+         {
+            and(r, list.get(i), tally);
+            return;
+         }
+         r = and(r, list.get(i));
+         if(r.isEmpty())
+         {
+            return;
+         }
+      }
+      for(final AscendingStack as : excludes)
+      {
+         if(--steps == 0)
+         {
+            minus(r, as, tally);
+            return;
+         }
+         r = minus(r, as);
+         if(r.isEmpty())
+         {
+            return;
+         }
+      }
+      r.tally(tally); // only one include
+   }
+   
    /**
     * 
     * @param one
@@ -418,21 +688,87 @@ public final class AscendingStack implements Comparable<AscendingStack>
     *         the first one but not the second one
     */
    public static AscendingStack minus(final AscendingStack one, final AscendingStack two)
+   {
+      return minus(one, two, null);
+   }
+   
+   /**
+    * count the values that are in the first stack but not the second one,
+    * without keeping them
+    */
+   public static void tallyMinus(final AscendingStack one, final AscendingStack two, final Tally tally)
+   {
+      minus(one, two, tally);
+   }
+   
+   /**
+    * 
+    * @param tally
+    *           if not null, the values are counted by the tally instead of
+    *           being kept (and the return is null)
+    */
+   private static AscendingStack minus(final AscendingStack one, final AscendingStack two, final Tally tally)
    {
       if(one == null || one.isEmpty())
       {
-         return new AscendingStack(0);
+         return tally == null ? new AscendingStack(0) : null;
       }
       else if(two == null || two.isEmpty())
       {
-         return one.clone();
+         return copy(one, tally);
+      }
+      else if(tally != null && isWorthConverting(new AscendingStack[] { one, two }))
+      {
+         tallyAndNot(new AscendingStack[] { one }, new AscendingStack[] { two }, tally);
+         return null;
+      }
+      final AscendingStack r = tally == null ? new AscendingStack(one.counter) : null;
+      final int[] out = r == null ? null : r.data;
+      int n = 0;
+      int indexOne = 0;
+      int indexTwo = 0;
+      if(one.counter / two.counter >= _GALLOP_RATIO)
+      {
+         // few values to remove: find each one, and copy the ranges between
+         for(; indexTwo < two.counter && indexOne < one.counter; indexTwo++)
+         {
+            final int v = two.data[indexTwo];
+            final int found = gallop(one.data, indexOne, one.counter, v);
+            if(out == null)
+            {
+               tally.addAll(one.data, indexOne, found);
+            }
+            else
+            {
+               System.arraycopy(one.data, indexOne, out, n, found - indexOne);
+               n += found - indexOne;
+            }
+            indexOne = found < one.counter && one.data[found] == v ? found + 1 : found;
+         }
+      }
+      else if(two.counter / one.counter >= _GALLOP_RATIO)
+      {
+         // few values to keep: look each one up
+         for(; indexOne < one.counter; indexOne++)
+         {
+            final int v = one.data[indexOne];
+            indexTwo = gallop(two.data, indexTwo, two.counter, v);
+            if(indexTwo == two.counter || two.data[indexTwo] != v)
+            {
+               if(out == null)
+               {
+                  tally.add(v);
+               }
+               else
+               {
+                  out[n++] = v;
+               }
+            }
+         }
       }
       else
       {
-         final AscendingStack r = new AscendingStack();
-         int indexOne = 0;
-         int indexTwo = 0;
-         while(indexOne < one.counter)
+         while(indexOne < one.counter && indexTwo < two.counter)
          {
             final int oneData = one.data[indexOne];
             final int twoData = two.data[indexTwo];
@@ -440,32 +776,166 @@ public final class AscendingStack implements Comparable<AscendingStack>
             {
                indexOne++;
                indexTwo++;
-               if(indexTwo == two.counter)
-               {
-                  break;
-               }
             }
             else if(oneData < twoData)
             {
-               r.pushSecret(oneData);
+               if(out == null)
+               {
+                  tally.add(oneData);
+               }
+               else
+               {
+                  out[n++] = oneData;
+               }
                indexOne++;
             }
             else
             {
                indexTwo++;
-               if(indexTwo == two.counter)
-               {
-                  break;
-               }
             }
          }
-         
-         for(; indexOne < one.counter; indexOne++)
+      }
+      if(out == null)
+      {
+         tally.addAll(one.data, indexOne, one.counter);
+         return null;
+      }
+      System.arraycopy(one.data, indexOne, out, n, one.counter - indexOne);
+      r.counter = n + one.counter - indexOne;
+      return r;
+   }
+   
+   /**
+    * each interval of the set is found with two binary searches, and the
+    * values in between are copied all at once
+    * 
+    * @return an AscendingStack object that has the values of the stack that
+    *         are in the set
+    */
+   public static AscendingStack and(final AscendingStack as, final IntervalSet set)
+   {
+      return select(as, set, true, null);
+   }
+   
+   /**
+    * count the values of the stack that are in the set, without keeping them
+    */
+   public static void tallyAnd(final AscendingStack as, final IntervalSet set, final Tally tally)
+   {
+      select(as, set, true, tally);
+   }
+   
+   /**
+    * 
+    * @return an AscendingStack object that has the values of the stack that
+    *         are not in the set
+    */
+   public static AscendingStack minus(final AscendingStack as, final IntervalSet set)
+   {
+      return select(as, set, false, null);
+   }
+   
+   /**
+    * count the values of the stack that are not in the set, without keeping
+    * them
+    */
+   public static void tallyMinus(final AscendingStack as, final IntervalSet set, final Tally tally)
+   {
+      select(as, set, false, tally);
+   }
+   
+   /**
+    * 
+    * @return the values of the set that are not in the stack (only the values
+    *         of the stack that are inside the intervals are looked at)
+    */
+   public static IntervalSet minus(final IntervalSet set, final AscendingStack as)
+   {
+      return set.minus(as.data, 0, as.counter);
+   }
+   
+   /**
+    * e.g., every page of a project that is not in a list of pages. There is at
+    * most one more interval than there are values in the stack, however many
+    * values the result has.
+    * 
+    * @return the values from first to last that are not in the stack
+    */
+   public IntervalSet complement(final int first, final int last)
+   {
+      return new IntervalSet(first, last).minus(data, 0, counter);
+   }
+   
+   /**
+    * 
+    * @param inside
+    *           true for the values that are in the set, false for the values
+    *           that are not
+    * @param tally
+    *           if not null, the values are counted by the tally instead of
+    *           being kept (and the return is null)
+    */
+   private static AscendingStack select(final AscendingStack as, final IntervalSet set, final boolean inside,
+         final Tally tally)
+   {
+      // the parts of the array that are inside the intervals: from, to, from,
+      // to... (an interval that the array skips over is never looked at)
+      int[] parts = new int[16];
+      int n = 0;
+      int i = 0;
+      for(int k = 0; k < as.counter; i++)
+      {
+         i = set.search(as.data[k], i);
+         if(i == set.getIntervalCount())
          {
-            r.pushSecret(one.data[indexOne]);
+            break;
          }
-         return r;
+         final int from = gallop(as.data, k, as.counter, set.getFirst(i));
+         final int last = set.getLast(i);
+         final int to = last == Integer.MAX_VALUE ? as.counter : gallop(as.data, from, as.counter, last + 1);
+         if(from < to)
+         {
+            if(n == parts.length)
+            {
+               parts = Arrays.copyOf(parts, n * 2);
+            }
+            parts[n++] = from;
+            parts[n++] = to;
+         }
+         k = to;
+      }
+      if(!inside)
+      {
+         // the parts in between
+         final int[] outside = new int[n + 2];
+         outside[0] = 0;
+         System.arraycopy(parts, 0, outside, 1, n);
+         outside[n + 1] = as.counter;
+         parts = outside;
+         n += 2;
       }
+      
+      if(tally != null)
+      {
+         for(int p = 0; p < n; p += 2)
+         {
+            tally.addAll(as.data, parts[p], parts[p + 1]);
+         }
+         return null;
+      }
+      int size = 0;
+      for(int p = 0; p < n; p += 2)
+      {
+         size += parts[p + 1] - parts[p];
+      }
+      final AscendingStack r = new AscendingStack(0);
+      r.data = new int[size];
+      for(int p = 0; p < n; p += 2)
+      {
+         System.arraycopy(as.data, parts[p], r.data, r.counter, parts[p + 1] - parts[p]);
+         r.counter += parts[p + 1] - parts[p];
+      }
+      return r;
    }
    
    /**
@@ -491,7 +961,10 @@ public final class AscendingStack implements Comparable<AscendingStack>
       }
       else
       {
-         final AscendingStack r = new AscendingStack();
+         final AscendingStack r = new AscendingStack(
+               (int) Math.min(_MAX_CAPACITY, (long) one.counter + two.counter));
+         final int[] out = r.data;
+         int n = 0;
          int indexOne = 0;
          int indexTwo = 0;
          while(indexOne < one.counter)
@@ -505,23 +978,17 @@ public final class AscendingStack implements Comparable<AscendingStack>
             }
             else if(oneData < twoData)
             {
-               r.pushSecret(oneData);
+               out[n++] = oneData;
                indexOne++;
             }
             else // oneData > twoData
             {
-               r.pushSecret(twoData);
+               out[n++] = twoData;
                indexTwo++;
-               if(indexTwo == two.counter)
-               {
-                  break;
-               }
             }
          }
-         for(; indexTwo < two.counter; indexTwo++)
-         {
-            r.pushSecret(two.data[indexTwo]);
-         }
+         System.arraycopy(two.data, indexTwo, out, n, two.counter - indexTwo);
+         r.counter = n + two.counter - indexTwo;
          return r;
       }
    }
@@ -545,7 +1012,7 @@ public final class AscendingStack implements Comparable<AscendingStack>
       }
       else
       {
-         return counting(-1, inputs);
+         return counting(-1, false, inputs, null);
       }
    }
    
@@ -576,71 +1043,153 @@ public final class AscendingStack implements Comparable<AscendingStack>
       }
       else
       {
-         return counting(minimum, inputs);
+         return counting(minimum, false, inputs, null);
+      }
+   }
+   
+   /**
+    * 
+    * @param count
+    *           add only if exactly this many of the inputs contain the number
+    * @param inputs
+    * @return the numbers that are in exactly "count" of the inputs (so
+    *         exactly(1, inputs) is every number that appears in only one of
+    *         them). Computed in one pass, rather than as atLeast(count) minus
+    *         atLeast(count + 1).
+    */
+   public static AscendingStack exactly(final int count, final AscendingStack[] inputs)
+   {
+      if(inputs == null || count < 1 || count > inputs.length)
+      {
+         return new AscendingStack(0);
+      }
+      else if(count == inputs.length)
+      {
+         return and(inputs);
+      }
+      else if(isWorthConverting(inputs))
+      {
+         final ContainerSet[] sets = new ContainerSet[inputs.length];
+         for(int i = 0; i < sets.length; i++)
+         {
+            sets[i] = inputs[i] == null ? null : inputs[i].toContainerSet();
+         }
+         return fromContainerSet(ContainerSet.exactly(count, sets));
+      }
+      else
+      {
+         return counting(count, true, inputs, null);
       }
    }
    
    /*
-    * for performing "oddParity" and "atLeast" calculations
+    * for performing "or", "oddParity", "atLeast" and "exactly" calculations in
+    * one pass: the stacks are kept in a min-heap ordered by their current
+    * numbers, so each number costs O(log k) for each stack that has it
+    * (instead of a look at every stack). Stacks that run out are dropped from
+    * the heap, and "atLeast" stops when too few stacks are left. If there is a
+    * tally, the results are counted by it instead of kept, and the return is
+    * null.
     */
-   private static AscendingStack counting(final int minimum, final AscendingStack[] inputs)
+   private static AscendingStack counting(final int minimum, final boolean exactly, final AscendingStack[] inputs,
+         final Tally tally)
    {
-      final ArrayList<AscendingStack> stacks = new ArrayList<AscendingStack>(inputs.length);
-      for(int i = 0; i < inputs.length; i++)
+      final AscendingStack[] stacks = new AscendingStack[inputs.length];
+      int k = 0;
+      long total = 0;
+      for(final AscendingStack as : inputs)
       {
-         if(inputs[i] != null && !inputs[i].isEmpty())
+         if(as != null && !as.isEmpty())
          {
-            stacks.add(inputs[i]);
+            stacks[k++] = as;
+            total += as.counter;
          }
       }
-      if(minimum > inputs.length)
+      if(k == 0 || k < minimum)
       {
-         return new AscendingStack(0);
+         return tally == null ? new AscendingStack(0) : null;
       }
-      final int[] indices = new int[stacks.size()];
-      final AscendingStack r = new AscendingStack();
       
-      while(!stacks.isEmpty() && stacks.size() >= minimum)
+      // each result number uses up at least "minimum" of the input numbers
+      final AscendingStack r = tally != null ? null
+            : new AscendingStack((int) Math.min(_MAX_CAPACITY, total / Math.max(1, minimum)));
+      final int[] out = r == null ? null : r.data;
+      int n = 0;
+      
+      final int[] positions = new int[k];
+      final int[] heap = new int[k]; // stack numbers
+      final int[] values = new int[k]; // the current number of each stack
+      for(int i = 0; i < k; i++)
+      {
+         values[i] = stacks[i].data[0];
+         heap[i] = i;
+      }
+      int heapSize = k;
+      for(int i = heapSize / 2 - 1; i >= 0; i--)
       {
-         int smallest = Integer.MAX_VALUE;
-         int smallestCount = 0;
-         for(int i = 0; i < stacks.size(); i++)
+         siftDown(heap, values, heapSize, i);
+      }
+      
+      while(heapSize > 0 && heapSize >= minimum)
+      {
+         final int smallest = values[heap[0]];
+         int found = 0;
+         while(heapSize > 0 && values[heap[0]] == smallest)
          {
-            final AscendingStack as = stacks.get(i);
-            final int v = as.data[indices[i]];
-            if(v < smallest)
+            found++;
+            final int s = heap[0];
+            if(++positions[s] == stacks[s].counter)
             {
-               smallest = v;
-               smallestCount = 1;
+               heap[0] = heap[--heapSize];
             }
-            else if(v == smallest)
+            else
             {
-               smallestCount++;
+               values[s] = stacks[s].data[positions[s]];
             }
+            siftDown(heap, values, heapSize, 0);
          }
-         
-         for(int i = 0; i < stacks.size(); i++)
+         if(minimum == -1 ? (found & 1) == 1 : exactly ? found == minimum : found >= minimum)
          {
-            final AscendingStack as = stacks.get(i);
-            if(as.data[indices[i]] == smallest)
+            if(out == null)
             {
-               if(++indices[i] == as.counter)
-               {
-                  stacks.remove(i);
-                  for(int j = i; j < indices.length - 1; j++)
-                  {
-                     indices[j] = indices[j + 1];
-                  }
-                  i--;
-               }
+               tally.add(smallest);
             }
+            else
+            {
+               out[n++] = smallest;
+            }
+         }
+      }
+      if(r != null)
+      {
+         r.counter = n;
+      }
+      return r;
+   }
+   
+   private static void siftDown(final int[] heap, final int[] values, final int heapSize, int i)
+   {
+      final int item = heap[i];
+      final int v = values[item];
+      while(true)
+      {
+         int child = 2 * i + 1;
+         if(child >= heapSize)
+         {
+            break;
          }
-         if(minimum == -1 ? smallestCount % 2 == 1 : smallestCount >= minimum)
+         if(child + 1 < heapSize && values[heap[child + 1]] < values[heap[child]])
          {
-            r.pushSecret(smallest);
+            child++;
          }
+         if(values[heap[child]] >= v)
+         {
+            break;
+         }
+         heap[i] = heap[child];
+         i = child;
       }
-      return r;
+      heap[i] = item;
    }
    
    /**
@@ -655,6 +1204,15 @@ public final class AscendingStack implements Comparable<AscendingStack>
     */
    public static AscendingStack generic(final int opCode, final AscendingStack... operands)
    {
+      if(isWorthConverting(operands))
+      {
+         final ContainerSet[] sets = new ContainerSet[operands.length];
+         for(int i = 0; i < sets.length; i++)
+         {
+            sets[i] = operands[i] == null ? null : operands[i].toContainerSet();
+         }
+         return fromContainerSet(ContainerSet.generic(opCode, sets));
+      }
       if(opCode == -1)
       {
          final AscendingStack first = operands[0];
@@ -693,6 +1251,285 @@ public final class AscendingStack implements Comparable<AscendingStack>
       }
    }
    
+   /**
+    * the same as {@link #generic(int, AscendingStack...) generic}, except that
+    * the results are counted by the tally instead of being kept. Nothing the
+    * size of the results is built (apart from the stack of values to remove,
+    * for "minus" with more than one of them).
+    */
+   public static void tallyGeneric(final int opCode, final Tally tally, final AscendingStack... operands)
+   {
+      if(opCode == -1)
+      {
+         final AscendingStack removeList;
+         if(operands.length == 2)
+         {
+            removeList = operands[1];
+         }
+         else
+         {
+            final AscendingStack[] toRemove = new AscendingStack[operands.length - 1];
+            System.arraycopy(operands, 1, toRemove, 0, toRemove.length);
+            removeList = AscendingStack.or(toRemove);
+         }
+         minus(operands[0], removeList, tally);
+      }
+      else if(opCode == operands.length)
+      {
+         tallyAnd(operands, tally);
+      }
+      else if(opCode < operands.length)
+      {
+         final int minimum = opCode == 0 ? -1 : Math.max(1, opCode);
+         if(isWorthConverting(operands) && tallyDense(minimum, false, operands, tally))
+         {
+            return;
+         }
+         else if(minimum == 1 && operands.length == 2)
+         {
+            or(operands[0], operands[1], tally);
+         }
+         else
+         {
+            counting(minimum, false, operands, tally);
+         }
+      }
+   }
+   
+   /**
+    * the same as {@link #exactly(int, AscendingStack[]) exactly}, except that
+    * the results are counted by the tally instead of being kept
+    */
+   public static void tallyExactly(final int count, final AscendingStack[] inputs, final Tally tally)
+   {
+      if(inputs == null || count < 1 || count > inputs.length)
+      {
+         return;
+      }
+      else if(count == inputs.length)
+      {
+         tallyAnd(inputs, tally);
+      }
+      else if(!isWorthConverting(inputs) || !tallyDense(count, true, inputs, tally))
+      {
+         counting(count, true, inputs, tally);
+      }
+   }
+   
+   /*
+    * for counting "or", "oddParity", "atLeast" and "exactly" on dense stacks:
+    * one bit for each number from the smallest to the biggest (set for "or",
+    * flipped for "oddParity"). For "atLeast" and "exactly" the number of
+    * stacks that have each number is kept "bit-sliced" (bit j of the count is
+    * in slices[j]), so each stack is added 64 numbers at a time, and the
+    * counts are compared with the minimum the same way. The bits are then
+    * counted 64 at a time. This is much faster than the heap in counting(),
+    * but it is only done if the numbers are not spread out too far (otherwise
+    * it returns false and counts nothing).
+    */
+   private static boolean tallyDense(final int minimum, final boolean exactly, final AscendingStack[] inputs,
+         final Tally tally)
+   {
+      int k = 0;
+      long total = 0;
+      int first = Integer.MAX_VALUE;
+      int last = Integer.MIN_VALUE;
+      for(final AscendingStack as : inputs)
+      {
+         if(as != null && !as.isEmpty())
+         {
+            k++;
+            total += as.counter;
+            first = Math.min(first, as.data[0]);
+            last = Math.max(last, as.data[as.counter - 1]);
+         }
+      }
+      if(k == 0 || k < minimum)
+      {
+         return true; // nothing to count
+      }
+      final long span = (long) last - first + 1;
+      if(span > total * _DENSE_SPREAD || span > Integer.MAX_VALUE - 64)
+      {
+         return false;
+      }
+      final int words = (int) ((span + 63) >>> 6);
+      final long[] bits = new long[words];
+      if(!exactly && (minimum == 1 || minimum == -1))
+      {
+         for(final AscendingStack as : inputs)
+         {
+            for(int i = 0; as != null && i < as.counter; i++)
+            {
+               final int offset = as.data[i] - first;
+               if(minimum == 1)
+               {
+                  bits[offset >>> 6] |= 1L << offset;
+               }
+               else
+               {
+                  bits[offset >>> 6] ^= 1L << offset;
+               }
+            }
+         }
+      }
+      else
+      {
+         final long[][] slices = new long[32 - Integer.numberOfLeadingZeros(k)][words];
+         for(final AscendingStack as : inputs)
+         {
+            if(as == null || as.isEmpty())
+            {
+               continue;
+            }
+            final int from = (as.data[0] - first) >>> 6;
+            final int to = ((as.data[as.counter - 1] - first) >>> 6) + 1;
+            Arrays.fill(bits, from, to, 0L);
+            for(int i = 0; i < as.counter; i++)
+            {
+               final int offset = as.data[i] - first;
+               bits[offset >>> 6] |= 1L << offset;
+            }
+            for(int w = from; w < to; w++)
+            {
+               long carry = bits[w];
+               for(int j = 0; carry != 0; j++)
+               {
+                  final long old = slices[j][w];
+                  slices[j][w] = old ^ carry;
+                  carry &= old;
+               }
+            }
+         }
+         for(int w = 0; w < words; w++)
+         {
+            // compare the counts with the minimum, from the highest bit down
+            long greater = 0;
+            long equal = -1L;
+            for(int j = slices.length - 1; j >= 0; j--)
+            {
+               final long slice = slices[j][w];
+               if(((minimum >>> j) & 1) == 1)
+               {
+                  equal &= slice;
+               }
+               else
+               {
+                  greater |= equal & slice;
+                  equal &= ~slice;
+               }
+            }
+            bits[w] = exactly ? equal : greater | equal;
+         }
+      }
+      tally.addBits(bits, first);
+      return true;
+   }
+   
+   /**
+    * set bit i of "bits" if first + i is in the stack (numbers after "last"
+    * are left out), and clear the others
+    */
+   private static void toBitmap(final AscendingStack as, final int first, final int last, final long[] bits)
+   {
+      Arrays.fill(bits, 0L);
+      final int to = last == Integer.MAX_VALUE ? as.counter : gallop(as.data, 0, as.counter, last + 1);
+      for(int i = gallop(as.data, 0, as.counter, first); i < to; i++)
+      {
+         final int offset = as.data[i] - first;
+         bits[offset >>> 6] |= 1L << offset;
+      }
+   }
+   
+   /**
+    * 
+    * @return the index of the first value in a[from, to) that is at least
+    *         "target" (or "to", if there is none). The distance is found by
+    *         doubling (an exponential or "galloping" search), so this is fast
+    *         when the answer is close to "from".
+    */
+   static int gallop(final int[] a, final int from, final int to, final int target)
+   {
+      if(from >= to || a[from] >= target)
+      {
+         return from;
+      }
+      // a[lo] < target
+      int lo = from;
+      int step = 1;
+      while(lo + step < to && a[lo + step] < target)
+      {
+         lo += step;
+         step <<= 1;
+      }
+      int hi = Math.min(to, lo + step);
+      lo++;
+      while(lo < hi)
+      {
+         final int mid = (lo + hi) >>> 1;
+         if(a[mid] < target)
+         {
+            lo = mid + 1;
+         }
+         else
+         {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   /**
+    * 
+    * @return true if at least two of the operands are dense enough that
+    *         {@link ContainerSet ContainerSet} (which works 64 values at a
+    *         time) is faster, even counting the time it takes to convert them
+    */
+   private static boolean isWorthConverting(final AscendingStack[] operands)
+   {
+      int dense = 0;
+      for(final AscendingStack as : operands)
+      {
+         if(as != null && isDense(as))
+         {
+            dense++;
+         }
+      }
+      return dense >= 2;
+   }
+   
+   /**
+    * 
+    * @return true if the stack has at least _DENSE_MIN values, no more than
+    *         _DENSE_SPREAD apart on average
+    */
+   private static boolean isDense(final AscendingStack as)
+   {
+      return as.counter >= _DENSE_MIN
+            && (long) as.data[as.counter - 1] - as.data[0] < (long) as.counter * _DENSE_SPREAD;
+   }
+   
+   /**
+    * 
+    * @return a {@link ContainerSet ContainerSet} with the same values
+    */
+   public ContainerSet toContainerSet()
+   {
+      return new ContainerSet(data, 0, counter);
+   }
+   
+   /**
+    * 
+    * @return a new AscendingStack with the values in the ContainerSet
+    */
+   public static AscendingStack fromContainerSet(final ContainerSet set)
+   {
+      final AscendingStack r = new AscendingStack(0);
+      r.data = set.toArray();
+      r.counter = r.data.length;
+      return r;
+   }
+   
    /**
     * 
     * @return true if the stack is empty
@@ -870,7 +1707,7 @@ public final class AscendingStack implements Comparable<AscendingStack>
    
    public void lock()
    {
-      if(state == _STATE_NORMAL)
+      if(state == _STATE_NORMAL || state == _STATE_SHARED)
       {
          trim();
          state = _STATE_LOCKED;
@@ -888,16 +1725,30 @@ public final class AscendingStack implements Comparable<AscendingStack>
     * behavior rules set by the class. If you use "dirty" stacks, you are taking
     * responsibility for not breaking the functionality (by altering the
     * underlying arrays in ways that cause problems). But operations may become
-    * more efficient.
+    * more efficient. A {@link #view(int[], int) view} is not made dirty,
+    * because its array is shared.
     */
    public void makeDirty()
    {
-      state = _STATE_DIRTY;
+      if(state != _STATE_SHARED)
+      {
+         state = _STATE_DIRTY;
+      }
    }
    
    public boolean isLocked()
    {
-      return state != _STATE_NORMAL;
+      return state == _STATE_LOCKED || state == _STATE_DIRTY;
+   }
+   
+   /**
+    * 
+    * @return true if this is a {@link #view(int[], int) view} that has not
+    *         been pushed onto
+    */
+   public boolean isShared()
+   {
+      return state == _STATE_SHARED;
    }
    
    /**
@@ -931,6 +1782,19 @@ public final class AscendingStack implements Comparable<AscendingStack>
     */
    public static int _MAX_CAPACITY = 1000000000;
    
+   /**
+    * a stack with at least this many numbers, no more than _DENSE_SPREAD apart
+    * on average, is "dense" (see generic)
+    */
+   private static final int _DENSE_MIN = 4096;
+   private static final int _DENSE_SPREAD = 16;
+   
+   /**
+    * "and" and "minus" use exponential searches instead of walking through
+    * both stacks when one stack is at least this many times bigger
+    */
+   private static final int _GALLOP_RATIO = 32;
+   
    /**
     * for the toString method, if there are more than twice as many numbers, it
     * puts ellipsis in the middle rather than trying to display everything.
@@ -960,4 +1824,5 @@ public final class AscendingStack implements Comparable<AscendingStack>
    private static final byte _STATE_NORMAL = 0;
    private static final byte _STATE_LOCKED = 1;
    private static final byte _STATE_DIRTY = 2;
+   private static final byte _STATE_SHARED = 3;
 }
@@ -0,0 +1,1012 @@
+package com.github.michaelaaronlevy.ork.util;
+
+import java.util.Arrays;
+
+/**
+ * a set of unique integers split into chunks of 65536 consecutive values, each
+ * stored in whichever form is smallest for that chunk: a sorted array (for
+ * sparse chunks), a bitmap of 1024 longs (for dense chunks) or a list of runs
+ * of consecutive values (for long stretches, such as a word that appears on
+ * every page of a document). This is the same idea as a "Roaring" bitmap.
+ * 
+ * <p>
+ * The set operations have the same meaning as the ones in
+ * {@link AscendingStack AscendingStack}, including
+ * {@link #generic(int, ContainerSet...) generic}, but they work a chunk at a
+ * time: chunks that only one input has are shared (a ContainerSet never
+ * changes after it is created) and chunks that several inputs have are
+ * combined 64 values at a time, with Long.bitCount to count the results. The
+ * form of each result chunk is chosen again. "atLeast" and "odd" count how many
+ * of the inputs have each value with bit-sliced counters (one bitmap for each
+ * bit of the count), so they also work 64 values at a time.
+ * 
+ * <p>
+ * {@link AscendingStack#generic(int, AscendingStack...) AscendingStack.generic}
+ * uses this class on its own when two or more of the inputs are dense.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class ContainerSet
+{
+   /**
+    * 
+    * @param sorted
+    *           unique values in ascending order (this is not checked)
+    * @param from
+    *           the index of the first value to use
+    * @param to
+    *           one past the index of the last value to use
+    */
+   public ContainerSet(final int[] sorted, final int from, final int to)
+   {
+      final Builder b = new Builder(16);
+      int i = from;
+      while(i < to)
+      {
+         final int key = key(sorted[i]);
+         final int end = upperBound(sorted, i, to, Container.value(key, 0xffff));
+         b.add(key, Container.fromSorted(sorted, i, end));
+         i = end;
+      }
+      keys = b.keys;
+      containers = b.containers;
+      count = b.count;
+   }
+   
+   private ContainerSet(final int[] keys, final Container[] containers, final int count)
+   {
+      this.keys = keys;
+      this.containers = containers;
+      this.count = count;
+   }
+   
+   /**
+    * 
+    * @return the number of values in the set
+    */
+   public int size()
+   {
+      int size = 0;
+      for(int i = 0; i < count; i++)
+      {
+         size += containers[i].cardinality();
+      }
+      return size;
+   }
+   
+   public boolean isEmpty()
+   {
+      return count == 0;
+   }
+   
+   public boolean contains(final int value)
+   {
+      final int c = Arrays.binarySearch(keys, 0, count, key(value));
+      return c >= 0 && containers[c].contains(value & 0xffff);
+   }
+   
+   /**
+    * 
+    * @return every value, in ascending order
+    */
+   public int[] toArray()
+   {
+      final int[] r = new int[size()];
+      int n = 0;
+      for(int i = 0; i < count; i++)
+      {
+         n = containers[i].toArray(keys[i], r, n);
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return how many chunks are stored as arrays, bitmaps and runs (in that
+    *         order)
+    */
+   public int[] getContainerCounts()
+   {
+      final int[] r = new int[3];
+      for(int i = 0; i < count; i++)
+      {
+         r[containers[i].type()]++;
+      }
+      return r;
+   }
+   
+   public String toString()
+   {
+      final int[] c = getContainerCounts();
+      return "ContainerSet: " + size() + " values in " + count + " chunks (" + c[0] + " arrays, " + c[1] + " bitmaps, "
+            + c[2] + " runs)";
+   }
+   
+   public static ContainerSet or(final ContainerSet one, final ContainerSet two)
+   {
+      return or(new ContainerSet[] { one, two });
+   }
+   
+   public static ContainerSet and(final ContainerSet one, final ContainerSet two)
+   {
+      if(one == null || two == null)
+      {
+         return _EMPTY;
+      }
+      final Builder b = new Builder(Math.min(one.count, two.count));
+      int i = 0;
+      int j = 0;
+      final long[] scratch = new long[_WORDS];
+      while(i < one.count && j < two.count)
+      {
+         if(one.keys[i] < two.keys[j])
+         {
+            i++;
+         }
+         else if(one.keys[i] > two.keys[j])
+         {
+            j++;
+         }
+         else
+         {
+            b.add(one.keys[i], Container.and(one.containers[i], two.containers[j], scratch));
+            i++;
+            j++;
+         }
+      }
+      return b.build();
+   }
+   
+   /**
+    * 
+    * @return the values in one that are not in two
+    */
+   public static ContainerSet minus(final ContainerSet one, final ContainerSet two)
+   {
+      if(one == null)
+      {
+         return _EMPTY;
+      }
+      if(two == null)
+      {
+         return one;
+      }
+      final Builder b = new Builder(one.count);
+      int j = 0;
+      final long[] scratch = new long[_WORDS];
+      for(int i = 0; i < one.count; i++)
+      {
+         while(j < two.count && two.keys[j] < one.keys[i])
+         {
+            j++;
+         }
+         if(j < two.count && two.keys[j] == one.keys[i])
+         {
+            b.add(one.keys[i], Container.minus(one.containers[i], two.containers[j], scratch));
+         }
+         else
+         {
+            b.add(one.keys[i], one.containers[i]);
+         }
+      }
+      return b.build();
+   }
+   
+   public static ContainerSet xor(final ContainerSet one, final ContainerSet two)
+   {
+      return counting(-1, false, new ContainerSet[] { one, two });
+   }
+   
+   /**
+    * 
+    * @return the values that are in any of the inputs
+    */
+   public static ContainerSet or(final ContainerSet[] inputs)
+   {
+      return counting(1, false, inputs);
+   }
+   
+   /**
+    * 
+    * @return the values that are in all of the inputs
+    */
+   public static ContainerSet and(final ContainerSet[] inputs)
+   {
+      if(inputs == null || inputs.length == 0)
+      {
+         return _EMPTY;
+      }
+      final ContainerSet[] sorted = inputs.clone();
+      for(final ContainerSet cs : sorted)
+      {
+         if(cs == null || cs.isEmpty())
+         {
+            return _EMPTY;
+         }
+      }
+      // the sets with the fewest chunks first, so the result shrinks quickly
+      Arrays.sort(sorted, (x, y) -> Integer.compare(x.count, y.count));
+      ContainerSet r = sorted[0];
+      for(int i = 1; i < sorted.length && !r.isEmpty(); i++)
+      {
+         r = and(r, sorted[i]);
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the values that are in an odd number of the inputs
+    */
+   public static ContainerSet xor(final ContainerSet[] inputs)
+   {
+      return counting(-1, false, inputs);
+   }
+   
+   /**
+    * 
+    * @return the values that are in at least "minimum" of the inputs
+    */
+   public static ContainerSet atLeast(final int minimum, final ContainerSet[] inputs)
+   {
+      if(inputs == null || minimum > inputs.length)
+      {
+         return _EMPTY;
+      }
+      return counting(Math.max(1, minimum), false, inputs);
+   }
+   
+   /**
+    * 
+    * @return the values that are in exactly "count" of the inputs (nothing, if
+    *         count is less than 1)
+    */
+   public static ContainerSet exactly(final int count, final ContainerSet[] inputs)
+   {
+      if(inputs == null || count < 1 || count > inputs.length)
+      {
+         return _EMPTY;
+      }
+      return counting(count, true, inputs);
+   }
+   
+   /**
+    * 
+    * @param opCode
+    *           -1 minus, 0 xor, 1 or, operands.length and, anything else is "at
+    *           least __" (the same as
+    *           {@link AscendingStack#generic(int, AscendingStack...)
+    *           AscendingStack.generic})
+    * @param operands
+    *           null is treated as empty. This array is not modified by this
+    *           method.
+    * @return the results of the operation
+    */
+   public static ContainerSet generic(final int opCode, final ContainerSet... operands)
+   {
+      if(opCode == -1)
+      {
+         if(operands.length == 2)
+         {
+            return minus(operands[0], operands[1]);
+         }
+         final ContainerSet[] toRemove = new ContainerSet[operands.length - 1];
+         System.arraycopy(operands, 1, toRemove, 0, toRemove.length);
+         return minus(operands[0], or(toRemove));
+      }
+      else if(opCode == 0)
+      {
+         return xor(operands);
+      }
+      else if(opCode == 1)
+      {
+         return or(operands);
+      }
+      else if(opCode == operands.length)
+      {
+         return and(operands);
+      }
+      else
+      {
+         return atLeast(opCode, operands);
+      }
+   }
+   
+   /**
+    * for "or" (minimum 1), "atLeast" (minimum 2 or more), "exactly" and "odd"
+    * (minimum -1)
+    */
+   private static ContainerSet counting(final int minimum, final boolean exactly, final ContainerSet[] inputs)
+   {
+      int n = 0;
+      int chunks = 0;
+      final ContainerSet[] sets = new ContainerSet[inputs.length];
+      for(final ContainerSet cs : inputs)
+      {
+         if(cs != null && !cs.isEmpty())
+         {
+            sets[n++] = cs;
+            chunks += cs.count;
+         }
+      }
+      if(n == 0 || n < minimum)
+      {
+         return _EMPTY;
+      }
+      else if(n == 1)
+      {
+         return minimum <= 1 ? sets[0] : _EMPTY; // or, odd, atLeast 1, exactly 1
+      }
+      
+      final int planes = 32 - Integer.numberOfLeadingZeros(n);
+      final long[][] counts = new long[planes][_WORDS];
+      final long[] words = new long[_WORDS];
+      final int[] cursors = new int[n];
+      final Container[] same = new Container[n];
+      final Builder b = new Builder(Math.min(chunks, 1 << 16));
+      while(true)
+      {
+         int key = Integer.MAX_VALUE;
+         for(int s = 0; s < n; s++)
+         {
+            if(cursors[s] < sets[s].count && sets[s].keys[cursors[s]] < key)
+            {
+               key = sets[s].keys[cursors[s]];
+            }
+         }
+         if(key == Integer.MAX_VALUE)
+         {
+            break;
+         }
+         int k = 0;
+         for(int s = 0; s < n; s++)
+         {
+            if(cursors[s] < sets[s].count && sets[s].keys[cursors[s]] == key)
+            {
+               same[k++] = sets[s].containers[cursors[s]++];
+            }
+         }
+         if(k < minimum)
+         {
+            continue;
+         }
+         if(k == 1)
+         {
+            b.add(key, same[0]);
+            continue;
+         }
+         if(minimum == 1 && !exactly)
+         {
+            Arrays.fill(words, 0L);
+            for(int s = 0; s < k; s++)
+            {
+               same[s].orInto(words);
+            }
+            b.add(key, Container.fromBitmap(words));
+            continue;
+         }
+         
+         // add each bitmap to the bit-sliced counters
+         final int used = 32 - Integer.numberOfLeadingZeros(k);
+         for(int p = 0; p < used; p++)
+         {
+            Arrays.fill(counts[p], 0L);
+         }
+         for(int s = 0; s < k; s++)
+         {
+            Arrays.fill(words, 0L);
+            same[s].orInto(words);
+            for(int w = 0; w < _WORDS; w++)
+            {
+               long carry = words[w];
+               for(int p = 0; p < used && carry != 0L; p++)
+               {
+                  final long c = counts[p][w] & carry;
+                  counts[p][w] ^= carry;
+                  carry = c;
+               }
+            }
+         }
+         if(minimum == -1)
+         {
+            b.add(key, Container.fromBitmap(counts[0]));
+         }
+         else
+         {
+            compare(counts, used, minimum, words, exactly);
+            b.add(key, Container.fromBitmap(words));
+         }
+      }
+      return b.build();
+   }
+   
+   /**
+    * compare bit-sliced counters with a number
+    * 
+    * @param counts
+    *           counts[p] holds bit p of the count of each value
+    * @param used
+    *           how many of the planes are in use
+    * @param value
+    * @param dst
+    *           gets a bitmap of the values whose count is at least "value" (or
+    *           exactly "value", if "exactly" is true)
+    * @param exactly
+    */
+   static void compare(final long[][] counts, final int used, final int value, final long[] dst,
+         final boolean exactly)
+   {
+      if(32 - Integer.numberOfLeadingZeros(value) > used)
+      {
+         Arrays.fill(dst, 0L); // no count can be that big
+         return;
+      }
+      for(int w = 0; w < _WORDS; w++)
+      {
+         long greater = 0L;
+         long equal = -1L;
+         for(int p = used - 1; p >= 0; p--)
+         {
+            final long bits = counts[p][w];
+            if(((value >>> p) & 1) == 1)
+            {
+               equal &= bits;
+            }
+            else
+            {
+               greater |= equal & bits;
+               equal &= ~bits;
+            }
+         }
+         dst[w] = exactly ? equal : (greater | equal);
+      }
+   }
+   
+   /**
+    * 
+    * @return the chunk that holds this value. The order of the chunks is the
+    *         same as the (signed) order of the values.
+    */
+   static int key(final int value)
+   {
+      return (value ^ 0x80000000) >>> 16;
+   }
+   
+   /**
+    * 
+    * @return the index of the first value after "last" (or "to")
+    */
+   private static int upperBound(final int[] sorted, final int from, final int to, final int last)
+   {
+      int lo = from;
+      int hi = to;
+      while(lo < hi)
+      {
+         final int mid = (lo + hi) >>> 1;
+         if(sorted[mid] <= last)
+         {
+            lo = mid + 1;
+         }
+         else
+         {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   private final int[] keys;
+   private final Container[] containers;
+   private final int count;
+   
+   private static final ContainerSet _EMPTY = new ContainerSet(new int[0], new Container[0], 0);
+   
+   /**
+    * the number of longs in a bitmap (65536 bits)
+    */
+   private static final int _WORDS = 1024;
+   
+   /**
+    * the most values a chunk can hold as an array (at that size, an array takes
+    * the same memory as a bitmap)
+    */
+   private static final int _MAX_ARRAY = 4096;
+   
+   private static final class Builder
+   {
+      Builder(final int capacity)
+      {
+         keys = new int[Math.max(1, capacity)];
+         containers = new Container[keys.length];
+      }
+      
+      void add(final int key, final Container c)
+      {
+         if(c == null)
+         {
+            return; // empty chunk
+         }
+         if(count == keys.length)
+         {
+            keys = Arrays.copyOf(keys, count * 2);
+            containers = Arrays.copyOf(containers, count * 2);
+         }
+         keys[count] = key;
+         containers[count++] = c;
+      }
+      
+      ContainerSet build()
+      {
+         return count == 0 ? _EMPTY : new ContainerSet(keys, containers, count);
+      }
+      
+      private int[] keys;
+      private Container[] containers;
+      private int count = 0;
+   }
+   
+   /**
+    * one chunk of up to 65536 values. The values are the low 16 bits.
+    */
+   private static abstract class Container
+   {
+      abstract int type();
+      
+      abstract int cardinality();
+      
+      abstract boolean contains(int low);
+      
+      /**
+       * set the bits of this chunk's values in a bitmap
+       */
+      abstract void orInto(long[] words);
+      
+      /**
+       * write the values to dst, starting at "offset"
+       * 
+       * @return the offset after the last value
+       */
+      abstract int toArray(int key, int[] dst, int offset);
+      
+      static int value(final int key, final int low)
+      {
+         return ((key << 16) | low) ^ 0x80000000;
+      }
+      
+      /**
+       * 
+       * @return the smallest kind of container for these values (all in the
+       *         same chunk), or null if there are none
+       */
+      static Container fromSorted(final int[] sorted, final int from, final int to)
+      {
+         final int n = to - from;
+         if(n == 0)
+         {
+            return null;
+         }
+         int runs = 1;
+         for(int i = from + 1; i < to; i++)
+         {
+            if(sorted[i] != sorted[i - 1] + 1)
+            {
+               runs++;
+            }
+         }
+         if(runs * 4 < Math.min(n * 2, _WORDS * 8))
+         {
+            final char[] r = new char[runs * 2];
+            int p = 0;
+            r[0] = (char) sorted[from];
+            for(int i = from + 1; i < to; i++)
+            {
+               if(sorted[i] != sorted[i - 1] + 1)
+               {
+                  r[p + 1] = (char) sorted[i - 1];
+                  p += 2;
+                  r[p] = (char) sorted[i];
+               }
+            }
+            r[p + 1] = (char) sorted[to - 1];
+            return new RunContainer(r, runs, n);
+         }
+         else if(n <= _MAX_ARRAY)
+         {
+            final char[] a = new char[n];
+            for(int i = 0; i < n; i++)
+            {
+               a[i] = (char) sorted[from + i];
+            }
+            return new ArrayContainer(a, n);
+         }
+         else
+         {
+            final long[] words = new long[_WORDS];
+            for(int i = from; i < to; i++)
+            {
+               words[(sorted[i] & 0xffff) >>> 6] |= 1L << sorted[i];
+            }
+            return new BitmapContainer(words, n);
+         }
+      }
+      
+      /**
+       * 
+       * @param words
+       *           not kept (a copy is made if the result is a bitmap)
+       * @return the smallest kind of container for these bits, or null if
+       *         there are none
+       */
+      static Container fromBitmap(final long[] words)
+      {
+         int n = 0;
+         int runs = 0;
+         long previous = 0L;
+         for(int w = 0; w < _WORDS; w++)
+         {
+            final long x = words[w];
+            n += Long.bitCount(x);
+            // a run starts where a bit is set and the bit before it is not
+            runs += Long.bitCount(x & ~((x << 1) | (previous >>> 63)));
+            previous = x;
+         }
+         if(n == 0)
+         {
+            return null;
+         }
+         if(runs * 4 < Math.min(n * 2, _WORDS * 8))
+         {
+            final char[] r = new char[runs * 2];
+            int p = 0;
+            int start = -1;
+            for(int w = 0; w < _WORDS; w++)
+            {
+               long x = words[w];
+               int bit = 0;
+               while(bit < 64)
+               {
+                  if(start < 0)
+                  {
+                     if(x == 0L)
+                     {
+                        break;
+                     }
+                     final int z = Long.numberOfTrailingZeros(x);
+                     bit += z;
+                     x >>>= z;
+                     start = (w << 6) + bit;
+                  }
+                  else
+                  {
+                     final long inverse = ~x;
+                     final int ones = inverse == 0L ? 64 - bit : Long.numberOfTrailingZeros(inverse);
+                     bit += ones;
+                     x = ones >= 64 ? 0L : x >>> ones;
+                     if(bit < 64)
+                     {
+                        r[p++] = (char) start;
+                        r[p++] = (char) ((w << 6) + bit - 1);
+                        start = -1;
+                     }
+                  }
+               }
+            }
+            if(start >= 0)
+            {
+               r[p++] = (char) start;
+               r[p++] = (char) 0xffff;
+            }
+            return new RunContainer(r, runs, n);
+         }
+         else if(n <= _MAX_ARRAY)
+         {
+            final char[] a = new char[n];
+            int p = 0;
+            for(int w = 0; w < _WORDS; w++)
+            {
+               long x = words[w];
+               while(x != 0L)
+               {
+                  a[p++] = (char) ((w << 6) + Long.numberOfTrailingZeros(x));
+                  x &= x - 1;
+               }
+            }
+            return new ArrayContainer(a, n);
+         }
+         else
+         {
+            return new BitmapContainer(words.clone(), n);
+         }
+      }
+      
+      static Container and(final Container one, final Container two, final long[] scratch)
+      {
+         if(one instanceof ArrayContainer || two instanceof ArrayContainer)
+         {
+            final ArrayContainer a = (ArrayContainer) (one instanceof ArrayContainer ? one : two);
+            final Container other = a == one ? two : one;
+            return a.filter(other, true);
+         }
+         Arrays.fill(scratch, 0L);
+         one.orInto(scratch);
+         if(two instanceof BitmapContainer)
+         {
+            final long[] words = ((BitmapContainer) two).words;
+            for(int w = 0; w < _WORDS; w++)
+            {
+               scratch[w] &= words[w];
+            }
+         }
+         else
+         {
+            final long[] words = new long[_WORDS];
+            two.orInto(words);
+            for(int w = 0; w < _WORDS; w++)
+            {
+               scratch[w] &= words[w];
+            }
+         }
+         return fromBitmap(scratch);
+      }
+      
+      static Container minus(final Container one, final Container two, final long[] scratch)
+      {
+         if(one instanceof ArrayContainer)
+         {
+            return ((ArrayContainer) one).filter(two, false);
+         }
+         Arrays.fill(scratch, 0L);
+         one.orInto(scratch);
+         if(two instanceof BitmapContainer)
+         {
+            final long[] words = ((BitmapContainer) two).words;
+            for(int w = 0; w < _WORDS; w++)
+            {
+               scratch[w] &= ~words[w];
+            }
+         }
+         else if(two instanceof ArrayContainer)
+         {
+            final ArrayContainer a = (ArrayContainer) two;
+            for(int i = 0; i < a.size; i++)
+            {
+               scratch[a.values[i] >>> 6] &= ~(1L << a.values[i]);
+            }
+         }
+         else
+         {
+            final long[] words = new long[_WORDS];
+            two.orInto(words);
+            for(int w = 0; w < _WORDS; w++)
+            {
+               scratch[w] &= ~words[w];
+            }
+         }
+         return fromBitmap(scratch);
+      }
+   }
+   
+   private static final class ArrayContainer extends Container
+   {
+      ArrayContainer(final char[] values, final int size)
+      {
+         this.values = values;
+         this.size = size;
+      }
+      
+      int type()
+      {
+         return 0;
+      }
+      
+      int cardinality()
+      {
+         return size;
+      }
+      
+      boolean contains(final int low)
+      {
+         return Arrays.binarySearch(values, 0, size, (char) low) >= 0;
+      }
+      
+      void orInto(final long[] words)
+      {
+         for(int i = 0; i < size; i++)
+         {
+            words[values[i] >>> 6] |= 1L << values[i];
+         }
+      }
+      
+      int toArray(final int key, final int[] dst, int offset)
+      {
+         for(int i = 0; i < size; i++)
+         {
+            dst[offset++] = value(key, values[i]);
+         }
+         return offset;
+      }
+      
+      /**
+       * 
+       * @return the values that are (keep == true) or are not (keep == false)
+       *         in the other container
+       */
+      Container filter(final Container other, final boolean keep)
+      {
+         final char[] r = new char[size];
+         int n = 0;
+         if(other instanceof ArrayContainer)
+         {
+            final ArrayContainer a = (ArrayContainer) other;
+            int j = 0;
+            for(int i = 0; i < size; i++)
+            {
+               final char v = values[i];
+               while(j < a.size && a.values[j] < v)
+               {
+                  j++;
+               }
+               if((j < a.size && a.values[j] == v) == keep)
+               {
+                  r[n++] = v;
+               }
+            }
+         }
+         else
+         {
+            for(int i = 0; i < size; i++)
+            {
+               if(other.contains(values[i]) == keep)
+               {
+                  r[n++] = values[i];
+               }
+            }
+         }
+         return n == 0 ? null : n == size ? this : new ArrayContainer(r, n);
+      }
+      
+      private final char[] values;
+      private final int size;
+   }
+   
+   private static final class BitmapContainer extends Container
+   {
+      BitmapContainer(final long[] words, final int cardinality)
+      {
+         this.words = words;
+         this.cardinality = cardinality;
+      }
+      
+      int type()
+      {
+         return 1;
+      }
+      
+      int cardinality()
+      {
+         return cardinality;
+      }
+      
+      boolean contains(final int low)
+      {
+         return (words[low >>> 6] & (1L << low)) != 0L;
+      }
+      
+      void orInto(final long[] dst)
+      {
+         for(int w = 0; w < _WORDS; w++)
+         {
+            dst[w] |= words[w];
+         }
+      }
+      
+      int toArray(final int key, final int[] dst, int offset)
+      {
+         for(int w = 0; w < _WORDS; w++)
+         {
+            long x = words[w];
+            while(x != 0L)
+            {
+               dst[offset++] = value(key, (w << 6) + Long.numberOfTrailingZeros(x));
+               x &= x - 1;
+            }
+         }
+         return offset;
+      }
+      
+      private final long[] words;
+      private final int cardinality;
+   }
+   
+   private static final class RunContainer extends Container
+   {
+      /**
+       * 
+       * @param runs
+       *           the first and last value of each run
+       * @param runCount
+       * @param cardinality
+       */
+      RunContainer(final char[] runs, final int runCount, final int cardinality)
+      {
+         this.runs = runs;
+         this.runCount = runCount;
+         this.cardinality = cardinality;
+      }
+      
+      int type()
+      {
+         return 2;
+      }
+      
+      int cardinality()
+      {
+         return cardinality;
+      }
+      
+      boolean contains(final int low)
+      {
+         int lo = 0;
+         int hi = runCount - 1;
+         while(lo <= hi)
+         {
+            final int mid = (lo + hi) >>> 1;
+            if(runs[mid * 2 + 1] < low)
+            {
+               lo = mid + 1;
+            }
+            else if(runs[mid * 2] > low)
+            {
+               hi = mid - 1;
+            }
+            else
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+      
+      void orInto(final long[] words)
+      {
+         for(int r = 0; r < runCount; r++)
+         {
+            final int first = runs[r * 2];
+            final int last = runs[r * 2 + 1];
+            final int firstWord = first >>> 6;
+            final int lastWord = last >>> 6;
+            if(firstWord == lastWord)
+            {
+               words[firstWord] |= (-1L >>> (63 - (last - first))) << first;
+            }
+            else
+            {
+               words[firstWord] |= -1L << first;
+               for(int w = firstWord + 1; w < lastWord; w++)
+               {
+                  words[w] = -1L;
+               }
+               words[lastWord] |= -1L >>> (63 - (last & 63));
+            }
+         }
+      }
+      
+      int toArray(final int key, final int[] dst, int offset)
+      {
+         for(int r = 0; r < runCount; r++)
+         {
+            final int last = runs[r * 2 + 1];
+            for(int v = runs[r * 2]; v <= last; v++)
+            {
+               dst[offset++] = value(key, v);
+            }
+         }
+         return offset;
+      }
+      
+      private final char[] runs;
+      private final int runCount;
+      private final int cardinality;
+   }
+}
@@ -28,7 +28,10 @@ import javax.swing.JPanel;
  * 
  * <p>
  * If "asText" is false, you can combine any files byte-for-byte. They will
- * simply be appended one after the other.
+ * simply be appended one after the other. (That does not work for .grid files,
+ * which each begin with a header; use
+ * {@link com.github.michaelaaronlevy.ork.GridMerger GridMerger} to combine
+ * those.)
  * 
  * <p>
  * If "asText" is true, you can combine multiple text files (perhaps with
@@ -40,7 +43,7 @@ import javax.swing.JPanel;
  * IT IN THE PUBLIC DOMAIN.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class FilesCombiner implements ActionListener
 {
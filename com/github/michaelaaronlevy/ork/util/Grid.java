@@ -17,7 +17,7 @@ import java.nio.charset.Charset;
  * PUBLIC DOMAIN.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class Grid
 {
@@ -43,6 +43,12 @@ public class Grid
       }
    }
    
+   public static void writeLong(final OutputStream stream, final long l) throws IOException
+   {
+      writeInt(stream, (int) (l >> 32));
+      writeInt(stream, (int) l);
+   }
+   
    public static void writeShort(final OutputStream stream, final short s) throws IOException
    {
       // System.err.println("Grid::writeShort " + s);
@@ -138,6 +144,12 @@ public class Grid
       return i;
    }
    
+   public static long readLong(final InputStream stream) throws IOException
+   {
+      final long high = readInt(stream);
+      return (high << 32) | (readInt(stream) & 0xffffffffL);
+   }
+   
    public static int[] readIntArray(final InputStream stream) throws IOException
    {
       int size = readInt(stream);
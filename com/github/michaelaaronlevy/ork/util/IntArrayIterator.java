@@ -18,7 +18,7 @@ import java.util.NoSuchElementException;
  * PLACING IT IN THE PUBLIC DOMAIN.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public final class IntArrayIterator
 {
@@ -147,7 +147,9 @@ public final class IntArrayIterator
     * @param target
     *           if the current loaded value is not at least equal to the target,
     *           then advance until either the iterator is at the end or until
-    *           the loaded value is equal to or greater than the target.
+    *           the loaded value is equal to or greater than the target. (The
+    *           values must be in ascending order: this uses an exponential
+    *           search, so big jumps are cheap.)
     */
    public void advanceTo(final int target)
    {
@@ -155,14 +157,11 @@ public final class IntArrayIterator
       {
          advance();
       }
-      while(!isFinished())
+      if(isFinished())
       {
-         if(getCurrentValue() >= target)
-         {
-            return;
-         }
-         advance();
+         return;
       }
+      index = AscendingStack.gallop(data, start + index, start + size, target) - start;
    }
    
    /**
@@ -0,0 +1,359 @@
+package com.github.michaelaaronlevy.ork.util;
+
+import java.util.Arrays;
+
+/**
+ * a set of integers kept as intervals (runs of consecutive values), each one
+ * only its first and last value. range(1, 3000000), the pages of one PDF, all
+ * of the pages of a project and everything that is not in a list of pages are
+ * each a few intervals, no matter how many pages they have, so nothing has to
+ * be made into a list of every page.
+ * 
+ * <p>
+ * An IntervalSet never changes after it is created. The boolean operations of
+ * {@link AscendingStack AscendingStack} take one directly:
+ * {@link AscendingStack#and(AscendingStack, IntervalSet) and},
+ * {@link AscendingStack#minus(AscendingStack, IntervalSet) minus} and their
+ * tally versions find each interval in the array with two binary searches and
+ * copy (or count) everything in between at once. Taking a list of values away
+ * from an IntervalSet ({@link #minus(int[], int, int) minus}) only looks at
+ * the values that are inside the intervals, and the result is still
+ * intervals, so everything that is not in a list of pages
+ * ({@link AscendingStack#complement(int, int) complement}) is quick to find.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class IntervalSet
+{
+   /**
+    * the values from first to last (empty if last is less than first)
+    */
+   public IntervalSet(final int first, final int last)
+   {
+      if(last < first)
+      {
+         this.firsts = new int[0];
+         this.lasts = new int[0];
+         count = 0;
+      }
+      else
+      {
+         this.firsts = new int[] { first };
+         this.lasts = new int[] { last };
+         count = 1;
+      }
+   }
+   
+   /**
+    * 
+    * @param firsts
+    *           the first value of each interval, in ascending order
+    * @param lasts
+    *           the last value of each interval. There must be at least one
+    *           value in between the last value of one interval and the first
+    *           value of the next (this is not checked).
+    */
+   private IntervalSet(final int[] firsts, final int[] lasts, final int count)
+   {
+      this.firsts = firsts;
+      this.lasts = lasts;
+      this.count = count;
+   }
+   
+   /**
+    * 
+    * @return the values from first to last that are not in this set
+    */
+   public IntervalSet complement(final int first, final int last)
+   {
+      return new IntervalSet(first, last).minus(this);
+   }
+   
+   /**
+    * 
+    * @return the values that are in both sets
+    */
+   public IntervalSet and(final IntervalSet that)
+   {
+      final Builder b = new Builder(Math.max(count, that.count));
+      int i = 0;
+      int j = 0;
+      while(i < count && j < that.count)
+      {
+         b.add(Math.max(firsts[i], that.firsts[j]), Math.min(lasts[i], that.lasts[j]));
+         if(lasts[i] < that.lasts[j])
+         {
+            i++;
+         }
+         else
+         {
+            j++;
+         }
+      }
+      return b.build();
+   }
+   
+   /**
+    * 
+    * @return the values that are in either set
+    */
+   public IntervalSet or(final IntervalSet that)
+   {
+      final Builder b = new Builder(count + that.count);
+      int i = 0;
+      int j = 0;
+      while(i < count || j < that.count)
+      {
+         if(j == that.count || (i < count && firsts[i] <= that.firsts[j]))
+         {
+            b.add(firsts[i], lasts[i]);
+            i++;
+         }
+         else
+         {
+            b.add(that.firsts[j], that.lasts[j]);
+            j++;
+         }
+      }
+      return b.build();
+   }
+   
+   /**
+    * 
+    * @return the values that are in this set and not in that one
+    */
+   public IntervalSet minus(final IntervalSet that)
+   {
+      final Builder b = new Builder(count + that.count);
+      int j = 0;
+      for(int i = 0; i < count; i++)
+      {
+         long first = firsts[i];
+         j = that.search(firsts[i], j);
+         while(j < that.count && that.firsts[j] <= lasts[i])
+         {
+            b.add(first, that.firsts[j] - 1L);
+            first = that.lasts[j] + 1L;
+            if(that.lasts[j] >= lasts[i])
+            {
+               break;
+            }
+            j++;
+         }
+         b.add(first, lasts[i]);
+      }
+      return b.build();
+   }
+   
+   /**
+    * only the values that are inside the intervals are looked at (they are
+    * found with binary searches). {@link AscendingStack#minus(IntervalSet,
+    * AscendingStack) AscendingStack.minus} and
+    * {@link AscendingStack#complement(int, int) complement} use this.
+    * 
+    * @param sorted
+    *           unique values in ascending order (this is not checked)
+    * @param from
+    *           the index of the first value to use
+    * @param to
+    *           one past the index of the last value to use
+    * @return the values that are in this set and not in the array
+    */
+   public IntervalSet minus(final int[] sorted, final int from, final int to)
+   {
+      final Builder b = new Builder(count + 1);
+      int k = from;
+      for(int i = 0; i < count; i++)
+      {
+         long first = firsts[i];
+         k = AscendingStack.gallop(sorted, k, to, firsts[i]);
+         while(k < to && sorted[k] <= lasts[i])
+         {
+            b.add(first, sorted[k] - 1L);
+            first = sorted[k] + 1L;
+            k++;
+         }
+         b.add(first, lasts[i]);
+      }
+      return b.build();
+   }
+   
+   /**
+    * 
+    * @param value
+    * @param from
+    *           the first interval to look at
+    * @return the first interval (from "from" on) that ends at or after this
+    *         value, or the number of intervals if there is none
+    */
+   public int search(final int value, final int from)
+   {
+      int lo = from;
+      int hi = count;
+      while(lo < hi)
+      {
+         final int mid = (lo + hi) >>> 1;
+         if(lasts[mid] < value)
+         {
+            lo = mid + 1;
+         }
+         else
+         {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   public boolean contains(final int value)
+   {
+      final int i = search(value, 0);
+      return i < count && firsts[i] <= value;
+   }
+   
+   /**
+    * 
+    * @return the number of values in the set
+    */
+   public long size()
+   {
+      long size = 0;
+      for(int i = 0; i < count; i++)
+      {
+         size += (long) lasts[i] - firsts[i] + 1;
+      }
+      return size;
+   }
+   
+   public boolean isEmpty()
+   {
+      return count == 0;
+   }
+   
+   public int getIntervalCount()
+   {
+      return count;
+   }
+   
+   public int getFirst(final int interval)
+   {
+      return firsts[interval];
+   }
+   
+   public int getLast(final int interval)
+   {
+      return lasts[interval];
+   }
+   
+   /**
+    * 
+    * @return every value in the set
+    * @throws IndexOutOfBoundsException
+    *            if there are more than AscendingStack._MAX_CAPACITY values
+    */
+   public AscendingStack toAscendingStack()
+   {
+      final long size = size();
+      if(size > AscendingStack._MAX_CAPACITY)
+      {
+         throw new IndexOutOfBoundsException();
+      }
+      final int[] array = new int[(int) size];
+      int n = 0;
+      for(int i = 0; i < count; i++)
+      {
+         for(int v = firsts[i]; v <= lasts[i]; v++)
+         {
+            array[n++] = v;
+            if(v == Integer.MAX_VALUE)
+            {
+               break;
+            }
+         }
+      }
+      return new AscendingStack(array, n);
+   }
+   
+   /**
+    * count every value in the set, an interval at a time
+    */
+   public void tally(final Tally tally)
+   {
+      for(int i = 0; i < count; i++)
+      {
+         tally.addRange(firsts[i], lasts[i]);
+      }
+   }
+   
+   public String toString()
+   {
+      final StringBuilder b = new StringBuilder();
+      b.append('[');
+      for(int i = 0; i < count; i++)
+      {
+         b.append(i == 0 ? "" : ", ").append(firsts[i]);
+         if(lasts[i] != firsts[i])
+         {
+            b.append('-').append(lasts[i]);
+         }
+      }
+      return b.append(']').toString();
+   }
+   
+   /**
+    * builds an IntervalSet from intervals added in ascending order (by their
+    * first values). Intervals that touch or overlap the one before are joined
+    * with it, and empty intervals are left out.
+    */
+   private static final class Builder
+   {
+      Builder(final int capacity)
+      {
+         firsts = new int[Math.max(1, capacity)];
+         lasts = new int[firsts.length];
+      }
+      
+      /**
+       * the numbers are longs so that one past Integer.MAX_VALUE (or one
+       * before Integer.MIN_VALUE) is an empty interval, not a wrong one
+       */
+      void add(final long first, final long last)
+      {
+         if(last < first)
+         {
+            return;
+         }
+         if(count != 0 && first <= lasts[count - 1] + 1L)
+         {
+            lasts[count - 1] = (int) Math.max(lasts[count - 1], last);
+            return;
+         }
+         if(count == firsts.length)
+         {
+            firsts = Arrays.copyOf(firsts, count * 2);
+            lasts = Arrays.copyOf(lasts, count * 2);
+         }
+         firsts[count] = (int) first;
+         lasts[count] = (int) last;
+         count++;
+      }
+      
+      IntervalSet build()
+      {
+         return new IntervalSet(firsts, lasts, count);
+      }
+      
+      private int[] firsts;
+      private int[] lasts;
+      private int count = 0;
+   }
+   
+   private final int[] firsts;
+   private final int[] lasts;
+   
+   /**
+    * the number of intervals
+    */
+   private final int count;
+}
@@ -0,0 +1,191 @@
+package com.github.michaelaaronlevy.ork.util;
+
+/**
+ * counts numbers without keeping them: how many there are in total and, if it
+ * has the ends of some buckets, how many are in each bucket. The numbers must
+ * be added in ascending order (each number after the one before it), which is
+ * how the boolean operations of {@link AscendingStack AscendingStack} find
+ * them.
+ * 
+ * <p>
+ * This is for "how many pages match, in each PDF" without building the list
+ * of pages: the ends of the buckets are the last page of each file.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class Tally
+{
+   /**
+    * a tally that only counts the total
+    */
+   public Tally()
+   {
+      this(null);
+   }
+   
+   /**
+    * 
+    * @param ends
+    *           the last number in each bucket, in ascending order (e.g., the
+    *           last page of each file). Numbers after the last end are only
+    *           counted in the total. If null, there are no buckets.
+    */
+   public Tally(final int[] ends)
+   {
+      this.ends = ends == null ? null : ends.clone();
+      counts = new int[ends == null ? 0 : ends.length];
+   }
+   
+   /**
+    * 
+    * @param value
+    *           must be more than the last value that was added
+    */
+   public void add(final int value)
+   {
+      total++;
+      if(bucket < counts.length)
+      {
+         while(value > ends[bucket])
+         {
+            if(++bucket == counts.length)
+            {
+               return;
+            }
+         }
+         counts[bucket]++;
+      }
+   }
+   
+   /**
+    * add a[from] to a[to - 1]. The buckets are found by searching the array,
+    * so this does not look at every number.
+    * 
+    * @param a
+    *           in ascending order
+    */
+   public void addAll(final int[] a, int from, final int to)
+   {
+      if(from >= to)
+      {
+         return;
+      }
+      total += to - from;
+      while(from < to && bucket < counts.length)
+      {
+         final int end = ends[bucket] == Integer.MAX_VALUE ? to
+               : AscendingStack.gallop(a, from, to, ends[bucket] + 1);
+         counts[bucket] += end - from;
+         from = end;
+         if(from < to)
+         {
+            bucket++;
+         }
+      }
+   }
+   
+   /**
+    * add every number from first to last, a bucket at a time
+    * 
+    * @param first
+    *           must be more than the last value that was added
+    */
+   public void addRange(int first, final int last)
+   {
+      if(last < first)
+      {
+         return;
+      }
+      total += last - first + 1;
+      while(bucket < counts.length)
+      {
+         if(first > ends[bucket])
+         {
+            bucket++;
+         }
+         else if(last <= ends[bucket])
+         {
+            counts[bucket] += last - first + 1;
+            return;
+         }
+         else
+         {
+            counts[bucket] += ends[bucket] - first + 1;
+            first = ends[bucket] + 1;
+            bucket++;
+         }
+      }
+   }
+   
+   /**
+    * add first + i for each bit i that is set (bit i is bit i % 64 of
+    * words[i / 64]). The bits of a word are counted together, unless they are
+    * in more than one bucket.
+    * 
+    * @param first
+    *           must be more than the last value that was added
+    */
+   public void addBits(final long[] words, final int first)
+   {
+      for(int w = 0; w < words.length; w++)
+      {
+         long word = words[w];
+         if(word == 0)
+         {
+            continue;
+         }
+         final int low = first + (w << 6);
+         final int lowest = low + Long.numberOfTrailingZeros(word);
+         final int highest = low + 63 - Long.numberOfLeadingZeros(word);
+         while(bucket < counts.length && lowest > ends[bucket])
+         {
+            bucket++;
+         }
+         if(bucket == counts.length || highest <= ends[bucket])
+         {
+            final int n = Long.bitCount(word);
+            total += n;
+            if(bucket < counts.length)
+            {
+               counts[bucket] += n;
+            }
+         }
+         else
+         {
+            while(word != 0)
+            {
+               add(low + Long.numberOfTrailingZeros(word));
+               word &= word - 1;
+            }
+         }
+      }
+   }
+   
+   /**
+    * 
+    * @return how many numbers were added
+    */
+   public int getTotal()
+   {
+      return total;
+   }
+   
+   /**
+    * 
+    * @return how many numbers are in each bucket (a copy)
+    */
+   public int[] getCounts()
+   {
+      return counts.clone();
+   }
+   
+   private final int[] ends;
+   private final int[] counts;
+   
+   /**
+    * the bucket that the last number was in
+    */
+   private int bucket = 0;
+   private int total = 0;
+}
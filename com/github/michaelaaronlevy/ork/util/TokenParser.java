@@ -600,7 +600,11 @@ public final class TokenParser
       return needsLiteral(word) ? literalVersion(word) : word;
    }
    
-   public static TokenFormat _format = new TokenFormatSimple("_$'", null, null, "//");
+   /**
+    * "*" and "?" are part of words, so wildcards like retaliat* do not have to
+    * be string literals
+    */
+   public static TokenFormat _format = new TokenFormatSimple("_$'*?", null, null, "//");
    
    private static final Character _OPEN = Character.valueOf('(');
    private static final Character _CLOSE = Character.valueOf(')');
@@ -2,7 +2,6 @@ package com.github.michaelaaronlevy.ork.util.pdfbox;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Arrays;
 
 import javax.swing.JTextField;
 
@@ -51,7 +50,8 @@ class PPVTextListener implements PPVElement, ActionListener
       {
          if(search != null)
          {
-            newValue = search == null ? -1 : Arrays.binarySearch(search, newRef.projectPage) + 1;
+            newValue = search == null ? -1 : ProjectPageState.indexOfResult(search, newRef.projectPage,
+                  state.hasRankedResults()) + 1;
             if(newValue <= 0 || newValue == search.length + 1)
             {
                newValue = -1;
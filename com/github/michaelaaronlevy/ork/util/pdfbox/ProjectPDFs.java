@@ -216,6 +216,15 @@ public final class ProjectPDFs
       return pageEndPerFile[pageEndPerFile.length - 1];
    }
    
+   /**
+    * 
+    * @return the last project page of each PDF, in order (a copy)
+    */
+   public int[] getPageEndPerFile()
+   {
+      return Arrays.copyOfRange(pageEndPerFile, 1, pageEndPerFile.length);
+   }
+   
    public String getProjectName()
    {
       return name;
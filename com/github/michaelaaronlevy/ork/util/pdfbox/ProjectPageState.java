@@ -201,7 +201,7 @@ public final class ProjectPageState
    public synchronized void moveFocus1Search(final int[] search, final boolean isForward)
    {
       int currentProjectPage = focus == null ? 0 : focus.projectPage;
-      int searchPoint = Arrays.binarySearch(search, currentProjectPage) + 1;
+      int searchPoint = indexOfResult(search, currentProjectPage, rankedResults) + 1;
       if(searchPoint >= 0)
       {
          searchPoint += (isForward ? 1 : -1);
@@ -222,6 +222,51 @@ public final class ProjectPageState
       setFocusBySearch(search, searchPoint);
    }
    
+   /**
+    * 
+    * @param ranked
+    *           true if the search results that are loaded now are in rank
+    *           order (see {@link ProjectPdfViewer#setResults(int[], boolean)
+    *           setResults})
+    */
+   public synchronized void setRankedResults(final boolean ranked)
+   {
+      rankedResults = ranked;
+   }
+   
+   public synchronized boolean hasRankedResults()
+   {
+      return rankedResults;
+   }
+   
+   /**
+    * the search results are either in page order or in rank order (see
+    * {@link com.github.michaelaaronlevy.ork.wordindex.Bm25Ranker Bm25Ranker}),
+    * so moving to the next result goes to the next page or the next best page
+    * 
+    * @param ranked
+    *           true if the results are in rank order (they might happen to be
+    *           in page order too, so this cannot be worked out from them)
+    * @return where the page is in the search results (like
+    *         Arrays.binarySearch); for results in rank order, -1 if the page is
+    *         not in them, so the next result is the best one
+    */
+   public static int indexOfResult(final int[] search, final int page, final boolean ranked)
+   {
+      if(!ranked)
+      {
+         return Arrays.binarySearch(search, page);
+      }
+      for(int j = 0; j < search.length; j++)
+      {
+         if(search[j] == page)
+         {
+            return j;
+         }
+      }
+      return -1;
+   }
+   
    public synchronized PageReference getPageReference()
    {
       return focus;
@@ -237,5 +282,6 @@ public final class ProjectPageState
    
    private final ProjectPDFs project;
    private PageReference focus = null;
+   private boolean rankedResults = false;
    private final ArrayList<PPVElement> components = new ArrayList<PPVElement>();
 }
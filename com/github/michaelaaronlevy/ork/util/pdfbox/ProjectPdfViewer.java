@@ -194,29 +194,56 @@ public class ProjectPdfViewer implements ActionListener, PPVElement
       return;
    }
    
-   public void setResults(int[] results)
+   /**
+    * load search results in page order
+    */
+   public void setResults(final int[] results)
+   {
+      setResults(results, false);
+   }
+   
+   /**
+    * 
+    * @param results
+    *           the pages to step through
+    * @param ranked
+    *           true if the results are in rank order (best first) instead of
+    *           page order
+    */
+   public void setResults(int[] results, final boolean ranked)
    {
-      if(results == null || results.length == 0 || results[0] > totalProjectPages)
+      if(results == null)
       {
          results = new int[0];
       }
-      else if(results[results.length - 1] > totalProjectPages)
+      else
       {
          // prevent the results array from including values that exceed the
-         // maximum number of pages.
+         // maximum number of pages. The results can be in page order or in
+         // rank order, so the order is kept.
          // steps are taken elsewhere to prevent the results[] sent to this
          // method from having values <= 0.
-         for(int i = 0; i < results.length; i++)
+         int n = 0;
+         for(final int page : results)
+         {
+            n += page > totalProjectPages ? 0 : 1;
+         }
+         if(n != results.length)
          {
-            if(results[i] > totalProjectPages)
+            final int[] r = new int[n];
+            n = 0;
+            for(final int page : results)
             {
-               final int[] r = new int[i];
-               System.arraycopy(results, 0, r, 0, i);
-               results = r;
-               System.err.println(Arrays.toString(results));
+               if(page <= totalProjectPages)
+               {
+                  r[n++] = page;
+               }
             }
+            results = r;
+            System.err.println(Arrays.toString(results));
          }
       }
+      state.setRankedResults(ranked);
       searchDec.setResults(results);
       searchText.setResults(results);
       searchLabel.setResults(results);
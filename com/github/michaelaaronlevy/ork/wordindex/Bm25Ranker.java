@@ -0,0 +1,505 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+
+/**
+ * finds the pages that best match some words, best first, by the BM25 score:
+ * for each word, idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length /
+ * average length)), where tf is how many times the word is on the page,
+ * length is the number of words on the page, and idf is log(1 + (N - n + 0.5)
+ * / (n + 0.5)) for a word that is on n of the N pages. A page with more of the
+ * words, or with rarer words, or with the words more times, scores higher.
+ * 
+ * <p>
+ * Only the best k pages are wanted, so most pages are never scored (WAND with
+ * block-max scores). The lists of pages of the words are walked together in
+ * page order. Each word has the most it can add to the score of any page, and
+ * the pages where the words that have been reached so far cannot add up to
+ * more than the k-th best score so far are skipped. The same is done for each
+ * block of 128 pages (the blocks of {@link PostingsCodec PostingsCodec}), with
+ * the most times the word is on a page in the block and the shortest page in
+ * the block (see {@link IndexContainer.Frequencies Frequencies}), so whole
+ * blocks can be skipped without decoding them.
+ * 
+ * <p>
+ * The term frequencies are in the .orkx file (see {@link IndexContainer
+ * IndexContainer}). For an index with more than one segment, the segments are
+ * ranked one after another with the same list of best pages, and the counts
+ * (N, n and the average length) are for the whole index.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class Bm25Ranker
+{
+   public Bm25Ranker(final SegmentedIndex index)
+   {
+      if(!index.hasFrequencies())
+      {
+         throw new RuntimeException(
+               "Error: ranking needs the term frequencies, and this index (or one of its segments) was built without them (index the PDFs again).");
+      }
+      this.index = index;
+      pageCount = index.getTotalPageCount();
+      averageLength = Math.max(1.0, (double) index.getTotalLength() / Math.max(1, pageCount));
+   }
+   
+   /**
+    * 
+    * @param words
+    *           words that are not in the index, and repeated words, are
+    *           ignored
+    * @param k
+    *           the number of pages wanted
+    * @param filter
+    *           if not null, only these pages can be in the results (ascending)
+    * @param filterSize
+    *           the number of pages in the filter
+    * @return the best k pages (or fewer, if fewer pages have any of the
+    *         words), best first; pages with the same score are in page order
+    */
+   public Ranking rank(final String[] words, final int k, final int[] filter, final int filterSize)
+   {
+      final ArrayList<String> terms = new ArrayList<String>();
+      final ArrayList<Double> idfs = new ArrayList<Double>();
+      for(final String word : new LinkedHashSet<String>(Arrays.asList(words)))
+      {
+         final int id = index.getDictionary().find(word);
+         if(id >= 0)
+         {
+            final int n = index.getPageCount(id);
+            terms.add(word);
+            idfs.add(Math.log(1 + (pageCount - n + 0.5) / (n + 0.5)));
+         }
+      }
+      
+      final PriorityQueue<Hit> best = new PriorityQueue<Hit>(Math.max(1, Math.min(k, pageCount)), _WORST_FIRST);
+      if(k > 0)
+      {
+         final int[] next = new int[] { 0 }; // where the filter is up to
+         for(int s = 0; s < index.getSegmentCount(); s++)
+         {
+            final IndexContainer segment = index.getSegment(s);
+            final ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+            for(int t = 0; t < terms.size(); t++)
+            {
+               final int local = segment.getDictionary().find(terms.get(t));
+               if(local >= 0)
+               {
+                  cursors.add(new Cursor(t, idfs.get(t), segment, local, index.getSegmentOffset(s)));
+               }
+            }
+            rank(cursors.toArray(new Cursor[cursors.size()]), segment, index.getSegmentOffset(s), k, filter,
+                  filterSize, next, best);
+         }
+      }
+      
+      final int[] pages = new int[best.size()];
+      final double[] scores = new double[best.size()];
+      for(int i = pages.length - 1; i >= 0; i--)
+      {
+         final Hit h = best.poll();
+         pages[i] = h.page;
+         scores[i] = h.score;
+      }
+      return new Ranking(pages, scores);
+   }
+   
+   /**
+    * WAND over the pages of one segment
+    */
+   private void rank(final Cursor[] cursors, final IndexContainer segment, final int offset, final int k,
+         final int[] filter, final int filterSize, final int[] next, final PriorityQueue<Hit> best)
+   {
+      for(final Cursor c : cursors)
+      {
+         c.next();
+      }
+      final Cursor[] byTerm = cursors.clone();
+      while(true)
+      {
+         Arrays.sort(cursors, _BY_PAGE);
+         final double threshold = best.size() < k ? 0 : best.peek().score;
+         
+         // the pivot: the first page where the words so far could beat the
+         // threshold
+         double sum = 0;
+         int p = -1;
+         for(int i = 0; i < cursors.length && cursors[i].page != _DONE; i++)
+         {
+            sum += cursors[i].upper;
+            if(sum * _SLACK > threshold)
+            {
+               p = i;
+               break;
+            }
+         }
+         if(p < 0)
+         {
+            return;
+         }
+         final int pivot = cursors[p].page;
+         while(p + 1 < cursors.length && cursors[p + 1].page == pivot)
+         {
+            p++;
+         }
+         
+         if(filter != null)
+         {
+            while(next[0] < filterSize && filter[next[0]] < pivot)
+            {
+               next[0]++;
+            }
+            if(next[0] == filterSize)
+            {
+               return;
+            }
+            if(filter[next[0]] != pivot)
+            {
+               for(int i = 0; i <= p; i++)
+               {
+                  cursors[i].advance(filter[next[0]]);
+               }
+               continue;
+            }
+         }
+         
+         // the blocks that the pivot would be in
+         double blockSum = 0;
+         int skipTo = p + 1 < cursors.length ? cursors[p + 1].page : _DONE;
+         for(int i = 0; i <= p; i++)
+         {
+            final int b = cursors[i].findBlock(pivot);
+            if(b < cursors[i].postings.getBlockCount())
+            {
+               blockSum += cursors[i].getBlockUpper(b);
+               skipTo = Math.min(skipTo, cursors[i].postings.getLastPage(b) + offset + 1);
+            }
+         }
+         if(blockSum * _SLACK <= threshold)
+         {
+            for(int i = 0; i <= p; i++)
+            {
+               cursors[i].advance(skipTo);
+            }
+            continue;
+         }
+         
+         if(cursors[0].page == pivot)
+         {
+            // every word up to the pivot is on the page: score it
+            final int length = segment.getPageLength(pivot - offset);
+            double score = 0;
+            for(final Cursor c : byTerm)
+            {
+               if(c.page == pivot)
+               {
+                  score += c.getScore(length);
+               }
+            }
+            if(best.size() < k)
+            {
+               best.add(new Hit(pivot, score));
+            }
+            else if(score > best.peek().score)
+            {
+               best.poll();
+               best.add(new Hit(pivot, score));
+            }
+            for(int i = 0; i <= p; i++)
+            {
+               cursors[i].next();
+            }
+         }
+         else
+         {
+            for(int i = 0; i < p && cursors[i].page < pivot; i++)
+            {
+               cursors[i].advance(pivot);
+            }
+         }
+      }
+   }
+   
+   /**
+    * 
+    * @return the words that an expression searches for: every word in the
+    *         index, the words a wildcard, regex or fuzzy matches, and the
+    *         words of phrases (not variables, and not the words after a
+    *         minus)
+    */
+   public static String[] getTerms(final Expression e, final Context context)
+   {
+      final ArrayList<String> r = new ArrayList<String>();
+      addTerms(e, context, r);
+      return r.toArray(new String[r.size()]);
+   }
+   
+   private static void addTerms(final Expression e, final Context context, final ArrayList<String> r)
+   {
+      if(e instanceof ExpressionWord)
+      {
+         if(context.getWordId(((ExpressionWord) e).word) >= 0)
+         {
+            r.add(((ExpressionWord) e).word);
+         }
+      }
+      else if(e instanceof ExpressionTerms)
+      {
+         r.addAll(Arrays.asList(((ExpressionTerms) e).getTerms(context)));
+      }
+      else if(e instanceof ExpressionPhrase)
+      {
+         r.addAll(Arrays.asList(((ExpressionPhrase) e).getWords()));
+      }
+      else if(e instanceof ExpressionOperation)
+      {
+         for(final Expression x : ((ExpressionOperation) e).getComponents())
+         {
+            addTerms(x, context, r);
+         }
+      }
+      else if(e instanceof ExpressionExactly)
+      {
+         for(final Expression x : ((ExpressionExactly) e).getComponents())
+         {
+            addTerms(x, context, r);
+         }
+      }
+      else if(e instanceof ExpressionAndNot)
+      {
+         for(final Expression x : ((ExpressionAndNot) e).getIncludes())
+         {
+            addTerms(x, context, r);
+         }
+      }
+      else if(e instanceof ExpressionMinus)
+      {
+         addTerms(((ExpressionMinus) e).left, context, r);
+      }
+   }
+   
+   /**
+    * 
+    * @return true if the pages of the expression are exactly the pages that
+    *         have at least one of its words (so the results do not have to be
+    *         filtered)
+    */
+   public static boolean isAnyOfTerms(final Expression e, final Context context)
+   {
+      if(e instanceof ExpressionWord)
+      {
+         return context.getWordId(((ExpressionWord) e).word) >= 0;
+      }
+      else if(e instanceof ExpressionTerms)
+      {
+         return true;
+      }
+      else if(e instanceof ExpressionOperation && ((ExpressionOperation) e).opCode == 1)
+      {
+         for(final Expression x : ((ExpressionOperation) e).getComponents())
+         {
+            if(!isAnyOfTerms(x, context))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+      return false;
+   }
+   
+   /**
+    * the pages found by {@link Bm25Ranker#rank(String[], int, int[], int)
+    * rank}, best first, and their scores
+    */
+   public static final class Ranking
+   {
+      Ranking(final int[] pages, final double[] scores)
+      {
+         this.pages = pages;
+         this.scores = scores;
+      }
+      
+      public final int[] pages;
+      public final double[] scores;
+   }
+   
+   private static final class Hit
+   {
+      Hit(final int page, final double score)
+      {
+         this.page = page;
+         this.score = score;
+      }
+      
+      final int page;
+      final double score;
+   }
+   
+   /**
+    * one word's list of pages in one segment, decoded one block at a time
+    */
+   private final class Cursor
+   {
+      Cursor(final int term, final double idf, final IndexContainer segment, final int word, final int offset)
+      {
+         this.term = term;
+         this.idf = idf;
+         this.offset = offset;
+         postings = segment.getPostings(word);
+         frequencies = segment.getFrequencies(word);
+         int maxFrequency = 0;
+         int minLength = Integer.MAX_VALUE;
+         for(int b = 0; b < postings.getBlockCount(); b++)
+         {
+            maxFrequency = Math.max(maxFrequency, frequencies.getBlockMaxFrequency(b));
+            minLength = Math.min(minLength, frequencies.getBlockMinLength(b));
+         }
+         upper = idf * getWeight(maxFrequency, minLength);
+      }
+      
+      /**
+       * go to the next page in the list
+       */
+      void next()
+      {
+         index++;
+         setPage();
+      }
+      
+      /**
+       * go to the first page in the list that is not before the target
+       */
+      void advance(final int target)
+      {
+         if(page >= target)
+         {
+            return;
+         }
+         final int b = findBlock(target);
+         if(b >= postings.getBlockCount())
+         {
+            index = postings.size();
+            page = _DONE;
+            return;
+         }
+         if(b != block)
+         {
+            index = b * PostingsCodec._BLOCK_SIZE;
+         }
+         setPage();
+         while(page < target)
+         {
+            index++;
+            setPage();
+         }
+      }
+      
+      /**
+       * 
+       * @return the block that the page would be in (the number of blocks if
+       *         it is after the last page), without decoding anything
+       */
+      int findBlock(final int page)
+      {
+         return postings.findBlock(page - offset, Math.max(block, 0));
+      }
+      
+      double getBlockUpper(final int block)
+      {
+         return idf * getWeight(frequencies.getBlockMaxFrequency(block), frequencies.getBlockMinLength(block));
+      }
+      
+      double getScore(final int length)
+      {
+         return idf * getWeight(frequencies.getFrequency(index), length);
+      }
+      
+      private void setPage()
+      {
+         if(index >= postings.size())
+         {
+            page = _DONE;
+            return;
+         }
+         final int b = index / PostingsCodec._BLOCK_SIZE;
+         if(b != block)
+         {
+            postings.decodeBlock(b, buffer, 0);
+            block = b;
+         }
+         page = buffer[index % PostingsCodec._BLOCK_SIZE] + offset;
+      }
+      
+      final int term;
+      final double idf;
+      final int offset;
+      final PostingsCodec.Decoder postings;
+      final IndexContainer.Frequencies frequencies;
+      
+      /**
+       * the most the word can add to the score of any page
+       */
+      final double upper;
+      
+      private final int[] buffer = new int[PostingsCodec._BLOCK_SIZE];
+      private int block = -1;
+      private int index = -1;
+      
+      /**
+       * the page the cursor is on (in the whole index), or _DONE
+       */
+      int page = -1;
+   }
+   
+   /**
+    * 
+    * @return the part of the score after idf
+    */
+   private double getWeight(final int frequency, final int length)
+   {
+      return frequency * (_K1 + 1) / (frequency + _K1 * (1 - _B + _B * length / averageLength));
+   }
+   
+   private final SegmentedIndex index;
+   private final int pageCount;
+   private final double averageLength;
+   
+   /**
+    * how fast more of the same word stops adding to the score
+    */
+   public static final double _K1 = 1.2;
+   
+   /**
+    * how much longer pages are held back (0 is not at all, 1 is in proportion
+    * to their length)
+    */
+   public static final double _B = 0.75;
+   
+   /**
+    * the number of pages rank() finds if it is not given a number
+    */
+   public static final int _DEFAULT_K = 20;
+   
+   /**
+    * a page can only be skipped if its upper bound is below the threshold by
+    * more than rounding
+    */
+   private static final double _SLACK = 1 + 1e-9;
+   
+   private static final int _DONE = Integer.MAX_VALUE;
+   
+   private static final Comparator<Cursor> _BY_PAGE = (x, y) -> Integer.compare(x.page, y.page);
+   
+   /**
+    * the worst hit is the lowest score, and of two pages with the same score,
+    * the later page
+    */
+   private static final Comparator<Hit> _WORST_FIRST = (x, y) -> x.score != y.score ? Double.compare(x.score, y.score)
+         : Integer.compare(y.page, x.page);
+}
@@ -14,7 +14,7 @@ import com.github.michaelaaronlevy.ork.util.TokenParser;
  * index.)
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class CommandAssign extends Command
 {
@@ -26,7 +26,7 @@ public class CommandAssign extends Command
    
    public void execute(final Context context)
    {
-      final AscendingStack as = value.calculate(context);
+      final AscendingStack as = value.getCalculation(context);
       context.setVariable(varName, as);
    }
    
@@ -38,7 +38,7 @@ public class CommandAssign extends Command
    }
    
    public final String varName;
-   private final Expression value;
+   public final Expression value;
    
    public static final char _OPERATOR = '=';
 }
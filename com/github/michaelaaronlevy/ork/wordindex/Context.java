@@ -9,7 +9,7 @@ import com.github.michaelaaronlevy.ork.util.AscendingStack;
  * interface (depending on which constructor is called).
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public interface Context
 {
@@ -28,6 +28,80 @@ public interface Context
     */
    AscendingStack getPagesFor(String word);
    
+   /**
+    * used by the {@link QueryPlanner QueryPlanner} to decide the order in which
+    * to calculate things. This should be cheap (it should not decode or copy
+    * any lists of pages).
+    * 
+    * @param word
+    * @return the number of pages for this word or variable, or -1 if that is
+    *         not known (or if it is neither a word nor a variable)
+    */
+   default int estimateSize(final String word)
+   {
+      return -1;
+   }
+   
+   /**
+    * 
+    * @return the results kept between commands (see {@link QueryCache
+    *         QueryCache}), or null to calculate every command from scratch
+    */
+   default QueryCache getQueryCache()
+   {
+      return null;
+   }
+   
+   /**
+    * 
+    * @return the sorted list of words in the index (used for wildcards, see
+    *         {@link ExpressionTerms ExpressionTerms}), or null if there is none
+    */
+   default TermDictionary getDictionary()
+   {
+      return null;
+   }
+   
+   /**
+    * used by phrase() and near() (see {@link ExpressionPhrase
+    * ExpressionPhrase})
+    * 
+    * @param word
+    * @return the number of this word in the sorted list of words in the index,
+    *         or -1 if it is not in the index
+    */
+   default int getWordId(final String word)
+   {
+      return -1;
+   }
+   
+   /**
+    * used by phrase() and near() (see {@link ExpressionPhrase
+    * ExpressionPhrase})
+    * 
+    * @param page
+    * @return the words on the page in reading order, each as its number (see
+    *         {@link #getWordId(String) getWordId}), or null if the index does
+    *         not have the positions of the words
+    */
+   default int[] getWordIdsOnPage(final int page)
+   {
+      return null;
+   }
+   
+   /**
+    * used by inFile(), allPages() and not() (see {@link ExpressionFiles
+    * ExpressionFiles} and {@link ExpressionNot ExpressionNot})
+    * 
+    * @return the last page of each PDF, in order (the first PDF is pages 1 to
+    *         r[0], the second is r[0] + 1 to r[1], and so on), or null if that
+    *         is not known
+    */
+   default int[] getPageEndPerFile()
+   {
+      return null;
+   }
+   
    /**
     * the context object needs to perform the calculations associated with this
     * function. So the context object needs to interpret the function to decide
@@ -1,8 +1,11 @@
 package com.github.michaelaaronlevy.ork.wordindex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
+import com.github.michaelaaronlevy.ork.util.Tally;
 import com.github.michaelaaronlevy.ork.util.TokenParser.ParseException;
 
 /**
@@ -12,7 +15,7 @@ import com.github.michaelaaronlevy.ork.util.TokenParser.ParseException;
  * "and" "or" etc. that are performed on other expressions)
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public abstract class Expression extends Command
 {
@@ -20,9 +23,135 @@ public abstract class Expression extends Command
    {
       if(eval == null)
       {
-         eval = calculate(context);
-         eval.makeDirty(); // dirty objects perform faster
+         final QueryCache cache = context.getQueryCache();
+         final String key = cache == null ? null : getCanonicalKey();
+         if(key != null)
+         {
+            eval = cache.get(key);
+         }
+         if(eval == null)
+         {
+            eval = calculate(context);
+            eval.makeDirty(); // dirty objects perform faster
+            if(key != null)
+            {
+               cache.put(key, eval);
+            }
+         }
+      }
+      return eval;
+   }
+   
+   /**
+    * count the pages of this expression (for count() and facet()) without
+    * building the list of pages, if it can be helped: a result that was
+    * already calculated (or is in the {@link QueryCache QueryCache}) is
+    * counted, and otherwise only the parts of the expression are calculated,
+    * and the last step counts the pages as it finds them. Nothing is added to
+    * the cache for the expression itself.
+    * 
+    * @param tally
+    *           counts the pages, in ascending order
+    */
+   public final void tally(final Context context, final Tally tally)
+   {
+      AscendingStack as = eval;
+      if(as == null)
+      {
+         final QueryCache cache = context.getQueryCache();
+         final String key = cache == null ? null : getCanonicalKey();
+         as = key == null ? null : cache.get(key);
       }
+      if(as != null)
+      {
+         as.tally(tally);
+      }
+      else
+      {
+         calculateTally(context, tally);
+      }
+   }
+   
+   /**
+    * subclasses that combine other expressions override this, so that their
+    * last step does not keep the pages
+    */
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      getCalculation(context).tally(tally);
+   }
+   
+   /**
+    * range(), inFile(), allPages() and not() override this, and so do and()
+    * and or() when all of their components are intervals. and(), "a - b" and
+    * {@link ExpressionAndNot ExpressionAndNot} use the intervals directly (see
+    * {@link AscendingStack#and(AscendingStack, IntervalSet) AscendingStack.and})
+    * instead of making them into lists of pages.
+    * 
+    * @return the pages as an {@link IntervalSet IntervalSet}, or null if this
+    *         expression is not a few runs of consecutive pages
+    */
+   IntervalSet getIntervals(final Context context)
+   {
+      return null;
+   }
+   
+   /**
+    * 
+    * @return a key that is the same for expressions that always give the same
+    *         pages: the script, except that the components of and(), or(),
+    *         atLeast, oddParity() and exactly are sorted. It is null if the
+    *         result depends on an {@link ExpressionFunction ExpressionFunction},
+    *         because the {@link Context Context} might not give the same answer
+    *         next time.
+    */
+   final String getCanonicalKey()
+   {
+      if(!canonicalized)
+      {
+         canonicalKey = canonicalize();
+         canonicalized = true;
+      }
+      return canonicalKey;
+   }
+   
+   /**
+    * subclasses with components override this (see {@link #getCanonicalKey()
+    * getCanonicalKey})
+    */
+   String canonicalize()
+   {
+      return toString();
+   }
+   
+   /**
+    * 
+    * @return name(key,key,key) or null if any of the components has no key
+    */
+   static String canonicalize(final String name, final Expression[] components, final boolean sort)
+   {
+      final String[] keys = new String[components.length];
+      for(int i = 0; i < keys.length; i++)
+      {
+         keys[i] = components[i].getCanonicalKey();
+         if(keys[i] == null)
+         {
+            return null;
+         }
+      }
+      if(sort)
+      {
+         Arrays.sort(keys);
+      }
+      return name + "(" + String.join(",", keys) + ")";
+   }
+   
+   /**
+    * 
+    * @return the result, if it has been calculated (otherwise null)
+    */
+   AscendingStack getCachedCalculation()
+   {
       return eval;
    }
    
@@ -35,6 +164,8 @@ public abstract class Expression extends Command
    protected abstract AscendingStack calculate(final Context context);
    
    private AscendingStack eval = null;
+   private String canonicalKey = null;
+   private boolean canonicalized = false;
    
    public static Expression parse(final Object[] tokens) throws ParseException
    {
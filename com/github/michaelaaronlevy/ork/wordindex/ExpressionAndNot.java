@@ -0,0 +1,239 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
+import com.github.michaelaaronlevy.ork.util.Tally;
+
+/**
+ * the pages that are in all of the "includes" and in none of the "excludes".
+ * This is what the {@link QueryPlanner QueryPlanner} turns "(a &amp; b) - c"
+ * and "(a - c) &amp; b" into: the includes are intersected first (smallest
+ * first), then the excludes are taken away from what is left. Nothing else is
+ * calculated once the result is empty.
+ * 
+ * <p>
+ * It is written in scripts as "( ( a &amp; b ) - c - d )", which means the
+ * same thing.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class ExpressionAndNot extends Expression
+{
+   public ExpressionAndNot(final Expression[] includes, final Expression[] excludes)
+   {
+      if(includes.length == 0)
+      {
+         throw new IllegalArgumentException("ExpressionAndNot needs at least one expression to include.");
+      }
+      this.includes = includes.clone();
+      this.excludes = excludes.clone();
+   }
+   
+   protected AscendingStack calculate(final Context context)
+   {
+      return calculate(context, includes, excludes, null);
+   }
+   
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      calculate(context, includes, excludes, tally);
+   }
+   
+   /**
+    * also used by and() and "a - b". The lists of pages of the includes are
+    * intersected in order (smallest first, after the {@link QueryPlanner
+    * QueryPlanner}), then the includes that are intervals (see
+    * {@link Expression#getIntervals(Context) getIntervals}) are applied, each
+    * interval with two binary searches, then the excludes are taken away. If
+    * every include is intervals, the excludes are taken away from the
+    * intervals, and the pages are only listed (or counted) at the end.
+    * Nothing more is calculated once the result is empty.
+    * 
+    * <p>
+    * If nothing is intervals, the pages are counted all at once (see
+    * {@link AscendingStack#tallyAndNot(AscendingStack[], AscendingStack[], Tally)
+    * tallyAndNot}).
+    * 
+    * @param tally
+    *           if not null, the last step counts the pages instead of keeping
+    *           them (and the return is null)
+    */
+   static AscendingStack calculate(final Context context, final Expression[] includes, final Expression[] excludes,
+         final Tally tally)
+   {
+      IntervalSet runs = null;
+      final ArrayList<Expression> lists = new ArrayList<Expression>();
+      for(final Expression e : includes)
+      {
+         final IntervalSet set = e.getIntervals(context);
+         if(set == null)
+         {
+            lists.add(e);
+         }
+         else
+         {
+            runs = runs == null ? set : runs.and(set);
+         }
+      }
+      final IntervalSet[] outRuns = new IntervalSet[excludes.length];
+      boolean anyRuns = runs != null;
+      for(int i = 0; i < excludes.length; i++)
+      {
+         outRuns[i] = excludes[i].getIntervals(context);
+         anyRuns |= outRuns[i] != null;
+      }
+      
+      if(lists.isEmpty())
+      {
+         for(int i = 0; i < excludes.length && !runs.isEmpty(); i++)
+         {
+            runs = outRuns[i] != null ? runs.minus(outRuns[i])
+                  : AscendingStack.minus(runs, excludes[i].getCalculation(context));
+         }
+         if(tally == null)
+         {
+            return runs.toAscendingStack();
+         }
+         runs.tally(tally);
+         return null;
+      }
+      else if(tally != null && !anyRuns)
+      {
+         final AscendingStack[] in = new AscendingStack[includes.length];
+         for(int i = 0; i < in.length; i++)
+         {
+            in[i] = includes[i].getCalculation(context);
+            if(in[i].isEmpty())
+            {
+               return null;
+            }
+         }
+         final AscendingStack[] out = new AscendingStack[excludes.length];
+         for(int i = 0; i < out.length; i++)
+         {
+            out[i] = excludes[i].getCalculation(context);
+         }
+         AscendingStack.tallyAndNot(in, out, tally);
+         return null;
+      }
+      
+      // the number of steps left (when counting, the last one counts)
+      int steps = lists.size() - 1 + (runs == null ? 0 : 1) + excludes.length;
+      AscendingStack r = lists.get(0).getCalculation(context);
+      for(int i = 1; i < lists.size(); i++)
+      {
+         if(r.isEmpty())
+         {
+            return tally == null ? r : null;
+         }
+         final AscendingStack next = lists.get(i).getCalculation(context);
+         if(--steps == 0 && tally != null)
+         {
+            AscendingStack.tallyAnd(r, next, tally);
+            return null;
+         }
+         r = AscendingStack.and(r, next);
+      }
+      if(runs != null && !r.isEmpty())
+      {
+         if(--steps == 0 && tally != null)
+         {
+            AscendingStack.tallyAnd(r, runs, tally);
+            return null;
+         }
+         r = AscendingStack.and(r, runs);
+      }
+      for(int i = 0; i < excludes.length && !r.isEmpty(); i++)
+      {
+         final boolean last = --steps == 0 && tally != null;
+         if(outRuns[i] != null)
+         {
+            if(last)
+            {
+               AscendingStack.tallyMinus(r, outRuns[i], tally);
+               return null;
+            }
+            r = AscendingStack.minus(r, outRuns[i]);
+         }
+         else
+         {
+            final AscendingStack next = excludes[i].getCalculation(context);
+            if(last)
+            {
+               AscendingStack.tallyMinus(r, next, tally);
+               return null;
+            }
+            r = AscendingStack.minus(r, next);
+         }
+      }
+      if(tally != null)
+      {
+         r.tally(tally);
+         return null;
+      }
+      return r;
+   }
+   
+   public void writeScript(final Appendable a) throws IOException
+   {
+      a.append("( ");
+      if(includes.length == 1)
+      {
+         includes[0].writeScript(a);
+      }
+      else
+      {
+         a.append("( ");
+         includes[0].writeScript(a);
+         for(int i = 1; i < includes.length; i++)
+         {
+            a.append(' ');
+            a.append(ExpressionOperation._AND_OPERATOR);
+            a.append(' ');
+            includes[i].writeScript(a);
+         }
+         a.append(" )");
+      }
+      for(final Expression e : excludes)
+      {
+         a.append(' ');
+         a.append(ExpressionMinus._OPERATOR);
+         a.append(' ');
+         e.writeScript(a);
+      }
+      a.append(" )");
+   }
+   
+   /**
+    * the same key as "a - b" if there is one include and one exclude
+    */
+   String canonicalize()
+   {
+      final Expression include = includes.length == 1 ? includes[0]
+            : new ExpressionOperation(includes.length, includes);
+      final String in = include.getCanonicalKey();
+      final String out = canonicalize("", excludes, true); // "(x,y)"
+      if(in == null || out == null)
+      {
+         return null;
+      }
+      return ExpressionMinus._MINUS_NAME + "(" + in + "," + out.substring(1);
+   }
+   
+   Expression[] getIncludes()
+   {
+      return includes.clone();
+   }
+   
+   Expression[] getExcludes()
+   {
+      return excludes.clone();
+   }
+   
+   private final Expression[] includes;
+   private final Expression[] excludes;
+}
@@ -3,6 +3,7 @@ package com.github.michaelaaronlevy.ork.wordindex;
 import java.io.IOException;
 
 import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.Tally;
 
 /**
  * This class supports nine functions, the names of which are listed below.
@@ -16,7 +17,7 @@ import com.github.michaelaaronlevy.ork.util.AscendingStack;
  * exactly5() exactly6() exactly7() exactly8() and exactly9()
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class ExpressionExactly extends Expression
 {
@@ -28,8 +29,37 @@ public class ExpressionExactly extends Expression
    
    protected AscendingStack calculate(Context context)
    {
-      return new ExpressionMinus(new ExpressionOperation(count, components),
-            new ExpressionOperation(count + 1, components)).getCalculation(context);
+      final AscendingStack[] stacks = new AscendingStack[components.length];
+      for(int i = 0; i < stacks.length; i++)
+      {
+         stacks[i] = components[i].getCalculation(context);
+      }
+      return AscendingStack.exactly(count, stacks);
+   }
+   
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      final AscendingStack[] stacks = new AscendingStack[components.length];
+      for(int i = 0; i < stacks.length; i++)
+      {
+         stacks[i] = components[i].getCalculation(context);
+      }
+      AscendingStack.tallyExactly(count, stacks, tally);
+   }
+   
+   int getCount()
+   {
+      return count;
+   }
+   
+   Expression[] getComponents()
+   {
+      return components.clone();
+   }
+   
+   String canonicalize()
+   {
+      return canonicalize(_EXACTLY_NAME + count, components, true);
    }
    
    public void writeScript(Appendable a) throws IOException
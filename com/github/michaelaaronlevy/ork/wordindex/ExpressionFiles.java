@@ -0,0 +1,131 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
+
+/**
+ * "inFile(17)" returns every page of the 17th PDF of the project (in the order
+ * that printProjectInfo() lists them), "inFile(3, 5)" every page of the third
+ * and fifth PDFs, and "allPages()" every page of the project.
+ * 
+ * <p>
+ * The pages are kept as intervals (see {@link IntervalSet IntervalSet}), one
+ * for each PDF, so "retaliation &amp; inFile(17)" only has to find where the
+ * 17th PDF starts and ends in the list of pages for retaliation, and
+ * "allPages() - retaliation" is only the gaps in that list.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class ExpressionFiles extends Expression
+{
+   /**
+    * 
+    * @param files
+    *           the numbers of the PDFs (the first is 1), or null for every
+    *           page
+    */
+   public ExpressionFiles(final int[] files)
+   {
+      this.files = files == null ? null : files.clone();
+   }
+   
+   public static boolean isFiles(final String name)
+   {
+      return name.equals(_IN_FILE_NAME) || name.equals(_ALL_PAGES_NAME);
+   }
+   
+   public static Expression getExpression(final String name, final Expression[] arguments)
+   {
+      if(name.equals(_ALL_PAGES_NAME))
+      {
+         if(arguments.length != 0)
+         {
+            throw new IllegalArgumentException("ERROR: " + _ALL_PAGES_NAME + "() must take zero arguments.");
+         }
+         return new ExpressionFiles(null);
+      }
+      if(arguments.length == 0)
+      {
+         throw new IllegalArgumentException("ERROR: " + _IN_FILE_NAME + "() must have at least one PDF number.");
+      }
+      return new ExpressionFiles(ExpressionConstant.getIntegerLiterals(arguments));
+   }
+   
+   protected AscendingStack calculate(final Context context)
+   {
+      return getIntervals(context).toAscendingStack();
+   }
+   
+   IntervalSet getIntervals(final Context context)
+   {
+      final int[] ends = getPageEndPerFile(context);
+      if(files == null)
+      {
+         return new IntervalSet(1, ends.length == 0 ? 0 : ends[ends.length - 1]);
+      }
+      IntervalSet r = new IntervalSet(1, 0);
+      for(final int f : files)
+      {
+         if(f < 1 || f > ends.length)
+         {
+            throw new RuntimeException(
+                  "Error: " + _IN_FILE_NAME + "() takes the number of a PDF, from 1 to " + ends.length + ": " + f);
+         }
+         r = r.or(new IntervalSet(f == 1 ? 1 : ends[f - 2] + 1, ends[f - 1]));
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the last page of each PDF (see
+    *         {@link Context#getPageEndPerFile() Context.getPageEndPerFile})
+    * @throws RuntimeException
+    *            if the {@link Context Context} does not know them
+    */
+   static int[] getPageEndPerFile(final Context context)
+   {
+      final int[] ends = context.getPageEndPerFile();
+      if(ends == null)
+      {
+         throw new RuntimeException("Error: inFile(), allPages() and not() need to know the pages of each PDF.");
+      }
+      return ends;
+   }
+   
+   /**
+    * 
+    * @return the number of pages in the project
+    */
+   static int getPageCount(final Context context)
+   {
+      final int[] ends = getPageEndPerFile(context);
+      return ends.length == 0 ? 0 : ends[ends.length - 1];
+   }
+   
+   public void writeScript(final Appendable a) throws IOException
+   {
+      a.append(files == null ? _ALL_PAGES_NAME : _IN_FILE_NAME);
+      a.append('(');
+      for(int i = 0; files != null && i < files.length; i++)
+      {
+         if(i != 0)
+         {
+            a.append(',');
+         }
+         a.append(Integer.toString(files[i]));
+      }
+      a.append(')');
+   }
+   
+   public static final String _IN_FILE_NAME = "inFile";
+   public static final String _ALL_PAGES_NAME = "allPages";
+   
+   /**
+    * null for allPages()
+    */
+   private final int[] files;
+}
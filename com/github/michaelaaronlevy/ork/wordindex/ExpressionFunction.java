@@ -25,6 +25,16 @@ public class ExpressionFunction extends Expression
       return context.calculateFunction(name, arguments);
    }
    
+   /**
+    * 
+    * @return null (the result is up to the {@link Context Context}, so it is
+    *         never shared or kept between commands)
+    */
+   String canonicalize()
+   {
+      return null;
+   }
+   
    public void writeScript(Appendable a) throws IOException
    {
       a.append(TokenParser.literalIfNeeded(name));
@@ -3,13 +3,14 @@ package com.github.michaelaaronlevy.ork.wordindex;
 import java.io.IOException;
 
 import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.Tally;
 
 /**
  * for A - B, return all of the pages that are in A only. Do not return any
  * pages that are in B only. Do not return any pages that are in both A &amp; B.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class ExpressionMinus extends Expression
 {
@@ -21,9 +22,18 @@ public class ExpressionMinus extends Expression
    
    protected AscendingStack calculate(final Context context)
    {
-      final AscendingStack one = left.getCalculation(context);
-      final AscendingStack two = right.getCalculation(context);
-      return AscendingStack.minus(one, two);
+      // the right side is not calculated if the left side is empty
+      return ExpressionAndNot.calculate(context, new Expression[] { left }, new Expression[] { right }, null);
+   }
+   
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      ExpressionAndNot.calculate(context, new Expression[] { left }, new Expression[] { right }, tally);
+   }
+   
+   String canonicalize()
+   {
+      return canonicalize(_MINUS_NAME, new Expression[] { left, right }, false);
    }
    
    public void writeScript(Appendable a) throws IOException
@@ -41,4 +51,9 @@ public class ExpressionMinus extends Expression
    public final Expression right;
    
    public static final char _OPERATOR = '-';
+   
+   /**
+    * only used in canonical keys (there is no minus() function in scripts)
+    */
+   static final String _MINUS_NAME = "minus";
 }
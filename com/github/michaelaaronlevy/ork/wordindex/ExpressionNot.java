@@ -0,0 +1,83 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
+import com.github.michaelaaronlevy.ork.util.Tally;
+
+/**
+ * "not(x)" returns every page of the project that is not in x.
+ * 
+ * <p>
+ * It is kept as intervals: the gaps in between the pages of x (see
+ * {@link AscendingStack#complement(int, int) AscendingStack.complement}), so it
+ * never takes more room than x does, and count(not(x)) never makes a list of
+ * pages. The {@link QueryPlanner QueryPlanner} turns "a &amp; not(b)" into
+ * "a - b" and "a - not(b)" into "a &amp; b", so most of the time the
+ * complement is not calculated at all.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class ExpressionNot extends Expression
+{
+   public ExpressionNot(final Expression component)
+   {
+      this.component = component;
+   }
+   
+   public static Expression getExpression(final Expression[] arguments)
+   {
+      if(arguments.length != 1)
+      {
+         throw new IllegalArgumentException("ERROR: " + _NOT_NAME + "() must have exactly one argument.");
+      }
+      return new ExpressionNot(arguments[0]);
+   }
+   
+   protected AscendingStack calculate(final Context context)
+   {
+      return getIntervals(context).toAscendingStack();
+   }
+   
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      getIntervals(context).tally(tally);
+   }
+   
+   IntervalSet getIntervals(final Context context)
+   {
+      if(intervals == null)
+      {
+         final int pageCount = ExpressionFiles.getPageCount(context);
+         final IntervalSet set = component.getIntervals(context);
+         intervals = set != null ? set.complement(1, pageCount)
+               : component.getCalculation(context).complement(1, pageCount);
+      }
+      return intervals;
+   }
+   
+   Expression getComponent()
+   {
+      return component;
+   }
+   
+   String canonicalize()
+   {
+      return canonicalize(_NOT_NAME, new Expression[] { component }, false);
+   }
+   
+   public void writeScript(final Appendable a) throws IOException
+   {
+      a.append(_NOT_NAME);
+      a.append("( ");
+      component.writeScript(a);
+      a.append(" )");
+   }
+   
+   public static final String _NOT_NAME = "not";
+   
+   private final Expression component;
+   private IntervalSet intervals = null;
+}
@@ -3,13 +3,15 @@ package com.github.michaelaaronlevy.ork.wordindex;
 import java.io.IOException;
 
 import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
+import com.github.michaelaaronlevy.ork.util.Tally;
 
 /**
  * this class performs boolean operations (and, atLeast, or, xor, oddParity) on
  * multiple inputs.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class ExpressionOperation extends Expression
 {
@@ -143,6 +145,22 @@ public class ExpressionOperation extends Expression
       {
          return new ExpressionRange(components);
       }
+      else if(ExpressionFiles.isFiles(name))
+      {
+         return ExpressionFiles.getExpression(name, components);
+      }
+      else if(name.equals(ExpressionNot._NOT_NAME))
+      {
+         return ExpressionNot.getExpression(components);
+      }
+      else if(ExpressionPhrase.isPhrase(name))
+      {
+         return ExpressionPhrase.getExpression(name, components);
+      }
+      else if(ExpressionTerms.isTerms(name))
+      {
+         return ExpressionTerms.getExpression(name, components);
+      }
       else
       {
          throw new IllegalArgumentException();
@@ -151,14 +169,84 @@ public class ExpressionOperation extends Expression
    
    protected AscendingStack calculate(final Context context)
    {
+      if(opCode == components.length && opCode > 1)
+      {
+         // "and": intersect in order (the QueryPlanner puts the smallest
+         // first) and stop as soon as nothing is left
+         return ExpressionAndNot.calculate(context, components, _NONE, null);
+      }
       final AscendingStack[] stacks = new AscendingStack[components.length];
       for(int i = 0; i < stacks.length; i++)
       {
-         stacks[i] = components[i].calculate(context);
+         stacks[i] = components[i].getCalculation(context);
       }
       return AscendingStack.generic(opCode, stacks);
    }
    
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      if(isAnd())
+      {
+         ExpressionAndNot.calculate(context, components, _NONE, tally);
+         return;
+      }
+      final AscendingStack[] stacks = new AscendingStack[components.length];
+      for(int i = 0; i < stacks.length; i++)
+      {
+         stacks[i] = components[i].getCalculation(context);
+         if(isAnd() && stacks[i].isEmpty())
+         {
+            return; // nothing more needs to be calculated
+         }
+      }
+      AscendingStack.tallyGeneric(opCode, tally, stacks);
+   }
+   
+   /**
+    * 
+    * @return for and() and or(), the intervals of the components combined, if
+    *         every component is intervals (otherwise null)
+    */
+   IntervalSet getIntervals(final Context context)
+   {
+      if(!isAnd() && opCode != 1)
+      {
+         return null;
+      }
+      IntervalSet r = null;
+      for(final Expression e : components)
+      {
+         final IntervalSet set = e.getIntervals(context);
+         if(set == null)
+         {
+            return null;
+         }
+         r = r == null ? set : isAnd() ? r.and(set) : r.or(set);
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return true if this is and() (every component must have the page)
+    */
+   public boolean isAnd()
+   {
+      return opCode == components.length && opCode > 1;
+   }
+   
+   Expression[] getComponents()
+   {
+      return components.clone();
+   }
+   
+   String canonicalize()
+   {
+      final String name = isAnd() ? _AND_NAME
+            : opCode == 1 ? _OR_NAME : opCode == 0 ? _ODD_NAME : _AT_LEAST_NAME + opCode;
+      return canonicalize(name, components, true);
+   }
+   
    public void writeScript(final Appendable a) throws IOException
    {
       if(separator == _ODD_OPERATOR && components.length > 2)
@@ -203,7 +291,9 @@ public class ExpressionOperation extends Expression
       boolean flag = false;
       if(name.equals(_AND_NAME) || name.equals(_OR_NAME) || name.equals(_XOR_NAME) || name.equals(_ODD_NAME)
             || name.equals(ExpressionConstant._CONSTANTS_NAME) || name.equals(ExpressionConstant._EMPTY_NAME)
-            || name.equals(ExpressionRange._RANGE_NAME))
+            || name.equals(ExpressionRange._RANGE_NAME) || ExpressionFiles.isFiles(name)
+            || name.equals(ExpressionNot._NOT_NAME) || ExpressionPhrase.isPhrase(name)
+            || ExpressionTerms.isTerms(name))
       {
          flag = true;
       }
@@ -225,6 +315,8 @@ public class ExpressionOperation extends Expression
    
    private final Expression[] components;
    
+   private static final Expression[] _NONE = new Expression[0];
+   
    public static final char _COMMA = ',';
    public static final char _AT_LEAST_OPERATOR = '>';
    public static final char _AND_OPERATOR = '&';
@@ -0,0 +1,242 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+
+/**
+ * "phrase(overtime, pay)" returns the pages where the words appear one right
+ * after the other, in that order. A string literal with spaces in it is
+ * split into words, so phrase("overtime pay") is the same thing.
+ * 
+ * <p>
+ * "near5(manager, retaliation)" returns the pages where the words are at most
+ * 5 words apart, in any order (next to each other is 1 apart). With more than
+ * two words, all of them must be within that distance of each other. "near()"
+ * is the same as "near5()"; the distance can be any number ("near12()").
+ * 
+ * <p>
+ * The pages that have all of the words are found first, from the lists of
+ * pages; only those pages are checked with the positions from the .conp file
+ * (see {@link PositionsFile PositionsFile}).
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class ExpressionPhrase extends Expression
+{
+   /**
+    * 
+    * @param words
+    *           words in the index (not variables)
+    * @param distance
+    *           0 for a phrase, otherwise the most words apart they can be
+    */
+   public ExpressionPhrase(final String[] words, final int distance)
+   {
+      if(words.length == 0)
+      {
+         throw new IllegalArgumentException("ERROR: phrase() and near() must have at least one word.");
+      }
+      this.words = words.clone();
+      this.distance = distance;
+   }
+   
+   public static boolean isPhrase(final String name)
+   {
+      return name.equals(_PHRASE_NAME) || getDistance(name) > 0;
+   }
+   
+   public static Expression getExpression(final String name, final Expression[] arguments)
+   {
+      final ArrayList<String> list = new ArrayList<String>();
+      for(final Expression e : arguments)
+      {
+         if(!(e instanceof ExpressionWord))
+         {
+            throw new IllegalArgumentException("ERROR: " + name + "() only takes words, not " + e.toString());
+         }
+         for(final String s : ((ExpressionWord) e).word.trim().split("\\s+"))
+         {
+            list.add(s);
+         }
+      }
+      final String[] w = list.toArray(new String[list.size()]);
+      if(name.equals(_PHRASE_NAME))
+      {
+         return w.length == 1 ? new ExpressionWord(w[0]) : new ExpressionPhrase(w, 0);
+      }
+      if(w.length < 2)
+      {
+         throw new IllegalArgumentException("ERROR: " + name + "() must have at least two words.");
+      }
+      return new ExpressionPhrase(w, getDistance(name));
+   }
+   
+   /**
+    * 
+    * @return the distance for "nearN" (or the default for "near"), or -1 if
+    *         this is not a near() function
+    */
+   private static int getDistance(final String name)
+   {
+      if(!name.startsWith(_NEAR_NAME))
+      {
+         return -1;
+      }
+      if(name.length() == _NEAR_NAME.length())
+      {
+         return _DEFAULT_DISTANCE;
+      }
+      if(name.length() > _NEAR_NAME.length() + 6)
+      {
+         return -1;
+      }
+      int d = 0;
+      for(int i = _NEAR_NAME.length(); i < name.length(); i++)
+      {
+         final char c = name.charAt(i);
+         if(c < '0' || c > '9')
+         {
+            return -1;
+         }
+         d = d * 10 + c - '0';
+      }
+      return d;
+   }
+   
+   protected AscendingStack calculate(final Context context)
+   {
+      final int[] ids = new int[words.length];
+      final AscendingStack[] stacks = new AscendingStack[words.length];
+      for(int i = 0; i < ids.length; i++)
+      {
+         ids[i] = context.getWordId(words[i]);
+         if(ids[i] < 0)
+         {
+            throw new RuntimeException("Error: phrase() and near() only work with words in the index: " + words[i]);
+         }
+         stacks[i] = new ExpressionWord(words[i]).getCalculation(context);
+      }
+      Arrays.sort(stacks, (x, y) -> Integer.compare(x.size(), y.size()));
+      AscendingStack candidates = stacks[0];
+      for(int i = 1; i < stacks.length && !candidates.isEmpty(); i++)
+      {
+         candidates = AscendingStack.and(candidates, stacks[i]);
+      }
+      
+      final int[] pages = candidates.integerArray();
+      final int n = candidates.size();
+      final AscendingStack r = new AscendingStack(n);
+      for(int i = 0; i < n; i++)
+      {
+         final int[] onPage = context.getWordIdsOnPage(pages[i]);
+         if(onPage == null)
+         {
+            throw new RuntimeException(
+                  "Error: this index has no .conp file, so phrase() and near() cannot be used. Index the PDFs again.");
+         }
+         if(distance == 0 ? hasPhrase(onPage, ids) : isNear(onPage, ids, distance))
+         {
+            r.push(pages[i]);
+         }
+      }
+      return r;
+   }
+   
+   private static boolean hasPhrase(final int[] onPage, final int[] ids)
+   {
+      for(int p = 0; p + ids.length <= onPage.length; p++)
+      {
+         int i = 0;
+         while(i < ids.length && onPage[p + i] == ids[i])
+         {
+            i++;
+         }
+         if(i == ids.length)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * the smallest window of positions that holds every word (as many times as
+    * it is in the list of words) is found with a sliding window
+    */
+   private static boolean isNear(final int[] onPage, final int[] ids, final int distance)
+   {
+      final int[] unique = Arrays.stream(ids).distinct().sorted().toArray();
+      final int[] needed = new int[unique.length];
+      for(final int id : ids)
+      {
+         needed[Arrays.binarySearch(unique, id)]++;
+      }
+      final int[] have = new int[unique.length];
+      int missing = ids.length;
+      int left = 0;
+      for(int right = 0; right < onPage.length; right++)
+      {
+         final int k = Arrays.binarySearch(unique, onPage[right]);
+         if(k < 0)
+         {
+            continue;
+         }
+         if(have[k]++ < needed[k])
+         {
+            missing--;
+         }
+         while(missing == 0)
+         {
+            final int j = Arrays.binarySearch(unique, onPage[left]);
+            if(j >= 0)
+            {
+               if(right - left <= distance)
+               {
+                  return true;
+               }
+               if(--have[j] < needed[j])
+               {
+                  missing++;
+               }
+            }
+            left++;
+         }
+      }
+      return false;
+   }
+   
+   public void writeScript(final Appendable a) throws IOException
+   {
+      a.append(distance == 0 ? _PHRASE_NAME : _NEAR_NAME + distance);
+      a.append("( ");
+      for(int i = 0; i < words.length; i++)
+      {
+         if(i != 0)
+         {
+            a.append(", ");
+         }
+         new ExpressionWord(words[i]).writeScript(a);
+      }
+      a.append(") ");
+   }
+   
+   String[] getWords()
+   {
+      return words.clone();
+   }
+   
+   private final String[] words;
+   private final int distance;
+   
+   public static final String _PHRASE_NAME = "phrase";
+   public static final String _NEAR_NAME = "near";
+   
+   /**
+    * the distance for "near()" without a number
+    */
+   public static final int _DEFAULT_DISTANCE = 5;
+}
@@ -3,6 +3,7 @@ package com.github.michaelaaronlevy.ork.wordindex;
 import java.io.IOException;
 
 import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
 
 /**
  * A range is a series of integers from start to end, with step. If you wanted
@@ -13,7 +14,7 @@ import com.github.michaelaaronlevy.ork.util.AscendingStack;
  * E.g., range(1,5,1) returns [1,2,3,4,5]. range(2,8,2) returns [2,4,6,8].
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class ExpressionRange extends Expression
 {
@@ -59,6 +60,10 @@ public class ExpressionRange extends Expression
    
    protected AscendingStack calculate(Context context)
    {
+      if(step == 1)
+      {
+         return getIntervals(context).toAscendingStack();
+      }
       int size = (end - start) / step + 1;
       final int[] array = new int[size];
       for(int i = 0; i < size; i++)
@@ -85,6 +90,16 @@ public class ExpressionRange extends Expression
       }
    }
    
+   /**
+    * a range with a step of 1 is one interval (page numbers less than 1 are
+    * left out), so and(x, range(1, 3000000)) never makes a list of 3 million
+    * pages
+    */
+   IntervalSet getIntervals(final Context context)
+   {
+      return step == 1 ? new IntervalSet(Math.max(1, start), end) : null;
+   }
+   
    public void writeScript(Appendable a) throws IOException
    {
       a.append(_RANGE_NAME);
@@ -0,0 +1,174 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.Tally;
+
+/**
+ * the pages of every word in the index that matches a pattern:
+ * 
+ * <p>
+ * "wildcard(retaliat*)" or "wildcard(over?ime)" (see {@link PatternAutomaton
+ * PatternAutomaton} for the syntax). A word with a "*" or a "?" in it that is
+ * not in the index and is not a variable is treated as a wildcard, so
+ * "retaliat*" by itself is the same thing.
+ * 
+ * <p>
+ * "regex("retaliat(e|ed|ion|ory)")" for a regular expression. Regular
+ * expressions usually have to be string literals, because of the operator
+ * characters in them.
+ * 
+ * <p>
+ * "fuzzy(overtime, 2)" for every word that is at most 2 edits away from
+ * "overtime" (see {@link LevenshteinAutomaton LevenshteinAutomaton}), to find
+ * words that the OCR got wrong. Without the number, it is 1 edit. "explain"
+ * lists the words that matched and how many edits away each one is.
+ * 
+ * <p>
+ * The matching words are found by walking the automaton over the
+ * {@link TermDictionary TermDictionary}, and their lists of pages are combined
+ * with one N-way or().
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class ExpressionTerms extends Expression
+{
+   public ExpressionTerms(final String function, final String pattern)
+   {
+      this.function = function;
+      this.pattern = pattern;
+      maxEdits = -1;
+      if(function.equals(_REGEX_NAME))
+      {
+         automaton = PatternAutomaton.regex(pattern);
+      }
+      else if(function.equals(_WILDCARD_NAME))
+      {
+         automaton = PatternAutomaton.wildcard(pattern);
+      }
+      else
+      {
+         throw new IllegalArgumentException("ERROR: not a term function: " + function);
+      }
+   }
+   
+   /**
+    * 
+    * @return the words that are at most maxEdits edits away from the word
+    */
+   public ExpressionTerms(final String word, final int maxEdits)
+   {
+      function = _FUZZY_NAME;
+      pattern = word;
+      this.maxEdits = maxEdits;
+      automaton = new LevenshteinAutomaton(word, maxEdits);
+   }
+   
+   public static boolean isTerms(final String name)
+   {
+      return name.equals(_WILDCARD_NAME) || name.equals(_REGEX_NAME) || name.equals(_FUZZY_NAME);
+   }
+   
+   public static Expression getExpression(final String name, final Expression[] arguments)
+   {
+      if(name.equals(_FUZZY_NAME))
+      {
+         if(arguments.length < 1 || arguments.length > 2 || !(arguments[0] instanceof ExpressionWord))
+         {
+            throw new IllegalArgumentException("ERROR: fuzzy() must have a word and (optionally) a number of edits.");
+         }
+         final int edits = arguments.length == 1 ? _DEFAULT_EDITS
+               : ExpressionConstant.getIntegerLiterals(new Expression[] { arguments[1] })[0];
+         return new ExpressionTerms(((ExpressionWord) arguments[0]).word, edits);
+      }
+      if(arguments.length != 1 || !(arguments[0] instanceof ExpressionWord))
+      {
+         throw new IllegalArgumentException("ERROR: " + name + "() must have exactly one pattern.");
+      }
+      return new ExpressionTerms(name, ((ExpressionWord) arguments[0]).word);
+   }
+   
+   protected AscendingStack calculate(final Context context)
+   {
+      final String[] terms = getTerms(context);
+      final AscendingStack[] stacks = new AscendingStack[terms.length];
+      for(int i = 0; i < terms.length; i++)
+      {
+         stacks[i] = context.getPagesFor(terms[i]);
+      }
+      return AscendingStack.or(stacks);
+   }
+   
+   protected void calculateTally(final Context context, final Tally tally)
+   {
+      final String[] terms = getTerms(context);
+      final AscendingStack[] stacks = new AscendingStack[terms.length];
+      for(int i = 0; i < terms.length; i++)
+      {
+         stacks[i] = context.getPagesFor(terms[i]);
+      }
+      AscendingStack.tallyGeneric(1, tally, stacks);
+   }
+   
+   /**
+    * 
+    * @return every word in the index that matches, in order
+    */
+   public String[] getTerms(final Context context)
+   {
+      final TermDictionary dictionary = context.getDictionary();
+      if(dictionary == null)
+      {
+         throw new RuntimeException("Error: " + function + "() needs the list of words in the index.");
+      }
+      final int[] ids = dictionary.match(automaton);
+      final String[] r = new String[ids.length];
+      for(int i = 0; i < r.length; i++)
+      {
+         r[i] = dictionary.get(ids[i]);
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return for fuzzy(), the number of edits between the word and the term;
+    *         otherwise -1
+    */
+   public int getDistance(final String term)
+   {
+      return automaton instanceof LevenshteinAutomaton ? ((LevenshteinAutomaton) automaton).getDistance(term) : -1;
+   }
+   
+   public void writeScript(final Appendable a) throws IOException
+   {
+      a.append(function);
+      a.append("( ");
+      new ExpressionWord(pattern).writeScript(a);
+      if(maxEdits >= 0)
+      {
+         a.append(", " + maxEdits);
+      }
+      a.append(" ) ");
+   }
+   
+   public final String function;
+   public final String pattern;
+   
+   /**
+    * -1 unless this is fuzzy()
+    */
+   public final int maxEdits;
+   private final TermAutomaton automaton;
+   
+   public static final String _WILDCARD_NAME = "wildcard";
+   public static final String _REGEX_NAME = "regex";
+   public static final String _FUZZY_NAME = "fuzzy";
+   
+   /**
+    * the number of edits for "fuzzy()" without a number
+    */
+   public static final int _DEFAULT_EDITS = 1;
+}
@@ -22,7 +22,6 @@ public class ExpressionWord extends Expression
    
    protected AscendingStack calculate(final Context context)
    {
-      context.getPagesFor(word);
       return context.getPagesFor(word);
    }
    
@@ -10,6 +10,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Scanner;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -22,6 +23,7 @@ import com.github.michaelaaronlevy.ork.util.ConsoleGUI;
 import com.github.michaelaaronlevy.ork.util.FileDrop;
 import com.github.michaelaaronlevy.ork.util.FontUtility;
 import com.github.michaelaaronlevy.ork.util.Grid;
+import com.github.michaelaaronlevy.ork.util.Tally;
 import com.github.michaelaaronlevy.ork.util.TokenParser;
 import com.github.michaelaaronlevy.ork.util.pdfbox.ProjectPDFs;
 import com.github.michaelaaronlevy.ork.util.pdfbox.ProjectPdfViewer;
@@ -33,7 +35,7 @@ import com.github.michaelaaronlevy.ork.util.pdfbox.ProjectPdfViewer;
  * class that more or less displays console output in a Swing component)
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class FinderGUI implements Context, Runnable, FileDrop.Listener
 {
@@ -76,35 +78,77 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
       this.err = err;
       this.source = source;
       
-      project = Indexer.buildProjectFromIndexFile(directory, name);
-      
-      final File coni = new File(directory, name + ".coni");
-      final File conw = new File(directory, name + ".conw");
-      
-      BufferedInputStream bis = new BufferedInputStream(new FileInputStream(conw));
-      
-      Grid.readIntArray(bis);
-      Grid.readStringArray(bis);
-      words = Grid.readStringArray(bis);
-      pages = new int[words.length][];
-      
-      bis.close();
-      
-      bis = new BufferedInputStream(new FileInputStream(coni));
-      
-      final int wordsPerConi = Grid.readInt(bis);
-      if(wordsPerConi != words.length)
+      if(SegmentedIndex.canOpen(directory, name))
       {
-         throw new RuntimeException("Error - number of words does not match " + wordsPerConi + " vs " + words.length);
+         // everything is memory mapped; the lists of pages are read when they
+         // are used. The segments that are open now are searched until the
+         // window is closed, even if they are merged in the meantime.
+         segments = new SegmentedIndex(directory, name);
+         project = Indexer.buildProject(directory, name, segments.getPagesPerFile(), segments.getFileNames());
+         dictionary = segments.getDictionary();
+         pages = null;
+         positions = null;
       }
-      
-      final boolean isShort = Grid.readBoolean(bis);
-      
-      for(int i = 0; i < words.length; i++)
+      else
       {
-         pages[i] = isShort ? Grid.readShortArrayToIntArray(bis) : Grid.readIntArray(bis);
+         segments = null;
+         project = Indexer.buildProjectFromIndexFile(directory, name);
+         
+         final File coni = new File(directory, name + ".coni");
+         final File cond = new File(directory, name + ".cond");
+         
+         if(cond.exists())
+         {
+            dictionary = TermDictionary.open(cond);
+         }
+         else
+         {
+            // older indexes only have the .conw file
+            final BufferedInputStream conw = new BufferedInputStream(
+                  new FileInputStream(new File(directory, name + ".conw")));
+            Grid.readIntArray(conw);
+            Grid.readStringArray(conw);
+            dictionary = new TermDictionary(Grid.readStringArray(conw));
+            conw.close();
+         }
+         final int wordCount = dictionary.size();
+         pages = new int[wordCount][];
+         
+         final BufferedInputStream bis = new BufferedInputStream(new FileInputStream(coni));
+         
+         final int wordsPerConi = Grid.readInt(bis);
+         if(wordsPerConi != wordCount)
+         {
+            throw new RuntimeException("Error - number of words does not match " + wordsPerConi + " vs " + wordCount);
+         }
+         
+         final int format = bis.read();
+         if(format == PostingsCodec._FORMAT)
+         {
+            // the lists stay compressed until they are used
+            postings = new PostingsCodec.Decoder[wordCount];
+            for(int i = 0; i < wordCount; i++)
+            {
+               postings[i] = PostingsCodec.read(bis);
+            }
+         }
+         else
+         {
+            final boolean isShort = format == 't';
+            if(!isShort && format != 'f')
+            {
+               throw new RuntimeException("Error - unknown .coni format " + format);
+            }
+            for(int i = 0; i < wordCount; i++)
+            {
+               pages[i] = isShort ? Grid.readShortArrayToIntArray(bis) : Grid.readIntArray(bis);
+            }
+         }
+         bis.close();
+         
+         final File conp = new File(directory, name + ".conp");
+         positions = conp.exists() ? new PositionsFile(conp) : null; // older indexes have no positions
       }
-      bis.close();
       
       ppv = new ProjectPdfViewer(project, FontUtility.getFont("listFont"), FontUtility.getFont("mainFont"));
       frame.add(ppv.getComponent());
@@ -114,7 +158,14 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
       out.println("Or type commands into the text field below to run one command at a time.");
       out.println("quit() to exit; save() to save a script file of what happened in this session.");
       out.println("view() to open the viewer; integer(#) or range(#,#) to specify pages by number.");
+      out.println("inFile(#) for every page of a PDF (printProjectInfo() lists them); allPages(); not(retaliation).");
       out.println("startsWith() to find which words in the index start with a particular prefix.");
+      out.println("retaliat* or over?ime for every word that matches; regex(\"retaliat(e|ion)\") for more control.");
+      out.println("fuzzy(overtime, 2) for every word within 2 typos (OCR errors) of overtime; explain() lists them.");
+      out.println("phrase(overtime, pay) for words in that order; near5(manager, retaliation) for words close together.");
+      out.println("rank(overtime | unpaid | wages, 20) for the 20 pages that match best, best first (in the viewer, too).");
+      out.println("count() for how many pages match; facet() for how many pages match in each PDF.");
+      out.println("significantTerms(retaliation, 20) for 20 words that are on more of those pages than you'd expect.");
       out.println();
    }
    
@@ -133,7 +184,7 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
                err.println();
                err.flush();
                list.add(line);
-               c.execute(this);
+               new QueryPlanner(this).plan(c).execute(this);
                out.flush();
                err.flush();
             }
@@ -195,7 +246,7 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
             c.writeScript(err);
             err.println();
             err.flush();
-            c.execute(this);
+            new QueryPlanner(this).plan(c).execute(this);
             err.println();
             out.flush();
             err.flush();
@@ -219,7 +270,7 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
    public AscendingStack getPagesFor(String word)
    {
       AscendingStack as = null;
-      final int index = Arrays.binarySearch(words, word);
+      final int index = dictionary.find(word);
       if(index < 0)
       {
          as = variables.get(word);
@@ -230,12 +281,126 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
       }
       else
       {
-         as = new AscendingStack(pages[index]);
+         // the lists are already in order, so they are not copied or sorted;
+         // the list is shared by every lookup of the word (a decoded list is
+         // kept in memory for a while, see getPages)
+         final int[] array = getPages(index);
+         as = AscendingStack.view(array, array.length);
       }
       as.makeDirty();
       return as;
    }
    
+   public int estimateSize(final String word)
+   {
+      final int index = dictionary.find(word);
+      if(index >= 0)
+      {
+         return getPageCount(index);
+      }
+      final AscendingStack as = variables.get(word);
+      return as == null ? -1 : as.size();
+   }
+   
+   public QueryCache getQueryCache()
+   {
+      return cache;
+   }
+   
+   public int[] getPageEndPerFile()
+   {
+      return project.getPageEndPerFile();
+   }
+   
+   public TermDictionary getDictionary()
+   {
+      return dictionary;
+   }
+   
+   public int getWordId(final String word)
+   {
+      return dictionary.find(word);
+   }
+   
+   private void closePositions()
+   {
+      if(positions != null || segments != null)
+      {
+         try
+         {
+            if(segments != null)
+            {
+               segments.close();
+            }
+            else
+            {
+               positions.close();
+            }
+         }
+         catch(final IOException iox)
+         {
+            // nothing to do
+         }
+      }
+   }
+   
+   public int[] getWordIdsOnPage(final int page)
+   {
+      if(positions == null && segments == null)
+      {
+         return null;
+      }
+      try
+      {
+         return segments != null ? segments.getWordIdsOnPage(page) : positions.getWordIds(page);
+      }
+      catch(final IOException iox)
+      {
+         throw new RuntimeException(iox);
+      }
+   }
+   
+   /**
+    * 
+    * @return the pages for the word at this index in the word list (decoded,
+    *         if the .coni file is compressed or the index has a .orkx file).
+    *         The array must not be changed: the lists that were decoded most
+    *         recently are kept, and the same array is returned every time the
+    *         word is looked up, until it is dropped to stay within
+    *         {@link #_DECODED_BUDGET _DECODED_BUDGET}.
+    */
+   private int[] getPages(final int index)
+   {
+      if(segments == null && postings == null)
+      {
+         return pages[index];
+      }
+      synchronized(decoded)
+      {
+         final int[] r = decoded.get(index);
+         if(r != null)
+         {
+            return r;
+         }
+      }
+      final int[] r = segments != null ? segments.getPages(index) : postings[index].toArray();
+      synchronized(decoded)
+      {
+         if(4L * r.length <= _DECODED_BUDGET / 4)
+         {
+            final int[] old = decoded.put(index, r);
+            decodedBytes += 4L * r.length - (old == null ? 0 : 4L * old.length);
+            final Iterator<int[]> iter = decoded.values().iterator();
+            while(decodedBytes > _DECODED_BUDGET && iter.hasNext())
+            {
+               decodedBytes -= 4L * iter.next().length;
+               iter.remove();
+            }
+         }
+      }
+      return r;
+   }
+   
    /**
     * FinderGUI does not support any expressions that are not already
     * implemented through objects that subclass {@link Expression Expression}
@@ -249,6 +414,20 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
     * This implementation of {@link Context Context} supports the following
     * commands:
     * <p>
+    * "cacheStats" - show how many results are kept between commands, and how
+    * often they were used;
+    * <p>
+    * "count" - show how many pages match an expression. The pages are counted
+    * as they are found, so the list of pages is not built (see
+    * {@link Expression#tally(Context, Tally) tally});
+    * <p>
+    * "explain" - calculate an expression and show how the
+    * {@link QueryPlanner QueryPlanner} calculated it: each step, with the
+    * number of pages it was expected to have and the number it actually had;
+    * <p>
+    * "facet" - like "count", but also show how many pages match in each PDF
+    * (the PDFs with no matching pages are not listed);
+    * <p>
     * "list" - display the pages associated with a particular expression;
     * <p>
     * "print" - print whatever text is in the parenthesis without evaluating it
@@ -259,8 +438,20 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
     * <p>
     * "quit" - System.exit(0);
     * <p>
+    * "rank" - find the pages that best match the words of an expression, by
+    * {@link Bm25Ranker BM25}, and show them in the viewer, best first. The
+    * second argument is how many pages (20 if there is no second argument).
+    * If the expression is more than words joined by "|", only the pages of
+    * the expression are ranked;
+    * <p>
     * "return" - go back to the text extraction view;
     * <p>
+    * "significantTerms" - find the words that are on more of the pages of an
+    * expression than the whole index would lead you to expect (see
+    * {@link SignificantTerms SignificantTerms}), to find new words to search
+    * for. The second argument is how many words (20 if there is no second
+    * argument). The words that the expression searches for are left out;
+    * <p>
     * "save" - print the commands that have been issued, so far, to a script
     * file that can be edited and loaded later, e.g. if you quit for the day and
     * want to pick up where you left off without re-entering all variables;
@@ -278,13 +469,76 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
       {
          return;
       }
+      else if(name.equals("cacheStats"))
+      {
+         err.println(cache.toString());
+         err.flush();
+      }
+      else if(name.equals("count") || name.equals("facet"))
+      {
+         if(arguments == null || arguments.length != 1)
+         {
+            throw new RuntimeException("invalid format for " + name + " function: must have exactly 1 argument.");
+         }
+         final boolean facet = name.equals("facet");
+         final Tally tally = new Tally(facet ? project.getPageEndPerFile() : null);
+         new QueryPlanner(this).plan(arguments[0]).tally(this, tally);
+         if(!facet)
+         {
+            err.println("COUNT: " + tally.getTotal() + " matching pages.");
+         }
+         else
+         {
+            final int[] counts = tally.getCounts();
+            int files = 0;
+            for(final int c : counts)
+            {
+               files += c == 0 ? 0 : 1;
+            }
+            err.println("FACET: " + tally.getTotal() + " matching pages in " + files + " of " + counts.length
+                  + " PDFs.");
+            for(int i = 0; i < counts.length; i++)
+            {
+               if(counts[i] != 0)
+               {
+                  err.println("\t" + counts[i] + " of " + project.getPdfPageCount(i + 1) + "\t"
+                        + project.getPdfNameByIndex(i + 1));
+               }
+            }
+         }
+         err.flush();
+      }
+      else if(name.equals("explain"))
+      {
+         if(arguments == null || arguments.length != 1)
+         {
+            throw new RuntimeException("invalid format for explain function: must have exactly 1 argument.");
+         }
+         final QueryPlanner planner = new QueryPlanner(this);
+         final Expression planned = planner.plan(arguments[0]);
+         final long start = System.nanoTime();
+         final int size = planned.getCalculation(this).size();
+         try
+         {
+            err.print("PLAN: ");
+            planned.writeScript(err);
+            err.println();
+            planner.explain(planned, err);
+            err.println(size + " pages in " + (System.nanoTime() - start) / 1000000 + " ms");
+            err.flush();
+         }
+         catch(final IOException iox)
+         {
+            // PrintStream does not throw IOException
+         }
+      }
       else if(name.equals("list"))
       {
          if(arguments == null || arguments.length != 1)
          {
             throw new RuntimeException("invalid format for list function: must have exactly 1 argument.");
          }
-         final AscendingStack as = arguments[0].getCalculation(this);
+         final AscendingStack as = new QueryPlanner(this).plan(arguments[0]).getCalculation(this);
          try
          {
             as.sendDescription(out, Integer.MAX_VALUE);
@@ -355,6 +609,48 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
          ppv.close();
          System.exit(0);
       }
+      else if(name.equals("rank"))
+      {
+         if(arguments == null || arguments.length < 1 || arguments.length > 2)
+         {
+            throw new RuntimeException("invalid format for rank function: must have an expression and (optionally) "
+                  + "the number of pages.");
+         }
+         if(segments == null)
+         {
+            throw new RuntimeException("Error: rank() needs an index with a .orkx file (index the PDFs again).");
+         }
+         if(ranker == null)
+         {
+            ranker = new Bm25Ranker(segments);
+         }
+         final int k = arguments.length == 1 ? Bm25Ranker._DEFAULT_K
+               : ExpressionConstant.getIntegerLiterals(new Expression[] { arguments[1] })[0];
+         final Expression planned = new QueryPlanner(this).plan(arguments[0]);
+         final String[] terms = Bm25Ranker.getTerms(planned, this);
+         final Bm25Ranker.Ranking ranking;
+         if(Bm25Ranker.isAnyOfTerms(planned, this))
+         {
+            ranking = ranker.rank(terms, k, null, 0);
+         }
+         else
+         {
+            final AscendingStack filter = planned.getCalculation(this);
+            ranking = ranker.rank(terms, k, filter.integerArray(), filter.size());
+         }
+         if(ranking.pages.length == 0)
+         {
+            err.println("No pages match this criteria.");
+         }
+         for(int i = 0; i < ranking.pages.length; i++)
+         {
+            err.println((i + 1) + ". page " + ranking.pages[i] + " (" + String.format("%.3f", ranking.scores[i]) + ")");
+         }
+         err.flush();
+         ppv.setResults(ranking.pages, true);
+         frame.setVisible(true);
+         frame.pack();
+      }
       else if(name.equals("return"))
       {
          ppv.close();
@@ -362,12 +658,65 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
          if(ork != null)
          {
             source = null; // end the run method
+            closePositions();
             ork.showExtractionGUI();
          }
       }
+      else if(name.equals("significantTerms"))
+      {
+         if(arguments == null || arguments.length < 1 || arguments.length > 2)
+         {
+            throw new RuntimeException("invalid format for significantTerms function: must have an expression and "
+                  + "(optionally) the number of words.");
+         }
+         if(segments == null)
+         {
+            throw new RuntimeException(
+                  "Error: significantTerms() needs an index with a .orkx file (index the PDFs again).");
+         }
+         final int k = arguments.length == 1 ? SignificantTerms._DEFAULT_K
+               : ExpressionConstant.getIntegerLiterals(new Expression[] { arguments[1] })[0];
+         final Expression planned = new QueryPlanner(this).plan(arguments[0]);
+         final AscendingStack as = planned.getCalculation(this);
+         final SignificantTerms.Term[] terms;
+         try
+         {
+            if(significant == null)
+            {
+               significant = new SignificantTerms(segments);
+            }
+            terms = significant.find(as.integerArray(), as.size(), k, Bm25Ranker.getTerms(planned, this),
+                  Runtime.getRuntime().availableProcessors());
+         }
+         catch(final IOException iox)
+         {
+            throw new RuntimeException(iox);
+         }
+         final int pageCount = segments.getTotalPageCount();
+         if(terms.length == 0)
+         {
+            err.println("No words are on more of these pages than expected.");
+         }
+         for(int i = 0; i < terms.length; i++)
+         {
+            final SignificantTerms.Term t = terms[i];
+            err.println((i + 1) + ". " + TokenParser.literalIfNeeded(t.word) + ": " + t.shared + " of " + as.size()
+                  + " pages, " + t.pages + " of " + pageCount + " in all (" + String.format("%.3f", t.score) + ")");
+         }
+         if(terms.length != 0)
+         {
+            err.print("TERMS: " + TokenParser.literalIfNeeded(terms[0].word));
+            for(int i = 1; i < terms.length; i++)
+            {
+               err.print(" | " + TokenParser.literalIfNeeded(terms[i].word));
+            }
+            err.println();
+         }
+         err.flush();
+      }
       else if(name.equals("startsWith"))
       {
-         final TreeSet<String> set = new TreeSet<String>();
+         final TreeSet<Integer> set = new TreeSet<Integer>();
          for(final Expression e : arguments)
          {
             String s = null;
@@ -381,20 +730,27 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
                addStartsWith(set, s);
             }
          }
+         // the words on the most pages first
+         final Integer[] w = set.toArray(new Integer[set.size()]);
+         Arrays.sort(w, (x, y) -> Integer.compare(getPageCount(y), getPageCount(x)));
          err.print("STARTS WITH: ");
-         final String[] w = new String[set.size()];
-         set.toArray(w);
          if(w.length == 0)
          {
             err.println("Nothing in the word index starts with that.");
          }
          else
          {
-            err.print(TokenParser.literalIfNeeded(w[0]));
+            err.print(TokenParser.literalIfNeeded(dictionary.get(w[0])));
             for(int i = 1; i < w.length; i++)
             {
                err.print(" | ");
-               err.print(TokenParser.literalIfNeeded(w[i]));
+               err.print(TokenParser.literalIfNeeded(dictionary.get(w[i])));
+            }
+            err.println();
+            err.print("PAGES: " + getPageCount(w[0]));
+            for(int i = 1; i < w.length; i++)
+            {
+               err.print(", " + getPageCount(w[i]));
             }
             err.println();
          }
@@ -409,11 +765,12 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
          }
          else if(arguments.length == 1)
          {
-            array = arguments[0].getCalculation(this).integerArray();
+            array = new QueryPlanner(this).plan(arguments[0]).getCalculation(this).integerArray();
          }
          else
          {
-            array = new ExpressionOperation(1, arguments).getCalculation(this).integerArray();
+            array = new QueryPlanner(this).plan(new ExpressionOperation(1, arguments)).getCalculation(this)
+                  .integerArray();
          }
          ppv.setResults(array);
          frame.setVisible(true);
@@ -504,25 +861,27 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
       err.flush();
    }
    
-   private void addStartsWith(final TreeSet<String> set, final String prefix)
+   private void addStartsWith(final TreeSet<Integer> set, final String prefix)
    {
-      int index = Arrays.binarySearch(words, prefix);
-      if(index < 0)
+      final int[] range = dictionary.prefixRange(prefix);
+      for(int index = range[0]; index < range[1]; index++)
       {
-         index = -index - 1; // TODO: should this be +1, -1?
+         set.add(index);
       }
-      for(; index < words.length; index++)
+   }
+   
+   /**
+    * 
+    * @return the number of pages the word at this index in the word list is
+    *         on
+    */
+   private int getPageCount(final int index)
+   {
+      if(segments != null)
       {
-         final String s = words[index];
-         if(s.startsWith(prefix))
-         {
-            set.add(s);
-         }
-         else
-         {
-            return;
-         }
+         return segments.getPageCount(index);
       }
+      return postings == null ? pages[index].length : postings[index].size();
    }
    
    /**
@@ -562,15 +921,33 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
    private final PrintStream out;
    private final PrintStream err;
    private Iterator<String> source;
-   private final String[] words;
    private final int[][] pages;
+   private final TermDictionary dictionary;
+   private PostingsCodec.Decoder[] postings = null;
+   private final SegmentedIndex segments;
+   private Bm25Ranker ranker = null;
+   private SignificantTerms significant = null;
+   private final PositionsFile positions;
    private final TreeMap<String, AscendingStack> variables = new TreeMap<String, AscendingStack>();
+   private final QueryCache cache = new QueryCache(QueryCache.getDefaultMemoryBudget());
+   
+   /**
+    * the decoded lists of pages, by word, least recently used first
+    */
+   private final LinkedHashMap<Integer, int[]> decoded = new LinkedHashMap<Integer, int[]>(16, 0.75f, true);
+   private long decodedBytes = 0;
    private final ArrayList<String> list = new ArrayList<String>();
    private final ProjectPDFs project;
    private final JFrame frame = new JFrame(OpenReviewKit._ORK_LONG_NAME + " PDF Viewer");
    private final ProjectPdfViewer ppv;
    
    private static final int _MAX_TO_DISPLAY_ALL = 200;
+   
+   /**
+    * roughly how many bytes the decoded lists of pages can take up (a list
+    * bigger than a quarter of this is not kept)
+    */
+   private static final long _DECODED_BUDGET = Runtime.getRuntime().maxMemory() / 32;
    private static final int _MAX_LINE_LENGTH = 150;
    
    private static final String _SAVE_COMMAND = "save";
@@ -582,7 +959,7 @@ public class FinderGUI implements Context, Runnable, FileDrop.Listener
     * into the window.
     * 
     * @author michaelaaronlevy@gmail.com
-    *
+    * 
     */
    public static class Loader implements FileDrop.Listener
    {
@@ -0,0 +1,735 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * the .orkx file: the whole searchable word index in one file, opened with a
+ * memory mapping so that nothing has to be read before the first query.
+ * 
+ * <p>
+ * The file is: an 'x', the sections (see below), where each section starts
+ * (one long for each section, plus one for the end of the last section), the
+ * number of words (int), and where that table starts (long). The sections
+ * are:
+ * <ul>
+ * <li>the files: the number of pages in each PDF and the PDF file names (the
+ * same as the start of the .conw file)</li>
+ * <li>the words: a .cond file (see {@link TermDictionary TermDictionary})</li>
+ * <li>the lists of pages: the same as in a compressed .coni file (see
+ * {@link PostingsCodec PostingsCodec}), without the header</li>
+ * <li>where the list of pages for each word starts in the section before
+ * (one long for each word, plus one for the end of the last list)</li>
+ * <li>the positions: a .conp file (see {@link PositionsFile PositionsFile}),
+ * or nothing, if the index has no positions</li>
+ * <li>the term frequencies, for ranking (see {@link Bm25Ranker Bm25Ranker}),
+ * or nothing, if the index has no positions: for each word, one entry for
+ * each block of 128 pages in its list of pages (the most times the word is on
+ * one of those pages (byte), and the fewest words on one of those pages
+ * (int)), then how many times the word is on each page in its list (one byte
+ * each, at most 255); then the number of words on each page (one int for
+ * each page), where the entries for each word start (one long for each word,
+ * plus one for the end), the number of words on all of the pages (long), and
+ * the number of pages (int)</li>
+ * </ul>
+ * 
+ * <p>
+ * A list of pages is decoded straight from the mapping when it is asked for,
+ * so the memory that is used does not grow with the size of the index.
+ * Sections bigger than 2 GB are mapped in pieces.
+ * Older .orkx files do not have the last section; the number of sections is
+ * worked out from the size of the table.
+ * 
+ * <p>
+ * The {@link Indexer Indexer} and {@link PageConsumerIndex PageConsumerIndex}
+ * (for the whole index, or for a new segment) write the .orkx file at the end
+ * and delete the .coni, .cond and .conp files that are in it (the .conw, .words
+ * and .index files are kept). Both of them write the positions, so the .orkx
+ * file always has the term frequencies. Command line: IndexContainer directory name, to write the
+ * .orkx file for an older index (the old files are not deleted).
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class IndexContainer
+{
+   public static void main(final String[] args) throws IOException
+   {
+      if(args.length < 2)
+      {
+         System.err.println("usage: IndexContainer directory name");
+         return;
+      }
+      final File directory = new File(args[0]);
+      write(directory, args[1]);
+      System.err.println("IndexContainer::main wrote "
+            + new File(directory, args[1] + _EXTENSION).getAbsolutePath());
+   }
+   
+   /**
+    * write the .orkx file from the .conw, .coni, .cond and .conp files (the
+    * .cond and .conp files are optional; the .coni file can be in any format)
+    * 
+    * @param directory
+    *           the directory of the index
+    * @param name
+    *           the name of the index files
+    * @throws IOException
+    */
+   public static void write(final File directory, final String name) throws IOException
+   {
+      final File orkx = new File(directory, name + _EXTENSION);
+      final CountingOutputStream out = new CountingOutputStream(
+            new BufferedOutputStream(new FileOutputStream(orkx), 1 << 16));
+      try
+      {
+         final long[] starts = new long[_SECTIONS + 1];
+         out.write(_FORMAT);
+         
+         // the files
+         starts[_FILES] = out.count;
+         final InputStream conw = new BufferedInputStream(new FileInputStream(new File(directory, name + ".conw")));
+         final String[] words;
+         final File cond = new File(directory, name + ".cond");
+         try
+         {
+            Grid.writeIntArray(out, Grid.readIntArray(conw));
+            Grid.writeStringArray(out, Grid.readStringArray(conw));
+            words = cond.exists() ? null : Grid.readStringArray(conw);
+         }
+         finally
+         {
+            conw.close();
+         }
+         
+         // the words
+         starts[_DICTIONARY] = out.count;
+         if(words == null)
+         {
+            copy(cond, out);
+         }
+         else
+         {
+            final ByteArrayOutputStream b = new ByteArrayOutputStream();
+            final TermDictionary.Writer w = new TermDictionary.Writer(b);
+            for(final String word : words)
+            {
+               w.add(word);
+            }
+            w.close();
+            b.writeTo(out);
+         }
+         
+         // the lists of pages
+         starts[_POSTINGS] = out.count;
+         final InputStream coni = new BufferedInputStream(new FileInputStream(new File(directory, name + ".coni")),
+               1 << 16);
+         final long[] offsets;
+         final int[] counts;
+         try
+         {
+            offsets = new long[Grid.readInt(coni) + 1];
+            counts = new int[offsets.length - 1];
+            final int format = coni.read();
+            final boolean isShort = format == 't';
+            if(format != PostingsCodec._FORMAT && !isShort && format != 'f')
+            {
+               throw new IOException("Unknown .coni format: " + format);
+            }
+            for(int i = 0; i < offsets.length - 1; i++)
+            {
+               offsets[i] = out.count - starts[_POSTINGS];
+               if(format == PostingsCodec._FORMAT)
+               {
+                  counts[i] = Grid.readInt(coni);
+                  Grid.writeInt(out, counts[i]);
+                  final int n = Grid.readInt(coni);
+                  Grid.writeInt(out, n);
+                  copy(coni, out, n);
+               }
+               else
+               {
+                  final int[] pages = isShort ? Grid.readShortArrayToIntArray(coni) : Grid.readIntArray(coni);
+                  counts[i] = pages.length;
+                  PostingsCodec.write(out, pages, pages.length);
+               }
+            }
+            offsets[offsets.length - 1] = out.count - starts[_POSTINGS];
+         }
+         finally
+         {
+            coni.close();
+         }
+         
+         // where each list starts
+         starts[_OFFSETS] = out.count;
+         for(final long offset : offsets)
+         {
+            Grid.writeLong(out, offset);
+         }
+         
+         // the positions
+         starts[_POSITIONS] = out.count;
+         final File conp = new File(directory, name + ".conp");
+         if(conp.exists())
+         {
+            copy(conp, out);
+         }
+         
+         // the term frequencies
+         starts[_FREQUENCIES] = out.count;
+         if(conp.exists())
+         {
+            writeFrequencies(conp, counts, out);
+         }
+         
+         starts[_SECTIONS] = out.count;
+         for(final long start : starts)
+         {
+            Grid.writeLong(out, start);
+         }
+         Grid.writeInt(out, offsets.length - 1);
+         Grid.writeLong(out, starts[_SECTIONS]);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+   
+   /**
+    * count how many times each word is on each page in its list, from the
+    * positions. The words are done in chunks of about {@link #_CHUNK _CHUNK}
+    * pages in all of their lists, with one pass over the positions for each
+    * chunk, so the memory that is used does not grow with the index.
+    * 
+    * @param counts
+    *           the number of pages in the list of each word
+    */
+   private static void writeFrequencies(final File conp, final int[] counts, final CountingOutputStream out)
+         throws IOException
+   {
+      final long base = out.count;
+      final long[] starts = new long[counts.length + 1];
+      final PositionsFile positions = new PositionsFile(conp);
+      try
+      {
+         final int pages = positions.getPageCount();
+         final int[] lengths = new int[pages + 1];
+         int from = 0;
+         while(from < counts.length)
+         {
+            int to = from;
+            long total = 0;
+            do
+            {
+               total += counts[to++];
+            }
+            while(to < counts.length && total + counts[to] <= _CHUNK);
+            
+            // where each word starts in the chunk
+            final int[] first = new int[to - from + 1];
+            final int[] firstBlock = new int[to - from + 1];
+            for(int w = 0; w < to - from; w++)
+            {
+               first[w + 1] = first[w] + counts[from + w];
+               firstBlock[w + 1] = firstBlock[w] + getBlockCount(counts[from + w]);
+            }
+            final byte[] frequencies = new byte[first[to - from]];
+            final int[] minLengths = new int[firstBlock[to - from]];
+            Arrays.fill(minLengths, Integer.MAX_VALUE);
+            final int[] filled = new int[to - from];
+            for(int p = 1; p <= pages; p++)
+            {
+               final int[] ids = positions.getWordIds(p);
+               lengths[p] = ids.length;
+               Arrays.sort(ids);
+               for(int i = 0; i < ids.length;)
+               {
+                  int j = i + 1;
+                  while(j < ids.length && ids[j] == ids[i])
+                  {
+                     j++;
+                  }
+                  final int w = ids[i] - from;
+                  if(w >= 0 && w < to - from)
+                  {
+                     final int k = filled[w]++;
+                     frequencies[first[w] + k] = (byte) Math.min(j - i, _MAX_FREQUENCY);
+                     final int b = firstBlock[w] + k / PostingsCodec._BLOCK_SIZE;
+                     minLengths[b] = Math.min(minLengths[b], ids.length);
+                  }
+                  i = j;
+               }
+            }
+            
+            for(int w = 0; w < to - from; w++)
+            {
+               if(filled[w] != counts[from + w])
+               {
+                  throw new IOException("IndexContainer::writeFrequencies the positions do not match the list of pages "
+                        + "for word " + (from + w));
+               }
+               starts[from + w] = out.count - base;
+               for(int b = 0; b < getBlockCount(counts[from + w]); b++)
+               {
+                  final int end = Math.min(counts[from + w], (b + 1) * PostingsCodec._BLOCK_SIZE);
+                  int max = 0;
+                  for(int k = b * PostingsCodec._BLOCK_SIZE; k < end; k++)
+                  {
+                     max = Math.max(max, frequencies[first[w] + k] & 0xff);
+                  }
+                  out.write(max);
+                  Grid.writeInt(out, minLengths[firstBlock[w] + b]);
+               }
+               out.write(frequencies, first[w], counts[from + w]);
+            }
+            from = to;
+         }
+         starts[counts.length] = out.count - base;
+         
+         long total = 0;
+         for(int p = 1; p <= pages; p++)
+         {
+            Grid.writeInt(out, lengths[p]);
+            total += lengths[p];
+         }
+         for(final long start : starts)
+         {
+            Grid.writeLong(out, start);
+         }
+         Grid.writeLong(out, total);
+         Grid.writeInt(out, pages);
+      }
+      finally
+      {
+         positions.close();
+      }
+   }
+   
+   private static int getBlockCount(final int size)
+   {
+      return (size + PostingsCodec._BLOCK_SIZE - 1) / PostingsCodec._BLOCK_SIZE;
+   }
+   
+   /**
+    * write the .orkx file, then delete the .coni, .cond and .conp files
+    */
+   static void pack(final File directory, final String name) throws IOException
+   {
+      write(directory, name);
+      new File(directory, name + ".coni").delete();
+      new File(directory, name + ".cond").delete();
+      new File(directory, name + ".conp").delete();
+   }
+   
+   /**
+    * open a .orkx file. Only the list of files is read; everything else is
+    * memory mapped.
+    */
+   public IndexContainer(final File orkx) throws IOException
+   {
+      final FileChannel channel = FileChannel.open(orkx.toPath(), StandardOpenOption.READ);
+      boolean keepChannel = false;
+      try
+      {
+         final ByteBuffer format = read(channel, 0, 1);
+         if(format.get(0) != _FORMAT)
+         {
+            throw new IOException("Unknown .orkx format: " + format.get(0));
+         }
+         final ByteBuffer end = read(channel, channel.size() - 12, 12);
+         wordCount = end.getInt(0);
+         final int sections = (int) ((channel.size() - 12 - end.getLong(4)) / 8) - 1;
+         final ByteBuffer table = read(channel, end.getLong(4), 8 * (sections + 1));
+         final long[] starts = new long[sections + 1];
+         table.asLongBuffer().get(starts);
+         
+         final InputStream files = new ByteArrayInputStream(
+               read(channel, starts[_FILES], starts[_DICTIONARY] - starts[_FILES]).array());
+         pagesPerFile = Grid.readIntArray(files);
+         fileNames = Grid.readStringArray(files);
+         
+         dictionary = new TermDictionary(channel.map(FileChannel.MapMode.READ_ONLY, starts[_DICTIONARY],
+               starts[_POSTINGS] - starts[_DICTIONARY]));
+         postings = map(channel, starts[_POSTINGS], starts[_OFFSETS] - starts[_POSTINGS]);
+         offsets = map(channel, starts[_OFFSETS], starts[_POSITIONS] - starts[_OFFSETS]);
+         
+         if(starts[_POSITIONS + 1] > starts[_POSITIONS])
+         {
+            // the PositionsFile reads from the channel and closes it
+            positions = new PositionsFile(channel, starts[_POSITIONS], starts[_POSITIONS + 1] - starts[_POSITIONS]);
+            keepChannel = true;
+         }
+         else
+         {
+            positions = null;
+         }
+         
+         if(sections > _FREQUENCIES && starts[_FREQUENCIES + 1] > starts[_FREQUENCIES])
+         {
+            final long length = starts[_FREQUENCIES + 1] - starts[_FREQUENCIES];
+            frequencies = map(channel, starts[_FREQUENCIES], length);
+            final int pages = getInt(frequencies, length - 4);
+            totalLength = getLong(frequencies, length - 12);
+            frequencyStarts = length - 12 - 8L * (wordCount + 1);
+            lengthStarts = frequencyStarts - 4L * pages;
+         }
+         else
+         {
+            frequencies = null;
+            totalLength = 0;
+            frequencyStarts = 0;
+            lengthStarts = 0;
+         }
+      }
+      finally
+      {
+         if(!keepChannel)
+         {
+            channel.close(); // the mappings stay valid
+         }
+      }
+   }
+   
+   public int[] getPagesPerFile()
+   {
+      return pagesPerFile.clone();
+   }
+   
+   public String[] getFileNames()
+   {
+      return fileNames.clone();
+   }
+   
+   public TermDictionary getDictionary()
+   {
+      return dictionary;
+   }
+   
+   /**
+    * 
+    * @return the positions, or null if the index has none. The caller closes
+    *         it.
+    */
+   public PositionsFile getPositions()
+   {
+      return positions;
+   }
+   
+   /**
+    * 
+    * @return the number of pages the word with this number is on
+    */
+   public int getPageCount(final int word)
+   {
+      return getInt(postings, getLong(offsets, 8L * word));
+   }
+   
+   /**
+    * 
+    * @return the compressed list of pages for the word with this number. It
+    *         reads the bytes straight from the mapping, unless the list crosses
+    *         from one piece of the mapping into the next (then it is copied).
+    */
+   public PostingsCodec.Decoder getPostings(final int word)
+   {
+      final long start = getLong(offsets, 8L * word);
+      final long end = getLong(offsets, 8L * word + 8);
+      final int size = getInt(postings, start);
+      final int piece = (int) ((start + 8) / _PIECE);
+      if(end > start + 8 && piece == (int) ((end - 1) / _PIECE))
+      {
+         return new PostingsCodec.Decoder(size, postings[piece], (int) ((start + 8) % _PIECE));
+      }
+      final byte[] bytes = new byte[(int) (end - start - 8)];
+      get(postings, start + 8, bytes);
+      return new PostingsCodec.Decoder(size, bytes, 0);
+   }
+   
+   /**
+    * 
+    * @return the number of words in the index
+    */
+   public int getWordCount()
+   {
+      return wordCount;
+   }
+   
+   /**
+    * 
+    * @return true if the index has the term frequencies (it has them if it
+    *         has positions; only indexes that were built before the positions
+    *         were written by every kind of indexing do not)
+    */
+   public boolean hasFrequencies()
+   {
+      return frequencies != null;
+   }
+   
+   /**
+    * 
+    * @param page
+    *           the first page is 1
+    * @return the number of words on the page
+    */
+   public int getPageLength(final int page)
+   {
+      return getInt(frequencies, lengthStarts + 4L * (page - 1));
+   }
+   
+   /**
+    * 
+    * @return the number of words on all of the pages
+    */
+   public long getTotalLength()
+   {
+      return totalLength;
+   }
+   
+   /**
+    * 
+    * @return how many times the word with this number is on each page in its
+    *         list (the bytes are copied out of the mapping)
+    */
+   public Frequencies getFrequencies(final int word)
+   {
+      final long start = getLong(frequencies, frequencyStarts + 8L * word);
+      final byte[] bytes = new byte[(int) (getLong(frequencies, frequencyStarts + 8L * word + 8) - start)];
+      get(frequencies, start, bytes);
+      return new Frequencies(getPageCount(word), bytes);
+   }
+   
+   /**
+    * how many times one word is on each page in its list of pages, and for
+    * each block of the list (the same blocks as in {@link PostingsCodec
+    * PostingsCodec}), the most times and the shortest page
+    */
+   public static final class Frequencies
+   {
+      Frequencies(final int size, final byte[] bytes)
+      {
+         this.bytes = bytes;
+         dataStart = 5 * getBlockCount(size);
+      }
+      
+      /**
+       * 
+       * @return how many times the word is on the page at this index in the
+       *         list of pages (at most 255)
+       */
+      public int getFrequency(final int index)
+      {
+         return bytes[dataStart + index] & 0xff;
+      }
+      
+      /**
+       * 
+       * @return the most times the word is on one page in this block
+       */
+      public int getBlockMaxFrequency(final int block)
+      {
+         return bytes[5 * block] & 0xff;
+      }
+      
+      /**
+       * 
+       * @return the fewest words on one page in this block
+       */
+      public int getBlockMinLength(final int block)
+      {
+         final int p = 5 * block + 1;
+         return ((bytes[p] & 0xff) << 24) | ((bytes[p + 1] & 0xff) << 16) | ((bytes[p + 2] & 0xff) << 8)
+               | (bytes[p + 3] & 0xff);
+      }
+      
+      private final byte[] bytes;
+      private final int dataStart;
+   }
+   
+   private static ByteBuffer read(final FileChannel channel, long position, final long length)
+         throws IOException
+   {
+      final ByteBuffer b = ByteBuffer.allocate((int) length);
+      while(b.hasRemaining())
+      {
+         final int n = channel.read(b, position);
+         if(n < 0)
+         {
+            throw new EOFException("IndexContainer::read unexpected end of the .orkx file");
+         }
+         position += n;
+      }
+      b.flip();
+      return b;
+   }
+   
+   /**
+    * map a section in pieces of {@link #_PIECE _PIECE} bytes
+    */
+   private static ByteBuffer[] map(final FileChannel channel, final long start, final long length)
+         throws IOException
+   {
+      final ByteBuffer[] r = new ByteBuffer[(int) Math.max(1, (length + _PIECE - 1) / _PIECE)];
+      for(int i = 0; i < r.length; i++)
+      {
+         final long from = (long) i * _PIECE;
+         r[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + from, Math.min(_PIECE, length - from));
+      }
+      return r;
+   }
+   
+   private static void get(final ByteBuffer[] pieces, final long position, final byte[] dst)
+   {
+      int done = 0;
+      while(done < dst.length)
+      {
+         final long p = position + done;
+         final ByteBuffer piece = pieces[(int) (p / _PIECE)].duplicate();
+         piece.position((int) (p % _PIECE));
+         final int n = Math.min(dst.length - done, piece.remaining());
+         piece.get(dst, done, n);
+         done += n;
+      }
+   }
+   
+   private static int getInt(final ByteBuffer[] pieces, final long position)
+   {
+      final int offset = (int) (position % _PIECE);
+      if(offset + 4 <= _PIECE)
+      {
+         return pieces[(int) (position / _PIECE)].getInt(offset);
+      }
+      final byte[] b = new byte[4];
+      get(pieces, position, b);
+      return ByteBuffer.wrap(b).getInt();
+   }
+   
+   private static long getLong(final ByteBuffer[] pieces, final long position)
+   {
+      final int offset = (int) (position % _PIECE);
+      if(offset + 8 <= _PIECE)
+      {
+         return pieces[(int) (position / _PIECE)].getLong(offset);
+      }
+      final byte[] b = new byte[8];
+      get(pieces, position, b);
+      return ByteBuffer.wrap(b).getLong();
+   }
+   
+   private static void copy(final File f, final OutputStream out) throws IOException
+   {
+      final InputStream in = new FileInputStream(f);
+      try
+      {
+         copy(in, out, f.length());
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+   
+   private static void copy(final InputStream in, final OutputStream out, long n) throws IOException
+   {
+      final byte[] buffer = new byte[1 << 16];
+      while(n > 0)
+      {
+         final int r = in.read(buffer, 0, (int) Math.min(buffer.length, n));
+         if(r < 0)
+         {
+            throw new EOFException("IndexContainer::copy unexpected end of file");
+         }
+         out.write(buffer, 0, r);
+         n -= r;
+      }
+   }
+   
+   /**
+    * keeps track of where in the file the next byte goes
+    */
+   private static final class CountingOutputStream extends FilterOutputStream
+   {
+      CountingOutputStream(final OutputStream out)
+      {
+         super(out);
+      }
+      
+      public void write(final int b) throws IOException
+      {
+         out.write(b);
+         count++;
+      }
+      
+      public void write(final byte[] b, final int off, final int len) throws IOException
+      {
+         out.write(b, off, len);
+         count += len;
+      }
+      
+      long count = 0;
+   }
+   
+   private final int wordCount;
+   private final int[] pagesPerFile;
+   private final String[] fileNames;
+   private final TermDictionary dictionary;
+   private final ByteBuffer[] postings;
+   private final ByteBuffer[] offsets;
+   private final PositionsFile positions;
+   
+   /**
+    * the term frequencies section, or null
+    */
+   private final ByteBuffer[] frequencies;
+   private final long totalLength;
+   private final long frequencyStarts;
+   private final long lengthStarts;
+   
+   public static final String _EXTENSION = ".orkx";
+   
+   /**
+    * the first byte of a .orkx file
+    */
+   public static final int _FORMAT = 'x';
+   
+   private static final int _FILES = 0;
+   private static final int _DICTIONARY = 1;
+   private static final int _POSTINGS = 2;
+   private static final int _OFFSETS = 3;
+   private static final int _POSITIONS = 4;
+   private static final int _FREQUENCIES = 5;
+   private static final int _SECTIONS = 6;
+   
+   /**
+    * the biggest number of times on one page that is stored
+    */
+   public static final int _MAX_FREQUENCY = 255;
+   
+   /**
+    * about how many pages (in all of the lists) the term frequencies are
+    * counted for in one pass over the positions
+    */
+   private static final int _CHUNK = 1 << 26;
+   
+   /**
+    * the biggest piece of a section that is mapped at once
+    */
+   private static final int _PIECE = 1 << 30;
+}
@@ -0,0 +1,231 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * writes the word index files (.conw, .cond, .coni, .words and .index) one
+ * word at a time, so the whole index never has to be in memory. The words must be given
+ * in ascending (String.compareTo) order, each with the ascending list of
+ * pages it appears on.
+ * 
+ * <p>
+ * The .conw, .words and .index files are the same as the ones the
+ * {@link Indexer Indexer} has always written. The lists of pages in the .coni
+ * file are compressed (see {@link PostingsCodec PostingsCodec}) unless the old
+ * format is requested. The number of words is written at the start of the
+ * .coni file and in the .conw file, but it is not known until the end, so
+ * those two numbers are filled in when the writer is closed. The .cond file is
+ * the front coded list of words for the {@link TermDictionary TermDictionary}.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class IndexWriter implements Inverter.Sink
+{
+   /**
+    * 
+    * @param directory
+    *           the directory to save the index to
+    * @param name
+    *           the name of the index files
+    * @param pagesPerPdf
+    *           from the .grid file
+    * @param fileNames
+    *           from the .grid file
+    * @throws IOException
+    */
+   public IndexWriter(final File directory, final String name, final int[] pagesPerPdf, final String[] fileNames)
+         throws IOException
+   {
+      this(directory, name, pagesPerPdf, fileNames, true);
+   }
+   
+   /**
+    * 
+    * @param directory
+    *           the directory to save the index to
+    * @param name
+    *           the name of the index files
+    * @param pagesPerPdf
+    *           from the .grid file
+    * @param fileNames
+    *           from the .grid file
+    * @param compress
+    *           if false, the .coni file uses the old format (every page
+    *           number is a short, or every page number is an int)
+    * @throws IOException
+    */
+   public IndexWriter(final File directory, final String name, final int[] pagesPerPdf, final String[] fileNames,
+         final boolean compress) throws IOException
+   {
+      this.compress = compress;
+      conw = new File(directory, name + ".conw");
+      coni = new File(directory, name + ".coni");
+      conp = new File(directory, name + ".conp");
+      int totalPages = 0;
+      for(final int i : pagesPerPdf)
+      {
+         totalPages += i;
+      }
+      this.totalPages = totalPages;
+      writeShort = totalPages < Short.MAX_VALUE;
+      
+      final ByteArrayOutputStream header = new ByteArrayOutputStream();
+      Grid.writeIntArray(header, pagesPerPdf);
+      Grid.writeStringArray(header, fileNames);
+      conwCountOffset = header.size();
+      
+      outW = new BufferedOutputStream(new FileOutputStream(conw));
+      header.writeTo(outW);
+      Grid.writeInt(outW, 0);
+      outD = new TermDictionary.Writer(new BufferedOutputStream(new FileOutputStream(new File(directory, name + ".cond"))));
+      
+      outI = new BufferedOutputStream(new FileOutputStream(coni));
+      Grid.writeInt(outI, 0);
+      if(compress)
+      {
+         outI.write(PostingsCodec._FORMAT);
+      }
+      else
+      {
+         Grid.writeBoolean(outI, writeShort);
+      }
+      
+      wordListOut = new BufferedWriter(new FileWriter(new File(directory, name + ".words")));
+      outLegible = new BufferedWriter(new FileWriter(new File(directory, name + ".index")));
+   }
+   
+   public void add(final String word, final int[] pages, final int size) throws IOException
+   {
+      Grid.writeString(outW, word);
+      outD.add(word);
+      
+      if(compress)
+      {
+         PostingsCodec.write(outI, pages, size);
+      }
+      else if(writeShort)
+      {
+         Grid.writeInt(outI, size);
+         for(int j = 0; j < size; j++)
+         {
+            Grid.writeShort(outI, pages[j]);
+         }
+      }
+      else
+      {
+         Grid.writeInt(outI, size);
+         for(int j = 0; j < size; j++)
+         {
+            Grid.writeInt(outI, pages[j]);
+         }
+      }
+      
+      wordListOut.write(word);
+      wordListOut.newLine();
+      
+      outLegible.write(word);
+      final String filler = ((count + 1) % 4 == 0 ? "__________________________ " : "                           ");
+      outLegible.write(" ");
+      outLegible.write(filler.substring(Math.min(filler.length(), word.length() + 1)));
+      if(size > 0)
+      {
+         outLegible.write(Integer.toString(pages[0]));
+      }
+      for(int j = 1; j < size; j++)
+      {
+         outLegible.write(",");
+         outLegible.write(Integer.toString(pages[j]));
+      }
+      outLegible.newLine();
+      count++;
+   }
+   
+   /**
+    * 
+    * @return the number of words written so far
+    */
+   public int getWordCount()
+   {
+      return count;
+   }
+   
+   /**
+    * 
+    * @return the .conp file of this index (see {@link PositionsFile
+    *         PositionsFile}), which the {@link Inverter Inverter} writes
+    */
+   File getPositionsFile()
+   {
+      return conp;
+   }
+   
+   /**
+    * 
+    * @return the number of pages in the project
+    */
+   int getTotalPages()
+   {
+      return totalPages;
+   }
+   
+   public void close() throws IOException
+   {
+      if(closed)
+      {
+         return;
+      }
+      closed = true;
+      outW.close();
+      outD.close();
+      outI.close();
+      wordListOut.close();
+      outLegible.close();
+      patchInt(conw, conwCountOffset, count);
+      patchInt(coni, 0, count);
+   }
+   
+   /**
+    * overwrite the int at this offset in the file
+    */
+   static void patchInt(final File f, final long offset, final int value) throws IOException
+   {
+      final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      try
+      {
+         raf.seek(offset);
+         raf.writeInt(value);
+      }
+      finally
+      {
+         raf.close();
+      }
+   }
+   
+   private final File conw;
+   private final File coni;
+   private final File conp;
+   private final int totalPages;
+   private final boolean compress;
+   private final boolean writeShort;
+   private final long conwCountOffset;
+   
+   private final OutputStream outW;
+   private final TermDictionary.Writer outD;
+   private final OutputStream outI;
+   private final BufferedWriter wordListOut;
+   private final BufferedWriter outLegible;
+   
+   private int count = 0;
+   private boolean closed = false;
+}
@@ -1,19 +1,25 @@
 package com.github.michaelaaronlevy.ork.wordindex;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.github.michaelaaronlevy.ork.GridIterMemenPage;
+import com.github.michaelaaronlevy.ork.GridPageScanner;
 import com.github.michaelaaronlevy.ork.MemenPage;
-import com.github.michaelaaronlevy.ork.MemenText;
 import com.github.michaelaaronlevy.ork.util.Grid;
 import com.github.michaelaaronlevy.ork.util.RunnableWithStatus;
 import com.github.michaelaaronlevy.ork.util.Status;
@@ -21,10 +27,14 @@ import com.github.michaelaaronlevy.ork.util.StatusReporter;
 import com.github.michaelaaronlevy.ork.util.pdfbox.ProjectPDFs;
 
 /**
- * this class creates a searchable word index.
+ * this class creates a searchable word index. The .grid file is read once
+ * and the words are inverted (see {@link Inverter Inverter}) into lists of
+ * pages, using temporary files if there is not enough memory for all of the
+ * lists. Where each word is on each page (see {@link PositionsFile
+ * PositionsFile}) is recorded in the same pass.
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class Indexer implements RunnableWithStatus
 {
@@ -35,14 +45,58 @@ public class Indexer implements RunnableWithStatus
     * @param name
     *           the name of the index file
     * @param wordList
-    *           a WordList object that already has a complete list of words that
-    *           will appear.
+    *           the WordList that was used to extract the text (it is cleared,
+    *           to free up memory; the words are read from the .grid file)
     */
    public Indexer(final File directory, final String name, final WordList wordList)
+   {
+      this(directory, name, wordList, Inverter.getDefaultMemoryBudget(),
+            Runtime.getRuntime().availableProcessors());
+   }
+   
+   /**
+    * 
+    * @param directory
+    *           the directory to save the index to
+    * @param name
+    *           the name of the index file
+    * @param wordList
+    *           the WordList that was used to extract the text (it is cleared,
+    *           to free up memory; the words are read from the .grid file)
+    * @param memoryBudget
+    *           roughly how many bytes the lists of pages can take up before
+    *           they are written to temporary files
+    */
+   public Indexer(final File directory, final String name, final WordList wordList, final long memoryBudget)
+   {
+      this(directory, name, wordList, memoryBudget, 1);
+   }
+   
+   /**
+    * 
+    * @param directory
+    *           the directory to save the index to
+    * @param name
+    *           the name of the index file
+    * @param wordList
+    *           the WordList that was used to extract the text (it is cleared,
+    *           to free up memory; the words are read from the .grid file)
+    * @param memoryBudget
+    *           roughly how many bytes the lists of pages can take up before
+    *           they are written to temporary files (shared by all threads)
+    * @param threads
+    *           the number of threads that invert pages at the same time. The
+    *           index files are exactly the same no matter how many threads are
+    *           used.
+    */
+   public Indexer(final File directory, final String name, final WordList wordList, final long memoryBudget,
+         final int threads)
    {
       outputDirectory = directory;
       this.name = name;
       this.wordList = wordList;
+      this.memoryBudget = memoryBudget;
+      this.threads = Math.max(1, threads);
    }
    
    public void run()
@@ -51,8 +105,8 @@ public class Indexer implements RunnableWithStatus
       
       try
       {
-         step1(); // make a list of all the words (in the wordList that was
-                  // given to the constructor).
+         index(); // read the .grid file, write the .conw, .coni, .words,
+                  // .index and .conp files, and delete the .grid
       }
       catch(final IOException iox)
       {
@@ -61,224 +115,216 @@ public class Indexer implements RunnableWithStatus
          return;
       }
       
-      if(status.reporter.hasError())
-      {
-         status.declareEnd();
-         return;
-      }
-      
-      try
-      {
-         step2(); // make a smaller "grid" file equivalent and delete the .grid
-      }
-      catch(final IOException iox)
-      {
-         status.declareFatalError(iox.getMessage());
-         status.declareEnd();
-         return;
-      }
+      status.declareEnd();
+   }
+   
+   private void index() throws IOException
+   {
+      wordList.clear(); // the words are collected from the .grid file instead
       
-      if(status.reporter.hasError())
+      status.updateStatus("Step 1 - read the .grid file and build the lists of pages for each word");
+      final File grid = new File(outputDirectory, name + ".grid");
+      if(threads > 1 && grid.length() > _CHUNK_BYTES)
       {
-         status.declareEnd();
+         indexParallel(grid);
+         writeContainer();
+         grid.delete();
          return;
       }
-      
+      final GridIterMemenPage iter = new GridIterMemenPage(new BufferedInputStream(new FileInputStream(grid)));
+      final Inverter inverter = new Inverter(outputDirectory, name, memoryBudget);
       try
       {
-         step3(); // for each word (in ascending dictionary order), a list of
-                  // the pages that word appears in (in ascending order)
-                  // and delete the unnecessary file
+         int projectPage = 0;
+         while(iter.pagesLeft() > 0)
+         {
+            final MemenPage data = iter.next();
+            projectPage++;
+            final int n = data.getNumberOfWords();
+            for(int i = 0; i < n; i++)
+            {
+               inverter.add(projectPage, data.getWord(i).text);
+            }
+            inverter.endPage(projectPage);
+         }
       }
-      catch(final IOException iox)
+      finally
       {
-         status.declareFatalError(iox.getMessage());
-         status.declareEnd();
-         return;
+         iter.close();
       }
       
-      if(status.reporter.hasError())
-      {
-         status.declareEnd();
-         return;
-      }
+      status.updateStatus("Step 2 - write the .conw, .coni, .words, .index and .conp files");
+      inverter.writeTo(new IndexWriter(outputDirectory, name, iter.getPagesPerPdf(), iter.getFileNames()));
       
-      status.declareEnd();
+      writeContainer();
+      grid.delete();
    }
    
-   private void step1() throws IOException
+   private void writeContainer() throws IOException
    {
-      status.updateStatus("Step 1 - make .conw file - a list of files/words");
-      BufferedInputStream stream = new BufferedInputStream(
-            new FileInputStream(new File(outputDirectory, name + ".grid")));
-      BufferedOutputStream outW = new BufferedOutputStream(
-            new FileOutputStream(new File(outputDirectory, name + ".conw")));
-      
-      pagesPerPdf = Grid.readIntArray(stream);
-      totalPages = 0;
-      for(final int i : pagesPerPdf)
-      {
-         totalPages += i;
-      }
-      
-      Grid.writeIntArray(outW, pagesPerPdf);
-      Grid.writeStringArray(outW, Grid.readStringArray(stream));
-      stream.close();
-      
-      allWords = wordList.getWordList();
-      wordOccurrence = new int[allWords.length];
-      Grid.writeStringArray(outW, allWords);
-      outW.close();
-      
-      final BufferedWriter wordListOut = new BufferedWriter(new FileWriter(new File(outputDirectory, name + ".words")));
-      for(String word : allWords)
-      {
-         wordListOut.write(word);
-         wordListOut.newLine();
-      }
-      wordListOut.close();
-      
-      wordList.clear();
+      status.updateStatus("Step 3 - write the .orkx file (the whole index in one file)");
+      SegmentedIndex.deleteSegments(outputDirectory, name); // an older index with this name is replaced
+      IndexContainer.pack(outputDirectory, name);
    }
    
-   private void step2() throws IOException
+   /**
+    * the .grid file is read (once) in chunks of whole pages. Each chunk is
+    * inverted by a separate task with its own Inverter. Because the chunks are
+    * in page order, merging the Inverters in chunk order gives the same index
+    * as inverting the pages one after the other.
+    */
+   private void indexParallel(final File grid) throws IOException
    {
-      status.updateStatus("Step 2 - make efficient .grid-like file that is used and deleted in step 3");
-      final boolean isShort = allWords.length < Short.MAX_VALUE;
-      GridIterMemenPage iter = new GridIterMemenPage(
-            new BufferedInputStream(new FileInputStream(new File(outputDirectory, name + ".grid"))));
-      BufferedOutputStream outG = new BufferedOutputStream(
-            new FileOutputStream(new File(outputDirectory, name + ".cong")));
+      final GridPageScanner header = new GridPageScanner(grid);
+      header.close();
+      final int[] pagesPerPdf = header.getPagesPerPdf();
+      final int totalPages = header.totalPages;
       
-      Grid.writeBoolean(outG, isShort);
-      
-      int projectPage = 0;
-      final TreeSet<String> pageWords = new TreeSet<String>();
-      while(iter.pagesLeft() > 0)
+      final ExecutorService pool = Executors.newFixedThreadPool(threads);
+      final Semaphore inFlight = new Semaphore(threads * 2);
+      final ArrayList<Future<Inverter>> chunks = new ArrayList<Future<Inverter>>();
+      final Inverter.Vocabulary vocabulary = new Inverter.Vocabulary();
+      final FileChannel channel = FileChannel.open(grid.toPath(), StandardOpenOption.READ);
+      try
       {
-         final MemenPage data = iter.next();
-         for(final MemenText mt : data.getWordsArray())
+         long position = header.headerEnd;
+         byte[] buffer = new byte[_CHUNK_BYTES];
+         int filled = 0;
+         int pagesRead = 0;
+         while(pagesRead < totalPages)
          {
-            pageWords.add(mt.text);
-         }
-         
-         Grid.writeInt(outG, ++projectPage);
-         Grid.writeInt(outG, pageWords.size());
-         if(isShort)
-         {
-            for(final String word : pageWords)
+            final int read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled), position);
+            if(read > 0)
             {
-               final int index = Arrays.binarySearch(allWords, word);
-               wordOccurrence[index]++;
-               Grid.writeShort(outG, index);
+               position += read;
+               filled += read;
             }
-         }
-         else
-         {
-            for(final String word : pageWords)
+            
+            int end = 0;
+            int pages = 0;
+            int next;
+            while(pagesRead + pages < totalPages && (next = pageEnd(buffer, end, filled)) >= 0)
             {
-               final int index = Arrays.binarySearch(allWords, word);
-               if(index < 0)
+               end = next;
+               pages++;
+            }
+            if(pages == 0 || (read > 0 && filled < buffer.length && pagesRead + pages < totalPages))
+            {
+               if(read < 0)
+               {
+                  throw new IOException("Unexpected end of " + grid.getAbsolutePath() + " after page " + pagesRead);
+               }
+               if(filled == buffer.length)
                {
-                  // this is not supposed to happen, it means it looked for
-                  // a word that did not get put into the dictionary
-                  System.err.println(
-                        "Step 2 error - word is not in the array.  wordOccurrence.length = " + wordOccurrence.length);
+                  buffer = Arrays.copyOf(buffer, buffer.length * 2); // one very big page
                }
-               
-               wordOccurrence[index]++;
-               Grid.writeInt(outG, index);
+               continue;
             }
+            
+            final byte[] chunk = buffer;
+            final int length = end;
+            final int count = pages;
+            final int firstPage = pagesRead + 1;
+            final int chunkNumber = chunks.size();
+            inFlight.acquire();
+            chunks.add(pool.submit(() ->
+            {
+               try
+               {
+                  return invertChunk(chunk, length, count, firstPage, chunkNumber, vocabulary);
+               }
+               finally
+               {
+                  inFlight.release();
+               }
+            }));
+            pagesRead += pages;
+            
+            buffer = new byte[Math.max(_CHUNK_BYTES, filled - end)];
+            System.arraycopy(chunk, end, buffer, 0, filled - end);
+            filled -= end;
+         }
+         
+         final ArrayList<Inverter> parts = new ArrayList<Inverter>();
+         for(final Future<Inverter> f : chunks)
+         {
+            parts.add(f.get());
          }
-         pageWords.clear();
+         status.updateStatus("Step 2 - write the .conw, .coni, .words, .index and .conp files");
+         Inverter.writeTo(parts, new IndexWriter(outputDirectory, name, pagesPerPdf, header.getFileNames()));
       }
-      outG.close();
-      
-      new File(outputDirectory, name + ".grid").delete();
-   }
-   
-   private void step3() throws IOException
-   {
-      status.updateStatus(
-            "Step 3 - make the .coni file - which contains an index of all pages where each word appears");
-      final int[][] wordIndex = new int[allWords.length][];
-      for(int i = 0; i < wordIndex.length; i++)
+      catch(final InterruptedException iex)
       {
-         wordIndex[i] = new int[wordOccurrence[i]];
+         throw new IOException("Indexer interrupted", iex);
       }
-      Arrays.fill(wordOccurrence, 0); // wordOccurrence is now an array full of
-                                      // counters
-      
-      BufferedInputStream stream = new BufferedInputStream(
-            new FileInputStream(new File(outputDirectory, name + ".cong")));
-      
-      final boolean readShort = Grid.readBoolean(stream);
-      while(stream.available() > 0)
+      catch(final ExecutionException eex)
       {
-         final int projectPage = Grid.readInt(stream);
-         final int pageWords = Grid.readInt(stream);
-         if(readShort)
+         final Throwable cause = eex.getCause();
+         if(cause instanceof IOException)
          {
-            for(int w = 0; w < pageWords; w++)
-            {
-               int next = Grid.readShort(stream);
-               wordIndex[next][wordOccurrence[next]++] = projectPage;
-            }
-         }
-         else
-         {
-            for(int w = 0; w < pageWords; w++)
-            {
-               int next = Grid.readInt(stream);
-               wordIndex[next][wordOccurrence[next]++] = projectPage;
-            }
+            throw (IOException) cause;
          }
+         throw new RuntimeException(cause);
       }
-      stream.close();
-      
-      final boolean writeShort = totalPages < Short.MAX_VALUE;
-      BufferedOutputStream outI = new BufferedOutputStream(
-            new FileOutputStream(new File(outputDirectory, name + ".coni")));
-      Grid.writeInt(outI, wordIndex.length);
-      Grid.writeBoolean(outI, writeShort);
-      if(writeShort)
+      finally
       {
-         for(final int[] ii : wordIndex)
-         {
-            Grid.writeShortArray(outI, ii);
-         }
+         pool.shutdownNow();
+         channel.close();
       }
-      else
+   }
+   
+   /**
+    * 
+    * @return the Inverter for this chunk. What it holds in memory counts
+    *         against the memory budget until the end; if the budget is used
+    *         up, it is written to a run file.
+    */
+   private Inverter invertChunk(final byte[] chunk, final int length, final int pages, final int firstPage,
+         final int chunkNumber, final Inverter.Vocabulary vocabulary) throws IOException
+   {
+      final Inverter inverter = new Inverter(outputDirectory, name + ".chunk" + chunkNumber, memoryBudget / threads,
+            vocabulary);
+      final ByteArrayInputStream in = new ByteArrayInputStream(chunk, 0, length);
+      for(int p = 0; p < pages; p++)
       {
-         for(final int[] ii : wordIndex)
+         final MemenPage data = new MemenPage(in);
+         final int n = data.getNumberOfWords();
+         for(int i = 0; i < n; i++)
          {
-            Grid.writeIntArray(outI, ii);
+            inverter.add(firstPage + p, data.getWord(i).text);
          }
+         inverter.endPage(firstPage + p);
       }
-      outI.close();
-      
-      BufferedWriter outLegible = new BufferedWriter(new FileWriter(new File(outputDirectory, name + ".index")));
-      for(int i = 0; i < allWords.length; i++)
+      if(retained.addAndGet(inverter.getMemoryUsed()) > memoryBudget)
       {
-         final String word = allWords[i];
-         final int[] pages = wordIndex[i];
-         outLegible.write(word);
-         final String filler = ((i + 1) % 4 == 0 ? "__________________________ " : "                           ");
-         outLegible.write(" ");
-         outLegible.write(filler.substring(word.length() + 1));
-         outLegible.write(Integer.toString(pages[0]));
-         for(int j = 1; j < pages.length; j++)
+         retained.addAndGet(-inverter.getMemoryUsed());
+         inverter.spill();
+      }
+      return inverter;
+   }
+   
+   /**
+    * 
+    * @return the offset of the end of the page that starts at "from", or -1 if
+    *         the whole page is not in b before "limit"
+    */
+   private static int pageEnd(final byte[] b, final int from, final int limit)
+   {
+      if(limit - from < GridPageScanner._PAGE_HEADER_BYTES)
+      {
+         return -1;
+      }
+      final int words = ByteBuffer.wrap(b).getInt(from + 16);
+      int p = from + GridPageScanner._PAGE_HEADER_BYTES;
+      for(int w = 0; w < words; w++)
+      {
+         if(limit - p < _WORD_FIXED_BYTES)
          {
-            outLegible.write(",");
-            outLegible.write(Integer.toString(pages[j]));
+            return -1;
          }
-         outLegible.newLine();
+         p += _WORD_FIXED_BYTES + (short) (((b[p + 24] & 0xff) << 8) | (b[p + 25] & 0xff));
       }
-      outLegible.close();
-      
-      Arrays.fill(wordIndex, null);
-      
-      new File(outputDirectory, name + ".cong").delete();
+      return p <= limit ? p : -1;
    }
    
    public StatusReporter getStatus()
@@ -301,13 +347,26 @@ public class Indexer implements RunnableWithStatus
       
       final int[] pageCountPerFile = Grid.readIntArray(bis);
       final String[] filePaths = Grid.readStringArray(bis);
+      bis.close();
       
+      return buildProject(directory, name, pageCountPerFile, filePaths);
+   }
+   
+   /**
+    * 
+    * @param pageCountPerFile
+    *           the number of pages in each PDF
+    * @param filePaths
+    *           the PDF file names
+    */
+   public static ProjectPDFs buildProject(final File directory, final String name, final int[] pageCountPerFile,
+         final String[] filePaths) throws IOException
+   {
       final File[] files = new File[pageCountPerFile.length];
       for(int i = 0; i < pageCountPerFile.length; i++)
       {
          files[i] = new File(filePaths[i]).getCanonicalFile();
       }
-      bis.close();
       
       return new ProjectPDFs(directory, name, files, pageCountPerFile);
    }
@@ -315,11 +374,25 @@ public class Indexer implements RunnableWithStatus
    private final File outputDirectory;
    private final String name;
    
-   private int[] pagesPerPdf = null;
    private final WordList wordList;
-   private String[] allWords = null;
-   private int[] wordOccurrence = null;
-   private int totalPages = -1;
+   private final long memoryBudget;
+   private final int threads;
+   
+   /**
+    * the memory used by chunks that have been inverted but not merged yet
+    */
+   private final AtomicLong retained = new AtomicLong();
+   
+   /**
+    * how much of the .grid file is read at a time (and inverted by one task)
+    * when more than one thread is used
+    */
+   private static final int _CHUNK_BYTES = 1 << 23;
+   
+   /**
+    * six ints and the length of the string
+    */
+   private static final int _WORD_FIXED_BYTES = 26;
    
    private final Status status = new Status("Indexer");
 }
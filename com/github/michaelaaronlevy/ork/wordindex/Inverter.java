@@ -0,0 +1,805 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * builds the word index in one pass over the text, with a limited amount of
+ * memory (single-pass in-memory inversion).
+ * 
+ * <p>
+ * Words are added one page at a time, in ascending page order. Each word
+ * gets a list of the pages it appears in (a page is only listed once, no
+ * matter how many times the word appears on it). When the estimated size of
+ * the lists goes over the memory budget, the words are sorted and written to
+ * a temporary "run" file and the memory is cleared. At the end, the runs are
+ * merged (if there are very many runs, they are merged in several rounds) and
+ * the result is written with an {@link IndexWriter IndexWriter}.
+ * 
+ * <p>
+ * Because each run holds a range of pages that comes after the pages in the
+ * previous run, merging the lists of the same word is just a matter of
+ * putting them one after the other, in run order.
+ * 
+ * <p>
+ * The words on each page are also written, in order, to a temporary file, so
+ * the .conp file (see {@link PositionsFile PositionsFile}) comes from the same
+ * pass over the text. The .conp file needs the number of each word in the
+ * sorted list of all of the words, which is not known until the end, so each
+ * word is written as a temporary number (the order in which the words were
+ * first seen; see {@link Vocabulary Vocabulary}). When the index is written,
+ * the temporary numbers are changed to the real ones. The temporary numbers
+ * are kept until the end, so they are not part of the memory budget.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class Inverter
+{
+   /**
+    * 
+    * @param tempDirectory
+    *           where the temporary run files are written
+    * @param tempName
+    *           the run files are named tempName.run0, tempName.run1, ...
+    * @param memoryBudget
+    *           (approximate) bytes of memory to use before writing a run
+    */
+   public Inverter(final File tempDirectory, final String tempName, final long memoryBudget)
+   {
+      this(tempDirectory, tempName, memoryBudget, new Vocabulary());
+   }
+   
+   /**
+    * 
+    * @param vocabulary
+    *           gives the temporary numbers of the words. Inverters for
+    *           different ranges of pages of the same index (see
+    *           {@link #writeTo(List, IndexWriter) writeTo}) should share one,
+    *           so each word is only kept once.
+    */
+   Inverter(final File tempDirectory, final String tempName, final long memoryBudget, final Vocabulary vocabulary)
+   {
+      this.tempDirectory = tempDirectory;
+      this.tempName = tempName;
+      this.memoryBudget = memoryBudget;
+      this.vocabulary = vocabulary;
+      sequences = new File(tempDirectory, tempName + ".seq");
+   }
+   
+   /**
+    * 
+    * @return the memory budget used when none is given: a quarter of the
+    *         maximum heap size
+    */
+   public static long getDefaultMemoryBudget()
+   {
+      return Runtime.getRuntime().maxMemory() / 4;
+   }
+   
+   /**
+    * record that the word appears on the page. Pages must be added in
+    * ascending order.
+    */
+   public void add(final int page, final String word)
+   {
+      if(page < lastPage || page < firstPage + pagesRecorded)
+      {
+         throw new RuntimeException("Pages must be added in ascending order: " + page + " after "
+               + Math.max(lastPage, firstPage + pagesRecorded - 1));
+      }
+      lastPage = page;
+      Postings p = block.get(word);
+      if(p == null)
+      {
+         p = new Postings(vocabulary.getNumber(word));
+         block.put(word, p);
+         memoryUsed += _BYTES_PER_WORD + 2L * word.length();
+      }
+      if(wordsOnPage == onPage.length)
+      {
+         onPage = Arrays.copyOf(onPage, wordsOnPage * 2);
+      }
+      onPage[wordsOnPage++] = p.number;
+      if(p.size != 0 && p.pages[p.size - 1] == page)
+      {
+         return;
+      }
+      if(p.size == p.pages.length)
+      {
+         p.pages = Arrays.copyOf(p.pages, p.size + (p.size >> 1) + 1);
+      }
+      p.pages[p.size++] = page;
+      memoryUsed += _BYTES_PER_PAGE;
+   }
+   
+   /**
+    * call this after all of the words on a page have been added (also for a
+    * page that has no words). The words on the page are written to the
+    * temporary file for the .conp file. Pages that are skipped have no words.
+    * If the memory budget has been used up, this writes a run file.
+    * 
+    * @param page
+    *           the page that ends
+    * @throws IOException
+    */
+   public void endPage(final int page) throws IOException
+   {
+      if(wordsOnPage != 0 && page != lastPage)
+      {
+         throw new RuntimeException("The words were added to page " + lastPage + ", not page " + page);
+      }
+      if(sequencesOut == null)
+      {
+         if(pagesRecorded != 0)
+         {
+            throw new RuntimeException("Inverter::endPage the words on each page have already been written");
+         }
+         firstPage = page;
+         sequencesOut = new BufferedOutputStream(new FileOutputStream(sequences), 1 << 16);
+      }
+      else if(page < firstPage + pagesRecorded)
+      {
+         throw new RuntimeException("Pages must be ended in ascending order: " + page + " after "
+               + (firstPage + pagesRecorded - 1));
+      }
+      while(firstPage + pagesRecorded < page)
+      {
+         PositionsFile.writeVarint(sequencesOut, 0);
+         pagesRecorded++;
+      }
+      PositionsFile.writeVarint(sequencesOut, wordsOnPage);
+      for(int i = 0; i < wordsOnPage; i++)
+      {
+         PositionsFile.writeVarint(sequencesOut, onPage[i]);
+      }
+      pagesRecorded++;
+      wordsOnPage = 0;
+      
+      if(memoryUsed > memoryBudget)
+      {
+         spill();
+      }
+   }
+   
+   /**
+    * write the words in memory to a new run file (if there are any)
+    * 
+    * @throws IOException
+    */
+   public void spill() throws IOException
+   {
+      if(block.isEmpty())
+      {
+         return;
+      }
+      final File run = new File(tempDirectory, tempName + ".run" + runCounter++);
+      final OutputStream out = new BufferedOutputStream(new FileOutputStream(run));
+      try
+      {
+         Grid.writeInt(out, block.size());
+         for(final Map.Entry<String, Postings> e : sortedBlock())
+         {
+            Grid.writeString(out, e.getKey());
+            final Postings p = e.getValue();
+            Grid.writeInt(out, p.size);
+            for(int i = 0; i < p.size; i++)
+            {
+               Grid.writeInt(out, p.pages[i]);
+            }
+         }
+      }
+      finally
+      {
+         out.close();
+      }
+      runs.add(run);
+      block.clear();
+      memoryUsed = 0;
+   }
+   
+   /**
+    * 
+    * @return the run files that have been written so far, in order
+    */
+   public List<File> getRuns()
+   {
+      return new ArrayList<File>(runs);
+   }
+   
+   /**
+    * write every word and its pages to the IndexWriter (and close it), then
+    * write the .conp file. If no run files were written, everything is
+    * written directly from memory. Otherwise the remaining words are spilled
+    * and all of the runs are merged (and deleted).
+    * 
+    * @throws IOException
+    */
+   public void writeTo(final IndexWriter out) throws IOException
+   {
+      try
+      {
+         if(runs.isEmpty())
+         {
+            for(final Map.Entry<String, Postings> e : sortedBlock())
+            {
+               out.add(e.getKey(), e.getValue().pages, e.getValue().size);
+            }
+            block.clear();
+            out.close();
+         }
+         else
+         {
+            spill();
+            merge(runs, tempDirectory, tempName, out);
+            runs.clear();
+         }
+         writePositions(Collections.singletonList(this), out);
+      }
+      finally
+      {
+         deleteSequences();
+      }
+   }
+   
+   /**
+    * merge run files (each run holds pages that come after the pages in the
+    * previous run) and write the result to the IndexWriter, which is closed.
+    * The run files are deleted.
+    * 
+    * @param runs
+    *           in page order
+    * @param tempDirectory
+    *           for the intermediate runs, if there are more than
+    *           {@link #_MAX_MERGE_WIDTH _MAX_MERGE_WIDTH} runs
+    * @param tempName
+    * @param out
+    * @throws IOException
+    */
+   public static void merge(final List<File> runs, final File tempDirectory, final String tempName,
+         final IndexWriter out) throws IOException
+   {
+      List<File> current = new ArrayList<File>(runs);
+      int round = 0;
+      while(current.size() > _MAX_MERGE_WIDTH)
+      {
+         // merge neighboring runs, so each new run still covers a range of
+         // pages that comes after the range of the previous one
+         final List<File> next = new ArrayList<File>();
+         for(int i = 0; i < current.size(); i += _MAX_MERGE_WIDTH)
+         {
+            final List<File> group = current.subList(i, Math.min(current.size(), i + _MAX_MERGE_WIDTH));
+            final File merged = new File(tempDirectory, tempName + ".merge" + round + "_" + next.size());
+            final RunWriter w = new RunWriter(merged);
+            mergeRuns(group, w);
+            w.close();
+            next.add(merged);
+         }
+         current = next;
+         round++;
+      }
+      mergeRuns(current, out);
+      out.close();
+   }
+   
+   /**
+    * write every word from several Inverters to the IndexWriter (and close it).
+    * Each Inverter must hold pages that come after the pages in the previous
+    * one (for example, one Inverter for each range of pages that was inverted
+    * by a separate thread). The result is the same as if all of the pages had
+    * been added to one Inverter. The words that are still in memory are merged
+    * without being written to run files first, unless there are too many
+    * sources to read at the same time. Then the .conp file is written.
+    * 
+    * @param parts
+    *           in page order
+    * @param out
+    * @throws IOException
+    */
+   public static void writeTo(final List<Inverter> parts, final IndexWriter out) throws IOException
+   {
+      try
+      {
+         writeWords(parts, out);
+         writePositions(parts, out);
+      }
+      finally
+      {
+         for(final Inverter part : parts)
+         {
+            part.deleteSequences();
+         }
+      }
+   }
+   
+   private static void writeWords(final List<Inverter> parts, final IndexWriter out) throws IOException
+   {
+      int sources = 0;
+      for(final Inverter part : parts)
+      {
+         sources += part.runs.size() + (part.block.isEmpty() ? 0 : 1);
+      }
+      if(parts.isEmpty() || sources > _MAX_MERGE_WIDTH)
+      {
+         final ArrayList<File> all = new ArrayList<File>();
+         for(final Inverter part : parts)
+         {
+            part.spill();
+            all.addAll(part.runs);
+            part.runs.clear();
+         }
+         final Inverter first = parts.isEmpty() ? null : parts.get(0);
+         merge(all, first == null ? null : first.tempDirectory, first == null ? "" : first.tempName, out);
+         return;
+      }
+      
+      final RunReader[] readers = new RunReader[sources];
+      int i = 0;
+      for(final Inverter part : parts)
+      {
+         for(final File f : part.runs)
+         {
+            readers[i] = new RunReader(f, i);
+            i++;
+         }
+         if(!part.block.isEmpty())
+         {
+            readers[i] = new RunReader(part.sortedBlock(), i);
+            i++;
+         }
+      }
+      mergeRuns(readers, out);
+      for(final Inverter part : parts)
+      {
+         for(final File f : part.runs)
+         {
+            f.delete();
+         }
+         part.runs.clear();
+         part.block.clear();
+         part.memoryUsed = 0;
+      }
+      out.close();
+   }
+   
+   /**
+    * write the .conp file from the words that each part wrote for each page,
+    * with the temporary number of each word changed to its number in the
+    * sorted list of words. Pages that no part has are empty.
+    */
+   private static void writePositions(final List<Inverter> parts, final IndexWriter out) throws IOException
+   {
+      // the real number of a word is its place in the sorted list of all of
+      // the words (the words are the same ones that were given to the
+      // IndexWriter, and in the same order)
+      final IdentityHashMap<Vocabulary, int[]> numbers = new IdentityHashMap<Vocabulary, int[]>();
+      final HashSet<String> all = new HashSet<String>();
+      for(final Inverter part : parts)
+      {
+         if(!numbers.containsKey(part.vocabulary))
+         {
+            numbers.put(part.vocabulary, null);
+            if(parts.size() > 1)
+            {
+               all.addAll(part.vocabulary.numbers.keySet());
+            }
+         }
+      }
+      final String[] words = parts.size() == 1 ? parts.get(0).vocabulary.numbers.keySet().toArray(new String[0])
+            : all.toArray(new String[all.size()]);
+      all.clear();
+      Arrays.sort(words);
+      if(words.length != out.getWordCount())
+      {
+         throw new IOException("Inverter::writePositions " + words.length + " words were numbered, but "
+               + out.getWordCount() + " were written to the index");
+      }
+      for(final Vocabulary v : numbers.keySet())
+      {
+         final int[] real = new int[v.numbers.size()];
+         for(final Map.Entry<String, Integer> e : v.numbers.entrySet())
+         {
+            real[e.getValue()] = Arrays.binarySearch(words, e.getKey());
+         }
+         numbers.put(v, real);
+      }
+      
+      int end = 1;
+      for(final Inverter part : parts)
+      {
+         if(part.sequencesOut != null)
+         {
+            part.sequencesOut.close();
+            part.sequencesOut = null;
+         }
+         if(part.pagesRecorded != 0)
+         {
+            if(part.firstPage < end)
+            {
+               throw new IOException("Inverter::writePositions the parts are not in page order (page "
+                     + part.firstPage + ")");
+            }
+            end = part.firstPage + part.pagesRecorded;
+         }
+      }
+      if(end - 1 > out.getTotalPages())
+      {
+         throw new IOException("Inverter::writePositions page " + (end - 1) + " is past the last page ("
+               + out.getTotalPages() + ")");
+      }
+      
+      final SequenceReader reader = new SequenceReader(parts, numbers);
+      try
+      {
+         PositionsFile.write(out.getPositionsFile(), out.getTotalPages(), reader);
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+   
+   private void deleteSequences() throws IOException
+   {
+      if(sequencesOut != null)
+      {
+         sequencesOut.close();
+         sequencesOut = null;
+      }
+      sequences.delete();
+   }
+   
+   /**
+    * 
+    * @return the (approximate) bytes of memory used by the words that have not
+    *         been written to a run file
+    */
+   public long getMemoryUsed()
+   {
+      return memoryUsed;
+   }
+   
+   private static void mergeRuns(final List<File> runs, final Sink out) throws IOException
+   {
+      final RunReader[] readers = new RunReader[runs.size()];
+      for(int i = 0; i < readers.length; i++)
+      {
+         readers[i] = new RunReader(runs.get(i), i);
+      }
+      mergeRuns(readers, out);
+      for(final File f : runs)
+      {
+         f.delete();
+      }
+   }
+   
+   /**
+    * the readers must already be open, and are closed
+    */
+   private static void mergeRuns(final RunReader[] readers, final Sink out) throws IOException
+   {
+      final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, readers.length));
+      try
+      {
+         for(final RunReader r : readers)
+         {
+            if(r.next())
+            {
+               queue.add(r);
+            }
+         }
+         int[] pages = new int[64];
+         while(!queue.isEmpty())
+         {
+            final String word = queue.peek().word;
+            int size = 0;
+            // the queue breaks ties by run number, so the pages stay in order
+            while(!queue.isEmpty() && queue.peek().word.equals(word))
+            {
+               final RunReader r = queue.poll();
+               if(size + r.size > pages.length)
+               {
+                  pages = Arrays.copyOf(pages, Math.max(pages.length * 2, size + r.size));
+               }
+               size = r.readPages(pages, size);
+               if(r.next())
+               {
+                  queue.add(r);
+               }
+            }
+            out.add(word, pages, size);
+         }
+      }
+      finally
+      {
+         for(final RunReader r : readers)
+         {
+            if(r != null)
+            {
+               r.close();
+            }
+         }
+      }
+   }
+   
+   private ArrayList<Map.Entry<String, Postings>> sortedBlock()
+   {
+      final ArrayList<Map.Entry<String, Postings>> entries = new ArrayList<Map.Entry<String, Postings>>(
+            block.entrySet());
+      entries.sort(Map.Entry.comparingByKey());
+      return entries;
+   }
+   
+   private final File tempDirectory;
+   private final String tempName;
+   private final long memoryBudget;
+   private final Vocabulary vocabulary;
+   
+   /**
+    * the temporary file of the words on each page
+    */
+   private final File sequences;
+   private OutputStream sequencesOut = null;
+   private int firstPage = 0;
+   private int pagesRecorded = 0;
+   
+   /**
+    * the temporary numbers of the words on the page that has not ended yet
+    */
+   private int[] onPage = new int[256];
+   private int wordsOnPage = 0;
+   
+   private final HashMap<String, Postings> block = new HashMap<String, Postings>();
+   private final ArrayList<File> runs = new ArrayList<File>();
+   private long memoryUsed = 0;
+   private int runCounter = 0;
+   private int lastPage = Integer.MIN_VALUE;
+   
+   /**
+    * the most runs that are read at the same time while merging
+    */
+   public static final int _MAX_MERGE_WIDTH = 64;
+   
+   /**
+    * rough cost of a new word: the String, the HashMap entry, and the Postings
+    * object with its first array
+    */
+   private static final long _BYTES_PER_WORD = 136;
+   
+   /**
+    * an int, plus the unused part of a growing array
+    */
+   private static final long _BYTES_PER_PAGE = 6;
+   
+   private static final class Postings
+   {
+      Postings(final int number)
+      {
+         this.number = number;
+      }
+      
+      /**
+       * the temporary number of the word
+       */
+      final int number;
+      int[] pages = new int[4];
+      int size = 0;
+   }
+   
+   /**
+    * the temporary number of each word: the order in which the words were
+    * first seen. Several Inverters (each on its own thread) can share one.
+    */
+   static final class Vocabulary
+   {
+      int getNumber(final String word)
+      {
+         final Integer n = numbers.get(word);
+         if(n != null)
+         {
+            return n;
+         }
+         return numbers.computeIfAbsent(word, w -> next.getAndIncrement());
+      }
+      
+      private final ConcurrentHashMap<String, Integer> numbers = new ConcurrentHashMap<String, Integer>();
+      private final AtomicInteger next = new AtomicInteger();
+   }
+   
+   /**
+    * reads the temporary files of the words on each page, one part after the
+    * other, and changes the temporary numbers to the real ones
+    */
+   private static final class SequenceReader implements PositionsFile.PageSource
+   {
+      SequenceReader(final List<Inverter> parts, final IdentityHashMap<Vocabulary, int[]> numbers)
+      {
+         this.parts = parts;
+         this.numbers = numbers;
+      }
+      
+      public int[] nextPage() throws IOException
+      {
+         final int p = page++;
+         while(part < parts.size())
+         {
+            final Inverter x = parts.get(part);
+            if(x.pagesRecorded != 0 && p < x.firstPage)
+            {
+               return new int[0];
+            }
+            if(p < x.firstPage + x.pagesRecorded)
+            {
+               if(in == null)
+               {
+                  in = new BufferedInputStream(new FileInputStream(x.sequences), 1 << 16);
+               }
+               final int[] real = numbers.get(x.vocabulary);
+               final int[] ids = new int[PositionsFile.readVarint(in)];
+               for(int i = 0; i < ids.length; i++)
+               {
+                  ids[i] = real[PositionsFile.readVarint(in)];
+               }
+               return ids;
+            }
+            close();
+            part++;
+         }
+         return new int[0];
+      }
+      
+      void close() throws IOException
+      {
+         if(in != null)
+         {
+            in.close();
+            in = null;
+         }
+      }
+      
+      private final List<Inverter> parts;
+      private final IdentityHashMap<Vocabulary, int[]> numbers;
+      private int part = 0;
+      private int page = 1;
+      private InputStream in = null;
+   }
+   
+   /**
+    * receives the words in sorted order, each with its list of pages
+    */
+   interface Sink
+   {
+      public void add(String word, int[] pages, int size) throws IOException;
+   }
+   
+   private static final class RunWriter implements Sink
+   {
+      RunWriter(final File f) throws IOException
+      {
+         this.f = f;
+         out = new BufferedOutputStream(new FileOutputStream(f));
+         Grid.writeInt(out, 0); // the real count is unknown until the end
+      }
+      
+      public void add(final String word, final int[] pages, final int size) throws IOException
+      {
+         Grid.writeString(out, word);
+         Grid.writeInt(out, size);
+         for(int i = 0; i < size; i++)
+         {
+            Grid.writeInt(out, pages[i]);
+         }
+         count++;
+      }
+      
+      void close() throws IOException
+      {
+         out.close();
+         IndexWriter.patchInt(f, 0, count);
+      }
+      
+      private final File f;
+      private final OutputStream out;
+      private int count = 0;
+   }
+   
+   /**
+    * reads a run file, or the sorted words that are still in memory
+    */
+   private static final class RunReader implements Comparable<RunReader>
+   {
+      RunReader(final File f, final int order) throws IOException
+      {
+         this.order = order;
+         in = new BufferedInputStream(new FileInputStream(f), 1 << 16);
+         remaining = Grid.readInt(in);
+         entries = null;
+      }
+      
+      RunReader(final ArrayList<Map.Entry<String, Postings>> entries, final int order)
+      {
+         this.order = order;
+         in = null;
+         remaining = entries.size();
+         this.entries = entries;
+      }
+      
+      /**
+       * 
+       * @return false if there are no more words in this run
+       */
+      boolean next() throws IOException
+      {
+         if(remaining == 0)
+         {
+            return false;
+         }
+         remaining--;
+         if(entries != null)
+         {
+            current = entries.get(entries.size() - remaining - 1).getValue();
+            word = entries.get(entries.size() - remaining - 1).getKey();
+            size = current.size;
+            return true;
+         }
+         word = Grid.readString(in);
+         size = Grid.readInt(in);
+         return true;
+      }
+      
+      int readPages(final int[] dst, int offset) throws IOException
+      {
+         if(entries != null)
+         {
+            System.arraycopy(current.pages, 0, dst, offset, size);
+            return offset + size;
+         }
+         for(int i = 0; i < size; i++)
+         {
+            dst[offset++] = Grid.readInt(in);
+         }
+         return offset;
+      }
+      
+      void close() throws IOException
+      {
+         if(in != null)
+         {
+            in.close();
+         }
+      }
+      
+      public int compareTo(final RunReader that)
+      {
+         final int c = word.compareTo(that.word);
+         return c != 0 ? c : Integer.compare(order, that.order);
+      }
+      
+      private final int order;
+      private final InputStream in;
+      private final ArrayList<Map.Entry<String, Postings>> entries;
+      private Postings current = null;
+      private int remaining;
+      String word = null;
+      int size = 0;
+   }
+}
@@ -0,0 +1,149 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * a {@link TermAutomaton TermAutomaton} that accepts every word that is at
+ * most maxEdits edits away from a word (an edit is adding, removing or
+ * changing one character). It is meant for OCR errors: "ovetime" is one edit
+ * from "overtime" and "rnanager" is two edits from "manager".
+ * 
+ * <p>
+ * Each state is a row of the edit distance table: how many edits it takes to
+ * turn the characters read so far into each prefix of the word (anything over
+ * maxEdits counts as maxEdits + 1). A row where every number is over maxEdits
+ * is dead. The rows are built as they are needed and each one is only built
+ * once, so walking the automaton over the {@link TermDictionary
+ * TermDictionary} is mostly looking up transitions that are already known.
+ * Every character that is not in the word leads to the same row, so the
+ * transitions are a small table by character class (each character of the
+ * word, plus "any other character").
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class LevenshteinAutomaton implements TermAutomaton
+{
+   public LevenshteinAutomaton(final String word, final int maxEdits)
+   {
+      if(maxEdits < 0 || maxEdits > _MAX_EDITS)
+      {
+         throw new IllegalArgumentException("ERROR: the number of edits must be from 0 to " + _MAX_EDITS + ": " + maxEdits);
+      }
+      this.word = word;
+      this.maxEdits = maxEdits;
+      alphabet = word.chars().distinct().sorted().collect(StringBuilder::new, StringBuilder::appendCodePoint,
+            StringBuilder::append).toString().toCharArray();
+      final char[] row = new char[word.length() + 1];
+      for(int i = 0; i < row.length; i++)
+      {
+         row[i] = (char) Math.min(i, maxEdits + 1);
+      }
+      startState = getState(row);
+   }
+   
+   public int start()
+   {
+      return startState;
+   }
+   
+   public int step(final int state, final char c)
+   {
+      int k = Arrays.binarySearch(alphabet, c);
+      if(k < 0)
+      {
+         k = alphabet.length;
+      }
+      final int[] t = transitions.get(state);
+      if(t[k] != _UNKNOWN)
+      {
+         return t[k];
+      }
+      final char[] from = rows.get(state);
+      final char[] to = new char[from.length];
+      to[0] = (char) Math.min(from[0] + 1, maxEdits + 1);
+      int best = to[0];
+      for(int i = 1; i < to.length; i++)
+      {
+         final int change = from[i - 1] + (word.charAt(i - 1) == c ? 0 : 1);
+         final int d = Math.min(change, Math.min(from[i], to[i - 1]) + 1);
+         to[i] = (char) Math.min(d, maxEdits + 1);
+         best = Math.min(best, to[i]);
+      }
+      final int r = best > maxEdits ? -1 : getState(to);
+      t[k] = r;
+      return r;
+   }
+   
+   public boolean isAccept(final int state)
+   {
+      final char[] row = rows.get(state);
+      return row[row.length - 1] <= maxEdits;
+   }
+   
+   /**
+    * 
+    * @return the number of edits between the word and a word the automaton
+    *         accepts (or maxEdits + 1, if it is not accepted)
+    */
+   public int getDistance(final String other)
+   {
+      int state = startState;
+      for(int i = 0; i < other.length() && state >= 0; i++)
+      {
+         state = step(state, other.charAt(i));
+      }
+      if(state < 0)
+      {
+         return maxEdits + 1;
+      }
+      final char[] row = rows.get(state);
+      return row[row.length - 1];
+   }
+   
+   public String toString()
+   {
+      return "fuzzy " + word + " " + maxEdits;
+   }
+   
+   private int getState(final char[] row)
+   {
+      final String key = new String(row);
+      final Integer known = stateIds.get(key);
+      if(known != null)
+      {
+         return known.intValue();
+      }
+      rows.add(row);
+      final int[] t = new int[alphabet.length + 1];
+      Arrays.fill(t, _UNKNOWN);
+      transitions.add(t);
+      stateIds.put(key, rows.size() - 1);
+      return rows.size() - 1;
+   }
+   
+   private final String word;
+   private final int maxEdits;
+   private final int startState;
+   
+   /**
+    * the characters in the word, sorted, without duplicates
+    */
+   private final char[] alphabet;
+   
+   private final ArrayList<char[]> rows = new ArrayList<char[]>();
+   private final ArrayList<int[]> transitions = new ArrayList<int[]>();
+   private final HashMap<String, Integer> stateIds = new HashMap<String, Integer>();
+   
+   /**
+    * more than this many edits would match too much of the index to be useful
+    */
+   public static final int _MAX_EDITS = 3;
+   
+   /**
+    * a transition that has not been built yet (-1 is the dead state)
+    */
+   private static final int _UNKNOWN = -2;
+}
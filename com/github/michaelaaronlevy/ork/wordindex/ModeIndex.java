@@ -33,23 +33,56 @@ import com.github.michaelaaronlevy.ork.util.Status.ErrorStatus;
  * is one of the selectable "modes"
  * 
  * @author michaelaaronlevy@gmail.com
- *
+ * 
  */
 public class ModeIndex implements ExtractionMode
 {
    public ModeIndex(final boolean keepNumbers)
+   {
+      this(keepNumbers, false);
+   }
+   
+   /**
+    * 
+    * @param keepNumbers
+    *           if true, words made only of digits are indexed
+    * @param keepGrid
+    *           if true, a .grid file with all of the extracted text is saved
+    *           next to the index. Otherwise the index is built directly from
+    *           the extracted text and no .grid file is written.
+    */
+   public ModeIndex(final boolean keepNumbers, final boolean keepGrid)
+   {
+      this(keepNumbers, keepGrid, false);
+   }
+   
+   /**
+    * 
+    * @param keepNumbers
+    *           if true, words made only of digits are indexed
+    * @param keepGrid
+    *           if true, a .grid file with all of the extracted text is saved
+    *           next to the index
+    * @param append
+    *           if true and the output file is an existing index, the PDFs are
+    *           added to it as a new segment (see {@link SegmentedIndex
+    *           SegmentedIndex}) instead of replacing it
+    */
+   public ModeIndex(final boolean keepNumbers, final boolean keepGrid, final boolean append)
    {
       this.keepNumbers = keepNumbers;
+      this.keepGrid = keepGrid;
+      this.append = append;
    }
    
    public String buttonText()
    {
-      return "word index";
+      return append ? "add to word index" : "word index";
    }
    
    public String getExtension()
    {
-      return ".grid";
+      return keepGrid ? ".grid" : ".conw";
    }
    
    public TextPositionsParser getParser()
@@ -72,6 +105,17 @@ public class ModeIndex implements ExtractionMode
       return t;
    }
    
+   /**
+    * 
+    * @return true if there is already an index (with any number of segments)
+    *         that would be replaced by (or, when appending, added to) the
+    *         index for this output file
+    */
+   public boolean exists(final File targetOut)
+   {
+      return SegmentedIndex.exists(targetOut.getParentFile(), getIndexName(targetOut));
+   }
+   
    public synchronized PageConsumer getConsumer(File targetOut)
    {
       if(wordList == null)
@@ -79,23 +123,28 @@ public class ModeIndex implements ExtractionMode
          makeWordList();
       }
       
-      String name = targetOut.getName();
-      int index = name.lastIndexOf('.');
-      if(index > 0)
-      {
-         name = name.substring(0, index);
-      }
+      final String name = getIndexName(targetOut);
       
       try
       {
-         final PageConsumerSerial pc = new PageConsumerSerial(new BufferedOutputStream(new FileOutputStream(targetOut)),
-               true);
-         indexer = new Indexer(targetOut.getParentFile(), name, wordList);
-         indexFile = new File(targetOut.getParentFile(), name + ".");
-         return pc;
+         directory = targetOut.getParentFile();
+         indexName = name;
+         segment = append && SegmentedIndex.exists(directory, name) ? SegmentedIndex.newSegmentName(directory, name)
+               : null;
+         final File gridFile = segment == null ? targetOut : new File(directory, segment + ".grid");
+         final PageConsumer grid = keepGrid
+               ? new PageConsumerSerial(new BufferedOutputStream(new FileOutputStream(gridFile)), true)
+               : null;
+         consumer = new PageConsumerIndex(directory, segment == null ? name : segment, grid);
+         indexFile = new File(directory, name + ".");
+         return consumer;
       }
       catch(final IOException iox)
       {
+         if(segment != null)
+         {
+            SegmentedIndex.releaseSegmentName(directory, segment);
+         }
          JOptionPane.showMessageDialog(null, "Unable to Write Results.", "Error", JOptionPane.ERROR_MESSAGE);
          return null;
       }
@@ -103,31 +152,63 @@ public class ModeIndex implements ExtractionMode
    
    public void post(final Status.ErrorStatus status)
    {
-      if(status == ErrorStatus.NO_ERROR)
+      try
       {
-         indexer.run();
-         if(indexer.getStatus().hasError())
+         if(status == ErrorStatus.NO_ERROR && !consumer.getStatus().hasError())
+         {
+            if(segment != null)
+            {
+               try
+               {
+                  SegmentedIndex.addSegment(directory, indexName, segment);
+               }
+               catch(final IOException iox)
+               {
+                  JOptionPane.showMessageDialog(null, iox.getMessage(), "Error: Unable to Add to the Index.",
+                        JOptionPane.ERROR_MESSAGE);
+                  return;
+               }
+               SegmentedIndex.mergeInBackground(directory, indexName);
+            }
+            OpenReviewKit.openOrk().finder(indexFile);
+         }
+         else if(status == ErrorStatus.NO_ERROR)
          {
-            JOptionPane.showMessageDialog(null, indexer.getStatus().getStatusMessage(),
+            JOptionPane.showMessageDialog(null, consumer.getStatus().getStatusMessage(),
                   "Error: Indexing Attempt Failed.", JOptionPane.ERROR_MESSAGE);
          }
          else
          {
-            OpenReviewKit.openOrk().finder(indexFile);
+            final OpenReviewKit ork = OpenReviewKit.getOrk();
+            if(ork != null)
+            {
+               ork.continueOption("Error: Indexer Failed.",
+                     consumer.getStatus().getStatusMessage() + "\nReturn to the text extraction window?",
+                     JOptionPane.ERROR_MESSAGE);
+            }
          }
       }
-      else
+      finally
       {
-         final OpenReviewKit ork = OpenReviewKit.getOrk();
-         if(ork != null)
+         if(segment != null)
          {
-            ork.continueOption("Error: Indexer Failed.",
-                  indexer.getStatus().getStatusMessage() + "\nReturn to the text extraction window?",
-                  JOptionPane.ERROR_MESSAGE);
+            // it is in the .orks file now, or it was not written
+            SegmentedIndex.releaseSegmentName(directory, segment);
          }
       }
    }
    
+   /**
+    * 
+    * @return the name of the output file, without its extension
+    */
+   private static String getIndexName(final File targetOut)
+   {
+      final String name = targetOut.getName();
+      final int index = name.lastIndexOf('.');
+      return index > 0 ? name.substring(0, index) : name;
+   }
+   
    private void makeWordList()
    {
       final ScriptReader listReader = new ScriptReader(
@@ -149,9 +230,19 @@ public class ModeIndex implements ExtractionMode
    }
    
    public final boolean keepNumbers;
+   public final boolean keepGrid;
+   public final boolean append;
    
-   private Indexer indexer = null;
+   private PageConsumerIndex consumer = null;
    private File indexFile = null;
+   private File directory = null;
+   private String indexName = null;
+   
+   /**
+    * the name of the new segment, or null if the index is written from
+    * scratch
+    */
+   private String segment = null;
    private WordList wordList = null;
    
    private static final int _WORD_INDEX_MIN = 3;
@@ -0,0 +1,151 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.github.michaelaaronlevy.ork.MemenPage;
+import com.github.michaelaaronlevy.ork.PageConsumer;
+import com.github.michaelaaronlevy.ork.util.Status;
+import com.github.michaelaaronlevy.ork.util.StatusReporter;
+
+/**
+ * builds the searchable word index directly from the pages sent by
+ * {@link com.github.michaelaaronlevy.ork.PdfToTextGrid PdfToTextGrid}, so no
+ * .grid file needs to be written and read back (compare with
+ * {@link Indexer Indexer}, which indexes an existing .grid file). The words are
+ * inverted by an {@link Inverter Inverter} as each page arrives, and the
+ * .conw, .coni, .words, .index and .conp files are written at the end of the
+ * project. If there already was an index with this name, its segments (see
+ * {@link SegmentedIndex SegmentedIndex}) are deleted, so only the new index is
+ * left.
+ * 
+ * <p>
+ * If "next" is not null, every call is also passed along to it (for example,
+ * to a {@link com.github.michaelaaronlevy.ork.PageConsumerSerial
+ * PageConsumerSerial}, to keep a .grid file as well).
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class PageConsumerIndex implements PageConsumer
+{
+   public PageConsumerIndex(final File directory, final String name, final PageConsumer next)
+   {
+      this(directory, name, next, Inverter.getDefaultMemoryBudget());
+   }
+   
+   /**
+    * 
+    * @param directory
+    *           the directory to save the index to
+    * @param name
+    *           the name of the index files
+    * @param next
+    *           another PageConsumer that gets the same pages (or null)
+    * @param memoryBudget
+    *           roughly how many bytes the lists of pages can take up before
+    *           they are written to temporary files
+    */
+   public PageConsumerIndex(final File directory, final String name, final PageConsumer next,
+         final long memoryBudget)
+   {
+      this.directory = directory;
+      this.name = name;
+      this.next = next;
+      inverter = new Inverter(directory, name, memoryBudget);
+   }
+   
+   public void startProject(final File[] files, final int[] pageCounts) throws IOException
+   {
+      status.declareStart();
+      status.updateStatus("Indexing");
+      pagesPerPdf = pageCounts.clone();
+      fileNames = new String[files.length];
+      for(int i = 0; i < files.length; i++)
+      {
+         fileNames[i] = files[i].getAbsolutePath();
+      }
+      if(next != null)
+      {
+         next.startProject(files, pageCounts);
+      }
+   }
+   
+   public void startFile(final File file, final int fileNumber, final int pageCount) throws IOException
+   {
+      if(next != null)
+      {
+         next.startFile(file, fileNumber, pageCount);
+      }
+   }
+   
+   public void takePage(final int firstId, final int totalPage, final MemenPage page) throws IOException
+   {
+      final int n = page.getNumberOfWords();
+      for(int i = 0; i < n; i++)
+      {
+         inverter.add(totalPage, page.getWord(i).text);
+      }
+      try
+      {
+         inverter.endPage(totalPage);
+      }
+      catch(final IOException iox)
+      {
+         status.declareFatalError(iox.getMessage());
+         throw iox;
+      }
+      if(next != null)
+      {
+         next.takePage(firstId, totalPage, page);
+      }
+   }
+   
+   public void endOfFile() throws IOException
+   {
+      if(next != null)
+      {
+         next.endOfFile();
+      }
+   }
+   
+   public void endOfProject() throws IOException
+   {
+      try
+      {
+         if(next != null)
+         {
+            next.endOfProject();
+         }
+         status.updateStatus("Writing the .conw, .coni, .words, .index and .conp files");
+         inverter.writeTo(new IndexWriter(directory, name, pagesPerPdf, fileNames));
+         status.updateStatus("Writing the .orkx file");
+         SegmentedIndex.deleteSegments(directory, name);
+         IndexContainer.pack(directory, name);
+      }
+      catch(final IOException iox)
+      {
+         status.declareFatalError(iox.getMessage());
+         throw iox;
+      }
+      finally
+      {
+         status.declareEnd();
+      }
+   }
+   
+   public StatusReporter getStatus()
+   {
+      return status.reporter;
+   }
+   
+   private final File directory;
+   private final String name;
+   private final PageConsumer next;
+   private final Inverter inverter;
+   
+   private int[] pagesPerPdf = new int[0];
+   private String[] fileNames = new String[0];
+   
+   private final Status status = new Status("PageConsumerIndex");
+}
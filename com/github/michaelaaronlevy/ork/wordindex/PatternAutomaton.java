@@ -0,0 +1,410 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * a {@link TermAutomaton TermAutomaton} for a wildcard or a regular
+ * expression. The whole word must match.
+ * 
+ * <p>
+ * Wildcards: "*" is any number of characters (including none), "?" is any one
+ * character, and "\" makes the next character an ordinary character.
+ * 
+ * <p>
+ * Regular expressions: "." is any one character, "[abc]" "[a-z]" "[^0-9]" are
+ * character classes, "*" "+" "?" repeat what comes before them, "|" separates
+ * alternatives, "( )" groups, and "\" makes the next character an ordinary
+ * character.
+ * 
+ * <p>
+ * The pattern is compiled into a nondeterministic automaton (one state per
+ * character or operator), and the deterministic states (sets of those states)
+ * are built as they are needed, so only the parts of the automaton that the
+ * words in the dictionary actually reach are ever built.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class PatternAutomaton implements TermAutomaton
+{
+   private PatternAutomaton(final String pattern, final boolean regex)
+   {
+      this.pattern = pattern;
+      this.regex = regex;
+      final int[] f = regex ? parseAlternatives() : parseWildcard();
+      if(position != pattern.length())
+      {
+         throw new IllegalArgumentException("ERROR: unexpected \"" + pattern.charAt(position) + "\" in " + pattern);
+      }
+      accept = f[1];
+      startState = getState(closure(f[0]));
+   }
+   
+   public static PatternAutomaton wildcard(final String pattern)
+   {
+      return new PatternAutomaton(pattern, false);
+   }
+   
+   public static PatternAutomaton regex(final String pattern)
+   {
+      return new PatternAutomaton(pattern, true);
+   }
+   
+   /**
+    * 
+    * @return true if the word has a "*" or a "?" in it
+    */
+   public static boolean isWildcard(final String word)
+   {
+      return word.indexOf('*') >= 0 || word.indexOf('?') >= 0;
+   }
+   
+   public int start()
+   {
+      return startState;
+   }
+   
+   public int step(final int state, final char c)
+   {
+      final HashMap<Character, Integer> t = transitions.get(state);
+      final Integer known = t.get(c);
+      if(known != null)
+      {
+         return known.intValue();
+      }
+      final BitSet from = sets.get(state);
+      final BitSet to = new BitSet();
+      for(int s = from.nextSetBit(0); s >= 0; s = from.nextSetBit(s + 1))
+      {
+         if(edgeTarget.get(s) >= 0 && matches(edgeClass.get(s), c))
+         {
+            to.set(edgeTarget.get(s));
+         }
+      }
+      final int r = to.isEmpty() ? -1 : getState(closure(to));
+      t.put(c, r);
+      return r;
+   }
+   
+   public boolean isAccept(final int state)
+   {
+      return sets.get(state).get(accept);
+   }
+   
+   /**
+    * the characters that every match must start with: follow the start state
+    * while there is only one character that can come next
+    */
+   public String getPrefix()
+   {
+      final StringBuilder b = new StringBuilder();
+      int state = startState;
+      while(state >= 0 && !isAccept(state))
+      {
+         final BitSet set = sets.get(state);
+         int only = -1; // -2 if more than one character can come next
+         for(int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+         {
+            if(edgeTarget.get(s) < 0)
+            {
+               continue;
+            }
+            final char[] cls = edgeClass.get(s);
+            if(cls.length != 2 || cls[0] != cls[1] || (only >= 0 && only != cls[0]))
+            {
+               only = -2;
+               break;
+            }
+            only = cls[0];
+         }
+         if(only < 0)
+         {
+            break;
+         }
+         b.append((char) only);
+         state = step(state, (char) only);
+      }
+      return b.toString();
+   }
+   
+   public String toString()
+   {
+      return (regex ? "regex " : "wildcard ") + pattern;
+   }
+   
+   // the nondeterministic automaton: each state has at most one character
+   // edge and any number of empty edges
+   
+   private int newState()
+   {
+      edgeClass.add(null);
+      edgeTarget.add(-1);
+      empty.add(new ArrayList<Integer>());
+      return edgeTarget.size() - 1;
+   }
+   
+   /**
+    * 
+    * @return {start, end} for a fragment that reads one character in the
+    *         class
+    */
+   private int[] character(final char[] cls)
+   {
+      final int s = newState();
+      final int e = newState();
+      edgeClass.set(s, cls);
+      edgeTarget.set(s, e);
+      return new int[] { s, e };
+   }
+   
+   private void link(final int from, final int to)
+   {
+      empty.get(from).add(to);
+   }
+   
+   private int[] parseWildcard()
+   {
+      final int s = newState();
+      int end = s;
+      while(position < pattern.length())
+      {
+         final char c = pattern.charAt(position++);
+         final int[] f;
+         if(c == '*')
+         {
+            f = repeat(character(_ANY), 0);
+         }
+         else if(c == '?')
+         {
+            f = character(_ANY);
+         }
+         else
+         {
+            f = character(literal(c == '\\' && position < pattern.length() ? pattern.charAt(position++) : c));
+         }
+         link(end, f[0]);
+         end = f[1];
+      }
+      return new int[] { s, end };
+   }
+   
+   private int[] parseAlternatives()
+   {
+      int[] f = parseSequence();
+      while(position < pattern.length() && pattern.charAt(position) == '|')
+      {
+         position++;
+         final int[] g = parseSequence();
+         final int s = newState();
+         final int e = newState();
+         link(s, f[0]);
+         link(s, g[0]);
+         link(f[1], e);
+         link(g[1], e);
+         f = new int[] { s, e };
+      }
+      return f;
+   }
+   
+   private int[] parseSequence()
+   {
+      final int s = newState();
+      int end = s;
+      while(position < pattern.length() && pattern.charAt(position) != '|' && pattern.charAt(position) != ')')
+      {
+         int[] f = parseAtom();
+         while(position < pattern.length() && "*+?".indexOf(pattern.charAt(position)) >= 0)
+         {
+            final char q = pattern.charAt(position++);
+            f = q == '*' ? repeat(f, 0) : q == '+' ? repeat(f, 1) : optional(f);
+         }
+         link(end, f[0]);
+         end = f[1];
+      }
+      return new int[] { s, end };
+   }
+   
+   private int[] parseAtom()
+   {
+      final char c = pattern.charAt(position++);
+      if(c == '(')
+      {
+         final int[] f = parseAlternatives();
+         if(position >= pattern.length() || pattern.charAt(position) != ')')
+         {
+            throw new IllegalArgumentException("ERROR: missing \")\" in " + pattern);
+         }
+         position++;
+         return f;
+      }
+      else if(c == '[')
+      {
+         return character(parseClass());
+      }
+      else if(c == '.')
+      {
+         return character(_ANY);
+      }
+      else if(c == '\\' && position < pattern.length())
+      {
+         return character(literal(pattern.charAt(position++)));
+      }
+      else if("*+?)".indexOf(c) >= 0)
+      {
+         throw new IllegalArgumentException("ERROR: unexpected \"" + c + "\" in " + pattern);
+      }
+      return character(literal(c));
+   }
+   
+   /**
+    * 
+    * @return pairs of characters (from, to), with a leading '^' pair
+    *         {1, 0} if the class is negated
+    */
+   private char[] parseClass()
+   {
+      final StringBuilder b = new StringBuilder();
+      if(position < pattern.length() && pattern.charAt(position) == '^')
+      {
+         b.append((char) 1).append((char) 0);
+         position++;
+      }
+      boolean first = true;
+      while(position < pattern.length() && (first || pattern.charAt(position) != ']'))
+      {
+         first = false;
+         char from = pattern.charAt(position++);
+         if(from == '\\' && position < pattern.length())
+         {
+            from = pattern.charAt(position++);
+         }
+         char to = from;
+         if(position + 1 < pattern.length() && pattern.charAt(position) == '-' && pattern.charAt(position + 1) != ']')
+         {
+            position++;
+            to = pattern.charAt(position++);
+            if(to == '\\' && position < pattern.length())
+            {
+               to = pattern.charAt(position++);
+            }
+         }
+         b.append(from).append(to);
+      }
+      if(position >= pattern.length())
+      {
+         throw new IllegalArgumentException("ERROR: missing \"]\" in " + pattern);
+      }
+      position++;
+      return b.toString().toCharArray();
+   }
+   
+   /**
+    * 
+    * @param min
+    *           0 for "*", 1 for "+"
+    */
+   private int[] repeat(final int[] f, final int min)
+   {
+      final int s = newState();
+      final int e = newState();
+      link(s, f[0]);
+      if(min == 0)
+      {
+         link(s, e);
+      }
+      link(f[1], f[0]);
+      link(f[1], e);
+      return new int[] { s, e };
+   }
+   
+   private int[] optional(final int[] f)
+   {
+      final int s = newState();
+      final int e = newState();
+      link(s, f[0]);
+      link(s, e);
+      link(f[1], e);
+      return new int[] { s, e };
+   }
+   
+   private static char[] literal(final char c)
+   {
+      return new char[] { c, c };
+   }
+   
+   private static boolean matches(final char[] cls, final char c)
+   {
+      final boolean negated = cls.length > 1 && cls[0] == 1 && cls[1] == 0;
+      boolean in = false;
+      for(int i = negated ? 2 : 0; i < cls.length && !in; i += 2)
+      {
+         in = c >= cls[i] && c <= cls[i + 1];
+      }
+      return in != negated;
+   }
+   
+   // the deterministic states, built as they are needed
+   
+   private BitSet closure(final BitSet states)
+   {
+      final BitSet r = (BitSet) states.clone();
+      final ArrayList<Integer> work = new ArrayList<Integer>();
+      for(int s = r.nextSetBit(0); s >= 0; s = r.nextSetBit(s + 1))
+      {
+         work.add(s);
+      }
+      while(!work.isEmpty())
+      {
+         for(final int t : empty.get(work.remove(work.size() - 1)))
+         {
+            if(!r.get(t))
+            {
+               r.set(t);
+               work.add(t);
+            }
+         }
+      }
+      return r;
+   }
+   
+   private BitSet closure(final int state)
+   {
+      final BitSet b = new BitSet();
+      b.set(state);
+      return closure(b);
+   }
+   
+   private int getState(final BitSet set)
+   {
+      final Integer known = stateIds.get(set);
+      if(known != null)
+      {
+         return known.intValue();
+      }
+      sets.add(set);
+      transitions.add(new HashMap<Character, Integer>());
+      stateIds.put(set, sets.size() - 1);
+      return sets.size() - 1;
+   }
+   
+   private final String pattern;
+   private final boolean regex;
+   private int position = 0;
+   
+   private final ArrayList<char[]> edgeClass = new ArrayList<char[]>();
+   private final ArrayList<Integer> edgeTarget = new ArrayList<Integer>();
+   private final ArrayList<ArrayList<Integer>> empty = new ArrayList<ArrayList<Integer>>();
+   private final int accept;
+   
+   private final ArrayList<BitSet> sets = new ArrayList<BitSet>();
+   private final ArrayList<HashMap<Character, Integer>> transitions = new ArrayList<HashMap<Character, Integer>>();
+   private final HashMap<BitSet, Integer> stateIds = new HashMap<BitSet, Integer>();
+   private final int startState;
+   
+   /**
+    * every character
+    */
+   private static final char[] _ANY = new char[] { Character.MIN_VALUE, Character.MAX_VALUE };
+}
@@ -0,0 +1,329 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.github.michaelaaronlevy.ork.GridIterMemenPage;
+import com.github.michaelaaronlevy.ork.MemenPageColumns;
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * the .conp file: where each word is on each page, so phrase() and near() (see
+ * {@link ExpressionPhrase ExpressionPhrase}) can check the pages that have all
+ * of the words.
+ * 
+ * <p>
+ * For each page, the words are listed in the same order as in the .grid file
+ * (reading order: row by row, left to right), and each word is written as its
+ * number in the sorted list of words in the .conw file. The position of a word
+ * on the page is its place in this list. The numbers are written as varints
+ * (7 bits per byte, the high bit set on every byte but the last), so most
+ * words take two or three bytes.
+ * 
+ * <p>
+ * The file is: the number of pages (int), a 'p', the pages (the number of
+ * words on the page then the words, all varints), then where each page starts
+ * (one long for each page, plus one for the end of the last page), then where
+ * that table starts (long). Page 1 is the first page.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class PositionsFile implements Closeable
+{
+   /**
+    * write the .conp file for an index from its .grid file. The .conw file
+    * must already be written, and the .grid file must not be deleted yet. (An
+    * index built by an {@link Inverter Inverter} does not need this: the
+    * Inverter writes the .conp file while it writes the index.)
+    * 
+    * @param directory
+    *           the directory of the index
+    * @param name
+    *           the name of the index files
+    * @throws IOException
+    */
+   public static void write(final File directory, final String name) throws IOException
+   {
+      final InputStream conw = new BufferedInputStream(new FileInputStream(new File(directory, name + ".conw")));
+      final String[] words;
+      try
+      {
+         Grid.readIntArray(conw);
+         Grid.readStringArray(conw);
+         words = Grid.readStringArray(conw);
+      }
+      finally
+      {
+         conw.close();
+      }
+      
+      final GridIterMemenPage iter = new GridIterMemenPage(
+            new BufferedInputStream(new FileInputStream(new File(directory, name + ".grid")), 1 << 16));
+      try
+      {
+         write(new File(directory, name + ".conp"), iter.pagesLeft(), new PageSource()
+         {
+            public int[] nextPage() throws IOException
+            {
+               final MemenPageColumns page = iter.nextColumns();
+               final int[] ids = new int[page.getNumberOfWords()];
+               for(int i = 0; i < ids.length; i++)
+               {
+                  ids[i] = Arrays.binarySearch(words, page.getText(i));
+                  if(ids[i] < 0)
+                  {
+                     throw new IOException("PositionsFile::write the word is not in the index: " + page.getText(i));
+                  }
+               }
+               return ids;
+            }
+         });
+      }
+      finally
+      {
+         iter.close();
+      }
+   }
+   
+   /**
+    * write a .conp file from the words on each page
+    * 
+    * @param conp
+    *           the file to write
+    * @param pageCount
+    *           the number of pages
+    * @param source
+    *           is asked for each page, from the first to the last
+    * @throws IOException
+    */
+   public static void write(final File conp, final int pageCount, final PageSource source) throws IOException
+   {
+      final OutputStream out = new BufferedOutputStream(new FileOutputStream(conp), 1 << 16);
+      try
+      {
+         final long[] starts = new long[pageCount + 1];
+         Grid.writeInt(out, pageCount);
+         out.write(_FORMAT);
+         long position = _HEADER_BYTES;
+         for(int p = 0; p < pageCount; p++)
+         {
+            starts[p] = position;
+            final int[] ids = source.nextPage();
+            position += writeVarint(out, ids.length);
+            for(final int id : ids)
+            {
+               position += writeVarint(out, id);
+            }
+         }
+         starts[pageCount] = position;
+         for(final long start : starts)
+         {
+            Grid.writeLong(out, start);
+         }
+         Grid.writeLong(out, position);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+   
+   /**
+    * the words on each page, for
+    * {@link PositionsFile#write(File, int, PageSource) write}
+    */
+   public interface PageSource
+   {
+      /**
+       * 
+       * @return the words on the next page, in order, each as its number in
+       *         the sorted list of words
+       */
+      int[] nextPage() throws IOException;
+   }
+   
+   /**
+    * open a .conp file for reading. Only the table of where the pages start is
+    * read into memory.
+    */
+   public PositionsFile(final File conp) throws IOException
+   {
+      this(FileChannel.open(conp.toPath(), StandardOpenOption.READ), 0, conp.length());
+   }
+   
+   /**
+    * read a .conp file that is part of a bigger file (see
+    * {@link IndexContainer IndexContainer}). The channel is closed by
+    * {@link #close() close}.
+    * 
+    * @param start
+    *           where the .conp file starts
+    * @param length
+    *           how long the .conp file is
+    */
+   PositionsFile(final FileChannel channel, final long start, final long length) throws IOException
+   {
+      this.channel = channel;
+      this.start = start;
+      try
+      {
+         final ByteBuffer header = ByteBuffer.allocate(_HEADER_BYTES);
+         readFully(header, 0);
+         final int pages = header.getInt(0);
+         if(header.get(4) != _FORMAT)
+         {
+            throw new IOException("Unknown .conp format: " + header.get(4));
+         }
+         final ByteBuffer end = ByteBuffer.allocate(8);
+         readFully(end, length - 8);
+         final ByteBuffer table = ByteBuffer.allocate(8 * (pages + 1));
+         readFully(table, end.getLong(0));
+         starts = new long[pages + 1];
+         table.asLongBuffer().get(starts);
+      }
+      catch(final IOException iox)
+      {
+         channel.close();
+         throw iox;
+      }
+   }
+   
+   /**
+    * 
+    * @return the number of pages in the file
+    */
+   public int getPageCount()
+   {
+      return starts.length - 1;
+   }
+   
+   /**
+    * 
+    * @param page
+    *           the first page is 1
+    * @return the words on the page, in order, each as its number in the sorted
+    *         list of words (empty if there is no such page)
+    * @throws IOException
+    */
+   public int[] getWordIds(final int page) throws IOException
+   {
+      if(page < 1 || page >= starts.length)
+      {
+         return new int[0];
+      }
+      final ByteBuffer b = ByteBuffer.allocate((int) (starts[page] - starts[page - 1]));
+      readFully(b, starts[page - 1]);
+      final int[] r = new int[readVarint(b)];
+      for(int i = 0; i < r.length; i++)
+      {
+         r[i] = readVarint(b);
+      }
+      return r;
+   }
+   
+   public void close() throws IOException
+   {
+      channel.close();
+   }
+   
+   /**
+    * 
+    * @param position
+    *           from the start of the .conp file
+    */
+   private void readFully(final ByteBuffer b, long position) throws IOException
+   {
+      position += start;
+      while(b.hasRemaining())
+      {
+         final int n = channel.read(b, position);
+         if(n < 0)
+         {
+            throw new EOFException("PositionsFile::readFully unexpected end of the .conp file");
+         }
+         position += n;
+      }
+      b.flip();
+   }
+   
+   /**
+    * 
+    * @return the number of bytes written
+    */
+   static int writeVarint(final OutputStream out, int value) throws IOException
+   {
+      int n = 1;
+      while((value & ~0x7f) != 0)
+      {
+         out.write((value & 0x7f) | 0x80);
+         value >>>= 7;
+         n++;
+      }
+      out.write(value);
+      return n;
+   }
+   
+   static int readVarint(final InputStream in) throws IOException
+   {
+      int value = 0;
+      for(int shift = 0;; shift += 7)
+      {
+         final int x = in.read();
+         if(x < 0)
+         {
+            throw new EOFException("PositionsFile::readVarint unexpected end of the file");
+         }
+         value |= (x & 0x7f) << shift;
+         if(x < 0x80)
+         {
+            return value;
+         }
+      }
+   }
+   
+   private static int readVarint(final ByteBuffer b)
+   {
+      int value = 0;
+      for(int shift = 0;; shift += 7)
+      {
+         final byte x = b.get();
+         value |= (x & 0x7f) << shift;
+         if(x >= 0)
+         {
+            return value;
+         }
+      }
+   }
+   
+   private final FileChannel channel;
+   
+   /**
+    * where the .conp file starts in the channel
+    */
+   private final long start;
+   
+   /**
+    * where each page starts, plus where the last page ends
+    */
+   private final long[] starts;
+   
+   /**
+    * the byte after the number of pages
+    */
+   public static final int _FORMAT = 'p';
+   
+   private static final int _HEADER_BYTES = 5;
+}
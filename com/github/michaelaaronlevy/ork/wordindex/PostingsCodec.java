@@ -0,0 +1,375 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * the compressed format for the lists of pages in a .coni file. The old .coni
+ * files have a 't' (every page number is a short) or an 'f' (every page number
+ * is an int) after the number of words; compressed .coni files have a 'c'.
+ * 
+ * <p>
+ * In a compressed .coni file, each list of pages is written as: the number of
+ * pages (int), the number of bytes that follow (int), the first page (int),
+ * then one skip entry for every block of 128 pages (the last page in the
+ * block, and where the block starts, both ints), then the blocks. Each block
+ * holds the gaps between one page and the page before it (minus one, so
+ * consecutive pages cost nothing), bit-packed with the fewest bits that fit
+ * the biggest gap in that block. The width is the first byte of the block.
+ * 
+ * <p>
+ * A {@link Decoder Decoder} decodes one block at a time into an int[], and can
+ * use the skip entries to find the block a page would be in without decoding
+ * the blocks before it.
+ * 
+ * <p>
+ * Command line: PostingsCodec directory name, to convert an existing .coni
+ * file to the compressed format.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class PostingsCodec
+{
+   public static void main(final String[] args) throws IOException
+   {
+      if(args.length < 2)
+      {
+         System.err.println("usage: PostingsCodec directory name");
+         return;
+      }
+      final File coni = new File(args[0], args[1] + ".coni");
+      final long before = coni.length();
+      if(upgrade(coni))
+      {
+         System.err.println("PostingsCodec::main " + coni.getAbsolutePath() + " compressed from " + before + " to "
+               + coni.length() + " bytes");
+      }
+      else
+      {
+         System.err.println("PostingsCodec::main " + coni.getAbsolutePath() + " is already compressed");
+      }
+   }
+   
+   private PostingsCodec()
+   {
+      // static methods only
+   }
+   
+   /**
+    * write the number of pages, the number of bytes that follow, and the
+    * compressed list of pages
+    * 
+    * @param out
+    * @param pages
+    *           ascending, unique
+    * @param size
+    *           the number of pages to write from the array
+    * @throws IOException
+    */
+   public static void write(final OutputStream out, final int[] pages, final int size) throws IOException
+   {
+      Grid.writeInt(out, size);
+      if(size == 0)
+      {
+         Grid.writeInt(out, 0);
+         return;
+      }
+      final int blocks = (size + _BLOCK_SIZE - 1) / _BLOCK_SIZE;
+      final ByteArrayOutputStream data = new ByteArrayOutputStream(size + blocks);
+      final int[] lastPages = new int[blocks];
+      final int[] offsets = new int[blocks];
+      int previous = pages[0] - 1;
+      for(int b = 0; b < blocks; b++)
+      {
+         final int from = b * _BLOCK_SIZE;
+         final int to = Math.min(size, from + _BLOCK_SIZE);
+         offsets[b] = data.size();
+         lastPages[b] = pages[to - 1];
+         int bits = 0;
+         int prev = previous;
+         for(int i = from; i < to; i++)
+         {
+            bits |= pages[i] - prev - 1;
+            prev = pages[i];
+         }
+         final int width = 32 - Integer.numberOfLeadingZeros(bits);
+         data.write(width);
+         long buffer = 0;
+         int buffered = 0;
+         prev = previous;
+         for(int i = from; i < to; i++)
+         {
+            buffer |= ((pages[i] - prev - 1) & 0xffffffffL) << buffered;
+            buffered += width;
+            prev = pages[i];
+            while(buffered >= 8)
+            {
+               data.write((int) buffer);
+               buffer >>>= 8;
+               buffered -= 8;
+            }
+         }
+         if(buffered > 0)
+         {
+            data.write((int) buffer);
+         }
+         previous = prev;
+      }
+      
+      Grid.writeInt(out, 4 + 8 * blocks + data.size());
+      Grid.writeInt(out, pages[0]);
+      for(int b = 0; b < blocks; b++)
+      {
+         Grid.writeInt(out, lastPages[b]);
+         Grid.writeInt(out, offsets[b]);
+      }
+      data.writeTo(out);
+   }
+   
+   /**
+    * read one list of pages that was written by {@link #write(OutputStream,
+    * int[], int) write}, without decoding it
+    */
+   public static Decoder read(final InputStream in) throws IOException
+   {
+      final int size = Grid.readInt(in);
+      final byte[] bytes = new byte[Grid.readInt(in)];
+      int n = 0;
+      while(n < bytes.length)
+      {
+         final int r = in.read(bytes, n, bytes.length - n);
+         if(r < 0)
+         {
+            throw new EOFException("PostingsCodec::read unexpected end of the list of pages");
+         }
+         n += r;
+      }
+      return new Decoder(size, bytes, 0);
+   }
+   
+   /**
+    * replace a .coni file that uses the old format with a compressed one. The
+    * new file is written next to the old one and then moved over it.
+    * 
+    * @return false if the file was already compressed
+    * @throws IOException
+    */
+   public static boolean upgrade(final File coni) throws IOException
+   {
+      final File temp = new File(coni.getAbsoluteFile().getParentFile(), coni.getName() + ".tmp");
+      final InputStream in = new BufferedInputStream(new FileInputStream(coni), 1 << 16);
+      try
+      {
+         final int words = Grid.readInt(in);
+         final int format = in.read();
+         if(format == _FORMAT)
+         {
+            return false;
+         }
+         final boolean isShort = format == 't';
+         if(!isShort && format != 'f')
+         {
+            throw new IOException("Unknown .coni format: " + format);
+         }
+         final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16);
+         try
+         {
+            Grid.writeInt(out, words);
+            out.write(_FORMAT);
+            for(int i = 0; i < words; i++)
+            {
+               final int[] pages = isShort ? Grid.readShortArrayToIntArray(in) : Grid.readIntArray(in);
+               write(out, pages, pages.length);
+            }
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      Files.move(temp.toPath(), coni.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return true;
+   }
+   
+   /**
+    * one compressed list of pages. The blocks are decoded on request; nothing
+    * is cached. The bytes can be in an array or in a ByteBuffer (for example,
+    * the mapping of a .orkx file, so the list is read where it is, without
+    * being copied); only absolute gets are used, so the ByteBuffer can be
+    * shared by several Decoders and threads.
+    */
+   public static final class Decoder
+   {
+      public Decoder(final int size, final byte[] bytes, final int offset)
+      {
+         this(size, ByteBuffer.wrap(bytes), offset);
+      }
+      
+      /**
+       * 
+       * @param bytes
+       *           big-endian (the default for a ByteBuffer)
+       * @param offset
+       *           where the list starts in the buffer
+       */
+      public Decoder(final int size, final ByteBuffer bytes, final int offset)
+      {
+         this.size = size;
+         this.bytes = bytes;
+         this.offset = offset;
+         blocks = (size + _BLOCK_SIZE - 1) / _BLOCK_SIZE;
+         dataStart = offset + 4 + 8 * blocks;
+      }
+      
+      /**
+       * 
+       * @return the number of pages in the list
+       */
+      public int size()
+      {
+         return size;
+      }
+      
+      public int getBlockCount()
+      {
+         return blocks;
+      }
+      
+      /**
+       * 
+       * @return the number of pages in this block (128, except for the last
+       *         block)
+       */
+      public int getBlockSize(final int block)
+      {
+         return block == blocks - 1 ? size - block * _BLOCK_SIZE : _BLOCK_SIZE;
+      }
+      
+      /**
+       * 
+       * @return the last (biggest) page in this block
+       */
+      public int getLastPage(final int block)
+      {
+         return getInt(offset + 4 + 8 * block);
+      }
+      
+      /**
+       * 
+       * @return the first block at or after "from" that could hold this page
+       *         (or the number of blocks, if the page is after the last page)
+       */
+      public int findBlock(final int page, final int from)
+      {
+         int lo = from;
+         int hi = blocks;
+         while(lo < hi)
+         {
+            final int mid = (lo + hi) >>> 1;
+            if(getLastPage(mid) < page)
+            {
+               lo = mid + 1;
+            }
+            else
+            {
+               hi = mid;
+            }
+         }
+         return lo;
+      }
+      
+      /**
+       * decode one block
+       * 
+       * @param block
+       * @param dst
+       *           must have room for 128 pages starting at dstOffset
+       * @param dstOffset
+       * @return the number of pages decoded
+       */
+      public int decodeBlock(final int block, final int[] dst, final int dstOffset)
+      {
+         final int n = getBlockSize(block);
+         int previous = block == 0 ? getInt(offset) - 1 : getLastPage(block - 1);
+         int p = dataStart + getInt(offset + 8 + 8 * block);
+         final int width = bytes.get(p++);
+         if(width == 0)
+         {
+            for(int i = 0; i < n; i++)
+            {
+               dst[dstOffset + i] = ++previous;
+            }
+            return n;
+         }
+         final long mask = (1L << width) - 1;
+         long buffer = 0;
+         int buffered = 0;
+         for(int i = 0; i < n; i++)
+         {
+            while(buffered < width)
+            {
+               buffer |= (bytes.get(p++) & 0xffL) << buffered;
+               buffered += 8;
+            }
+            previous += (int) (buffer & mask) + 1;
+            buffer >>>= width;
+            buffered -= width;
+            dst[dstOffset + i] = previous;
+         }
+         return n;
+      }
+      
+      /**
+       * 
+       * @return every page in the list
+       */
+      public int[] toArray()
+      {
+         final int[] r = new int[size];
+         for(int b = 0; b < blocks; b++)
+         {
+            decodeBlock(b, r, b * _BLOCK_SIZE);
+         }
+         return r;
+      }
+      
+      private int getInt(final int p)
+      {
+         return bytes.getInt(p);
+      }
+      
+      private final int size;
+      private final ByteBuffer bytes;
+      private final int offset;
+      private final int blocks;
+      private final int dataStart;
+   }
+   
+   /**
+    * the byte after the number of words in a compressed .coni file
+    */
+   public static final int _FORMAT = 'c';
+   
+   /**
+    * the number of pages in each bit-packed block
+    */
+   public static final int _BLOCK_SIZE = 128;
+}
@@ -0,0 +1,171 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+
+/**
+ * the results of expressions that were already calculated in this session,
+ * kept between commands. The key is the {@link Expression#getCanonicalKey()
+ * canonical key} of the expression, so "overtime &amp; manager" and
+ * "and(manager, overtime)" share a result, and the words and subexpressions
+ * of one command are found again by the next one (or by the next line of a
+ * script).
+ * 
+ * <p>
+ * The results that were used least recently are removed once the results take
+ * up more than the memory budget. Results are never changed after they are
+ * calculated, so the same object can be given out any number of times.
+ * 
+ * <p>
+ * A {@link Context Context} that lets a variable be given a new value must
+ * {@link #clear() clear} the cache when it does.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class QueryCache
+{
+   /**
+    * 
+    * @param memoryBudget
+    *           roughly how many bytes the results can take up
+    */
+   public QueryCache(final long memoryBudget)
+   {
+      this.memoryBudget = memoryBudget;
+   }
+   
+   /**
+    * 
+    * @return the memory budget used when none is given: a sixteenth of the
+    *         maximum heap size
+    */
+   public static long getDefaultMemoryBudget()
+   {
+      return Runtime.getRuntime().maxMemory() / 16;
+   }
+   
+   /**
+    * 
+    * @return the result for this key (counted as a hit) or null (counted as a
+    *         miss)
+    */
+   public synchronized AscendingStack get(final String key)
+   {
+      final AscendingStack as = map.get(key);
+      if(as == null)
+      {
+         misses++;
+      }
+      else
+      {
+         hits++;
+      }
+      return as;
+   }
+   
+   /**
+    * 
+    * @return the result for this key or null, without counting a hit or a
+    *         miss (used by the {@link QueryPlanner QueryPlanner})
+    */
+   public synchronized AscendingStack peek(final String key)
+   {
+      return map.get(key);
+   }
+   
+   /**
+    * keep this result, and remove the least recently used results if the
+    * memory budget is used up. A result that is bigger than a quarter of the
+    * budget is not kept.
+    */
+   public synchronized void put(final String key, final AscendingStack as)
+   {
+      final long size = getSize(key, as);
+      if(size > memoryBudget / 4)
+      {
+         return;
+      }
+      final AscendingStack old = map.put(key, as);
+      if(old != null)
+      {
+         bytes -= getSize(key, old);
+      }
+      bytes += size;
+      final Iterator<Map.Entry<String, AscendingStack>> iter = map.entrySet().iterator();
+      while(bytes > memoryBudget && iter.hasNext())
+      {
+         final Map.Entry<String, AscendingStack> e = iter.next();
+         bytes -= getSize(e.getKey(), e.getValue());
+         iter.remove();
+         evictions++;
+      }
+   }
+   
+   public synchronized void clear()
+   {
+      map.clear();
+      bytes = 0;
+   }
+   
+   public synchronized int size()
+   {
+      return map.size();
+   }
+   
+   public synchronized long getHits()
+   {
+      return hits;
+   }
+   
+   public synchronized long getMisses()
+   {
+      return misses;
+   }
+   
+   public synchronized long getEvictions()
+   {
+      return evictions;
+   }
+   
+   /**
+    * 
+    * @return roughly how many bytes the results take up
+    */
+   public synchronized long getMemoryUsed()
+   {
+      return bytes;
+   }
+   
+   public synchronized String toString()
+   {
+      return "QueryCache: " + map.size() + " results, " + (bytes >> 10) + " KB of " + (memoryBudget >> 10) + " KB, "
+            + hits + " hits, " + misses + " misses, " + evictions + " removed";
+   }
+   
+   private static long getSize(final String key, final AscendingStack as)
+   {
+      return _ENTRY_BYTES + 2L * key.length() + 4L * as.size();
+   }
+   
+   private final long memoryBudget;
+   
+   /**
+    * in order of use (the least recently used first)
+    */
+   private final LinkedHashMap<String, AscendingStack> map = new LinkedHashMap<String, AscendingStack>(64, 0.75f,
+         true);
+   
+   private long bytes = 0;
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+   
+   /**
+    * the map entry, the key and the AscendingStack object
+    */
+   private static final int _ENTRY_BYTES = 128;
+}
@@ -0,0 +1,460 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import com.github.michaelaaronlevy.ork.util.AscendingStack;
+import com.github.michaelaaronlevy.ork.util.IntervalSet;
+import com.github.michaelaaronlevy.ork.util.TokenParser;
+
+/**
+ * rewrites an {@link Expression Expression} tree before it is calculated,
+ * using the number of pages of each word (from
+ * {@link Context#estimateSize(String) Context.estimateSize}) to estimate the
+ * size of everything else:
+ * 
+ * <p>
+ * and() inside and() is flattened, and the components are put in order from
+ * smallest to biggest (and() stops as soon as the result is empty, so the
+ * biggest lists often never have to be looked at).
+ * 
+ * <p>
+ * "a - b" and "(a &amp; b) - c" and "(a - c) &amp; b" become an
+ * {@link ExpressionAndNot ExpressionAndNot}: the pages to take away are only
+ * calculated (and only subtracted from) what is left of the intersection.
+ * "a &amp; not(b)" becomes "(a &amp; allPages()) - b" and not(not(a)) becomes
+ * "a &amp; allPages()", so the complement (see {@link ExpressionNot
+ * ExpressionNot}) is not calculated (allPages() is an interval, see
+ * {@link ExpressionFiles ExpressionFiles}).
+ * 
+ * <p>
+ * or() inside or() is flattened, and the same component twice in an and() or
+ * an or() is only kept once.
+ * 
+ * <p>
+ * Parts of the query that are the same (the same script, ignoring the order of
+ * the components of and() and or()) are replaced with one shared object, so
+ * they are only calculated once.
+ * 
+ * <p>
+ * If the {@link Context Context} has a {@link QueryCache QueryCache}, the sizes
+ * of results that are already in it are used instead of estimates, and and()
+ * starts from an intersection an earlier command already calculated, if one
+ * is only missing one of the components.
+ * 
+ * <p>
+ * A QueryPlanner remembers what it planned, so {@link #explain(Expression,
+ * Appendable) explain} can print the plan with the estimated and the actual
+ * sizes. Use a new QueryPlanner for each command: variables can change
+ * between commands.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class QueryPlanner
+{
+   public QueryPlanner(final Context context)
+   {
+      this.context = context;
+      cache = context.getQueryCache();
+   }
+   
+   /**
+    * 
+    * @return the same command, with its expression planned (commands that are
+    *         not expressions or assignments are returned as they are)
+    */
+   public Command plan(final Command c)
+   {
+      if(c instanceof Expression)
+      {
+         return plan((Expression) c);
+      }
+      else if(c instanceof CommandAssign)
+      {
+         final CommandAssign ca = (CommandAssign) c;
+         return new CommandAssign(ca.varName, plan(ca.value));
+      }
+      return c;
+   }
+   
+   /**
+    * 
+    * @return an expression that gives the same pages
+    * @throws RuntimeException
+    *            if the expression uses a word that is not in the index and is
+    *            not a variable (the same as when it is calculated)
+    */
+   public Expression plan(final Expression e)
+   {
+      if(e instanceof ExpressionWord)
+      {
+         final String word = ((ExpressionWord) e).word;
+         final int size = context.estimateSize(word);
+         if(size < 0 && PatternAutomaton.isWildcard(word) && context.getDictionary() != null)
+         {
+            return plan(new ExpressionTerms(ExpressionTerms._WILDCARD_NAME, word));
+         }
+         if(size < 0)
+         {
+            context.getPagesFor(word); // throws if it is neither a word nor a
+                                       // variable
+         }
+         return share(e, size < 0 ? _UNKNOWN : size);
+      }
+      else if(e instanceof ExpressionConstant || e instanceof ExpressionRange || e instanceof ExpressionFiles)
+      {
+         final IntervalSet set = e.getIntervals(context); // not made into a list
+         return share(e, set != null ? set.size() : e.getCalculation(context).size());
+      }
+      else if(e instanceof ExpressionNot)
+      {
+         final Expression x = plan(((ExpressionNot) e).getComponent());
+         if(x instanceof ExpressionNot)
+         {
+            // not(not(x)) is the pages of x that are in the project
+            return and(new Expression[] { ((ExpressionNot) x).getComponent(), plan(new ExpressionFiles(null)) },
+                  new Expression[0]);
+         }
+         final long estimate = getEstimate(x);
+         return share(new ExpressionNot(x),
+               estimate == _UNKNOWN ? _UNKNOWN : Math.max(0, ExpressionFiles.getPageCount(context) - estimate));
+      }
+      else if(e instanceof ExpressionOperation)
+      {
+         final ExpressionOperation eo = (ExpressionOperation) e;
+         final Expression[] components = planAll(eo.getComponents());
+         if(eo.isAnd())
+         {
+            return and(components, new Expression[0]);
+         }
+         else if(eo.opCode == 1)
+         {
+            return or(components);
+         }
+         long sum = 0;
+         for(final Expression x : components)
+         {
+            sum = add(sum, estimates.get(x));
+         }
+         return share(new ExpressionOperation(eo.opCode, components), eo.opCode == 0 ? sum : sum / eo.opCode);
+      }
+      else if(e instanceof ExpressionExactly)
+      {
+         final ExpressionExactly ee = (ExpressionExactly) e;
+         final Expression[] components = planAll(ee.getComponents());
+         long sum = 0;
+         for(final Expression x : components)
+         {
+            sum = add(sum, estimates.get(x));
+         }
+         return share(new ExpressionExactly(ee.getCount(), components), sum / ee.getCount());
+      }
+      else if(e instanceof ExpressionPhrase)
+      {
+         long estimate = _UNKNOWN;
+         for(final String word : ((ExpressionPhrase) e).getWords())
+         {
+            estimate = Math.min(estimate, getEstimate(plan(new ExpressionWord(word))));
+         }
+         return share(e, estimate); // at most the pages that have every word
+      }
+      else if(e instanceof ExpressionMinus)
+      {
+         final ExpressionMinus em = (ExpressionMinus) e;
+         return and(new Expression[] { plan(em.left) }, new Expression[] { plan(em.right) });
+      }
+      else if(e instanceof ExpressionAndNot)
+      {
+         final ExpressionAndNot ean = (ExpressionAndNot) e;
+         return and(planAll(ean.getIncludes()), planAll(ean.getExcludes()));
+      }
+      return share(e, _UNKNOWN); // functions are left to the Context
+   }
+   
+   /**
+    * 
+    * @return the estimated number of pages for an expression returned by
+    *         {@link #plan(Expression) plan} (Long.MAX_VALUE if it could not be
+    *         estimated)
+    */
+   public long getEstimate(final Expression planned)
+   {
+      final Long r = estimates.get(planned);
+      return r == null ? _UNKNOWN : r.longValue();
+   }
+   
+   /**
+    * print the plan, one line for each step, with the estimated number of
+    * pages and (if it has been calculated) the actual number of pages
+    */
+   public void explain(final Expression planned, final Appendable a) throws IOException
+   {
+      explain(planned, a, 0);
+   }
+   
+   private void explain(final Expression e, final Appendable a, final int depth) throws IOException
+   {
+      for(int i = 0; i < depth; i++)
+      {
+         a.append("   ");
+      }
+      final Expression[] children;
+      if(e instanceof ExpressionOperation)
+      {
+         final ExpressionOperation eo = (ExpressionOperation) e;
+         a.append(eo.isAnd() ? "and" : eo.opCode == 1 ? "or" : eo.opCode == 0 ? "oddParity" : "atLeast" + eo.opCode);
+         children = eo.getComponents();
+      }
+      else if(e instanceof ExpressionExactly)
+      {
+         a.append(ExpressionExactly._EXACTLY_NAME + ((ExpressionExactly) e).getCount());
+         children = ((ExpressionExactly) e).getComponents();
+      }
+      else if(e instanceof ExpressionNot)
+      {
+         a.append(ExpressionNot._NOT_NAME);
+         children = new Expression[] { ((ExpressionNot) e).getComponent() };
+      }
+      else if(e instanceof ExpressionAndNot)
+      {
+         final ExpressionAndNot ean = (ExpressionAndNot) e;
+         final Expression[] in = ean.getIncludes();
+         final Expression[] out = ean.getExcludes();
+         a.append("and (" + in.length + ") minus (" + out.length + ")");
+         children = Arrays.copyOf(in, in.length + out.length);
+         System.arraycopy(out, 0, children, in.length, out.length);
+      }
+      else
+      {
+         e.writeScript(a);
+         children = new Expression[0];
+      }
+      if(e instanceof ExpressionTerms)
+      {
+         final ExpressionTerms t = (ExpressionTerms) e;
+         final String[] terms = t.getTerms(context);
+         a.append("   " + terms.length + " words: ");
+         for(int i = 0; i < terms.length && i < _EXPLAIN_TERMS; i++)
+         {
+            a.append(i == 0 ? "" : ", ").append(TokenParser.literalIfNeeded(terms[i]));
+            if(t.maxEdits >= 0)
+            {
+               a.append(" (" + t.getDistance(terms[i]) + ")");
+            }
+         }
+         a.append(terms.length > _EXPLAIN_TERMS ? ", ..." : "");
+      }
+      final long estimate = getEstimate(e);
+      a.append("   estimated: ").append(estimate == _UNKNOWN ? "?" : Long.toString(estimate));
+      final AscendingStack actual = e.getCachedCalculation();
+      final String key = e.getCanonicalKey();
+      final AscendingStack cached = cache == null || key == null ? null : cache.peek(key);
+      if(actual != null)
+      {
+         a.append(", actual: ").append(Integer.toString(actual.size()));
+      }
+      else if(cached != null)
+      {
+         a.append(", cached: ").append(Integer.toString(cached.size()));
+      }
+      else
+      {
+         a.append(", actual: not calculated");
+      }
+      a.append(System.lineSeparator());
+      for(final Expression child : children)
+      {
+         explain(child, a, depth + 1);
+      }
+   }
+   
+   private Expression[] planAll(final Expression[] es)
+   {
+      final Expression[] r = new Expression[es.length];
+      for(int i = 0; i < r.length; i++)
+      {
+         r[i] = plan(es[i]);
+      }
+      return r;
+   }
+   
+   /**
+    * build "and" from planned components: nested ands are flattened, minus is
+    * pulled up into the list of excludes, and duplicates are removed
+    */
+   private Expression and(final Expression[] components, final Expression[] excluded)
+   {
+      final ArrayList<Expression> includes = new ArrayList<Expression>();
+      final ArrayList<Expression> excludes = new ArrayList<Expression>(Arrays.asList(excluded));
+      final ArrayList<Expression> work = new ArrayList<Expression>(Arrays.asList(components));
+      while(!work.isEmpty())
+      {
+         final Expression x = work.remove(work.size() - 1);
+         if(x instanceof ExpressionOperation && ((ExpressionOperation) x).isAnd())
+         {
+            work.addAll(Arrays.asList(((ExpressionOperation) x).getComponents()));
+         }
+         else if(x instanceof ExpressionAndNot)
+         {
+            work.addAll(Arrays.asList(((ExpressionAndNot) x).getIncludes()));
+            excludes.addAll(Arrays.asList(((ExpressionAndNot) x).getExcludes()));
+         }
+         else if(x instanceof ExpressionNot)
+         {
+            // a & not(b) is the pages of a that are in the project, minus b
+            excludes.add(((ExpressionNot) x).getComponent());
+            work.add(plan(new ExpressionFiles(null)));
+         }
+         else if(!includes.contains(x)) // shared, so the same object
+         {
+            includes.add(x);
+         }
+      }
+      includes.sort((x, y) -> Long.compare(estimates.get(x), estimates.get(y)));
+      long estimate = _UNKNOWN;
+      for(final Expression x : includes)
+      {
+         estimate = Math.min(estimate, estimates.get(x));
+      }
+      Expression[] in = includes.toArray(new Expression[includes.size()]);
+      if(cache != null)
+      {
+         in = reuseCached(in, !excludes.isEmpty());
+      }
+      if(excludes.isEmpty())
+      {
+         return in.length == 1 ? in[0] : share(new ExpressionOperation(in.length, in), estimate);
+      }
+      // take the biggest lists away first, so the result shrinks quickly
+      excludes.sort((x, y) -> Long.compare(estimates.get(y), estimates.get(x)));
+      final ArrayList<Expression> out = new ArrayList<Expression>();
+      for(final Expression x : excludes)
+      {
+         if(!out.contains(x))
+         {
+            out.add(x);
+         }
+      }
+      return share(new ExpressionAndNot(in, out.toArray(new Expression[out.size()])), estimate);
+   }
+   
+   /**
+    * if an earlier command already calculated the intersection of all but one
+    * of these components (or of all of them, if something will be taken away
+    * from it), start from that, e.g. "a &amp; b &amp; c" after "a &amp; b"
+    * 
+    * @param in
+    *           sorted, smallest first
+    * @param whole
+    *           true to look for the intersection of all of them
+    */
+   private Expression[] reuseCached(final Expression[] in, final boolean whole)
+   {
+      if(whole && in.length > 1)
+      {
+         final Expression all = new ExpressionOperation(in.length, in);
+         if(isCached(all))
+         {
+            return new Expression[] { share(all, 0) };
+         }
+      }
+      for(int i = 0; in.length > 2 && i < in.length; i++)
+      {
+         final Expression[] rest = new Expression[in.length - 1];
+         System.arraycopy(in, 0, rest, 0, i);
+         System.arraycopy(in, i + 1, rest, i, rest.length - i);
+         final Expression and = new ExpressionOperation(rest.length, rest);
+         if(isCached(and))
+         {
+            final Expression[] r = new Expression[] { share(and, 0), in[i] };
+            Arrays.sort(r, (x, y) -> Long.compare(estimates.get(x), estimates.get(y)));
+            return r;
+         }
+      }
+      return in;
+   }
+   
+   private boolean isCached(final Expression e)
+   {
+      final String key = e.getCanonicalKey();
+      return key != null && cache.peek(key) != null;
+   }
+   
+   private Expression or(final Expression[] components)
+   {
+      final ArrayList<Expression> list = new ArrayList<Expression>();
+      final ArrayList<Expression> work = new ArrayList<Expression>(Arrays.asList(components));
+      while(!work.isEmpty())
+      {
+         final Expression x = work.remove(0);
+         if(x instanceof ExpressionOperation && ((ExpressionOperation) x).opCode == 1)
+         {
+            work.addAll(0, Arrays.asList(((ExpressionOperation) x).getComponents()));
+         }
+         else if(!list.contains(x))
+         {
+            list.add(x);
+         }
+      }
+      if(list.size() == 1)
+      {
+         return list.get(0);
+      }
+      long sum = 0;
+      for(final Expression x : list)
+      {
+         sum = add(sum, estimates.get(x));
+      }
+      return share(new ExpressionOperation(1, list.toArray(new Expression[list.size()])), sum);
+   }
+   
+   /**
+    * 
+    * @return the expression that was already planned with the same
+    *         {@link Expression#getCanonicalKey() canonical key} (if there is
+    *         one), otherwise this one
+    */
+   private Expression share(final Expression e, final long estimate)
+   {
+      final String key = e.getCanonicalKey();
+      if(key != null)
+      {
+         final Expression already = shared.get(key);
+         if(already != null)
+         {
+            return already;
+         }
+         shared.put(key, e);
+         final AscendingStack cached = cache == null ? null : cache.peek(key);
+         if(cached != null)
+         {
+            estimates.put(e, (long) cached.size()); // no need to estimate
+            return e;
+         }
+      }
+      estimates.put(e, estimate);
+      return e;
+   }
+   
+   private static long add(final long a, final long b)
+   {
+      return a > _UNKNOWN - b ? _UNKNOWN : a + b;
+   }
+   
+   private final Context context;
+   private final QueryCache cache;
+   
+   private final HashMap<String, Expression> shared = new HashMap<String, Expression>();
+   private final IdentityHashMap<Expression, Long> estimates = new IdentityHashMap<Expression, Long>();
+   
+   private static final long _UNKNOWN = Long.MAX_VALUE;
+   
+   /**
+    * the most matching words explain() lists for a wildcard
+    */
+   private static final int _EXPLAIN_TERMS = 20;
+}
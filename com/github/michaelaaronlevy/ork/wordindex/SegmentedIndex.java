@@ -0,0 +1,937 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * a word index that is made of segments, so that more PDFs can be added to it
+ * without indexing everything again.
+ * 
+ * <p>
+ * Each segment is a complete index with its own .orkx file (see
+ * {@link IndexContainer IndexContainer}) and its own page numbers. The .orks
+ * file lists the segments, one name per line, in the order of their pages:
+ * the first page of the second segment comes after the last page of the
+ * first segment, and so on. New PDFs are indexed into a new segment that is
+ * added to the end of the list (see {@link ModeIndex ModeIndex}). An index
+ * without a .orks file is one segment: its .orkx file.
+ * 
+ * <p>
+ * Segments are never changed. When there are enough small segments next to
+ * each other, they are merged into one bigger segment in the background (see
+ * {@link #mergeInBackground(File, String) mergeInBackground}): the new segment
+ * is written, the .orks file is replaced in one step (written to a temporary
+ * file, then moved over the old one), and the old segments are deleted. A
+ * SegmentedIndex that is already open keeps reading the segments it opened
+ * (they stay mapped even after the files are deleted), so a search always
+ * sees the index as it was when it was opened, with or without the merge.
+ * 
+ * <p>
+ * The merge policy: a segment is level 0 if its .orkx file is at most
+ * {@link #_MIN_BYTES _MIN_BYTES}, level 1 if it is at most
+ * {@link #_MERGE_FACTOR _MERGE_FACTOR} times that, level 2 if it is at most
+ * _MERGE_FACTOR times that, and so on. When _MERGE_FACTOR segments next to
+ * each other have the same level, they are merged. Only neighbors are merged,
+ * so the pages stay in order, and each page is copied about once per level.
+ * 
+ * <p>
+ * With more than one segment, the words of all of the segments are merged
+ * into one {@link TermDictionary TermDictionary} when the index is opened, so
+ * every word has one number. The list of pages of a word is the lists of the
+ * segments that have it, one after another.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class SegmentedIndex implements Closeable
+{
+   /**
+    * open every segment that the .orks file lists (or the .orkx file, if
+    * there is no .orks file)
+    * 
+    * @param directory
+    *           the directory of the index
+    * @param name
+    *           the name of the index files
+    * @throws IOException
+    */
+   public SegmentedIndex(final File directory, final String name) throws IOException
+   {
+      final String[] names;
+      synchronized(SegmentedIndex.class)
+      {
+         // a merge does not delete segments while they are being opened
+         names = readSegments(directory, name);
+         segments = new IndexContainer[names.length];
+         try
+         {
+            for(int i = 0; i < names.length; i++)
+            {
+               segments[i] = new IndexContainer(new File(directory, names[i] + IndexContainer._EXTENSION));
+            }
+         }
+         catch(final IOException iox)
+         {
+            close();
+            throw iox;
+         }
+      }
+      if(names.length == 0)
+      {
+         close();
+         throw new IOException("SegmentedIndex::new the index has no segments: " + name);
+      }
+      
+      offsets = new int[segments.length + 1];
+      boolean allPositions = true;
+      for(int i = 0; i < segments.length; i++)
+      {
+         offsets[i + 1] = offsets[i] + getPageCount(segments[i]);
+         allPositions &= segments[i].getPositions() != null;
+      }
+      hasPositions = allPositions;
+      
+      if(segments.length == 1)
+      {
+         dictionary = segments[0].getDictionary();
+         toGlobal = null;
+         return;
+      }
+      
+      final int[][] maps = new int[segments.length][];
+      if(hasPositions)
+      {
+         for(int i = 0; i < segments.length; i++)
+         {
+            maps[i] = new int[segments[i].getWordCount()];
+         }
+      }
+      final ByteArrayOutputStream b = new ByteArrayOutputStream();
+      final TermDictionary.Writer w = new TermDictionary.Writer(b);
+      final int[] count = new int[1];
+      mergeWords(getDictionaries(segments), (word, local) ->
+      {
+         w.add(word);
+         if(hasPositions)
+         {
+            for(int i = 0; i < local.length; i++)
+            {
+               if(local[i] >= 0)
+               {
+                  maps[i][local[i]] = count[0];
+               }
+            }
+         }
+         count[0]++;
+      });
+      w.close();
+      dictionary = new TermDictionary(ByteBuffer.wrap(b.toByteArray()));
+      toGlobal = hasPositions ? maps : null;
+   }
+   
+   /**
+    * 
+    * @return true if there is an index with this name (a .orks file, a .orkx
+    *         file, or an older index with only a .conw file)
+    */
+   public static boolean exists(final File directory, final String name)
+   {
+      return new File(directory, name + _EXTENSION).exists()
+            || new File(directory, name + IndexContainer._EXTENSION).exists()
+            || new File(directory, name + ".conw").exists();
+   }
+   
+   /**
+    * 
+    * @return true if the index has a .orks file or a .orkx file (an older
+    *         index must be opened the old way)
+    */
+   public static boolean canOpen(final File directory, final String name)
+   {
+      return new File(directory, name + _EXTENSION).exists()
+            || new File(directory, name + IndexContainer._EXTENSION).exists();
+   }
+   
+   /**
+    * the name is reserved until {@link #releaseSegmentName(File, String)
+    * releaseSegmentName} is called (whether or not the segment was written),
+    * so it is not given out again before the segment has any files (for
+    * example, to a merge that runs while the segment is being indexed)
+    * 
+    * @return a name for a new segment of the index that is not used by any
+    *         segment or any file in the directory, and that has not been
+    *         given out and not released yet
+    */
+   public static synchronized String newSegmentName(final File directory, final String name) throws IOException
+   {
+      final List<String> used = Arrays.asList(readSegments(directory, name));
+      final String[] files = directory.list();
+      for(int k = 2;; k++)
+      {
+         final String candidate = name + _SEGMENT + k;
+         boolean free = !used.contains(candidate)
+               && !_RESERVED.contains(new File(directory, candidate).getAbsolutePath());
+         for(int i = 0; free && files != null && i < files.length; i++)
+         {
+            free = !files[i].startsWith(candidate + ".");
+         }
+         if(free)
+         {
+            _RESERVED.add(new File(directory, candidate).getAbsolutePath());
+            return candidate;
+         }
+      }
+   }
+   
+   /**
+    * let {@link #newSegmentName(File, String) newSegmentName} give out this
+    * name again, once it is in the .orks file (or its files exist), or if
+    * the segment was not written after all
+    */
+   public static synchronized void releaseSegmentName(final File directory, final String segment)
+   {
+      _RESERVED.remove(new File(directory, segment).getAbsolutePath());
+   }
+   
+   /**
+    * add a segment to the end of the index. If the index is an older index
+    * with only the .conw and .coni files, its .orkx file is written first.
+    * 
+    * @param segment
+    *           the name of the new segment, which must already have its .orkx
+    *           file (see {@link #newSegmentName(File, String) newSegmentName})
+    * @throws IOException
+    */
+   public static synchronized void addSegment(final File directory, final String name, final String segment)
+         throws IOException
+   {
+      if(!new File(directory, segment + IndexContainer._EXTENSION).exists())
+      {
+         throw new IOException("SegmentedIndex::addSegment the segment has no .orkx file: " + segment);
+      }
+      final ArrayList<String> list = new ArrayList<String>();
+      if(new File(directory, name + _EXTENSION).exists())
+      {
+         list.addAll(Arrays.asList(readSegments(directory, name)));
+      }
+      else
+      {
+         if(!new File(directory, name + IndexContainer._EXTENSION).exists()
+               && new File(directory, name + ".conw").exists())
+         {
+            IndexContainer.write(directory, name);
+         }
+         if(new File(directory, name + IndexContainer._EXTENSION).exists())
+         {
+            list.add(name);
+         }
+      }
+      list.add(segment);
+      writeSegments(directory, name, list);
+   }
+   
+   /**
+    * forget the segments of an index that is being written again from
+    * scratch. The .orks file is deleted, and so are the files of every
+    * segment the index had (the ones in the .orks file, and any that were
+    * left behind, like the new segment of a merge that did not finish). The
+    * files with the name of the index itself are not deleted, because they
+    * are about to be written again.
+    * 
+    * @throws IOException
+    *            if the .orks file cannot be deleted
+    */
+   public static synchronized void deleteSegments(final File directory, final String name) throws IOException
+   {
+      final ArrayList<String> segments = new ArrayList<String>(Arrays.asList(readSegments(directory, name)));
+      final String[] files = directory.list();
+      for(int i = 0; files != null && i < files.length; i++)
+      {
+         final int dot = files[i].lastIndexOf('.');
+         final String segment = dot < 0 ? files[i] : files[i].substring(0, dot);
+         if(isSegmentOf(name, segment) && !segments.contains(segment))
+         {
+            segments.add(segment);
+         }
+      }
+      segments.remove(name);
+      
+      final File orks = new File(directory, name + _EXTENSION);
+      if(orks.exists() && !orks.delete())
+      {
+         throw new IOException("SegmentedIndex::deleteSegments unable to delete " + orks.getAbsolutePath());
+      }
+      // as with a merge, a segment that cannot be deleted (because it is
+      // mapped by an index that is open) is left behind
+      for(final String segment : segments)
+      {
+         for(final String extension : _SEGMENT_FILES)
+         {
+            new File(directory, segment + extension).delete();
+         }
+      }
+   }
+   
+   /**
+    * 
+    * @return true if the segment has a name that
+    *         {@link #newSegmentName(File, String) newSegmentName} gives to the
+    *         segments of the index
+    */
+   private static boolean isSegmentOf(final String name, final String segment)
+   {
+      final String prefix = name + _SEGMENT;
+      if(segment.length() == prefix.length() || !segment.startsWith(prefix))
+      {
+         return false;
+      }
+      for(int i = prefix.length(); i < segment.length(); i++)
+      {
+         if(!Character.isDigit(segment.charAt(i)))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * merge segments until the merge policy finds nothing more to merge, in a
+    * background thread. If the program ends during a merge, the index is
+    * unchanged (the .orks file is only replaced after the new segment is
+    * complete).
+    * 
+    * @return the thread
+    */
+   public static Thread mergeInBackground(final File directory, final String name)
+   {
+      final Thread t = new Thread(() ->
+      {
+         try
+         {
+            while(mergeOnce(directory, name))
+            {
+               // keep merging
+            }
+         }
+         catch(final IOException iox)
+         {
+            System.err.println("SegmentedIndex::mergeInBackground unable to merge " + name + ": " + iox.getMessage());
+         }
+      }, "merge " + name);
+      t.setDaemon(true);
+      t.start();
+      return t;
+   }
+   
+   /**
+    * merge the first segments that the merge policy picks
+    * 
+    * @return false if there was nothing to merge
+    * @throws IOException
+    */
+   public static boolean mergeOnce(final File directory, final String name) throws IOException
+   {
+      synchronized(_MERGE_LOCK)
+      {
+         // segments can be added while the merge runs, but only one merge
+         // runs at a time, so the segments being merged stay in the list
+         final String[] names;
+         synchronized(SegmentedIndex.class)
+         {
+            names = readSegments(directory, name);
+         }
+         final long[] sizes = new long[names.length];
+         for(int i = 0; i < names.length; i++)
+         {
+            sizes[i] = new File(directory, names[i] + IndexContainer._EXTENSION).length();
+         }
+         final int from = findMerge(sizes);
+         if(from < 0)
+         {
+            return false;
+         }
+         final String[] run = Arrays.copyOfRange(names, from, from + _MERGE_FACTOR);
+         final String merged = newSegmentName(directory, name);
+         try
+         {
+            merge(directory, run, merged);
+            
+            synchronized(SegmentedIndex.class)
+            {
+               final ArrayList<String> list = new ArrayList<String>(Arrays.asList(readSegments(directory, name)));
+               final int at = list.indexOf(run[0]);
+               if(at < 0 || at + run.length > list.size()
+                     || !list.subList(at, at + run.length).equals(Arrays.asList(run)))
+               {
+                  throw new IOException("SegmentedIndex::mergeOnce the segments changed during the merge");
+               }
+               list.subList(at, at + run.length).clear();
+               list.add(at, merged);
+               writeSegments(directory, name, list);
+               
+               // an index that is already open still has the old segments
+               // mapped; if a file cannot be deleted (on some systems, a
+               // mapped file cannot be), it is left behind and the name is
+               // not reused
+               for(final String segment : run)
+               {
+                  for(final String extension : _SEGMENT_FILES)
+                  {
+                     new File(directory, segment + extension).delete();
+                  }
+               }
+            }
+         }
+         finally
+         {
+            releaseSegmentName(directory, merged);
+         }
+         return true;
+      }
+   }
+   
+   /**
+    * 
+    * @return the first of the {@link #_MERGE_FACTOR _MERGE_FACTOR} segments
+    *         next to each other that have the same level, or -1
+    */
+   static int findMerge(final long[] sizes)
+   {
+      int run = 0;
+      for(int i = 0; i < sizes.length; i++)
+      {
+         run = i > 0 && getLevel(sizes[i]) == getLevel(sizes[i - 1]) ? run + 1 : 1;
+         if(run == _MERGE_FACTOR)
+         {
+            return i - _MERGE_FACTOR + 1;
+         }
+      }
+      return -1;
+   }
+   
+   private static int getLevel(final long bytes)
+   {
+      int level = 0;
+      for(long limit = _MIN_BYTES; bytes > limit; limit *= _MERGE_FACTOR)
+      {
+         level++;
+      }
+      return level;
+   }
+   
+   /**
+    * write one segment with the pages of the segments in the run, in order
+    * (and its .orkx file)
+    */
+   private static void merge(final File directory, final String[] run, final String merged) throws IOException
+   {
+      final IndexContainer[] parts = new IndexContainer[run.length];
+      try
+      {
+         for(int i = 0; i < run.length; i++)
+         {
+            parts[i] = new IndexContainer(new File(directory, run[i] + IndexContainer._EXTENSION));
+         }
+         final int[] offsets = new int[parts.length + 1];
+         final ArrayList<Integer> pagesPerFile = new ArrayList<Integer>();
+         final ArrayList<String> fileNames = new ArrayList<String>();
+         boolean allPositions = true;
+         for(int i = 0; i < parts.length; i++)
+         {
+            offsets[i + 1] = offsets[i] + getPageCount(parts[i]);
+            for(final int pages : parts[i].getPagesPerFile())
+            {
+               pagesPerFile.add(pages);
+            }
+            fileNames.addAll(Arrays.asList(parts[i].getFileNames()));
+            allPositions &= parts[i].getPositions() != null;
+         }
+         
+         final int[][] toMerged = new int[parts.length][];
+         if(allPositions)
+         {
+            for(int i = 0; i < parts.length; i++)
+            {
+               toMerged[i] = new int[parts[i].getWordCount()];
+            }
+         }
+         final IndexWriter writer = new IndexWriter(directory, merged,
+               pagesPerFile.stream().mapToInt(Integer::intValue).toArray(),
+               fileNames.toArray(new String[fileNames.size()]));
+         try
+         {
+            mergeWords(getDictionaries(parts), (word, local) ->
+            {
+               final int[][] lists = new int[local.length][];
+               int size = 0;
+               for(int i = 0; i < local.length; i++)
+               {
+                  if(local[i] >= 0)
+                  {
+                     lists[i] = parts[i].getPostings(local[i]).toArray();
+                     size += lists[i].length;
+                     if(toMerged[i] != null)
+                     {
+                        toMerged[i][local[i]] = writer.getWordCount();
+                     }
+                  }
+               }
+               final int[] pages = new int[size];
+               size = 0;
+               for(int i = 0; i < lists.length; i++)
+               {
+                  for(int j = 0; lists[i] != null && j < lists[i].length; j++)
+                  {
+                     pages[size++] = lists[i][j] + offsets[i];
+                  }
+               }
+               writer.add(word, pages, size);
+            });
+         }
+         finally
+         {
+            writer.close();
+         }
+         
+         if(allPositions)
+         {
+            PositionsFile.write(new File(directory, merged + ".conp"), offsets[parts.length],
+                  new PositionsFile.PageSource()
+                  {
+                     public int[] nextPage() throws IOException
+                     {
+                        while(page == offsets[part + 1])
+                        {
+                           part++;
+                        }
+                        page++;
+                        final int[] ids = parts[part].getPositions().getWordIds(page - offsets[part]);
+                        for(int i = 0; i < ids.length; i++)
+                        {
+                           ids[i] = toMerged[part][ids[i]];
+                        }
+                        return ids;
+                     }
+                     
+                     private int part = 0;
+                     private int page = 0;
+                  });
+         }
+         IndexContainer.pack(directory, merged);
+      }
+      finally
+      {
+         close(parts);
+      }
+   }
+   
+   /**
+    * 
+    * @return the number of pages in each PDF, for every segment, in order
+    */
+   public int[] getPagesPerFile()
+   {
+      final ArrayList<Integer> r = new ArrayList<Integer>();
+      for(final IndexContainer segment : segments)
+      {
+         for(final int pages : segment.getPagesPerFile())
+         {
+            r.add(pages);
+         }
+      }
+      return r.stream().mapToInt(Integer::intValue).toArray();
+   }
+   
+   /**
+    * 
+    * @return the PDF file names, for every segment, in order
+    */
+   public String[] getFileNames()
+   {
+      final ArrayList<String> r = new ArrayList<String>();
+      for(final IndexContainer segment : segments)
+      {
+         r.addAll(Arrays.asList(segment.getFileNames()));
+      }
+      return r.toArray(new String[r.size()]);
+   }
+   
+   /**
+    * 
+    * @return the words of every segment
+    */
+   public TermDictionary getDictionary()
+   {
+      return dictionary;
+   }
+   
+   public int getSegmentCount()
+   {
+      return segments.length;
+   }
+   
+   IndexContainer getSegment(final int segment)
+   {
+      return segments[segment];
+   }
+   
+   /**
+    * 
+    * @return for each segment, the number in the segment's dictionary of each
+    *         word in {@link #getDictionary() getDictionary} (-1 if the segment
+    *         does not have the word). It is worked out each time this is
+    *         called.
+    */
+   int[][] getLocalWordIds() throws IOException
+   {
+      final int[][] r = new int[segments.length][dictionary.size()];
+      final int[] count = new int[1];
+      mergeWords(getDictionaries(segments), (word, local) ->
+      {
+         for(int i = 0; i < local.length; i++)
+         {
+            r[i][count[0]] = local[i];
+         }
+         count[0]++;
+      });
+      return r;
+   }
+   
+   /**
+    * 
+    * @return true if every segment has the positions of the words (see
+    *         {@link #getWordIdsOnPage(int) getWordIdsOnPage})
+    */
+   public boolean hasPositions()
+   {
+      return hasPositions;
+   }
+   
+   /**
+    * 
+    * @return the number of pages before the first page of the segment
+    */
+   int getSegmentOffset(final int segment)
+   {
+      return offsets[segment];
+   }
+   
+   /**
+    * 
+    * @return the number of pages in every segment
+    */
+   public int getTotalPageCount()
+   {
+      return offsets[segments.length];
+   }
+   
+   /**
+    * 
+    * @return true if every segment has the term frequencies (see
+    *         {@link Bm25Ranker Bm25Ranker}). A new segment always has them,
+    *         but an older segment might not, and then the whole index cannot
+    *         be ranked.
+    */
+   public boolean hasFrequencies()
+   {
+      for(final IndexContainer segment : segments)
+      {
+         if(!segment.hasFrequencies())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * 
+    * @return the number of words on every page of every segment
+    */
+   public long getTotalLength()
+   {
+      long r = 0;
+      for(final IndexContainer segment : segments)
+      {
+         r += segment.getTotalLength();
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the number of pages the word with this number is on
+    */
+   public int getPageCount(final int word)
+   {
+      if(segments.length == 1)
+      {
+         return segments[0].getPageCount(word);
+      }
+      final String w = dictionary.get(word);
+      int r = 0;
+      for(final IndexContainer segment : segments)
+      {
+         final int local = segment.getDictionary().find(w);
+         if(local >= 0)
+         {
+            r += segment.getPageCount(local);
+         }
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the pages the word with this number is on
+    */
+   public int[] getPages(final int word)
+   {
+      if(segments.length == 1)
+      {
+         return segments[0].getPostings(word).toArray();
+      }
+      final String w = dictionary.get(word);
+      final int[][] lists = new int[segments.length][];
+      int size = 0;
+      for(int i = 0; i < segments.length; i++)
+      {
+         final int local = segments[i].getDictionary().find(w);
+         if(local >= 0)
+         {
+            lists[i] = segments[i].getPostings(local).toArray();
+            size += lists[i].length;
+         }
+      }
+      final int[] r = new int[size];
+      size = 0;
+      for(int i = 0; i < lists.length; i++)
+      {
+         for(int j = 0; lists[i] != null && j < lists[i].length; j++)
+         {
+            r[size++] = lists[i][j] + offsets[i];
+         }
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the words on the page (see {@link PositionsFile#getWordIds(int)
+    *         PositionsFile}), or null if any segment has no positions
+    * @throws IOException
+    */
+   public int[] getWordIdsOnPage(final int page) throws IOException
+   {
+      if(!hasPositions)
+      {
+         return null;
+      }
+      if(page < 1 || page > offsets[segments.length])
+      {
+         return new int[0];
+      }
+      int s = 0;
+      while(offsets[s + 1] < page)
+      {
+         s++;
+      }
+      final int[] ids = segments[s].getPositions().getWordIds(page - offsets[s]);
+      if(toGlobal != null)
+      {
+         for(int i = 0; i < ids.length; i++)
+         {
+            ids[i] = toGlobal[s][ids[i]];
+         }
+      }
+      return ids;
+   }
+   
+   public void close() throws IOException
+   {
+      close(segments);
+   }
+   
+   private static void close(final IndexContainer[] containers) throws IOException
+   {
+      for(final IndexContainer c : containers)
+      {
+         if(c != null && c.getPositions() != null)
+         {
+            c.getPositions().close();
+         }
+      }
+   }
+   
+   private static int getPageCount(final IndexContainer segment)
+   {
+      int r = 0;
+      for(final int pages : segment.getPagesPerFile())
+      {
+         r += pages;
+      }
+      return r;
+   }
+   
+   private static TermDictionary[] getDictionaries(final IndexContainer[] containers)
+   {
+      final TermDictionary[] r = new TermDictionary[containers.length];
+      for(int i = 0; i < r.length; i++)
+      {
+         r[i] = containers[i].getDictionary();
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the names of the segments in the .orks file (or just the name,
+    *         if there is no .orks file)
+    */
+   static String[] readSegments(final File directory, final String name) throws IOException
+   {
+      final File orks = new File(directory, name + _EXTENSION);
+      if(!orks.exists())
+      {
+         return new String[] { name };
+      }
+      final ArrayList<String> r = new ArrayList<String>();
+      for(final String line : Files.readAllLines(orks.toPath(), StandardCharsets.UTF_8))
+      {
+         if(!line.trim().isEmpty())
+         {
+            r.add(line.trim());
+         }
+      }
+      return r.toArray(new String[r.size()]);
+   }
+   
+   /**
+    * replace the .orks file in one step, so it is never read half written
+    */
+   private static void writeSegments(final File directory, final String name, final List<String> names)
+         throws IOException
+   {
+      final File orks = new File(directory, name + _EXTENSION);
+      final File temp = new File(directory, name + _EXTENSION + ".tmp");
+      Files.write(temp.toPath(), names, StandardCharsets.UTF_8);
+      try
+      {
+         Files.move(temp.toPath(), orks.toPath(), StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch(final AtomicMoveNotSupportedException amnse)
+      {
+         Files.move(temp.toPath(), orks.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+   
+   /**
+    * goes through the words of every dictionary in order, once each
+    */
+   private static void mergeWords(final TermDictionary[] dictionaries, final WordSink sink) throws IOException
+   {
+      final ArrayList<Iterator<String>> iterators = new ArrayList<Iterator<String>>();
+      final String[] heads = new String[dictionaries.length];
+      final int[] ids = new int[dictionaries.length];
+      final PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, dictionaries.length),
+            (a, b) -> heads[a].equals(heads[b]) ? a - b : heads[a].compareTo(heads[b]));
+      for(int i = 0; i < dictionaries.length; i++)
+      {
+         iterators.add(dictionaries[i].iterator());
+         if(iterators.get(i).hasNext())
+         {
+            heads[i] = iterators.get(i).next();
+            queue.add(i);
+         }
+      }
+      final int[] local = new int[dictionaries.length];
+      while(!queue.isEmpty())
+      {
+         Arrays.fill(local, -1);
+         final String word = heads[queue.peek()];
+         while(!queue.isEmpty() && heads[queue.peek()].equals(word))
+         {
+            final int i = queue.poll();
+            local[i] = ids[i]++;
+            if(iterators.get(i).hasNext())
+            {
+               heads[i] = iterators.get(i).next();
+               queue.add(i);
+            }
+         }
+         sink.add(word, local);
+      }
+   }
+   
+   /**
+    * gets each word, and its number in each dictionary (-1 if the dictionary
+    * does not have it). The array is reused for the next word.
+    */
+   private interface WordSink
+   {
+      void add(String word, int[] local) throws IOException;
+   }
+   
+   private final IndexContainer[] segments;
+   
+   /**
+    * where each segment's pages start (the first page of segment i is
+    * offsets[i] + 1), plus the number of pages
+    */
+   private final int[] offsets;
+   private final TermDictionary dictionary;
+   private final boolean hasPositions;
+   
+   /**
+    * for each segment, the number of each of its words in the merged
+    * dictionary (null if there is only one segment, or no positions)
+    */
+   private final int[][] toGlobal;
+   
+   public static final String _EXTENSION = ".orks";
+   
+   /**
+    * how many segments of the same level are merged into one
+    */
+   public static final int _MERGE_FACTOR = 4;
+   
+   /**
+    * the biggest .orkx file that is level 0 (see the merge policy above)
+    */
+   public static final long _MIN_BYTES = 1 << 20;
+   
+   /**
+    * new segments are named: the name of the index, this, and a number
+    */
+   private static final String _SEGMENT = "_s";
+   
+   /**
+    * the files of a segment that are deleted after it is merged (a .grid file
+    * is kept)
+    */
+   private static final String[] _SEGMENT_FILES = new String[] { IndexContainer._EXTENSION, ".conw", ".cond",
+         ".coni", ".conp", ".words", ".index" };
+   
+   private static final Object _MERGE_LOCK = new Object();
+   
+   /**
+    * the segment names (absolute paths) that were given out by
+    * {@link #newSegmentName(File, String) newSegmentName} and not released yet
+    */
+   private static final HashSet<String> _RESERVED = new HashSet<String>();
+}
@@ -0,0 +1,418 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * finds the words that are on more of the pages of a result than the rest of
+ * the index would lead you to expect: new words to search for. Each word is
+ * scored by JLH: (fg - bg) * fg / bg, where fg is the fraction of the result's
+ * pages that have the word and bg is the fraction of all of the pages that
+ * have it (the score is 0 if fg is not more than bg). A word scores high if it
+ * is much more common in the result than in the whole index (fg / bg), and if
+ * it is on a good part of the result (fg - bg). Words on fewer than
+ * _MIN_PAGES of the result's pages are left out.
+ * 
+ * <p>
+ * The result is kept as a bitmap of pages, with the number of result pages
+ * before every 64 pages, so the pages that a word shares with the result are
+ * counted without making a list of them: each block of 128 pages of the word
+ * (the blocks of {@link PostingsCodec PostingsCodec}) is skipped without
+ * decoding it if no page of the result is in between its first and last
+ * pages, and otherwise its pages are looked up in the bitmap. A word is not
+ * counted at all if it could not beat the words found so far even if all of
+ * its pages were in the result.
+ * 
+ * <p>
+ * The words are split into ranges that are counted at the same time. If the
+ * index has more than _MAX_WORDS words (and the positions of the words), only
+ * the words on a sample of the result's pages (up to _SAMPLE_PAGES of them,
+ * spread evenly) are counted. A word that is on a good part of the result is
+ * very unlikely to be missed.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public final class SignificantTerms
+{
+   public SignificantTerms(final SegmentedIndex index) throws IOException
+   {
+      this.index = index;
+      localIds = index.getSegmentCount() == 1 ? null : index.getLocalWordIds();
+   }
+   
+   /**
+    * 
+    * @param pages
+    *           the pages of the result, in ascending order
+    * @param size
+    *           the number of pages in the result
+    * @param k
+    *           the number of words wanted
+    * @param exclude
+    *           words to leave out (e.g., the words that were searched for),
+    *           or null
+    * @param threads
+    *           how many words to count at the same time
+    * @return the k words with the highest scores, highest first (fewer, if
+    *         fewer words are more common in the result than in the index)
+    * @throws IOException
+    */
+   public Term[] find(final int[] pages, final int size, final int k, final String[] exclude, final int threads)
+         throws IOException
+   {
+      final int pageCount = index.getTotalPageCount();
+      final long[] bits = new long[(pageCount >>> 6) + 1];
+      for(int i = 0; i < size; i++)
+      {
+         final int p = pages[i];
+         if(p >= 1 && p <= pageCount)
+         {
+            bits[p >>> 6] |= 1L << p;
+         }
+      }
+      final int[] rank = new int[bits.length + 1];
+      for(int w = 0; w < bits.length; w++)
+      {
+         rank[w + 1] = rank[w] + Long.bitCount(bits[w]);
+      }
+      final int resultSize = rank[bits.length];
+      if(resultSize == 0 || k <= 0)
+      {
+         return new Term[0];
+      }
+      
+      final int[] candidates = getCandidates(bits, resultSize, exclude);
+      final Counter counter = new Counter(bits, rank, resultSize, pageCount, Math.min(_MIN_PAGES, resultSize), k);
+      final int chunk = Math.max(_MIN_WORDS_PER_TASK, (candidates.length + 8 * threads - 1) / (8 * threads));
+      final PriorityQueue<Hit> best = new PriorityQueue<Hit>(k, _WORST_FIRST);
+      final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+      try
+      {
+         final ArrayList<Future<PriorityQueue<Hit>>> tasks = new ArrayList<Future<PriorityQueue<Hit>>>();
+         for(int first = 0; first < candidates.length; first += chunk)
+         {
+            final int from = first;
+            final int to = Math.min(candidates.length, first + chunk);
+            tasks.add(pool.submit(() -> counter.count(candidates, from, to)));
+         }
+         for(final Future<PriorityQueue<Hit>> f : tasks)
+         {
+            for(final Hit h : f.get())
+            {
+               offer(best, h, k);
+            }
+         }
+      }
+      catch(final InterruptedException iex)
+      {
+         throw new IOException("SignificantTerms interrupted", iex);
+      }
+      catch(final ExecutionException eex)
+      {
+         final Throwable cause = eex.getCause();
+         if(cause instanceof IOException)
+         {
+            throw (IOException) cause;
+         }
+         throw new RuntimeException(cause);
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+      
+      final Term[] r = new Term[best.size()];
+      for(int i = r.length - 1; i >= 0; i--)
+      {
+         final Hit h = best.poll();
+         r[i] = new Term(index.getDictionary().get(h.word), h.shared, h.pages, h.score);
+      }
+      return r;
+   }
+   
+   /**
+    * 
+    * @return the numbers of the words to count: every word, or the words on a
+    *         sample of the pages of the result (see the class description),
+    *         apart from the excluded words
+    */
+   private int[] getCandidates(final long[] bits, final int resultSize, final String[] exclude) throws IOException
+   {
+      final int words = index.getDictionary().size();
+      final boolean[] use = new boolean[words];
+      if(words <= _MAX_WORDS || !index.hasPositions())
+      {
+         Arrays.fill(use, true);
+      }
+      else
+      {
+         // every step-th page of the result
+         final double step = Math.max(1.0, (double) resultSize / _SAMPLE_PAGES);
+         double next = 0;
+         int seen = 0;
+         for(int w = 0; w < bits.length; w++)
+         {
+            for(long word = bits[w]; word != 0; word &= word - 1)
+            {
+               if(seen++ >= next)
+               {
+                  next += step;
+                  for(final int id : index.getWordIdsOnPage((w << 6) + Long.numberOfTrailingZeros(word)))
+                  {
+                     use[id] = true;
+                  }
+               }
+            }
+         }
+      }
+      for(int i = 0; exclude != null && i < exclude.length; i++)
+      {
+         final int id = index.getDictionary().find(exclude[i]);
+         if(id >= 0)
+         {
+            use[id] = false;
+         }
+      }
+      int n = 0;
+      final int[] r = new int[words];
+      for(int i = 0; i < words; i++)
+      {
+         if(use[i])
+         {
+            r[n++] = i;
+         }
+      }
+      return Arrays.copyOf(r, n);
+   }
+   
+   /**
+    * 
+    * @param shared
+    *           the number of pages of the result that have the word
+    * @param resultSize
+    *           the number of pages in the result
+    * @param pages
+    *           the number of pages that have the word
+    * @param pageCount
+    *           the number of pages in the index
+    * @return the JLH score (see the class description)
+    */
+   public static double getScore(final int shared, final int resultSize, final int pages, final int pageCount)
+   {
+      final double fg = (double) shared / resultSize;
+      final double bg = (double) pages / pageCount;
+      return fg <= bg ? 0 : (fg - bg) * fg / bg;
+   }
+   
+   /**
+    * keep the best k hits
+    */
+   private static void offer(final PriorityQueue<Hit> best, final Hit h, final int k)
+   {
+      if(best.size() < k)
+      {
+         best.add(h);
+      }
+      else if(_WORST_FIRST.compare(h, best.peek()) > 0)
+      {
+         best.poll();
+         best.add(h);
+      }
+   }
+   
+   /**
+    * a word, with how many of the result's pages have it, how many pages in
+    * all have it, and its score
+    */
+   public static final class Term
+   {
+      Term(final String word, final int shared, final int pages, final double score)
+      {
+         this.word = word;
+         this.shared = shared;
+         this.pages = pages;
+         this.score = score;
+      }
+      
+      public final String word;
+      public final int shared;
+      public final int pages;
+      public final double score;
+   }
+   
+   /**
+    * counts a range of the words, for one call to find (each task keeps its
+    * own best k)
+    */
+   private final class Counter
+   {
+      Counter(final long[] bits, final int[] rank, final int resultSize, final int pageCount, final int minPages,
+            final int k)
+      {
+         this.bits = bits;
+         this.rank = rank;
+         this.resultSize = resultSize;
+         this.pageCount = pageCount;
+         this.minPages = minPages;
+         this.k = k;
+      }
+      
+      PriorityQueue<Hit> count(final int[] candidates, final int from, final int to)
+      {
+         final PriorityQueue<Hit> best = new PriorityQueue<Hit>(k, _WORST_FIRST);
+         final int[] buffer = new int[PostingsCodec._BLOCK_SIZE];
+         final PostingsCodec.Decoder[] postings = new PostingsCodec.Decoder[index.getSegmentCount()];
+         for(int c = from; c < to; c++)
+         {
+            final int word = candidates[c];
+            // the number of pages is stored next to the list, so most words
+            // are ruled out without opening their lists
+            int pages = 0;
+            for(int s = 0; s < postings.length; s++)
+            {
+               final int local = localIds == null ? word : localIds[s][word];
+               pages += local < 0 ? 0 : index.getSegment(s).getPageCount(local);
+            }
+            if(pages < minPages || (best.size() == k
+                  && getScore(Math.min(pages, resultSize), resultSize, pages, pageCount) < best.peek().score))
+            {
+               continue; // it cannot be one of the best
+            }
+            
+            int shared = 0;
+            for(int s = 0; s < postings.length; s++)
+            {
+               final int local = localIds == null ? word : localIds[s][word];
+               postings[s] = local < 0 ? null : index.getSegment(s).getPostings(local);
+               if(postings[s] != null)
+               {
+                  shared += countShared(postings[s], index.getSegmentOffset(s), buffer);
+               }
+            }
+            final double score = getScore(shared, resultSize, pages, pageCount);
+            if(shared >= minPages && score > 0)
+            {
+               offer(best, new Hit(word, shared, pages, score), k);
+            }
+         }
+         return best;
+      }
+      
+      /**
+       * 
+       * @return how many of the pages are in the result
+       */
+      private int countShared(final PostingsCodec.Decoder postings, final int offset, final int[] buffer)
+      {
+         int shared = 0;
+         for(int b = 0; b < postings.getBlockCount(); b++)
+         {
+            final int first = offset + (b == 0 ? 1 : postings.getLastPage(b - 1) + 1);
+            final int last = offset + postings.getLastPage(b);
+            if(getResultPagesBefore(last + 1) == getResultPagesBefore(first))
+            {
+               continue; // no page of the result is in this block
+            }
+            final int n = postings.decodeBlock(b, buffer, 0);
+            for(int i = 0; i < n; i++)
+            {
+               final int p = buffer[i] + offset;
+               shared += (int) (bits[p >>> 6] >>> p) & 1;
+            }
+         }
+         return shared;
+      }
+      
+      /**
+       * 
+       * @return the number of pages of the result that are before this page
+       */
+      private int getResultPagesBefore(final int page)
+      {
+         final int w = page >>> 6;
+         if(w >= bits.length)
+         {
+            return rank[bits.length];
+         }
+         return rank[w] + Long.bitCount(bits[w] & ((1L << page) - 1));
+      }
+      
+      /**
+       * bit p is set if page p is in the result
+       */
+      private final long[] bits;
+      
+      /**
+       * rank[w] is the number of pages of the result before page 64 * w
+       */
+      private final int[] rank;
+      private final int resultSize;
+      private final int pageCount;
+      private final int minPages;
+      private final int k;
+   }
+   
+   private static final class Hit
+   {
+      Hit(final int word, final int shared, final int pages, final double score)
+      {
+         this.word = word;
+         this.shared = shared;
+         this.pages = pages;
+         this.score = score;
+      }
+      
+      final int word;
+      final int shared;
+      final int pages;
+      final double score;
+   }
+   
+   private final SegmentedIndex index;
+   
+   /**
+    * for each segment, the number of each word in the segment's dictionary
+    * (null if there is only one segment)
+    */
+   private final int[][] localIds;
+   
+   /**
+    * the number of words significantTerms() finds if it is not given a number
+    */
+   public static final int _DEFAULT_K = 20;
+   
+   /**
+    * words on fewer of the result's pages are left out (unless the result has
+    * fewer pages)
+    */
+   public static final int _MIN_PAGES = 3;
+   
+   /**
+    * if the index has more words, only the words on a sample of the result's
+    * pages are counted
+    */
+   public static final int _MAX_WORDS = 250000;
+   
+   /**
+    * the most pages of the result that are looked at to pick the words to
+    * count
+    */
+   public static final int _SAMPLE_PAGES = 2000;
+   
+   private static final int _MIN_WORDS_PER_TASK = 256;
+   
+   /**
+    * the worst hit is the lowest score, and of two words with the same score,
+    * the later word
+    */
+   private static final Comparator<Hit> _WORST_FIRST = (x, y) -> x.score != y.score ? Double.compare(x.score, y.score)
+         : Integer.compare(y.word, x.word);
+}
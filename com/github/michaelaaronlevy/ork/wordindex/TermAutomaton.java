@@ -0,0 +1,47 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+/**
+ * a deterministic automaton that accepts some words, used by
+ * {@link TermDictionary#match(TermAutomaton) TermDictionary.match} to find
+ * every word in the index that it accepts. The dictionary feeds it one
+ * character at a time and skips every word that starts with a prefix the
+ * automaton has rejected.
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public interface TermAutomaton
+{
+   /**
+    * 
+    * @return the state before any characters are read
+    */
+   int start();
+   
+   /**
+    * 
+    * @param state
+    *           a state returned by {@link #start() start} or step (never -1)
+    * @param c
+    *           the next character of the word
+    * @return the next state, or -1 if no word that starts this way can be
+    *         accepted
+    */
+   int step(int state, char c);
+   
+   /**
+    * 
+    * @return true if a word that ends in this state is accepted
+    */
+   boolean isAccept(int state);
+   
+   /**
+    * 
+    * @return a prefix that every accepted word starts with (so only that part
+    *         of the dictionary has to be looked at)
+    */
+   default String getPrefix()
+   {
+      return "";
+   }
+}
@@ -0,0 +1,664 @@
+package com.github.michaelaaronlevy.ork.wordindex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.github.michaelaaronlevy.ork.util.Grid;
+
+/**
+ * the sorted list of the words in the index. Each word is known by its number
+ * in the list (the same number it has in the .conw and .coni files).
+ * 
+ * <p>
+ * Besides looking up one word, it can find the range of words that start with
+ * a prefix, and every word that a {@link TermAutomaton TermAutomaton} accepts
+ * (for wildcard, regex and fuzzy queries, see {@link ExpressionTerms
+ * ExpressionTerms}). Because the words are sorted, neighboring words share
+ * prefixes: the automaton states for the shared prefix are reused, and once
+ * the automaton rejects a prefix, all of the words that start with it are
+ * skipped (whole blocks at a time, with a galloping search over the first
+ * words of the blocks).
+ * 
+ * <p>
+ * The words are front coded: they are stored in blocks of
+ * {@link #_BLOCK_SIZE _BLOCK_SIZE} words, the first word of each block in
+ * full and every other word as the number of characters it shares with the
+ * word before it plus the rest of its characters. There are no objects for
+ * the words (only for the ones that are asked for), and the .cond file is
+ * memory mapped, so even a large index does not have to be read before the
+ * first query. A lookup is a binary search over the first words of the
+ * blocks, then a scan of one block.
+ * 
+ * <p>
+ * The .cond file is: a 'd', the blocks, where each block starts (one int for
+ * each block, plus one for the end of the last block), the number of words
+ * (int), and where that table starts (long). Each word is the number of
+ * characters it shares with the word before it, the number of characters
+ * after that, and those characters, all written as varints (like the
+ * {@link PositionsFile .conp file}).
+ * 
+ * @author michaelaaronlevy@gmail.com
+ * 
+ */
+public class TermDictionary implements Iterable<String>
+{
+   /**
+    * 
+    * @param words
+    *           sorted (String.compareTo), no duplicates. They are front coded
+    *           into memory, so the array can be thrown away afterwards.
+    */
+   public TermDictionary(final String[] words)
+   {
+      this(encode(words));
+   }
+   
+   /**
+    * 
+    * @param data
+    *           the bytes of a .cond file (see {@link Writer Writer})
+    */
+   TermDictionary(final ByteBuffer data)
+   {
+      if(data.capacity() < _TRAILER_BYTES + 1 || data.get(0) != _FORMAT)
+      {
+         throw new RuntimeException("Error - not a .cond file");
+      }
+      this.data = data;
+      size = data.getInt(data.capacity() - 12);
+      table = (int) data.getLong(data.capacity() - 8);
+      blocks = (size + _BLOCK_SIZE - 1) / _BLOCK_SIZE;
+   }
+   
+   /**
+    * memory map a .cond file (written by a {@link Writer Writer})
+    */
+   public static TermDictionary open(final File cond) throws IOException
+   {
+      final FileChannel channel = FileChannel.open(cond.toPath(), StandardOpenOption.READ);
+      try
+      {
+         // the mapping stays valid after the channel is closed
+         return new TermDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+      finally
+      {
+         channel.close();
+      }
+   }
+   
+   private static ByteBuffer encode(final String[] words)
+   {
+      final ByteArrayOutputStream b = new ByteArrayOutputStream();
+      try
+      {
+         final Writer w = new Writer(b);
+         for(final String word : words)
+         {
+            w.add(word);
+         }
+         w.close();
+      }
+      catch(final IOException iox)
+      {
+         throw new RuntimeException(iox); // not possible in memory
+      }
+      return ByteBuffer.wrap(b.toByteArray());
+   }
+   
+   /**
+    * writes a .cond file (or the same bytes to memory), one word at a time.
+    * The words must be given in ascending order, without duplicates.
+    */
+   public static class Writer implements Closeable
+   {
+      public Writer(final OutputStream out) throws IOException
+      {
+         this.out = out;
+         out.write(_FORMAT);
+      }
+      
+      public void add(final String word) throws IOException
+      {
+         if(count > 0 && previous.compareTo(word) >= 0)
+         {
+            throw new IllegalArgumentException("ERROR: the words are not in order: " + previous + ", " + word);
+         }
+         int shared = 0;
+         if(count % _BLOCK_SIZE == 0)
+         {
+            if(count / _BLOCK_SIZE == starts.length)
+            {
+               starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[count / _BLOCK_SIZE] = position;
+         }
+         else
+         {
+            final int max = Math.min(previous.length(), word.length());
+            while(shared < max && previous.charAt(shared) == word.charAt(shared))
+            {
+               shared++;
+            }
+         }
+         position += writeVarint(out, shared);
+         position += writeVarint(out, word.length() - shared);
+         for(int i = shared; i < word.length(); i++)
+         {
+            position += writeVarint(out, word.charAt(i));
+         }
+         previous = word;
+         count++;
+      }
+      
+      public void close() throws IOException
+      {
+         if(closed)
+         {
+            return;
+         }
+         closed = true;
+         final int blocks = (count + _BLOCK_SIZE - 1) / _BLOCK_SIZE;
+         for(int i = 0; i < blocks; i++)
+         {
+            Grid.writeInt(out, starts[i]);
+         }
+         Grid.writeInt(out, position);
+         Grid.writeInt(out, count);
+         Grid.writeLong(out, position);
+         out.close();
+      }
+      
+      private final OutputStream out;
+      private int[] starts = new int[64];
+      private int position = 1;
+      private int count = 0;
+      private String previous = "";
+      private boolean closed = false;
+   }
+   
+   /**
+    * 
+    * @return the number of words
+    */
+   public int size()
+   {
+      return size;
+   }
+   
+   /**
+    * 
+    * @return the word with this number
+    */
+   public String get(final int index)
+   {
+      if(index < 0 || index >= size)
+      {
+         throw new IndexOutOfBoundsException("TermDictionary::get " + index + " of " + size);
+      }
+      final Cursor c = new Cursor();
+      c.seek(index / _BLOCK_SIZE);
+      for(int i = index % _BLOCK_SIZE; i >= 0; i--)
+      {
+         c.next();
+      }
+      return c.toString();
+   }
+   
+   /**
+    * 
+    * @return the words in order (reading them one after another is faster
+    *         than calling {@link #get(int) get} for each number)
+    */
+   public Iterator<String> iterator()
+   {
+      final Cursor c = new Cursor();
+      c.seek(0);
+      return new Iterator<String>()
+      {
+         public boolean hasNext()
+         {
+            return c.index + 1 < size;
+         }
+         
+         public String next()
+         {
+            if(!hasNext())
+            {
+               throw new NoSuchElementException();
+            }
+            c.next();
+            return c.toString();
+         }
+      };
+   }
+   
+   /**
+    * 
+    * @return the number of the word, or -1 if it is not in the dictionary
+    */
+   public int find(final String word)
+   {
+      final Cursor c = new Cursor();
+      final int index = search(word, false, c);
+      return index < size && c.compareTo(word, false) == 0 ? index : -1;
+   }
+   
+   /**
+    * 
+    * @return the number of the first word that is not before this one (the
+    *         size of the dictionary, if every word is before it)
+    */
+   public int lowerBound(final String word)
+   {
+      return search(word, false, new Cursor());
+   }
+   
+   /**
+    * 
+    * @return {from, to}: the words from "from" up to (but not including) "to"
+    *         are the words that start with the prefix
+    */
+   public int[] prefixRange(final String prefix)
+   {
+      return new int[] { search(prefix, false, new Cursor()), search(prefix, true, new Cursor()) };
+   }
+   
+   /**
+    * 
+    * @param prefixEnd
+    *           if true, find the first word that comes after every word that
+    *           starts with the key; if false, the first word that is not
+    *           before the key
+    * @param c
+    *           left on the word that was found (unless it is the size of the
+    *           dictionary)
+    * @return the number of the word
+    */
+   private int search(final String key, final boolean prefixEnd, final Cursor c)
+   {
+      // the first block whose first word is past the key
+      int lo = 0;
+      int hi = blocks;
+      while(lo < hi)
+      {
+         final int mid = (lo + hi) >>> 1;
+         if(isPast(compareHead(mid, key, prefixEnd), prefixEnd))
+         {
+            hi = mid;
+         }
+         else
+         {
+            lo = mid + 1;
+         }
+      }
+      if(lo == 0)
+      {
+         if(size > 0)
+         {
+            c.seek(0);
+            c.next();
+         }
+         return 0;
+      }
+      // the word is in the block before that one, or it is the first word of
+      // that block (the blocks are one after the other, so the cursor can
+      // read on into it)
+      c.seek(lo - 1);
+      final int end = Math.min(lo * _BLOCK_SIZE, size);
+      for(int i = (lo - 1) * _BLOCK_SIZE; i < end; i++)
+      {
+         c.next();
+         if(isPast(c.compareTo(key, prefixEnd), prefixEnd))
+         {
+            return i;
+         }
+      }
+      if(end < size)
+      {
+         c.next();
+      }
+      return end;
+   }
+   
+   private static boolean isPast(final int comparison, final boolean prefixEnd)
+   {
+      return prefixEnd ? comparison > 0 : comparison >= 0;
+   }
+   
+   /**
+    * compare the first word of a block to the key, without decoding the word
+    * 
+    * @param truncate
+    *           if true, a word that starts with the key counts as equal to it
+    */
+   private int compareHead(final int block, final String key, final boolean truncate)
+   {
+      int p = skipVarint(data.getInt(table + 4 * block)); // shares nothing
+      final int length = readVarint(p);
+      p = skipVarint(p);
+      final int max = Math.min(length, key.length());
+      for(int i = 0; i < max; i++)
+      {
+         final int c = readVarint(p);
+         if(c != key.charAt(i))
+         {
+            return c - key.charAt(i);
+         }
+         p = skipVarint(p);
+      }
+      return truncate && length >= key.length() ? 0 : length - key.length();
+   }
+   
+   /**
+    * 
+    * @return true if the first word of the block starts with these characters
+    */
+   private boolean headStartsWith(final int block, final char[] prefix, final int length)
+   {
+      int p = skipVarint(data.getInt(table + 4 * block));
+      if(readVarint(p) < length)
+      {
+         return false;
+      }
+      p = skipVarint(p);
+      for(int i = 0; i < length; i++)
+      {
+         if(readVarint(p) != prefix[i])
+         {
+            return false;
+         }
+         p = skipVarint(p);
+      }
+      return true;
+   }
+   
+   /**
+    * 
+    * @return the numbers of every word the automaton accepts, in order
+    */
+   public int[] match(final TermAutomaton a)
+   {
+      final String prefix = a.getPrefix();
+      final Cursor c = new Cursor();
+      int i = search(prefix, false, c);
+      final int end = search(prefix, true, new Cursor());
+      
+      int[] r = new int[16];
+      int count = 0;
+      
+      // states[k] is the state after reading the first k characters of the
+      // previous word; states 0...valid are still good
+      int[] states = new int[32];
+      states[0] = a.start();
+      int valid = 0;
+      while(i < end)
+      {
+         int d = Math.min(valid, c.same);
+         int state = states[d];
+         while(d < c.length && state >= 0)
+         {
+            state = a.step(state, c.chars[d++]);
+            if(d == states.length)
+            {
+               states = Arrays.copyOf(states, states.length * 2);
+            }
+            states[d] = state;
+         }
+         if(state < 0)
+         {
+            // nothing that starts with these d characters can match
+            valid = d - 1;
+            i = skip(c, d);
+            continue;
+         }
+         valid = d;
+         if(a.isAccept(state))
+         {
+            if(count == r.length)
+            {
+               r = Arrays.copyOf(r, count * 2);
+            }
+            r[count++] = i;
+         }
+         if(++i < size)
+         {
+            c.next();
+         }
+      }
+      return Arrays.copyOf(r, count);
+   }
+   
+   /**
+    * move the cursor past every word that starts with the first "length"
+    * characters of the word it is on
+    * 
+    * @return the number of the word the cursor is on now (or the size of the
+    *         dictionary)
+    */
+   private int skip(final Cursor c, final int length)
+   {
+      while(c.index + 1 < size)
+      {
+         final int next = c.index + 1;
+         if(next % _BLOCK_SIZE != 0)
+         {
+            // a word that shares at least "length" characters with the word
+            // before it starts with the prefix too, so it is not decoded
+            if(readVarint(c.position) >= length)
+            {
+               c.pass();
+               continue;
+            }
+            c.next();
+            return c.index;
+         }
+         final int block = next / _BLOCK_SIZE;
+         if(!headStartsWith(block, c.chars, length))
+         {
+            c.next();
+            return c.index;
+         }
+         // gallop to the first block that does not start with the prefix; the
+         // prefix ends in the block before it
+         int lo = block + 1;
+         int hi = block + 1;
+         int step = 1;
+         while(hi < blocks && headStartsWith(hi, c.chars, length))
+         {
+            lo = hi + 1;
+            hi = block + 1 + step;
+            step <<= 1;
+         }
+         hi = Math.min(hi, blocks);
+         while(lo < hi)
+         {
+            final int mid = (lo + hi) >>> 1;
+            if(headStartsWith(mid, c.chars, length))
+            {
+               lo = mid + 1;
+            }
+            else
+            {
+               hi = mid;
+            }
+         }
+         c.seek(lo - 1);
+         c.next();
+      }
+      return size;
+   }
+   
+   /**
+    * reads the words of a block one after the other into a char array
+    */
+   private final class Cursor
+   {
+      /**
+       * the next word will be the first word of the block
+       */
+      void seek(final int block)
+      {
+         index = block * _BLOCK_SIZE - 1;
+         position = data.getInt(table + 4 * block);
+      }
+      
+      void next()
+      {
+         final int shared = readVarint(position);
+         position = skipVarint(position);
+         final int rest = readVarint(position);
+         position = skipVarint(position);
+         final int newLength = shared + rest;
+         if(newLength > chars.length)
+         {
+            chars = Arrays.copyOf(chars, Math.max(newLength, chars.length * 2));
+         }
+         same = Math.min(shared, length);
+         boolean matching = same == shared;
+         for(int i = shared; i < newLength; i++)
+         {
+            final char ch = (char) readVarint(position);
+            position = skipVarint(position);
+            if(matching && i < length && chars[i] == ch)
+            {
+               same++;
+            }
+            else
+            {
+               matching = false;
+            }
+            chars[i] = ch;
+         }
+         length = newLength;
+         index++;
+      }
+      
+      /**
+       * go to the next word without reading its characters (so the word in
+       * the array is still the one before it)
+       */
+      void pass()
+      {
+         position = skipVarint(position);
+         int rest = readVarint(position);
+         position = skipVarint(position);
+         while(rest-- > 0)
+         {
+            position = skipVarint(position);
+         }
+         index++;
+      }
+      
+      /**
+       * 
+       * @param truncate
+       *           if true, a word that starts with the key counts as equal to
+       *           it
+       */
+      int compareTo(final String key, final boolean truncate)
+      {
+         final int max = Math.min(length, key.length());
+         for(int i = 0; i < max; i++)
+         {
+            if(chars[i] != key.charAt(i))
+            {
+               return chars[i] - key.charAt(i);
+            }
+         }
+         return truncate && length >= key.length() ? 0 : length - key.length();
+      }
+      
+      public String toString()
+      {
+         return new String(chars, 0, length);
+      }
+      
+      char[] chars = new char[32];
+      int length = 0;
+      
+      /**
+       * how many characters at the start of this word are the same as the
+       * word that was read before it
+       */
+      int same = 0;
+      int index = -1;
+      int position;
+   }
+   
+   /**
+    * 
+    * @return the number of bytes written
+    */
+   private static int writeVarint(final OutputStream out, int value) throws IOException
+   {
+      int n = 1;
+      while((value & ~0x7f) != 0)
+      {
+         out.write((value & 0x7f) | 0x80);
+         value >>>= 7;
+         n++;
+      }
+      out.write(value);
+      return n;
+   }
+   
+   private int readVarint(int p)
+   {
+      int value = 0;
+      for(int shift = 0;; shift += 7)
+      {
+         final byte x = data.get(p++);
+         value |= (x & 0x7f) << shift;
+         if(x >= 0)
+         {
+            return value;
+         }
+      }
+   }
+   
+   private int skipVarint(int p)
+   {
+      while(data.get(p++) < 0)
+      {
+         // the high bit is set on every byte but the last
+      }
+      return p;
+   }
+   
+   /**
+    * only absolute gets are used, so the buffer can be shared by threads
+    */
+   private final ByteBuffer data;
+   private final int size;
+   private final int blocks;
+   
+   /**
+    * where the table of block starts is
+    */
+   private final int table;
+   
+   /**
+    * the number of words in each block
+    */
+   public static final int _BLOCK_SIZE = 32;
+   
+   /**
+    * the first byte of a .cond file
+    */
+   public static final int _FORMAT = 'd';
+   
+   /**
+    * the end of the last block, the number of words and the table start
+    */
+   private static final int _TRAILER_BYTES = 16;
+}